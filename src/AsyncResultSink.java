@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ResultSink} that writes results to another sink in a background thread, so that queries do not wait for the disk.
+ *
+ * <p>Rows are collected into batches, and the batches are handed to the writer thread through a bounded queue.
+ * When the writer falls behind and the queue is full, {@link #write(Output)} blocks until there is space,
+ * which bounds the memory held by pending results.</p>
+ *
+ * <p>Errors of the writer thread are thrown by the next call to this sink, and by {@link #close()}.</p>
+ */
+public class AsyncResultSink implements ResultSink {
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    /**
+     * A unit of work for the writer thread. Exactly one of the fields is set, except for {@link #END}.
+     */
+    private record Task(List<Output> rows, ColumnBatch batch, boolean flush) {}
+
+    private static final Task END = new Task(null, null, false);
+    private static final Task FLUSH = new Task(null, null, true);
+
+    private final ResultSink sink;
+    private final int batchSize;
+    private final BlockingQueue<Task> queue;
+    private final Thread writer;
+    private List<Output> pending;
+    private volatile Throwable error;
+    private boolean closed = false;
+
+    /**
+     * @param sink the sink to write to, closed together with this sink
+     */
+    public AsyncResultSink(ResultSink sink) {
+        this(sink, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param sink the sink to write to, closed together with this sink
+     * @param batchSize the number of rows handed to the writer thread at once
+     * @param queueCapacity the number of batches that can be pending before writes block
+     */
+    public AsyncResultSink(ResultSink sink, int batchSize, int queueCapacity) {
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.pending = new ArrayList<>(batchSize);
+        this.writer = new Thread(this::runWriter, "async-result-sink");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void write(Output row) throws IOException {
+        checkState();
+        pending.add(row);
+        if (pending.size() >= batchSize) {
+            submitPending();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The batch must not be modified after it is written.
+     */
+    @Override
+    public void write(ColumnBatch batch) throws IOException {
+        checkState();
+        submitPending(); //keep the order of rows
+        put(new Task(null, batch, false));
+    }
+
+    /**
+     * Hands all pending rows to the writer thread and asks it to flush the sink.
+     * Does not wait for the rows to be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        checkState();
+        submitPending();
+        put(FLUSH);
+    }
+
+    /**
+     * Waits for all rows to be written, then closes the sink.
+     * @throws IOException if the writer thread failed to write a row, or the sink failed to close
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) { return; }
+        try {
+            if (error == null) {
+                submitPending();
+            }
+            put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writer.interrupt();
+            throw new IOException("Interrupted while waiting for results to be written.", e);
+        } finally {
+            closed = true;
+        }
+        rethrowError();
+    }
+
+    private void runWriter() {
+        try (ResultSink sink = this.sink) {
+            while (true) {
+                Task task = queue.take();
+                if (task == END) { break; }
+                if (task.rows() != null) { sink.writeAll(task.rows()); }
+                else if (task.batch() != null) { sink.write(task.batch()); }
+                else { sink.flush(); }
+            }
+        } catch (Throwable e) {
+            error = e; //the thread stops, and put() notices it instead of blocking forever
+        }
+    }
+
+    private void submitPending() throws IOException {
+        if (pending.isEmpty()) { return; }
+        put(new Task(pending, null, false));
+        pending = new ArrayList<>(batchSize);
+    }
+
+    /**
+     * Adds the task to the queue, blocking while the queue is full.
+     */
+    private void put(Task task) throws IOException {
+        try {
+            while (!queue.offer(task, 100, TimeUnit.MILLISECONDS)) {
+                if (!writer.isAlive()) {
+                    rethrowError();
+                    throw new IOException("The writer thread has stopped.");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the writer thread.", e);
+        }
+    }
+
+    private void checkState() throws IOException {
+        if (closed) { throw new IOException("The sink is closed."); }
+        rethrowError();
+    }
+
+    private void rethrowError() throws IOException {
+        Throwable e = error;
+        if (e == null) { return; }
+        if (e instanceof IOException) { throw (IOException) e; }
+        throw new IOException("Failed to write results.", e);
+    }
+}
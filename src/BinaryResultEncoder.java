@@ -0,0 +1,112 @@
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Encodes results in a compact binary format, as a sequence of tagged records after a header.
+ *
+ * <p>The header is {@link #MAGIC} followed by {@link #VERSION}. The records are:</p>
+ * <ul>
+ *     <li>{@link #TAG_STRING}: short code, short length, UTF-8 bytes. Defines a string code, written before the first row using it.</li>
+ *     <li>{@link #TAG_OUTPUT}: int epoch day, byte type, float value, short station code.</li>
+ *     <li>{@link #TAG_BATCH_ROW}: the values of the columns of the batch in order, as int, float, long epoch second (UTC)
+ *     or short string code according to the data type of the column. Null strings have the code -1.</li>
+ * </ul>
+ * String codes are only valid within a file, so an encoder must only be used for a single file.
+ */
+public class BinaryResultEncoder implements ResultEncoder {
+    public static final int MAGIC = 0x435A5231; // "CZR1"
+    public static final short VERSION = 1;
+
+    public static final byte TAG_STRING = 0;
+    public static final byte TAG_OUTPUT = 1;
+    public static final byte TAG_BATCH_ROW = 2;
+
+    private static final short NULL_CODE = -1;
+
+    private final HashMap<String, Short> stringCodes = new HashMap<>();
+
+    @Override
+    public byte[] header() {
+        return ByteBuffer.allocate(6).putInt(MAGIC).putShort(VERSION).array();
+    }
+
+    @Override
+    public boolean encode(Output row, ByteBuffer buffer) {
+        int start = buffer.position();
+        int codesBefore = stringCodes.size();
+        try {
+            short station = stringCode(row.stationName, buffer);
+            buffer.put(TAG_OUTPUT);
+            buffer.putInt((int) row.date.toLocalDate().toEpochDay());
+            buffer.put((byte) row.type);
+            buffer.putFloat(row.value);
+            buffer.putShort(station);
+            return true;
+        } catch (BufferOverflowException e) {
+            rollback(buffer, start, codesBefore);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean encode(ColumnBatch batch, int i, ByteBuffer buffer) {
+        int start = buffer.position();
+        int codesBefore = stringCodes.size();
+        try {
+            List<String> columns = new ArrayList<>(batch.getColumns());
+            short[] codes = new short[columns.size()];
+            for (int c = 0; c < columns.size(); c++) { // define the strings first, since records cannot be nested
+                String column = columns.get(c);
+                if (batch.getDataType(column) == ColumnStoreAbstract.STRING_DATATYPE) {
+                    codes[c] = stringCode(batch.getStrings(column)[i], buffer);
+                }
+            }
+
+            buffer.put(TAG_BATCH_ROW);
+            for (int c = 0; c < columns.size(); c++) {
+                String column = columns.get(c);
+                switch (batch.getDataType(column)) {
+                    case ColumnStoreAbstract.INTEGER_DATATYPE -> buffer.putInt(batch.getInts(column)[i]);
+                    case ColumnStoreAbstract.FLOAT_DATATYPE -> buffer.putFloat(batch.getFloats(column)[i]);
+                    case ColumnStoreAbstract.TIME_DATATYPE -> buffer.putLong(batch.getTimes(column)[i]);
+                    default -> buffer.putShort(codes[c]);
+                }
+            }
+            return true;
+        } catch (BufferOverflowException e) {
+            rollback(buffer, start, codesBefore);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the code of the string, writing a {@link #TAG_STRING} record first if the string has no code yet.
+     */
+    private short stringCode(String value, ByteBuffer buffer) {
+        if (value == null) { return NULL_CODE; }
+        Short code = stringCodes.get(value);
+        if (code != null) { return code; }
+
+        if (stringCodes.size() >= Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many distinct strings for a single file.");
+        }
+        short newCode = (short) stringCodes.size();
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.put(TAG_STRING);
+        buffer.putShort(newCode);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+        stringCodes.put(value, newCode);
+        return newCode;
+    }
+
+    /**
+     * Undoes a partially encoded row, including the string codes defined by it, since their records were not written.
+     */
+    private void rollback(ByteBuffer buffer, int start, int codesBefore) {
+        buffer.position(start);
+        stringCodes.values().removeIf(code -> code >= codesBefore);
+    }
+}
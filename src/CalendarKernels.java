@@ -0,0 +1,205 @@
+import java.util.HashMap;
+
+/**
+ * Allocation-free extraction of date parts from epoch values, in place of building a {@link java.time.LocalDateTime} per row.
+ *
+ * <p>Times are epoch seconds at UTC of the local date time, as in {@link ColumnBatch}. Dates are converted with the
+ * proleptic Gregorian civil calendar algorithms of Howard Hinnant, using integer arithmetic only.</p>
+ *
+ * <p>A time column can also have derived calendar columns, registered with {@link #registerDerivedColumns(HashMap, String)}
+ * and filled in at ingest, so that calendar predicates become plain integer comparisons:</p>
+ * <ul>
+ *     <li>{@code <column>.year}, e.g. 2009,</li>
+ *     <li>{@code <column>.month}, from 1 to 12,</li>
+ *     <li>{@code <column>.day}, the day of the month from 1 to 31,</li>
+ *     <li>{@code <column>.epochDay}, the number of days since 1970-01-01.</li>
+ * </ul>
+ */
+public final class CalendarKernels {
+    public static final String YEAR_SUFFIX = ".year";
+    public static final String MONTH_SUFFIX = ".month";
+    public static final String DAY_SUFFIX = ".day";
+    public static final String EPOCH_DAY_SUFFIX = ".epochDay";
+    public static final int SECONDS_PER_DAY = 86400;
+
+    /**
+     * Days from 0000-03-01 to 1970-01-01.
+     */
+    private static final int DAYS_0000_TO_1970 = 719468;
+    private static final int DAYS_PER_ERA = 146097;
+    private static final int[] DAYS_PER_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private CalendarKernels() {}
+
+    /**
+     * Registers the derived calendar columns of the time column, as {@link ColumnStoreAbstract#INTEGER_DATATYPE} columns.
+     * Must be called before the column store is created.
+     * @param columnDataTypes the columns and their data types
+     * @param timeColumn a registered time column
+     */
+    public static void registerDerivedColumns(HashMap<String, Integer> columnDataTypes, String timeColumn) {
+        if (!Integer.valueOf(ColumnStoreAbstract.TIME_DATATYPE).equals(columnDataTypes.get(timeColumn))) {
+            throw new IllegalArgumentException("Column (" + timeColumn + ") is not a registered time column.");
+        }
+        for (String suffix: new String[] {YEAR_SUFFIX, MONTH_SUFFIX, DAY_SUFFIX, EPOCH_DAY_SUFFIX}) {
+            columnDataTypes.put(timeColumn + suffix, ColumnStoreAbstract.INTEGER_DATATYPE);
+        }
+    }
+
+    /**
+     * @param column a column name
+     * @return the time column the column is derived from, or null if it is not a derived calendar column
+     */
+    public static String sourceOf(String column) {
+        for (String suffix: new String[] {YEAR_SUFFIX, MONTH_SUFFIX, DAY_SUFFIX, EPOCH_DAY_SUFFIX}) {
+            if (column.endsWith(suffix) && column.length() > suffix.length()) {
+                return column.substring(0, column.length() - suffix.length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param column a derived calendar column
+     * @param epochSecond the time
+     * @return the value of the derived column for the time
+     */
+    public static int derive(String column, long epochSecond) {
+        if (column.endsWith(YEAR_SUFFIX)) { return year(epochSecond); }
+        if (column.endsWith(MONTH_SUFFIX)) { return month(epochSecond); }
+        if (column.endsWith(DAY_SUFFIX)) { return dayOfMonth(epochSecond); }
+        return (int) epochDay(epochSecond);
+    }
+
+    /**
+     * @param epochSecond the time
+     * @return the number of days since 1970-01-01
+     */
+    public static long epochDay(long epochSecond) {
+        return Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+    }
+
+    /**
+     * @param epochSecond the time
+     * @return the year
+     */
+    public static int year(long epochSecond) {
+        long dayOfEra = dayOfEra(epochDay(epochSecond));
+        long yearOfEra = yearOfEra(dayOfEra);
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long marchMonth = (5 * dayOfYear + 2) / 153;
+        long year = yearOfEra + era(epochDay(epochSecond)) * 400;
+        return (int) (marchMonth < 10 ? year : year + 1); //January and February belong to the next civil year
+    }
+
+    /**
+     * @param epochSecond the time
+     * @return the month, from 1 to 12
+     */
+    public static int month(long epochSecond) {
+        long marchMonth = (5 * dayOfYear(epochSecond) + 2) / 153;
+        return (int) (marchMonth < 10 ? marchMonth + 3 : marchMonth - 9);
+    }
+
+    /**
+     * @param epochSecond the time
+     * @return the day of the month, from 1 to 31
+     */
+    public static int dayOfMonth(long epochSecond) {
+        long dayOfYear = dayOfYear(epochSecond);
+        long marchMonth = (5 * dayOfYear + 2) / 153;
+        return (int) (dayOfYear - (153 * marchMonth + 2) / 5 + 1);
+    }
+
+    /**
+     * @param epochSecond the time
+     * @return year * 12 + month - 1, which orders and separates the months of all years
+     */
+    public static int yearMonth(long epochSecond) {
+        return year(epochSecond) * 12 + month(epochSecond) - 1;
+    }
+
+    /**
+     * @param year the year
+     * @param month the month, from 1 to 12
+     * @param day the day of the month
+     * @return the epoch second of the start of the day
+     */
+    public static long epochSecond(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return (era * DAYS_PER_ERA + dayOfEra - DAYS_0000_TO_1970) * SECONDS_PER_DAY;
+    }
+
+    /**
+     * Parses a time in the format "yyyy-MM-dd HH:mm" without allocating.
+     * @param text the text
+     * @return the epoch second, or {@link ColumnBatch#NULL_TIME} if the text is not a valid time in that format
+     */
+    public static long parseEpochSecond(CharSequence text) {
+        if (text.length() != 16 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != ' ' || text.charAt(13) != ':') {
+            return ColumnBatch.NULL_TIME;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || day > lengthOfMonth(year, month)) {
+            return ColumnBatch.NULL_TIME;
+        }
+        return epochSecond(year, month, day) + hour * 3600L + minute * 60L;
+    }
+
+    /**
+     * @return the number of days in the month, from 28 to 31
+     */
+    private static int lengthOfMonth(int year, int month) {
+        boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        return month == 2 && leap ? 29 : DAYS_PER_MONTH[month - 1];
+    }
+
+    /**
+     * @return the value of the decimal digits, or -1 if any character is not a digit
+     */
+    private static int digits(CharSequence text, int from, int length) {
+        int value = 0;
+        for (int i = from; i < from + length; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') { return -1; }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static long era(long epochDay) {
+        return Math.floorDiv(epochDay + DAYS_0000_TO_1970, DAYS_PER_ERA);
+    }
+
+    /**
+     * @return the day of the 400-year era, from 0 to 146096
+     */
+    private static long dayOfEra(long epochDay) {
+        return epochDay + DAYS_0000_TO_1970 - era(epochDay) * DAYS_PER_ERA;
+    }
+
+    /**
+     * @return the year of the 400-year era, from 0 to 399, with years starting on March 1st
+     */
+    private static long yearOfEra(long dayOfEra) {
+        return (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    }
+
+    /**
+     * @return the day of the year, from 0 to 365, with years starting on March 1st
+     */
+    private static long dayOfYear(long epochSecond) {
+        long dayOfEra = dayOfEra(epochDay(epochSecond));
+        long yearOfEra = yearOfEra(dayOfEra);
+        return dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    }
+}
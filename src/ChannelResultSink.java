@@ -0,0 +1,98 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link ResultSink} that encodes results into a direct buffer, and appends the buffer to a file whenever it is full.
+ *
+ * <p>Rows are encoded straight into the buffer by the {@link ResultEncoder}, without intermediate strings or byte arrays,
+ * and written with one system call per buffer instead of one per row. The header of the encoder is only written if the file is new or empty.</p>
+ */
+public class ChannelResultSink implements ResultSink {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ResultEncoder encoder;
+    private final ByteBuffer buffer;
+    private long bytesWritten = 0;
+
+    /**
+     * @param file the file to append to, created together with its parent directories if needed
+     * @param encoder the encoder of the results
+     * @throws IOException if the file could not be opened
+     */
+    public ChannelResultSink(File file, ResultEncoder encoder) throws IOException {
+        this(file, encoder, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param file the file to append to, created together with its parent directories if needed
+     * @param encoder the encoder of the results
+     * @param bufferSize the size of the buffer in bytes
+     * @throws IOException if the file could not be opened
+     */
+    public ChannelResultSink(File file, ResultEncoder encoder, int bufferSize) throws IOException {
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.encoder = encoder;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+
+        if (channel.size() == 0) {
+            byte[] header = encoder.header();
+            if (header.length > buffer.capacity()) {
+                channel.close();
+                throw new IOException("Header is larger than the buffer.");
+            }
+            buffer.put(header);
+        }
+    }
+
+    @Override
+    public void write(Output row) throws IOException {
+        if (encoder.encode(row, buffer)) { return; }
+        flush();
+        if (!encoder.encode(row, buffer)) {
+            throw new IOException("Row is larger than the buffer.");
+        }
+    }
+
+    @Override
+    public void write(ColumnBatch batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            if (encoder.encode(batch, i, buffer)) { continue; }
+            flush();
+            if (!encoder.encode(batch, i, buffer)) {
+                throw new IOException("Row is larger than the buffer.");
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return the number of bytes written to the file so far by this sink, excluding buffered bytes
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * A columnar batch of values, as returned by {@link ColumnStoreAbstract#gather(List, List)}.
+ *
+ * <p>Row {@code i} of the batch is the row at index {@link #getIndex(int) getIndex(i)} in the column store.
+ * The values of each column are held in a single array whose type depends on the column's data type:</p>
+ * <ul>
+ *     <li>{@link ColumnStoreAbstract#INTEGER_DATATYPE} - {@code int[]}, {@link #NULL_INTEGER} represents null.</li>
+ *     <li>{@link ColumnStoreAbstract#FLOAT_DATATYPE} - {@code float[]}, {@link Float#NaN} represents null.</li>
+ *     <li>{@link ColumnStoreAbstract#TIME_DATATYPE} - {@code long[]} of epoch seconds (at UTC, i.e. the local date time as is), {@link #NULL_TIME} represents null.</li>
+ *     <li>{@link ColumnStoreAbstract#STRING_DATATYPE} - {@code String[]}, null represents null.</li>
+ * </ul>
+ */
+public class ColumnBatch {
+    /**
+     * Represents a null value in an integer column.
+     */
+    public static final int NULL_INTEGER = Integer.MIN_VALUE;
+
+    /**
+     * Represents a null value in a time column.
+     */
+    public static final long NULL_TIME = Long.MIN_VALUE;
+
+    /**
+     * The row indexes of this batch, in ascending order.
+     */
+    private final int[] indexes;
+
+    /**
+     * The columns in this batch, together with its data type.
+     */
+    private final LinkedHashMap<String, Integer> dataTypes = new LinkedHashMap<>();
+
+    /**
+     * The columns in this batch, together with the array holding its values.
+     */
+    private final HashMap<String, Object> vectors = new HashMap<>();
+
+    /**
+     * @param indexes the row indexes of this batch, must be sorted in ascending order without duplicates.
+     */
+    public ColumnBatch(int[] indexes) {
+        this.indexes = indexes;
+    }
+
+    /**
+     * Adds a column to this batch. All values of the column are initialized to null.
+     * @param column the column name
+     * @param dataType the data type of the column
+     */
+    public void addColumn(String column, int dataType) {
+        Object vector;
+        switch (dataType) {
+            case ColumnStoreAbstract.INTEGER_DATATYPE -> {
+                int[] ints = new int[indexes.length];
+                Arrays.fill(ints, NULL_INTEGER);
+                vector = ints;
+            }
+            case ColumnStoreAbstract.FLOAT_DATATYPE -> {
+                float[] floats = new float[indexes.length];
+                Arrays.fill(floats, Float.NaN);
+                vector = floats;
+            }
+            case ColumnStoreAbstract.TIME_DATATYPE -> {
+                long[] times = new long[indexes.length];
+                Arrays.fill(times, NULL_TIME);
+                vector = times;
+            }
+            default -> vector = new String[indexes.length];
+        }
+        dataTypes.put(column, dataType);
+        vectors.put(column, vector);
+    }
+
+    /**
+     * @return the number of rows in this batch.
+     */
+    public int size() {
+        return indexes.length;
+    }
+
+    /**
+     * @param i the position in this batch
+     * @return the row index in the column store of the i-th row in this batch.
+     */
+    public int getIndex(int i) {
+        return indexes[i];
+    }
+
+    /**
+     * @return the row indexes of this batch, in ascending order.
+     */
+    public int[] getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * @param index a row index in the column store
+     * @return the position of the row in this batch, or a negative number if the row is not in this batch.
+     */
+    public int positionOf(int index) {
+        return Arrays.binarySearch(indexes, index);
+    }
+
+    /**
+     * @return the columns in this batch, in the order they were added.
+     */
+    public Set<String> getColumns() {
+        return dataTypes.keySet();
+    }
+
+    /**
+     * @param column the column to check
+     * @return true if the column is in this batch.
+     */
+    public boolean hasColumn(String column) {
+        return dataTypes.containsKey(column);
+    }
+
+    /**
+     * @param column the column
+     * @return the data type of the column
+     */
+    public int getDataType(String column) {
+        return dataTypes.get(column);
+    }
+
+    public int[] getInts(String column) {
+        return (int[]) vectors.get(column);
+    }
+
+    public float[] getFloats(String column) {
+        return (float[]) vectors.get(column);
+    }
+
+    public long[] getTimes(String column) {
+        return (long[]) vectors.get(column);
+    }
+
+    public String[] getStrings(String column) {
+        return (String[]) vectors.get(column);
+    }
+
+    /**
+     * Sets the i-th value of the column, casting the value to the primitive representation of the column.
+     * @param column the column
+     * @param i the position in this batch
+     * @param value the value, as returned by {@link ColumnStoreAbstract#getValue(String, int)}. Can be null.
+     */
+    public void setValue(String column, int i, Object value) {
+        switch (dataTypes.get(column)) {
+            case ColumnStoreAbstract.INTEGER_DATATYPE -> getInts(column)[i] = value == null ? NULL_INTEGER : (int) value;
+            case ColumnStoreAbstract.FLOAT_DATATYPE -> getFloats(column)[i] = value == null ? Float.NaN : (float) value;
+            case ColumnStoreAbstract.TIME_DATATYPE -> getTimes(column)[i] = value == null ? NULL_TIME : toEpochSecond((LocalDateTime) value);
+            default -> getStrings(column)[i] = (String) value;
+        }
+    }
+
+    /**
+     * Gets the i-th value of the column as an object, in the same way as {@link ColumnStoreAbstract#getValue(String, int)}.
+     * @param column the column
+     * @param i the position in this batch
+     * @return the value, or null
+     */
+    public Object getValue(String column, int i) {
+        switch (dataTypes.get(column)) {
+            case ColumnStoreAbstract.INTEGER_DATATYPE -> {
+                int value = getInts(column)[i];
+                return value == NULL_INTEGER ? null : value;
+            }
+            case ColumnStoreAbstract.FLOAT_DATATYPE -> {
+                float value = getFloats(column)[i];
+                return Float.isNaN(value) ? null : value;
+            }
+            case ColumnStoreAbstract.TIME_DATATYPE -> {
+                return getTimestamp(column, i);
+            }
+            default -> {
+                return getStrings(column)[i];
+            }
+        }
+    }
+
+    /**
+     * @param column a time column
+     * @param i the position in this batch
+     * @return the i-th value of the time column, or null
+     */
+    public LocalDateTime getTimestamp(String column, int i) {
+        long value = getTimes(column)[i];
+        return value == NULL_TIME ? null : LocalDateTime.ofEpochSecond(value, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * Converts a date time to the representation used by time columns in this batch.
+     * @param dateTime the date time
+     * @return the epoch seconds of the date time, at UTC
+     */
+    public static long toEpochSecond(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+}
@@ -4,7 +4,11 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * An abstract class representing a column store.
@@ -15,6 +19,12 @@ public abstract class ColumnStoreAbstract {
     public static final int FLOAT_DATATYPE = 2;
     public static final int TIME_DATATYPE= 3;
     protected static final String DTFORMATSTRING = "yyyy-MM-dd HH:mm";
+    private static final DateTimeFormatter DT_FORMATTER = DateTimeFormatter.ofPattern(DTFORMATSTRING);
+
+    /**
+     * The number of rows gathered per batch by {@link #filter(List, List)} and {@link #aggregate(List, int, String, List)}.
+     */
+    private static final int COMPILED_SCAN_BATCH_ROWS = 65536;
 
     /**
      * The registered column headers with this column store.
@@ -32,13 +42,67 @@ public abstract class ColumnStoreAbstract {
      */
     protected final HashMap<String, Integer> columnDataTypes;
 
+    /**
+     * Incremented every time the data in this column store changes.
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Held shared by queries run through {@link #query(Supplier)}, and exclusively while rows are appended by {@link #appendRows(HashMap)}.
+     * Extending classes also hold it exclusively while they move stored rows, e.g. when compacting their files.
+     */
+    protected final ReentrantReadWriteLock dataLock = new ReentrantReadWriteLock();
+
+    /**
+     * Results of queries on this column store, see {@link #cachedQuery(QueryCache.Key, Supplier)}.
+     */
+    private final QueryCache queryCache = new QueryCache(QueryCache.DEFAULT_MAX_ENTRIES);
+
+    /**
+     * Operation-level metrics of this column store. Extending classes record their operations, bytes read, seeks and files opened here.
+     */
+    protected final StoreMetrics metrics;
+
+    /**
+     * Sketches of the data, built at ingest for approximate queries. See {@link #getSynopsis()}.
+     */
+    private final Synopsis synopsis;
+
+    /**
+     * Rows added by {@link #addValuesToSynopsis(Function, int)}, not yet added to the synopsis.
+     */
+    private final List<PendingRows> pendingSynopsisRows = new ArrayList<>();
+
+    /**
+     * The number of rows added through {@link #addCSVData(String)} and {@link #addValuesToSynopsis(Function, int)}. See {@link #getRowCount()}.
+     */
+    private volatile long rowsAdded = 0;
+
+    private record PendingRows(Function<String, List<Object>> columns, int rows) {}
+
+    /**
+     * The columns with {@link #setCracking(String, boolean) cracking} enabled, with their index. The index is null until the first query
+     * on the column, and is rebuilt by the first query after the data changes.
+     */
+    private final HashMap<String, CrackingIndex> crackingIndexes = new HashMap<>();
+
     /**
      * @param columnDataTypes User has to specify, for each column, 1. the column name 2. the corresponding data type.
      * @see #columnDataTypes
      */
     public ColumnStoreAbstract(HashMap<String, Integer> columnDataTypes) {
+        this(columnDataTypes, new StoreMetrics());
+    }
+
+    /**
+     * @param columnDataTypes see {@link #ColumnStoreAbstract(HashMap)}
+     * @param metrics the metrics to record to, e.g. shared with another column store that uses this one internally
+     */
+    protected ColumnStoreAbstract(HashMap<String, Integer> columnDataTypes, StoreMetrics metrics) {
         columnHeaders = columnDataTypes.keySet();
         this.columnDataTypes = columnDataTypes;
+        this.metrics = metrics;
+        this.synopsis = new Synopsis(columnDataTypes);
     }
 
     /**
@@ -86,8 +150,201 @@ public abstract class ColumnStoreAbstract {
             }
         }
         
-        storeAll(buffer);
         fileReader.close();
+        appendRows(buffer);
+    }
+
+    /**
+     * Derives the calendar columns of the rows, stores them with {@link #storeAll(HashMap)} and adds them to the synopsis.
+     * Used by {@link #addCSVData(String)}, and by extending classes that append rows of their own, e.g. new versions of updated rows.
+     * @param buffer the map of columns to its values, with "M" for null
+     * @return the row index of the first row appended, assigned while holding the data of this column store exclusively,
+     * so that rows appended concurrently do not take it
+     */
+    protected int appendRows(HashMap<String, List<String>> buffer) {
+        deriveCalendarColumns(buffer);
+        dataLock.writeLock().lock();
+        try {
+            int firstRow = getRowCount();
+            long start = metrics.start();
+            storeAll(buffer);
+            markModified();
+            int rows = buffer.isEmpty() ? 0 : buffer.values().iterator().next().size();
+            metrics.record(StoreMetrics.STORE_ALL, start, rows, rows);
+            rowsAdded += rows; //after every column is written
+            addToSynopsis(buffer, rows);
+            return firstRow;
+        } finally {
+            dataLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Fills the registered derived calendar columns that are missing from the buffer, from the values of their time column.
+     * See {@link CalendarKernels#registerDerivedColumns(HashMap, String)}.
+     * @param buffer the map of columns to its values, as passed to {@link #storeAll(HashMap)}
+     */
+    protected void deriveCalendarColumns(HashMap<String, List<String>> buffer) {
+        for (String column: columnHeaders) {
+            String source = CalendarKernels.sourceOf(column);
+            List<String> values = buffer.get(column);
+            if (source == null || (values != null && !values.isEmpty()) || !buffer.containsKey(source)
+                    || !Objects.equals(columnDataTypes.get(source), TIME_DATATYPE)) {
+                continue;
+            }
+            List<String> times = buffer.get(source);
+            List<String> derived = new ArrayList<>(times.size());
+            for (String time: times) {
+                long epochSecond = CalendarKernels.parseEpochSecond(time);
+                derived.add(epochSecond == ColumnBatch.NULL_TIME ? "M" : String.valueOf(CalendarKernels.derive(column, epochSecond)));
+            }
+            buffer.put(column, derived);
+        }
+    }
+
+    /**
+     * Adds the rows of the buffer to the {@link #getSynopsis() synopsis}.
+     * @param buffer the map of columns to its values, as passed to {@link #storeAll(HashMap)}
+     * @param rows the number of rows in the buffer
+     */
+    private void addToSynopsis(HashMap<String, List<String>> buffer, int rows) {
+        HashMap<String, Object> row = new HashMap<>();
+        for (int i = 0; i < rows; i++) {
+            for (String column: columnHeaders) {
+                List<String> values = buffer.get(column);
+                row.put(column, i < values.size() ? castValueAccordingToColumnType(column, values.get(i)) : null);
+            }
+            synopsis.add(row);
+        }
+    }
+
+    /**
+     * Removes rows from the {@link #getSynopsis() synopsis}, for extending classes that delete rows.
+     * @param batch the deleted rows, with the values of the numeric columns gathered before the rows were deleted
+     */
+    protected void removeFromSynopsis(ColumnBatch batch) {
+        Synopsis synopsis = getSynopsis();
+        HashMap<String, Object> row = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            for (String column: batch.getColumns()) {
+                row.put(column, batch.getValue(column, i));
+            }
+            synopsis.remove(batch.getIndex(i), row);
+        }
+    }
+
+    /**
+     * Adds rows of values to the {@link #getSynopsis() synopsis}, for extending classes that add data without {@link #addCSVData(String)}.
+     * The synopsis is only built from the rows when it is first used, so that loading data is not slowed down by it.
+     * @param columns gets the values of a column, of the types returned by {@link #getValue(String, int)}, when the synopsis is built
+     * @param rows the number of rows added
+     */
+    protected void addValuesToSynopsis(Function<String, List<Object>> columns, int rows) {
+        synchronized (pendingSynopsisRows) {
+            pendingSynopsisRows.add(new PendingRows(columns, rows));
+            rowsAdded += rows;
+        }
+    }
+
+    /**
+     * @param column the column name
+     * @return the data type of the column, e.g. {@link #FLOAT_DATATYPE}. Null if the column is not registered.
+     */
+    public Integer getDataType(String column) {
+        return columnDataTypes.get(column);
+    }
+
+    /**
+     * @return the version of the data in this column store. Changes every time data is added.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * The default implementation counts the rows added through {@link #addCSVData(String)} and {@link #addValuesToSynopsis(Function, int)}.
+     * Column stores that keep rows from earlier runs override this with the number of rows they store.
+     * @return the number of rows in this column store, deleted or not, without building the {@link #getSynopsis() synopsis}.
+     * Row indexes range from 0 to this number (excluded).
+     */
+    public int getRowCount() {
+        return (int) rowsAdded;
+    }
+
+    /**
+     * Changes the {@link #getVersion() version} of this column store, so that cached query results are no longer used.
+     * Must be called after every change to the data.
+     */
+    protected void markModified() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return the cache of query results of this column store.
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Approximate queries are answered by the synopsis in a fraction of the cost of a scan, with error bounds.
+     * @return the sketches of the data in this column store, up to date with all data added.
+     */
+    public Synopsis getSynopsis() {
+        synchronized (pendingSynopsisRows) {
+            HashMap<String, Object> row = new HashMap<>();
+            for (PendingRows pending: pendingSynopsisRows) {
+                HashMap<String, List<Object>> columns = new HashMap<>();
+                for (String column: columnHeaders) {
+                    columns.put(column, pending.columns().apply(column));
+                }
+                for (int i = 0; i < pending.rows(); i++) {
+                    for (String column: columnHeaders) {
+                        row.put(column, columns.get(column).get(i));
+                    }
+                    synopsis.add(row);
+                }
+            }
+            pendingSynopsisRows.clear();
+        }
+        return synopsis;
+    }
+
+    /**
+     * @return the operation-level metrics of this column store.
+     */
+    public StoreMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the result of the query from the {@link #getQueryCache() query cache}, if it was computed on the current version of the data.
+     * Else, computes and caches the result.
+     * @param key the normalized query
+     * @param query computes the result of the query, which should be immutable
+     * @param <T> the type of the result
+     * @return the result of the query
+     */
+    public <T> T cachedQuery(QueryCache.Key key, Supplier<T> query) {
+        return queryCache.get(key, getVersion(), query);
+    }
+
+    /**
+     * Runs a query while holding the data of this column store shared, so that it sees the rows appended concurrently
+     * by {@link #addCSVData(String)} either whole or not at all. Queries not run through this method must not run while data is added.
+     *
+     * <p>The query must not add data itself. Queries can be nested, and threads working for the query do not need to hold the data.</p>
+     * @param query the query
+     * @param <T> the type of the result
+     * @return the result of the query
+     */
+    public <T> T query(Supplier<T> query) {
+        dataLock.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            dataLock.readLock().unlock();
+        }
     }
 
     /**
@@ -103,6 +360,13 @@ public abstract class ColumnStoreAbstract {
      */
     protected abstract void storeAll(HashMap<String, List<String>> buffer);
 
+    /**
+     * Declares the columns that the next queries read, so that a column store which loads columns lazily can load them up front.
+     * Columns not declared are still loaded when referenced. The default implementation does nothing.
+     * @param columns the columns projected by the query
+     */
+    public void project(Collection<String> columns) {}
+
     /**
      * Scans all the indexes of the column and returns the indexes whose values match the predicate.
      * @param column the column to check
@@ -120,6 +384,242 @@ public abstract class ColumnStoreAbstract {
      */
     public abstract List<Integer> filter(String column, Predicate<Object> predicate, List<Integer> indexesToCheck);
 
+    /**
+     * Returns the indexes matching all the conditions, with a scan loop {@link QueryCompiler compiled} for the shape of the conditions.
+     *
+     * <p>The columns of the conditions are {@link #gather(List, List) gathered} in batches and the conditions are evaluated on their
+     * primitive values, without a {@link Predicate} call or boxing per row.</p>
+     * @param conditions the conditions, all of which must hold
+     * @param indexesToCheck the given indexes, or null to check all the rows added to this column store
+     * @return the matching indexes, in ascending order
+     */
+    public List<Integer> filter(List<QueryCompiler.Condition> conditions, List<Integer> indexesToCheck) {
+        SpillableIntList results = new SpillableIntList();
+        List<QueryCompiler.Condition> remaining = new ArrayList<>(conditions);
+        long start = metrics.start();
+        int[] indexes = liveIndexes(selectCracked(remaining, indexesToCheck));
+        if (remaining.isEmpty()) { //all conditions were answered by a cracking index
+            for (int index: indexes) {
+                results.add(index);
+            }
+            metrics.record(StoreMetrics.FILTER, start, indexes.length, results.size());
+            results.complete();
+            return results;
+        }
+
+        ScanKernel kernel;
+        try {
+            kernel = QueryCompiler.compile(columnDataTypes, remaining, WindowOperator.COUNT, null);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return results;
+        }
+
+        int[] positions = new int[Math.min(indexes.length, COMPILED_SCAN_BATCH_ROWS)];
+        for (int from = 0; from < indexes.length; from += COMPILED_SCAN_BATCH_ROWS) {
+            ColumnBatch batch = gatherForKernel(kernel, indexes, from);
+            int count = kernel.select(batch, positions);
+            for (int i = 0; i < count; i++) {
+                results.add(batch.getIndex(positions[i]));
+            }
+        }
+        metrics.record(StoreMetrics.FILTER, start, indexes.length, results.size());
+        results.complete();
+        return results;
+    }
+
+    /**
+     * Aggregates a column over the rows matching all the conditions, filtering and aggregating in a single {@link QueryCompiler compiled} loop.
+     * @param conditions the conditions, all of which must hold
+     * @param aggregate one of {@link WindowOperator#SUM}, {@link WindowOperator#MIN}, {@link WindowOperator#MAX} and {@link WindowOperator#COUNT}
+     * @param column the numeric column to aggregate, or null to count the matching rows
+     * @param indexesToCheck the given indexes, or null to check all the rows added to this column store
+     * @return the aggregate, see {@link ScanKernel#identity()} if no rows match. NaN if the query is invalid.
+     */
+    public double aggregate(List<QueryCompiler.Condition> conditions, int aggregate, String column, List<Integer> indexesToCheck) {
+        List<QueryCompiler.Condition> remaining = new ArrayList<>(conditions);
+        long start = metrics.start();
+        int[] indexes = liveIndexes(selectCracked(remaining, indexesToCheck));
+        ScanKernel kernel;
+        try {
+            kernel = QueryCompiler.compile(columnDataTypes, remaining, aggregate, column);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return Double.NaN;
+        }
+
+        double accumulator = kernel.identity();
+        for (int from = 0; from < indexes.length; from += COMPILED_SCAN_BATCH_ROWS) {
+            accumulator = kernel.aggregate(gatherForKernel(kernel, indexes, from), accumulator);
+        }
+        metrics.record(StoreMetrics.AGGREGATE, start, indexes.length, 1);
+        return accumulator;
+    }
+
+    /**
+     * Enables or disables an adaptive {@link CrackingIndex cracking index} on a numeric column. Opt-in, as the index holds a copy of the column.
+     *
+     * <p>Range conditions on the column ({@link QueryCompiler#EQUAL}, {@link QueryCompiler#LESS}, {@link QueryCompiler#LESS_OR_EQUAL},
+     * {@link QueryCompiler#GREATER} and {@link QueryCompiler#GREATER_OR_EQUAL}) of {@link #filter(List, List)} and
+     * {@link #aggregate(List, int, String, List)} are then answered by the index, which is cracked on their bounds.
+     * The index is built by the first such query, and rebuilt by the first query after the data changes.</p>
+     * @param column the column, of {@link #INTEGER_DATATYPE} or {@link #FLOAT_DATATYPE}
+     * @param enabled true to enable, false to disable and drop the index
+     */
+    public void setCracking(String column, boolean enabled) {
+        if (isInvalidColumn(column) || isNotNumberDataType(column)) {
+            System.out.printf("Column (%s) is not a registered number column, cannot be cracked.\n", column);
+            return;
+        }
+        synchronized (crackingIndexes) {
+            if (enabled) { crackingIndexes.putIfAbsent(column, null); }
+            else { crackingIndexes.remove(column); }
+        }
+    }
+
+    /**
+     * @param column the column
+     * @return the cracking index of the column, or null if cracking is not enabled or no query has built it yet
+     */
+    public CrackingIndex getCrackingIndex(String column) {
+        synchronized (crackingIndexes) {
+            return crackingIndexes.get(column);
+        }
+    }
+
+    /**
+     * Answers the range conditions on the first cracked column with its index, and removes them from the conditions.
+     * @param conditions the conditions of the query, of which the ones not answered remain
+     * @param indexesToCheck the given indexes, or null to check all the rows added to this column store
+     * @return the indexes still to check against the remaining conditions, in ascending order
+     */
+    private int[] selectCracked(List<QueryCompiler.Condition> conditions, List<Integer> indexesToCheck) {
+        String column = null;
+        for (QueryCompiler.Condition condition: conditions) {
+            if (isCrackable(condition)) {
+                column = condition.column();
+                break;
+            }
+        }
+        if (column == null) {
+            return indexesToCheck == null ? allIndexes() : toSortedIndexes(indexesToCheck);
+        }
+
+        boolean isFloat = columnDataTypes.get(column) == FLOAT_DATATYPE;
+        double low = Double.NEGATIVE_INFINITY;
+        double high = Double.POSITIVE_INFINITY;
+        boolean lowInclusive = true;
+        boolean highInclusive = true;
+        Iterator<QueryCompiler.Condition> iterator = conditions.iterator();
+        while (iterator.hasNext()) {
+            QueryCompiler.Condition condition = iterator.next();
+            if (!condition.column().equals(column) || !isCrackable(condition)) { continue; }
+            Number number = (Number) condition.constant();
+            double constant = isFloat ? number.floatValue() : number.doubleValue(); //ints are compared to the exact constant, as by the compiled kernels
+            int operator = condition.operator();
+            if (operator != QueryCompiler.LESS && operator != QueryCompiler.LESS_OR_EQUAL
+                    && (constant > low || (constant == low && operator == QueryCompiler.GREATER))) {
+                low = constant;
+                lowInclusive = operator != QueryCompiler.GREATER;
+            }
+            if (operator != QueryCompiler.GREATER && operator != QueryCompiler.GREATER_OR_EQUAL
+                    && (constant < high || (constant == high && operator == QueryCompiler.LESS))) {
+                high = constant;
+                highInclusive = operator != QueryCompiler.LESS;
+            }
+            iterator.remove();
+        }
+
+        int[] rows = crackingIndexOf(column).select(low, lowInclusive, high, highInclusive);
+        return indexesToCheck == null ? rows : intersect(rows, toSortedIndexes(indexesToCheck));
+    }
+
+    /**
+     * @return true if the condition is a range condition on a column with cracking enabled
+     */
+    private boolean isCrackable(QueryCompiler.Condition condition) {
+        synchronized (crackingIndexes) {
+            if (!crackingIndexes.containsKey(condition.column())) { return false; }
+        }
+        return condition.operator() != QueryCompiler.NOT_EQUAL && condition.constant() instanceof Number;
+    }
+
+    /**
+     * @return the cracking index of the column, built from the current data if there is none or the data changed since.
+     * The index is built without holding the lock of the indexes, and installed unless an index of newer data was installed meanwhile.
+     */
+    private CrackingIndex crackingIndexOf(String column) {
+        long version = getVersion();
+        synchronized (crackingIndexes) {
+            CrackingIndex index = crackingIndexes.get(column);
+            if (index != null && index.getVersion() == version) { return index; }
+        }
+
+        ColumnBatch batch = new ColumnBatch(liveIndexes(allIndexes()));
+        batch.addColumn(column, columnDataTypes.get(column));
+        gatherColumn(batch, column);
+        boolean isFloat = columnDataTypes.get(column) == FLOAT_DATATYPE;
+        double[] values = new double[batch.size()];
+        int[] rows = new int[batch.size()];
+        int size = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            double value = isFloat ? batch.getFloats(column)[i] : batch.getInts(column)[i];
+            if (isFloat ? Float.isNaN(batch.getFloats(column)[i]) : batch.getInts(column)[i] == ColumnBatch.NULL_INTEGER) { continue; } //null value
+            values[size] = value;
+            rows[size++] = batch.getIndex(i);
+        }
+        CrackingIndex built = new CrackingIndex(Arrays.copyOf(values, size), Arrays.copyOf(rows, size), version);
+
+        synchronized (crackingIndexes) {
+            if (!crackingIndexes.containsKey(column)) { return built; } //cracking was disabled meanwhile
+            CrackingIndex index = crackingIndexes.get(column);
+            if (index != null && index.getVersion() >= version) { return index; } //built by another query meanwhile
+            crackingIndexes.put(column, built);
+            return built;
+        }
+    }
+
+    /**
+     * @return the indexes in both sorted arrays, in ascending order
+     */
+    private static int[] intersect(int[] first, int[] second) {
+        int[] result = new int[Math.min(first.length, second.length)];
+        int size = 0;
+        for (int i = 0, j = 0; i < first.length && j < second.length; ) {
+            if (first[i] < second[j]) { i++; }
+            else if (first[i] > second[j]) { j++; }
+            else {
+                result[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @return the columns of the kernel for the batch of indexes starting at the given position
+     */
+    private ColumnBatch gatherForKernel(ScanKernel kernel, int[] indexes, int from) {
+        ColumnBatch batch = new ColumnBatch(Arrays.copyOfRange(indexes, from, Math.min(indexes.length, from + COMPILED_SCAN_BATCH_ROWS)));
+        for (String column: kernel.getColumns()) {
+            batch.addColumn(column, columnDataTypes.get(column));
+            gatherColumn(batch, column);
+        }
+        return batch;
+    }
+
+    /**
+     * @return the indexes of all rows of this column store, see {@link #getRowCount()}
+     */
+    private int[] allIndexes() {
+        int[] indexes = new int[getRowCount()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = i;
+        }
+        return indexes;
+    }
+
     /**
      * Scans the given indexes of the column and returns the indexes whose values are the largest among all the scanned values.
      *
@@ -159,6 +659,75 @@ public abstract class ColumnStoreAbstract {
      */
     public abstract Object getValue(String column, int index);
 
+    /**
+     * Gets the values of the given columns for all the indexes in the selection, as a columnar batch.
+     *
+     * <p>The selection is sorted and duplicates are removed before any column is read, so that extending classes
+     * can read each column in one pass instead of one {@link #getValue(String, int)} per index.</p>
+     * @param columns the columns to retrieve
+     * @param selection the indexes to retrieve, in any order
+     * @return the batch, whose rows are in ascending order of index, without the rows deleted
+     */
+    public ColumnBatch gather(List<String> columns, List<Integer> selection) {
+        long start = metrics.start();
+        ColumnBatch batch = new ColumnBatch(liveIndexes(toSortedIndexes(selection)));
+        for (String column: columns) {
+            if (isInvalidColumn(column)) {
+                System.out.printf("Column (%s) is not registered with this column store.\n", column);
+                continue;
+            }
+            batch.addColumn(column, columnDataTypes.get(column));
+            gatherColumn(batch, column);
+        }
+        metrics.record(StoreMetrics.GATHER, start, (long) batch.size() * batch.getColumns().size(), batch.size());
+        return batch;
+    }
+
+    /**
+     * Removes the deleted rows from the indexes, so that they are neither gathered nor matched by {@link #filter(List, List)}.
+     * The default implementation returns the indexes as is, for column stores that do not support deletes.
+     * @param sortedIndexes the indexes, in ascending order
+     * @return the indexes of the rows not deleted, in ascending order. May be the given array.
+     */
+    protected int[] liveIndexes(int[] sortedIndexes) {
+        return sortedIndexes;
+    }
+
+    /**
+     * Fills in the values of the column for all the indexes in the batch. Used by {@link #gather(List, List)}.
+     *
+     * <p>The default implementation calls {@link #getValue(String, int)} for each index.
+     * Extending classes are recommended to override this with a single pass over the column.</p>
+     * @param batch the batch, which already has the column added, and whose indexes are in ascending order and not deleted
+     * @param column the column to retrieve
+     */
+    protected void gatherColumn(ColumnBatch batch, String column) {
+        for (int i = 0; i < batch.size(); i++) {
+            batch.setValue(column, i, getValue(column, batch.getIndex(i)));
+        }
+    }
+
+    /**
+     * @param selection list of indexes, in any order
+     * @return the indexes sorted in ascending order, without duplicates
+     */
+    protected static int[] toSortedIndexes(List<Integer> selection) {
+        int[] indexes = new int[selection.size()];
+        int i = 0;
+        for (int index: selection) {
+            indexes[i++] = index;
+        }
+        Arrays.sort(indexes);
+
+        int size = 0;
+        for (i = 0; i < indexes.length; i++) {
+            if (size == 0 || indexes[size - 1] != indexes[i]) {
+                indexes[size++] = indexes[i];
+            }
+        }
+        return size == indexes.length ? indexes : Arrays.copyOf(indexes, size);
+    }
+
     /**
      * Prints the head of the data (i.e. from index 0) until the specified index.
      * @param until the index to print until.
@@ -191,7 +760,7 @@ public abstract class ColumnStoreAbstract {
                 case STRING_DATATYPE -> { return value; }
                 case INTEGER_DATATYPE -> { return Integer.parseInt(value); }
                 case FLOAT_DATATYPE -> { return Float.parseFloat(value); }
-                case TIME_DATATYPE -> { return LocalDateTime.parse(value, DateTimeFormatter.ofPattern(DTFORMATSTRING)); }
+                case TIME_DATATYPE -> { return LocalDateTime.parse(value, DT_FORMATTER); }
                 default -> throw new IllegalArgumentException(String.format("No such data type for column (%s) registered. Defaulting to string...", column));
             }
         } catch (NumberFormatException e) {
@@ -1,63 +1,280 @@
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 /**
  * A general column store implementation where the data is stored in disk.
+ *
+ * <p>Queries can run concurrently: each column file is read through one {@link FileChannel} shared by all queries, with positional reads
+ * that keep no file position, so the number of open files does not grow with the number of queries. The channels are opened on first use
+ * and closed by {@link #close()}. Adding data is only safe while queries run through {@link #query(java.util.function.Supplier)}.</p>
+ *
+ * <p>Rows can be {@link #delete(List) deleted} and {@link #update(int, Map) updated}. A deleted row is marked in a {@link DeletionVector}
+ * and skipped by scans, and an updated row is deleted and appended again with its new values. A background compactor rewrites
+ * the files of a partition, or of a store that is not partitioned, without its deleted rows once their share of the files reaches the
+ * {@link #setCompactionThreshold(double) threshold}. Row indexes of the rows kept do not change.</p>
  */
-public class ColumnStoreDisk extends ColumnStoreAbstract{
+public class ColumnStoreDisk extends ColumnStoreAbstract implements AutoCloseable {
     /**
      * Buffer size when reading files.
      */
     protected static final int BUFFER_SIZE = 10240;
 
+    /**
+     * Block size and queue depth of the {@link ScanReader} used by sequential scans.
+     */
+    private int scanBlockSize = ScanReader.DEFAULT_BLOCK_SIZE;
+    private int scanQueueDepth = ScanReader.DEFAULT_QUEUE_DEPTH;
+
+    /**
+     * Durability policies, see {@link #setDurability(int)}.
+     */
+    public static final int DURABILITY_NONE = 0;
+    public static final int DURABILITY_BATCH = 1;
+    public static final int DURABILITY_SYNC = 2;
+
+    private static final byte[] MISSING_LINE = "M\n".getBytes(StandardCharsets.UTF_8);
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(DTFORMATSTRING);
+
+    /**
+     * Encodes and writes the columns of a batch in parallel, see {@link #storeAll(HashMap)}.
+     */
+    private static final ExecutorService COLUMN_WRITERS = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "column-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Buffers of the {@link ColumnWriter} of each column file written by {@link #storeAll(HashMap)}.
+     */
+    private int writeBufferSize = ColumnWriter.DEFAULT_BUFFER_SIZE;
+    private int writeBuffers = ColumnWriter.DEFAULT_BUFFERS;
+    private int durability = DURABILITY_NONE;
+
+    /**
+     * Access paths for reading the values of a selection of rows from a column file, see {@link #setAccessPath(int)}.
+     */
+    public static final int ACCESS_AUTO = -1;
+    public static final int ACCESS_PROBE = 0;
+    public static final int ACCESS_CLUSTERED = 1;
+    public static final int ACCESS_SCAN = 2;
+
+    /**
+     * The default cost of a random read, in bytes that could be read sequentially in the same time, see {@link #setRandomReadCost(long)}.
+     * Suits a solid state drive or a file in the page cache.
+     */
+    public static final long DEFAULT_RANDOM_READ_COST = 4 * 1024;
+
+    /**
+     * The number of lines between two offsets of the {@link LineIndex sparse line index} of a text column file.
+     */
+    private static final int LINE_INDEX_INTERVAL = 1024;
+
+    private int accessPath = ACCESS_AUTO;
+    private long randomReadCost = DEFAULT_RANDOM_READ_COST;
+
+    /**
+     * A sparse index of the byte offsets of the lines of a text column file, every {@link #LINE_INDEX_INTERVAL} lines,
+     * so that a row can be read without reading the lines before it. Extended as lines are appended to the file,
+     * into a copy, so that concurrent queries keep using the index they started with.
+     */
+    private static class LineIndex {
+        long[] offsets = new long[16]; //the offset of line k * LINE_INDEX_INTERVAL is offsets[k]
+        int blocks = 1;
+        int lines = 0;
+        long length = 0; //the offset after the last complete line
+
+        long blockStart(int block) {
+            return offsets[block];
+        }
+
+        long blockEnd(int block) {
+            return block + 1 < blocks ? offsets[block + 1] : length;
+        }
+
+        LineIndex copy() {
+            LineIndex copy = new LineIndex();
+            copy.offsets = offsets.clone();
+            copy.blocks = blocks;
+            copy.lines = lines;
+            copy.length = length;
+            return copy;
+        }
+    }
+
+    /**
+     * The channel of each column file read, by path, shared by all queries. See {@link #readChannel(File)}.
+     */
+    private final ConcurrentHashMap<String, FileChannel> readChannels = new ConcurrentHashMap<>();
+
+    /**
+     * The line index of each text column file read, by path.
+     */
+    private final HashMap<String, LineIndex> lineIndexes = new HashMap<>();
+
+    /**
+     * Partitioning schemes, see {@link #setPartitioning(String, int)}.
+     */
+    public static final int PARTITION_NONE = 0;
+    public static final int PARTITION_BY_YEAR = 1;
+    public static final int PARTITION_BY_MONTH = 2;
+
+    /**
+     * The partition of rows whose partition column is null.
+     */
+    protected static final String UNKNOWN_PARTITION = "unknown";
+
+    private static final String CATALOG_FILE = "catalog.csv";
+    private static final String DELETES_FILE = "deletes.bin";
+    private static final String REMOVED_FILE = "removed.bin";
+
+    /**
+     * The default share of deleted rows in a partition at which it is compacted, see {@link #setCompactionThreshold(double)}.
+     */
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.2;
+
+    /**
+     * The number of rows copied at once by {@link #compact(String)}.
+     */
+    private static final int COMPACTION_BATCH_ROWS = 65536;
+
+    /**
+     * Compacts partitions in the background, one at a time for all column stores, so that compaction does not compete with queries for more than a thread.
+     */
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A run of consecutive rows stored consecutively in the files of one partition.
+     * Row indexes stay the same when other partitions are dropped.
+     */
+    private static class Extent {
+        final String partition;
+        final int firstRow;
+        final int firstLocalRow;
+        int rows;
+
+        Extent(String partition, int firstRow, int firstLocalRow, int rows) {
+            this.partition = partition;
+            this.firstRow = firstRow;
+            this.firstLocalRow = firstLocalRow;
+            this.rows = rows;
+        }
+    }
+
+    private int partitioning = PARTITION_NONE;
+    private String partitionColumn = null;
+
+    /**
+     * The catalog of a partitioned store: its extents in ascending order of row index.
+     */
+    private final List<Extent> extents = new ArrayList<>();
+
+    /**
+     * The number of rows stored in the files of each partition.
+     */
+    private final HashMap<String, Integer> partitionSizes = new HashMap<>();
+
+    /**
+     * The row index of the next row added to a partitioned store.
+     */
+    private int nextRow = 0;
+
+    /**
+     * Held to read the catalog and the files of the partitions, and held exclusively to change them, so that a compaction
+     * does not swap the files of a partition under a query.
+     */
+    private final ReentrantReadWriteLock catalogLock = new ReentrantReadWriteLock();
+
+    /**
+     * The deleted rows, loaded on first use. See {@link #getDeletionVector()}.
+     */
+    private volatile DeletionVector deletes;
+    private double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    /**
+     * The rows removed from the files of a store that is not partitioned by {@link #compact()}, in ascending order, loaded on first use.
+     * A row is stored at its row index less the number of rows removed before it. See {@link #getRemovedRows()}.
+     */
+    private volatile int[] removedRows;
+
+    /**
+     * The partitions waiting for the {@link #COMPACTOR}.
+     */
+    private final Set<String> pendingCompactions = ConcurrentHashMap.newKeySet();
+
     public ColumnStoreDisk(HashMap<String, Integer> columnDataTypes) {
         super(columnDataTypes);
     }
 
     /**
-     * Write an appropriate value to the outputStream given the column string and value string.
-     * @param outputStream output to write to
+     * @param columnDataTypes see {@link ColumnStoreAbstract#ColumnStoreAbstract(HashMap)}
+     * @param metrics the metrics to record to
+     */
+    protected ColumnStoreDisk(HashMap<String, Integer> columnDataTypes, StoreMetrics metrics) {
+        super(columnDataTypes, metrics);
+    }
+
+    /**
+     * Called by {@link #sweepFixedWidth(File, int, int[], FixedWidthVisitor)} for each index swept.
+     */
+    protected interface FixedWidthVisitor {
+        /**
+         * @param position the position of the index in the array of indexes swept
+         * @param window the buffer holding the value
+         * @param offset the offset of the value in the buffer
+         */
+        void visit(int position, ByteBuffer window, int offset);
+    }
+
+    /**
+     * Called by {@link #sweepLines(File, int[], LineVisitor)} for each index swept.
+     */
+    protected interface LineVisitor {
+        /**
+         * @param position the position of the index in the array of indexes swept
+         * @param line the line of the index, without the line separator
+         */
+        void visit(int position, String line);
+    }
+
+    /**
+     * Encodes a value of the column as it is stored in the column file.
+     * Strings and times are stored as text, one per line, and numbers as 4 bytes. Nulls are stored as "M", {@link Integer#MIN_VALUE} and {@link Float#NaN}.
+     * @param writer the column file to append to
      * @param column column name
-     * @param value value string
-     * @throws IOException
+     * @param value the value, as cast by {@link #castValueAccordingToColumnType(String, String)}. Can be null.
+     * @throws IOException if the writer failed to write
      */
-    protected void store(FileOutputStream outputStream, String column, String value) throws IOException {
-        Object toAdd = castValueAccordingToColumnType(column, value);
+    protected void encode(ColumnWriter writer, String column, Object value) throws IOException {
         switch(columnDataTypes.get(column)) {
             case STRING_DATATYPE -> {
                 //get its string value, each datum separated by new line.
-                if (toAdd == null) {
-                    outputStream.write("M".getBytes(StandardCharsets.UTF_8));
-                } else {
-                    outputStream.write(toAdd.toString().getBytes(StandardCharsets.UTF_8));
-                }
-                outputStream.write('\n');
+                writer.putBytes(value == null ? MISSING_LINE : (value + "\n").getBytes(StandardCharsets.UTF_8));
             }
-
             case TIME_DATATYPE -> {
-                if (toAdd == null) {
-                    outputStream.write("M".getBytes(StandardCharsets.UTF_8));
-                } else {
-                    outputStream.write(((LocalDateTime)toAdd).format(DateTimeFormatter.ofPattern(DTFORMATSTRING)).getBytes(StandardCharsets.UTF_8));
-                }
-                outputStream.write('\n');
-            }
-
-            case INTEGER_DATATYPE -> {
-                if (toAdd == null) { handleStoreInteger(outputStream, Integer.MIN_VALUE); }
-                else { handleStoreInteger(outputStream, (int)toAdd); }
-            }
-
-            case FLOAT_DATATYPE -> {
-                if (toAdd == null) { handleStoreFloat(outputStream, Float.NaN); }
-                else { handleStoreFloat(outputStream, (float)toAdd); }
+                writer.putBytes(value == null ? MISSING_LINE : (((LocalDateTime) value).format(FORMATTER) + "\n").getBytes(StandardCharsets.UTF_8));
             }
-            default -> outputStream.write("M\n".getBytes(StandardCharsets.UTF_8));
+            case INTEGER_DATATYPE -> writer.putInt(value == null ? Integer.MIN_VALUE : (int) value);
+            case FLOAT_DATATYPE -> writer.putFloat(value == null ? Float.NaN : (float) value);
+            default -> writer.putBytes(MISSING_LINE);
         }
     }
 
@@ -66,16 +283,13 @@ public class ColumnStoreDisk extends ColumnStoreAbstract{
      */
     @Override
     protected void store(String column, String value) {
-        try {
-            File columnFile = new File(getName()+"/"+column+".store");
-            columnFile.getParentFile().mkdirs();
-            columnFile.createNewFile();
-            if (!columnFile.setWritable(true) || !columnFile.setReadable(true)) {
-                System.out.println("Could not set read/write to file");
-                return;
-            }
-            FileOutputStream outputStream = new FileOutputStream(columnFile, true);
-            store(outputStream, column, value);
+        if (isPartitioned()) {
+            System.out.println("Single values cannot be stored in a partitioned column store, use storeAll instead.");
+            return;
+        }
+        try (ColumnWriter writer = new ColumnWriter(new File(getName()+"/"+column+".store"), Long.BYTES * 64, 1)) {
+            encode(writer, column, castValueAccordingToColumnType(column, value));
+            if (durability != DURABILITY_NONE) { writer.force(durability == DURABILITY_SYNC); }
         } catch(Exception e) {
             e.printStackTrace();
         }
@@ -86,24 +300,55 @@ public class ColumnStoreDisk extends ColumnStoreAbstract{
      */
     @Override
     protected void storeAll(HashMap<String, List<String>> buffer) {
+        if (isPartitioned()) {
+            storePartitioned(buffer);
+            return;
+        }
         try {
-            for(String column: buffer.keySet()) {
-                File columnFile = new File(getName()+"/"+column+".store");
-                columnFile.getParentFile().mkdirs();
-                columnFile.createNewFile();
-                if (!columnFile.setWritable(true) || !columnFile.setReadable(true)) {
-                    System.out.println("Could not set read/write to file");
-                    return;
-                }
-                FileOutputStream outputStream = new FileOutputStream(columnFile, true);
-                for (String value: buffer.get(column)) {
-                    store(outputStream, column, value);
-                }
-            }
-        } catch (Exception e) {
+            writeColumns(buffer, null, column -> new File(getName()+"/"+column+".store"));
+        } catch (IOException e) {
             e.printStackTrace();
         }
+    }
 
+    /**
+     * Appends rows of the buffer to the column files, encoding each column into a {@link ColumnWriter} in its own thread,
+     * then forces the files as required by the {@link #setDurability(int) durability policy}.
+     * @param buffer the map of columns to its values
+     * @param rows the rows of the buffer to append, in order, or null for all rows
+     * @param fileOf the file of each column
+     * @throws IOException if a column could not be written
+     */
+    private void writeColumns(HashMap<String, List<String>> buffer, List<Integer> rows, Function<String, File> fileOf) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (String column: buffer.keySet()) {
+            tasks.add(QueryMemory.wrap(() -> {
+                List<String> values = buffer.get(column);
+                try (ColumnWriter writer = new ColumnWriter(fileOf.apply(column), writeBufferSize, writeBuffers)) {
+                    if (rows == null) {
+                        for (String value: values) {
+                            encode(writer, column, castValueAccordingToColumnType(column, value));
+                        }
+                    } else {
+                        for (int row: rows) {
+                            encode(writer, column, castValueAccordingToColumnType(column, values.get(row)));
+                        }
+                    }
+                    if (durability != DURABILITY_NONE) { writer.force(durability == DURABILITY_SYNC); }
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<Void> future: COLUMN_WRITERS.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing columns.", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
     }
 
     /**
@@ -111,47 +356,70 @@ public class ColumnStoreDisk extends ColumnStoreAbstract{
      */
     @Override
     public List<Integer> filter(String column, Predicate<Object> predicate) {
+        if (isPartitioned()) {
+            long start = metrics.start();
+            long[] scanned = new long[1];
+            SpillableIntList result = filterPartitions(column, predicate, getPartitions(), scanned);
+            metrics.record(StoreMetrics.FILTER, start, scanned[0], result.size());
+            result.complete();
+            return result;
+        }
         try {
+            long start = metrics.start();
+            long bytesRead = 0;
             File file = new File(getName()+"/"+column+".store");
             int idx = 0;
-            List<Integer> result = new ArrayList<>();
-            if (isNotNumberDataType(column)) { //use BufferedReader since it's string
-                BufferedReader bufferedReader = new BufferedReader(new FileReader(file), BUFFER_SIZE);
-                while(true) {
-                    String value = bufferedReader.readLine();
-                    if (value == null) {
-                        break;
-                    }
-                    Object toCheck;
-                    if (!Objects.equals(value, "M")) {
-                        if (columnDataTypes.get(column) == TIME_DATATYPE) {
-                            toCheck = LocalDateTime.parse(value, DateTimeFormatter.ofPattern(DTFORMATSTRING));
-                        } else {
-                            toCheck = value;
-                        }
-                        if (predicate.test(toCheck)) { result.add(idx); }
+            SpillableIntList result = new SpillableIntList();
+            if (isNotNumberDataType(column)) { //read all the lines, starting from row 0
+                boolean isTime = columnDataTypes.get(column) == TIME_DATATYPE;
+                int[] all = new int[lineIndexOf(file).lines];
+                RowCursor rows = new RowCursor(getRemovedRows());
+                for (int i = 0; i < all.length; i++) {
+                    all[i] = rows.next();
+                }
+                int[] live = liveIndexes(all);
+                sweepLines(file, positionsOf(live), (i, value) -> {
+                    if (Objects.equals(value, "M")) { return; }
+                    Object toCheck = value;
+                    if (isTime) {
+                        long time = CalendarKernels.parseEpochSecond(value);
+                        toCheck = time != ColumnBatch.NULL_TIME ? LocalDateTime.ofEpochSecond(time, 0, ZoneOffset.UTC)
+                                : LocalDateTime.parse(value, DateTimeFormatter.ofPattern(DTFORMATSTRING));
                     }
-                    idx++;
-                }
-            } else { //use ByteBuffer and FileInputStream
-                FileInputStream inputStream = new FileInputStream(file);
-                ByteBuffer bbf = ByteBuffer.allocate(BUFFER_SIZE);
-
-                while (inputStream.read(bbf.array()) != -1) { //there's still stuff to read
-                    bbf.position(0); // reset the position to 0
-                    while(bbf.hasRemaining()) {
-                        byte[] tempBuffer = new byte[4];
-                        bbf.get(tempBuffer);
-                        Object toCheck = convertBytesToNumber(tempBuffer, columnDataTypes.get(column));
-                        if (toCheck != null && predicate.test(toCheck)) {
-                            result.add(idx);
+                    if (predicate.test(toCheck)) { result.add(live[i]); }
+                });
+                idx = all.length;
+            } else { //values are 4 bytes each, read ahead in large blocks
+                int dataType = columnDataTypes.get(column);
+                DeletionVector deleted = getDeletionVector();
+                RowCursor rows = new RowCursor(getRemovedRows());
+                try (ScanReader reader = openScan(file)) {
+                    ByteBuffer block;
+                    while ((block = reader.next()) != null) {
+                        bytesRead += block.remaining();
+                        while (block.remaining() >= 4) {
+                            Object toCheck;
+                            if (dataType == INTEGER_DATATYPE) {
+                                int value = block.getInt();
+                                toCheck = value == Integer.MIN_VALUE ? null : value; //Integer.MIN_VALUE is equivalent to null
+                            } else {
+                                float value = block.getFloat();
+                                toCheck = Float.isNaN(value) ? null : value; //Float.NaN is equivalent to null
+                            }
+                            int row = rows.next();
+                            if (toCheck != null && !deleted.isDeleted(row) && predicate.test(toCheck)) {
+                                result.add(row);
+                            }
+                            idx++;
                         }
-                        idx++;
                     }
-                    bbf.clear(); //clear the data in the bytebuffer to prepare for next read
                 }
+                metrics.addSeeks(1);
             }
 
+            metrics.addBytesRead(bytesRead);
+            metrics.record(StoreMetrics.FILTER, start, idx, result.size());
+            result.complete();
             return result;
         } catch (Exception e) {
             e.printStackTrace();
@@ -164,49 +432,16 @@ public class ColumnStoreDisk extends ColumnStoreAbstract{
      */
     @Override
     public List<Integer> filter(String column, Predicate<Object> predicate, List<Integer> indexesToCheck) {
-        List<Integer> results = new ArrayList<>();
-        try {
-            if (isNotNumberDataType(column)) {
-                File file = new File(getName()+"/"+column+".store");
-                BufferedReader bufferedReader = new BufferedReader(new FileReader(file), BUFFER_SIZE);
-                int currIndex = 0;
-                for (int indexToCheck: indexesToCheck) {
-                    Object toCheck;
-                    while (currIndex != indexToCheck) {
-                        if(bufferedReader.readLine() == null) {
-                            //end of file reached.
-                            System.out.println("Index to check is out of bounds!");
-                            return results;
-                        }
-                        currIndex++;
-                    }
-
-                    String value = bufferedReader.readLine();
-                    currIndex++;
-                    if (Objects.equals(value, "M")) { continue; } //null value, predicate will always be false. can skip to next index to check
-                    if (columnDataTypes.get(column) == STRING_DATATYPE) { toCheck = value; }
-                    else { toCheck = LocalDateTime.parse(value, DateTimeFormatter.ofPattern(DTFORMATSTRING)); }
-
-                    if (predicate.test(toCheck)) { results.add(indexToCheck); }
-                }
-            } else { //values are stored directly, each taking up 4 bytes. Can skip to index using fileInputStream
-                RandomAccessFile fileInputStream = new RandomAccessFile(getName()+"/"+column+".store", "r");
-                ByteBuffer bbf = ByteBuffer.allocate(4);
-                for (int indexToCheck: indexesToCheck) {
-                    //can access directly
-                    fileInputStream.seek(indexToCheck*4L);
-                    if(fileInputStream.read(bbf.array()) != 4) {
-                        System.out.println("Did not read 4 bytes when getting a number value from file.");
-                    }
-                    Object toCheck = convertBytesToNumber(bbf.array(), columnDataTypes.get(column));
-                    if (toCheck != null && predicate.test(toCheck)) { results.add(indexToCheck); }
-                    bbf.clear();
-                }
-
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        SpillableIntList results = new SpillableIntList();
+        long start = metrics.start();
+        ColumnBatch batch = gatherColumnOf(column, indexesToCheck); //the access path is chosen by the density of the indexes
+        for (int indexToCheck: indexesToCheck) {
+            int position = batch.positionOf(indexToCheck);
+            Object toCheck = position < 0 ? null : batch.getValue(column, position);
+            if (toCheck != null && predicate.test(toCheck)) { results.add(indexToCheck); }
         }
+        metrics.record(StoreMetrics.FILTER_INDEXES, start, indexesToCheck.size(), results.size());
+        results.complete();
         return results;
     }
 
@@ -218,30 +453,23 @@ public class ColumnStoreDisk extends ColumnStoreAbstract{
         List<Integer> results = new ArrayList<>();
         if (!validationCheckForMinMax(column)) { return results; }
         
-        try {
-            RandomAccessFile fileInputStream = new RandomAccessFile(getName()+"/"+column+".store", "r");
-            byte[] buffer = new byte[4];
-            float maximum = Float.MIN_VALUE;
-            float valueAtIndex;
-            for (int indexToCheck: indexesToCheck) {
-                fileInputStream.seek(indexToCheck* 4L);
-                if(fileInputStream.read(buffer) != 4) {
-                    System.out.println("Did not read 4 bytes when getting a number value from file.");
-                }
-                Object objectAtIndex = convertBytesToNumber(buffer, columnDataTypes.get(column));
-                if (objectAtIndex == null) { continue; }
-                valueAtIndex = (float) objectAtIndex; //cast to float. even if the underlying object is int, e.g. 24, it will cast to 24.0. it does NOT read the underlying bytes as float, still reads as int
-                if (valueAtIndex == maximum) {
-                    results.add(indexToCheck);
-                } else if (valueAtIndex > maximum) {
-                    results.clear();
-                    results.add(indexToCheck);
-                    maximum = valueAtIndex; //update new maximum
-                }
+        long start = metrics.start();
+        ColumnBatch batch = gatherColumnOf(column, indexesToCheck); //the access path is chosen by the density of the indexes
+        float extreme = Float.NEGATIVE_INFINITY;
+        for (int indexToCheck: indexesToCheck) {
+            int position = batch.positionOf(indexToCheck);
+            Object objectAtIndex = position < 0 ? null : batch.getValue(column, position);
+            if (objectAtIndex == null) { continue; }
+            float valueAtIndex = ((Number) objectAtIndex).floatValue();
+            if (valueAtIndex == extreme) {
+                results.add(indexToCheck);
+            } else if (valueAtIndex > extreme) {
+                results.clear();
+                results.add(indexToCheck);
+                extreme = valueAtIndex;
             }
-        } catch(Exception e) {
-            e.printStackTrace();
         }
+        metrics.record(StoreMetrics.GET_MAX, start, indexesToCheck.size(), results.size());
         return results;
     }
 
@@ -253,30 +481,23 @@ public class ColumnStoreDisk extends ColumnStoreAbstract{
         List<Integer> results = new ArrayList<>();
         if (!validationCheckForMinMax(column)) { return results; }
 
-        try {
-            RandomAccessFile fileInputStream = new RandomAccessFile(getName()+"/"+column+".store", "r");
-            byte[] buffer = new byte[4];
-            float minimum = Float.MAX_VALUE;
-            float valueAtIndex;
-            for (int indexToCheck: indexesToCheck) {
-                fileInputStream.seek(indexToCheck* 4L);
-                if(fileInputStream.read(buffer) != 4) {
-                    System.out.println("Did not read 4 bytes when getting a number value from file.");
-                }
-                Object objectAtIndex = convertBytesToNumber(buffer, columnDataTypes.get(column));
-                if (objectAtIndex == null) { continue; }
-                valueAtIndex = (float) objectAtIndex; //cast to float. even if the underlying object is int, e.g. 24, it will cast to 24.0. it does NOT read the underlying bytes as float, still reads as int
-                if (valueAtIndex == minimum) {
-                    results.add(indexToCheck);
-                } else if (valueAtIndex < minimum) {
-                    results.clear();
-                    results.add(indexToCheck);
-                    minimum = valueAtIndex; //update new maximum
-                }
+        long start = metrics.start();
+        ColumnBatch batch = gatherColumnOf(column, indexesToCheck); //the access path is chosen by the density of the indexes
+        float extreme = Float.POSITIVE_INFINITY;
+        for (int indexToCheck: indexesToCheck) {
+            int position = batch.positionOf(indexToCheck);
+            Object objectAtIndex = position < 0 ? null : batch.getValue(column, position);
+            if (objectAtIndex == null) { continue; }
+            float valueAtIndex = ((Number) objectAtIndex).floatValue();
+            if (valueAtIndex == extreme) {
+                results.add(indexToCheck);
+            } else if (valueAtIndex < extreme) {
+                results.clear();
+                results.add(indexToCheck);
+                extreme = valueAtIndex;
             }
-        } catch(Exception e) {
-            e.printStackTrace();
         }
+        metrics.record(StoreMetrics.GET_MIN, start, indexesToCheck.size(), results.size());
         return results;
     }
 
@@ -298,64 +519,76 @@ public class ColumnStoreDisk extends ColumnStoreAbstract{
             return null;
         }
 
-        try {
-            if (isNotNumberDataType(column)) {
-                //values are stored as string, separated by newlines
-                //cannot skip index, must manually call nextLine() using simple Scanner class
-                File file = new File(getName()+"/"+column+".store");
-                Scanner sc = new Scanner(file);
-                while (sc.hasNextLine() && index > 0) {
-                    sc.nextLine();
-                    index--;
-                }
+        long start = metrics.start();
+        ColumnBatch batch = gatherColumnOf(column, List.of(index)); //a text column is read from the nearest offset of its line index
+        metrics.record(StoreMetrics.GET_VALUE, start, 1, 1);
+        return batch.size() == 0 ? null : batch.getValue(column, 0); //deleted
+    }
+
+    /**
+     * Reads the column from the file (of each partition) with the cheapest access path, instead of one seek and read per index.
+     */
+    @Override
+    protected void gatherColumn(ColumnBatch batch, String column) {
+        if (!isPartitioned()) {
+            gatherColumn(batch, column, positionsOf(batch.getIndexes()), new File(getName()+"/"+column+".store"));
+            return;
+        }
 
-                String value = sc.nextLine();
-                if (Objects.equals(value, "M")) { return null; }
-                if (columnDataTypes.get(column) == STRING_DATATYPE) { return value; }
-                else {
-                    return LocalDateTime.parse(value, DateTimeFormatter.ofPattern(DTFORMATSTRING));
+        //split the batch by partition, in local row indexes, which are ascending since rows are appended to partitions in order
+        catalogLock.readLock().lock();
+        try {
+            LinkedHashMap<String, List<int[]>> positionsByPartition = new LinkedHashMap<>(); //position in batch, local row index
+            for (int i = 0; i < batch.size(); i++) {
+                Extent extent = locate(batch.getIndex(i));
+                if (extent == null) { continue; } //dropped, compacted away or out of bounds, stays null
+                positionsByPartition.computeIfAbsent(extent.partition, p -> new ArrayList<>())
+                        .add(new int[] {i, batch.getIndex(i) - extent.firstRow + extent.firstLocalRow});
+            }
+            for (Map.Entry<String, List<int[]>> entry: positionsByPartition.entrySet()) {
+                List<int[]> positions = entry.getValue();
+                int[] localIndexes = new int[positions.size()];
+                for (int j = 0; j < positions.size(); j++) {
+                    localIndexes[j] = positions.get(j)[1];
                 }
-            } else { //values are stored directly, each taking up 4 bytes. Can skip to index using RandomAccessFile
-                RandomAccessFile fileInputStream = new RandomAccessFile(getName()+"/"+column+".store", "r");
-                ByteBuffer bbf = ByteBuffer.allocate(4);
-                fileInputStream.seek(index* 4L);
-                if(fileInputStream.read(bbf.array()) != 4) {
-                    System.out.println("Did not read 4 bytes when getting a number value from file.");
+                ColumnBatch partitionBatch = new ColumnBatch(localIndexes);
+                partitionBatch.addColumn(column, batch.getDataType(column));
+                gatherColumn(partitionBatch, column, localIndexes, partitionFile(entry.getKey(), column));
+                for (int j = 0; j < positions.size(); j++) {
+                    batch.setValue(column, positions.get(j)[0], partitionBatch.getValue(column, j));
                 }
-                return convertBytesToNumber(bbf.array(), columnDataTypes.get(column));
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+        } finally {
+            catalogLock.readLock().unlock();
         }
-        return null;
     }
 
     /**
-     * {@inheritDoc}
+     * Reads the column from the given file in one forward pass.
+     * @param batch the batch
+     * @param column the column to retrieve
+     * @param positions the positions of the rows of the batch in the file
+     * @param file the file of the column
      */
-    @Override
-    public void printHead(int until) {
+    private void gatherColumn(ColumnBatch batch, String column, int[] positions, File file) {
         try {
-            for (String column: columnHeaders) {
-                System.out.print(column+": ");
-                if (isNotNumberDataType(column)) {
-                    Scanner sc = new Scanner(new File(getName()+"/"+column+".store"));
-                    int temp = until;
-                    while (temp > 0) {
-                        System.out.print(sc.nextLine());
-                        System.out.print(",");
-                        temp--;
-                    }
-                } else {
-                    FileInputStream fileInputStream = new FileInputStream(getName()+"/"+column+".store");
-                    int temp = until;
-                    while (temp > 0) {
-                        System.out.print(convertBytesToNumber(fileInputStream.readNBytes(4), columnDataTypes.get(column)));
-                        System.out.print(",");
-                        temp--;
+            if (isNotNumberDataType(column)) { //values are stored as string, separated by newlines
+                DateTimeFormatter formatter = DateTimeFormatter.ofPattern(DTFORMATSTRING);
+                boolean isString = columnDataTypes.get(column) == STRING_DATATYPE;
+                sweepLines(file, positions, (i, value) -> {
+                    if (Objects.equals(value, "M")) { return; } //batch values are null by default
+                    if (isString) { batch.getStrings(column)[i] = value; }
+                    else {
+                        long time = CalendarKernels.parseEpochSecond(value);
+                        batch.getTimes(column)[i] = time != ColumnBatch.NULL_TIME ? time : ColumnBatch.toEpochSecond(LocalDateTime.parse(value, formatter));
                     }
-                }
-                System.out.println();
+                });
+            } else { //values are stored directly, each taking up 4 bytes. Null values are stored the same way as in the batch.
+                boolean isInteger = columnDataTypes.get(column) == INTEGER_DATATYPE;
+                sweepFixedWidth(file, 4, positions, (i, window, offset) -> {
+                    if (isInteger) { batch.getInts(column)[i] = window.getInt(offset); }
+                    else { batch.getFloats(column)[i] = window.getFloat(offset); }
+                });
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -363,72 +596,1331 @@ public class ColumnStoreDisk extends ColumnStoreAbstract{
     }
 
     /**
-     * Converts the byte array (should be of size 4) into either a float or integer based on the datatype passed in.
-     * If the converted number is {@link Integer#MIN_VALUE} or {@link Float#isNaN()}, then return null.
-     * @param buffer the byte array
-     * @param dataType either {@link ColumnStoreAbstract#INTEGER_DATATYPE} or {@link ColumnStoreAbstract#FLOAT_DATATYPE}.
-     * @return the number or null
+     * Chooses how rows are partitioned by time, before any data is added. Each partition is a directory of column files,
+     * e.g. {@code disk/year=2009/Temperature.store}, and a catalog maps row indexes to partitions.
+     *
+     * <p>If the store already has a catalog on disk from an earlier run with the same partitioning, the catalog is loaded.</p>
+     * @param column the time column to partition by
+     * @param partitioning one of {@link #PARTITION_NONE}, {@link #PARTITION_BY_YEAR} and {@link #PARTITION_BY_MONTH} (within each year)
+     * @throws IllegalStateException if data was already added with a different partitioning
      */
-    private Object convertBytesToNumber(byte[] buffer, int dataType) {
-        ByteBuffer bbf = ByteBuffer.allocate(4);
-        bbf.put(buffer.clone());
-        if (dataType == INTEGER_DATATYPE) {
-            int result = bbf.getInt(0);
-            if (result == Integer.MIN_VALUE) { return null; } //the design is such that Integer.MIN_VALUE is equivalent to null
-            return result;
-        } else if (dataType == FLOAT_DATATYPE) {
-            float result = bbf.getFloat(0);
-            if (Float.isNaN(result)) { return null; } //the design is such that Float.NaN is equivalent to null
-            return result;
-        } else {
-            System.out.println("Wrong usage of this function (convertBytesToNumber). Should pass in only FLOAT or INTEGER dataType.");
-            return null;
+    public void setPartitioning(String column, int partitioning) {
+        if (partitioning < PARTITION_NONE || partitioning > PARTITION_BY_MONTH) {
+            throw new IllegalArgumentException("No such partitioning: " + partitioning);
+        }
+        if (partitioning != PARTITION_NONE && (isInvalidColumn(column) || columnDataTypes.get(column) != TIME_DATATYPE)) {
+            throw new IllegalArgumentException("Partition column should be a time column registered with this column store.");
+        }
+
+        File catalog = new File(getName()+"/"+CATALOG_FILE);
+        boolean hasData = !extents.isEmpty() || catalog.exists() || columnHeaders.stream().anyMatch(c -> new File(getName()+"/"+c+".store").exists());
+        if (partitioning != PARTITION_NONE && extents.isEmpty() && catalog.exists()) {
+            loadCatalog(catalog, column, partitioning);
+            return;
+        }
+        if (hasData && (partitioning != this.partitioning || !Objects.equals(partitioning == PARTITION_NONE ? null : column, partitionColumn))) {
+            throw new IllegalStateException("Partitioning cannot be changed after data is added.");
         }
+        this.partitioning = partitioning;
+        this.partitionColumn = partitioning == PARTITION_NONE ? null : column;
     }
 
     /**
-     * Append 4 bytes to the file representing a float.
-     * @param fileOutputStream the outputStream of the file.
-     * @param value integer to store
+     * @return true if rows are partitioned by time
      */
-    protected void handleStoreInteger(FileOutputStream fileOutputStream, int value) {
-        ByteBuffer bbf = ByteBuffer.allocate(4);
-        bbf.putInt(value);
+    public boolean isPartitioned() {
+        return partitioning != PARTITION_NONE;
+    }
 
+    /**
+     * @return the names of the partitions, e.g. "year=2009", in ascending order. Empty if the store is not partitioned.
+     */
+    public List<String> getPartitions() {
+        catalogLock.readLock().lock();
         try {
-            fileOutputStream.write(bbf.array());
-        } catch (Exception e) {
-            e.printStackTrace();
+            return new ArrayList<>(new TreeSet<>(partitionSizes.keySet()));
+        } finally {
+            catalogLock.readLock().unlock();
         }
     }
 
     /**
-     * Append 4 bytes to the file representing a float.
-     * @param fileOutputStream the outputStream of the file
-     * @param value float to store
+     * @param partition the name of a partition
+     * @return the row indexes of the partition, in ascending order, without the rows deleted
      */
-    protected void handleStoreFloat(FileOutputStream fileOutputStream, float value) {
-        ByteBuffer bbf = ByteBuffer.allocate(4);
-        bbf.putFloat(value);
+    public List<Integer> getPartitionRows(String partition) {
+        SpillableIntList rows = partitionRows(partition);
+        rows.complete();
+        return rows;
+    }
+
+    /**
+     * @see #getPartitionRows(String)
+     */
+    private SpillableIntList partitionRows(String partition) {
+        SpillableIntList rows = new SpillableIntList();
+        DeletionVector deleted = getDeletionVector();
+        catalogLock.readLock().lock();
         try {
-            fileOutputStream.write(bbf.array());
-        } catch (Exception e) {
-            e.printStackTrace();
+            for (Extent extent: extents) {
+                if (!extent.partition.equals(partition)) { continue; }
+                for (int i = 0; i < extent.rows; i++) {
+                    if (!deleted.isDeleted(extent.firstRow + i)) { rows.add(extent.firstRow + i); }
+                }
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the indexes whose time is in {@code [from, to)}. If the store is partitioned by the column,
+     * partitions outside the range are pruned without opening any file, and partitions inside the range
+     * are returned whole without opening any file. Only the partitions at the ends of the range are scanned.
+     * @param column a time column
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @return list of matched indexes, in ascending order
+     */
+    public List<Integer> filterTimeRange(String column, LocalDateTime from, LocalDateTime to) {
+        Predicate<Object> inRange = value -> !((LocalDateTime) value).isBefore(from) && ((LocalDateTime) value).isBefore(to);
+        if (!column.equals(partitionColumn)) { return filter(column, inRange); }
+
+        long start = metrics.start();
+        long[] scanned = new long[1];
+        SpillableIntList results = new SpillableIntList();
+        List<String> toScan = new ArrayList<>();
+        for (String partition: getPartitions()) {
+            LocalDateTime[] bounds = partitionBounds(partition);
+            if (bounds == null || !bounds[1].isAfter(from) || !bounds[0].isBefore(to)) { continue; } //pruned
+            if (!bounds[0].isBefore(from) && !bounds[1].isAfter(to)) {
+                try (SpillableIntList rows = partitionRows(partition)) {
+                    results.addAll(rows); //whole partition matches
+                }
+            } else {
+                toScan.add(partition);
+            }
+        }
+        try (SpillableIntList matched = filterPartitions(column, inRange, toScan, scanned)) {
+            results.addAll(matched);
         }
+        Collections.sort(results);
+        metrics.record(StoreMetrics.FILTER, start, scanned[0], results.size());
+        results.complete();
+        return results;
     }
 
     /**
-     * Append 8 bytes to the file, representing a long.
-     * @param fileOutputStream the outputStream of the file
-     * @param value long to store
+     * Removes a partition and deletes its files. The indexes of the rows of other partitions do not change.
+     * @param partition the name of the partition
+     * @return false if there is no such partition
      */
-    protected void handleStoreLong(FileOutputStream fileOutputStream, long value) {
-        ByteBuffer bbf = ByteBuffer.allocate(8);
-        bbf.putLong(value);
+    public boolean dropPartition(String partition) {
+        catalogLock.writeLock().lock();
         try {
-            fileOutputStream.write(bbf.array());
-        } catch (Exception e) {
-            e.printStackTrace();
+            if (!partitionSizes.containsKey(partition)) { return false; }
+            removeFromCatalog(partition);
+            File directory = new File(getName()+"/"+partition);
+            forgetLineIndexes(directory);
+            closeReadChannels(directory);
+            for (String column: columnHeaders) {
+                new File(directory, column+".store").delete();
+            }
+            directory.delete();
+            File parent = directory.getParentFile(); //e.g. year=2009 after its last month is dropped
+            if (!parent.getName().equals(getName()) && Objects.requireNonNull(parent.list()).length == 0) {
+                parent.delete();
+            }
+            return true;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves the files of a partition to another directory, and removes the partition from this store.
+     * @param partition the name of the partition
+     * @param archiveDirectory the directory to move the partition directory into, keeping its name
+     * @return false if there is no such partition
+     * @throws IOException if the files could not be moved, in which case the partition is kept
+     */
+    public boolean archivePartition(String partition, File archiveDirectory) throws IOException {
+        catalogLock.writeLock().lock();
+        try {
+            if (!partitionSizes.containsKey(partition)) { return false; }
+            File target = new File(archiveDirectory, partition);
+            target.getParentFile().mkdirs();
+            Files.move(new File(getName()+"/"+partition).toPath(), target.toPath());
+            forgetLineIndexes(new File(getName()+"/"+partition));
+            closeReadChannels(new File(getName()+"/"+partition));
+            removeFromCatalog(partition);
+            return true;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes a row, see {@link #delete(List)}.
+     * @param row the row index
+     * @return false if the row does not exist or was already deleted
+     */
+    public boolean delete(int row) {
+        return delete(List.of(row)) == 1;
+    }
+
+    /**
+     * Marks the rows as deleted, so that they are skipped by scans and no longer gathered, saves the {@link DeletionVector}
+     * and removes the rows from the {@link #getSynopsis() synopsis}.
+     * The partitions, or the store if it is not partitioned, whose share of deleted rows reaches the
+     * {@link #setCompactionThreshold(double) threshold} are compacted in the background.
+     * Deletes and {@link #update(int, Map) updates} hold the lock of this column store, so that a row deleted while it is updated
+     * is not updated, and its new version not left behind.
+     * @param rows the row indexes, in any order. Rows that do not exist are ignored.
+     * @return the number of rows deleted, without the ones already deleted
+     */
+    public synchronized int delete(List<Integer> rows) {
+        long start = metrics.start();
+        int[] existing = new int[rows.size()];
+        int size = 0;
+        Set<String> partitions = new HashSet<>();
+        catalogLock.readLock().lock();
+        try {
+            int storedRows = storedRows();
+            for (int row: toSortedIndexes(rows)) {
+                if (row < 0 || row >= storedRows) { continue; }
+                if (isPartitioned()) {
+                    Extent extent = locate(row);
+                    if (extent == null) { continue; } //dropped or compacted away
+                    partitions.add(extent.partition);
+                }
+                existing[size++] = row;
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+
+        List<String> numericColumns = new ArrayList<>();
+        for (String column: columnHeaders) {
+            if (!isNotNumberDataType(column)) { numericColumns.add(column); }
+        }
+        int[] toDelete = Arrays.copyOf(existing, size);
+        ColumnBatch values = gather(numericColumns, Arrays.stream(toDelete).boxed().toList()); //without the rows already deleted
+
+        int deleted = getDeletionVector().delete(toDelete);
+        if (deleted > 0) {
+            removeFromSynopsis(values);
+            saveDeletes();
+            markModified();
+            scheduleCompactions(partitions);
+        }
+        metrics.record(StoreMetrics.DELETE, start, rows.size(), deleted);
+        return deleted;
+    }
+
+    /**
+     * Changes values of a row, by appending a new version of the row with the new values and then deleting the row.
+     * The values of the derived calendar columns are derived again from the new version.
+     *
+     * <p>The new version has a new row index, so selections made before the update do not see it.</p>
+     * @param row the row index
+     * @param values the new values by column, of the types returned by {@link #getValue(String, int)}. Can be null.
+     * @return the row index of the new version, or -1 if the row does not exist, was deleted, or a column cannot be updated
+     */
+    public synchronized int update(int row, Map<String, Object> values) {
+        for (String column: values.keySet()) {
+            if (isInvalidColumn(column)) {
+                System.out.printf("Column (%s) is not registered with this column store.\n", column);
+                return -1;
+            }
+            if (isDerivedColumn(column)) {
+                System.out.printf("Column (%s) is derived from its time column and cannot be updated.\n", column);
+                return -1;
+            }
+        }
+        if (!exists(row) || getDeletionVector().isDeleted(row)) {
+            System.out.println("No such row.");
+            return -1;
+        }
+
+        long start = metrics.start();
+        ColumnBatch batch = gather(new ArrayList<>(columnHeaders), List.of(row));
+        HashMap<String, List<String>> buffer = new HashMap<>();
+        for (String column: columnHeaders) {
+            if (isDerivedColumn(column)) { continue; } //derived again by appendRows
+            Object value = values.containsKey(column) ? values.get(column) : batch.getValue(column, 0);
+            String text = value == null ? "M" : value instanceof LocalDateTime ? ((LocalDateTime) value).format(FORMATTER) : String.valueOf(value);
+            buffer.put(column, new ArrayList<>(List.of(text)));
+        }
+        int newRow = appendRows(buffer); //before the delete, so that the row is never missing
+        delete(row);
+        metrics.record(StoreMetrics.UPDATE, start, 1, 1);
+        return newRow;
+    }
+
+    /**
+     * @return the deleted rows of this column store, loaded from its directory on first use
+     */
+    public DeletionVector getDeletionVector() {
+        DeletionVector vector = deletes;
+        if (vector != null) { return vector; }
+        synchronized (pendingCompactions) {
+            if (deletes == null) {
+                try {
+                    deletes = DeletionVector.load(new File(getName()+"/"+DELETES_FILE));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    deletes = new DeletionVector();
+                }
+            }
+            return deletes;
+        }
+    }
+
+    /**
+     * Sets the share of deleted rows in a partition at which it is compacted in the background, see {@link #compact(String)}.
+     * @param threshold between 0 and 1, above 1 to never compact in the background
+     */
+    public void setCompactionThreshold(double threshold) {
+        if (!(threshold >= 0)) {
+            throw new IllegalArgumentException("The compaction threshold cannot be negative.");
+        }
+        this.compactionThreshold = threshold;
+    }
+
+    /**
+     * @param partition the name of a partition
+     * @return the share of the rows stored in the files of the partition that are deleted, 0 if there is no such partition
+     */
+    public double getDeadRatio(String partition) {
+        DeletionVector deleted = getDeletionVector();
+        catalogLock.readLock().lock();
+        try {
+            int size = partitionSizes.getOrDefault(partition, 0);
+            if (size == 0) { return 0; }
+            long dead = 0;
+            for (Extent extent: extents) {
+                if (extent.partition.equals(partition)) { dead += deleted.count(extent.firstRow, extent.firstRow + extent.rows); }
+            }
+            return (double) dead / size;
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the share of the rows stored in the files of this column store that are deleted, 0 if there are none
+     */
+    public double getDeadRatio() {
+        DeletionVector deleted = getDeletionVector();
+        catalogLock.readLock().lock();
+        try {
+            long size = 0;
+            long dead = 0;
+            if (isPartitioned()) {
+                for (Extent extent: extents) {
+                    size += extent.rows;
+                    dead += deleted.count(extent.firstRow, extent.firstRow + extent.rows);
+                }
+            } else {
+                int[] removed = getRemovedRows();
+                size = storedRows() - removed.length;
+                dead = deleted.count(0, storedRows()) - removed.length; //removed rows stay deleted
+            }
+            return size == 0 ? 0 : (double) dead / size;
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the files of a store that is not partitioned without its deleted rows. The rows kept keep their row index:
+     * the rows removed from the files are recorded, and a row is then stored at its row index less the number of rows removed before it.
+     *
+     * <p>The rows kept are copied to new files while holding the data of this column store shared, as queries run through
+     * {@link #query(java.util.function.Supplier)} do. The new files then replace the old ones while holding the data exclusively,
+     * as appends do, so compacting is only safe while queries run through {@link #query(java.util.function.Supplier)}.
+     * If rows are added in the meantime, the copy is discarded and the files are left as is.</p>
+     * @return true if the files were compacted, false if the store is partitioned (see {@link #compact(String)}) or its files have no deleted rows
+     * @throws IOException if the files could not be copied or replaced
+     */
+    public boolean compact() throws IOException {
+        if (isPartitioned()) { return false; }
+        long start = metrics.start();
+        DeletionVector deleted = getDeletionVector();
+        File directory = new File(getName());
+        File compacted = null;
+        try {
+            int stored;
+            int[] removed;
+            int[] livePositions;
+            int[] removing;
+            int liveRows = 0;
+            int removingRows = 0;
+            dataLock.readLock().lock();
+            try {
+                stored = storedRows();
+                removed = getRemovedRows();
+                livePositions = new int[stored - removed.length];
+                removing = new int[stored - removed.length];
+                RowCursor rows = new RowCursor(removed);
+                for (int position = 0; position < livePositions.length; position++) {
+                    int row = rows.next();
+                    if (deleted.isDeleted(row)) { removing[removingRows++] = row; }
+                    else { livePositions[liveRows++] = position; }
+                }
+                if (removingRows == 0) { return false; }
+
+                compacted = Files.createTempDirectory(directory.toPath(), "compacting").toFile();
+                for (String column: columnHeaders) {
+                    File source = new File(directory, column+".store");
+                    if (source.exists()) { copyRows(column, source, new File(compacted, column+".store"), livePositions, liveRows); }
+                }
+            } finally {
+                dataLock.readLock().unlock();
+            }
+
+            dataLock.writeLock().lock();
+            try {
+                if (storedRows() != stored || getRemovedRows() != removed) { return false; } //rows were added or compacted meanwhile
+                int[] allRemoved = new int[removed.length + removingRows];
+                System.arraycopy(removed, 0, allRemoved, 0, removed.length);
+                System.arraycopy(removing, 0, allRemoved, removed.length, removingRows);
+                Arrays.sort(allRemoved);
+                closeReadChannels(directory);
+                forgetLineIndexes(directory);
+                for (String column: columnHeaders) {
+                    File file = new File(compacted, column+".store");
+                    if (file.exists()) { Files.move(file.toPath(), new File(directory, column+".store").toPath(), StandardCopyOption.REPLACE_EXISTING); }
+                }
+                removedRows = allRemoved;
+                saveRemovedRows(allRemoved); //the deleted rows stay marked, so that they are still skipped by gathers of their row index
+            } finally {
+                dataLock.writeLock().unlock();
+            }
+            metrics.record(StoreMetrics.COMPACT, start, livePositions.length, liveRows);
+            return true;
+        } finally {
+            if (compacted != null) {
+                for (File file: Objects.requireNonNull(compacted.listFiles())) {
+                    file.delete();
+                }
+                compacted.delete();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the files of a partition without its deleted rows. The rows kept keep their row index.
+     *
+     * <p>The rows kept are copied to new files while queries run, as the copy only holds the catalog for reading.
+     * The new files then replace the old ones, and the catalog is updated, while holding the catalog exclusively.
+     * If rows are added to the partition in the meantime, the copy is discarded and the partition is left as is.</p>
+     *
+     * @param partition the name of a partition
+     * @return true if the partition was compacted, false if the store is not partitioned (see {@link #compact()}), there is no such partition,
+     * or it has no deleted rows
+     * @throws IOException if the files could not be copied or replaced
+     */
+    public boolean compact(String partition) throws IOException {
+        if (!isPartitioned()) { return false; }
+        long start = metrics.start();
+        DeletionVector deleted = getDeletionVector();
+        File directory = new File(getName()+"/"+partition);
+        File compacted = null;
+        try {
+            int size;
+            int[] liveLocalRows;
+            int liveRows = 0;
+            int deadRows = 0;
+            List<Extent> liveExtents = new ArrayList<>();
+            catalogLock.readLock().lock();
+            try {
+                Integer partitionSize = partitionSizes.get(partition);
+                if (partitionSize == null) { return false; }
+                size = partitionSize;
+                liveLocalRows = new int[size];
+                for (Extent extent: extents) {
+                    if (!extent.partition.equals(partition)) { continue; }
+                    for (int i = 0; i < extent.rows; i++) {
+                        int row = extent.firstRow + i;
+                        if (deleted.isDeleted(row)) {
+                            deadRows++;
+                            continue;
+                        }
+                        Extent last = liveExtents.isEmpty() ? null : liveExtents.get(liveExtents.size() - 1);
+                        if (last != null && last.firstRow + last.rows == row) {
+                            last.rows++;
+                        } else {
+                            liveExtents.add(new Extent(partition, row, liveRows, 1));
+                        }
+                        liveLocalRows[liveRows++] = extent.firstLocalRow + i;
+                    }
+                }
+                if (deadRows == 0) { return false; }
+
+                compacted = Files.createTempDirectory(new File(getName()).toPath(), "compacting").toFile();
+                for (String column: columnHeaders) {
+                    File source = partitionFile(partition, column);
+                    if (source.exists()) { copyRows(column, source, new File(compacted, column+".store"), liveLocalRows, liveRows); }
+                }
+            } finally {
+                catalogLock.readLock().unlock();
+            }
+
+            catalogLock.writeLock().lock();
+            try {
+                if (!Objects.equals(partitionSizes.get(partition), size)) { return false; } //rows were added or the partition was dropped
+                closeReadChannels(directory);
+                forgetLineIndexes(directory);
+                for (String column: columnHeaders) {
+                    File file = new File(compacted, column+".store");
+                    if (file.exists()) { Files.move(file.toPath(), partitionFile(partition, column).toPath(), StandardCopyOption.REPLACE_EXISTING); }
+                }
+                extents.removeIf(extent -> extent.partition.equals(partition));
+                extents.addAll(liveExtents);
+                extents.sort(Comparator.comparingInt(extent -> extent.firstRow));
+                partitionSizes.put(partition, liveRows);
+                saveCatalog(); //the deleted rows stay marked, so that they are still skipped by gathers of their row index
+            } finally {
+                catalogLock.writeLock().unlock();
+            }
+            metrics.record(StoreMetrics.COMPACT, start, size, liveRows); //results do not change, so the version does not either
+            return true;
+        } finally {
+            if (compacted != null) {
+                for (File file: Objects.requireNonNull(compacted.listFiles())) {
+                    file.delete();
+                }
+                compacted.delete();
+            }
+        }
+    }
+
+    /**
+     * Waits for the compactions scheduled so far, by this and other column stores, to complete.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitCompactions() throws InterruptedException {
+        try {
+            COMPACTOR.submit(() -> {}).get(); //the compactor runs its tasks in order
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Schedules the compaction of the partitions whose share of deleted rows reaches the threshold, unless already scheduled.
+     */
+    private void scheduleCompactions(Set<String> partitions) {
+        if (!isPartitioned()) {
+            if (getDeadRatio() < compactionThreshold || !pendingCompactions.add("")) { return; } //the files of the store as a whole
+            COMPACTOR.execute(() -> {
+                pendingCompactions.remove("");
+                try {
+                    compact();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            return;
+        }
+        for (String partition: partitions) {
+            if (getDeadRatio(partition) < compactionThreshold || !pendingCompactions.add(partition)) { continue; }
+            COMPACTOR.execute(() -> {
+                pendingCompactions.remove(partition); //rows deleted from now on can schedule it again
+                try {
+                    compact(partition);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+    }
+
+    /**
+     * Appends the values of the given rows of a column file to another file, as stored, in batches.
+     * @param localRows the row indexes in the source file, in ascending order
+     * @param rows the number of row indexes used
+     */
+    private void copyRows(String column, File source, File target, int[] localRows, int rows) throws IOException {
+        int width = storedWidth(column);
+        try (ColumnWriter writer = new ColumnWriter(target, writeBufferSize, writeBuffers)) {
+            for (int from = 0; from < rows; from += COMPACTION_BATCH_ROWS) {
+                int[] batch = Arrays.copyOfRange(localRows, from, Math.min(rows, from + COMPACTION_BATCH_ROWS));
+                if (width == 0) {
+                    String[] lines = new String[batch.length];
+                    sweepLines(source, batch, (i, line) -> lines[i] = line);
+                    for (String line: lines) {
+                        writer.putBytes((line + "\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                } else {
+                    byte[] values = new byte[batch.length * width];
+                    sweepFixedWidth(source, width, batch, (i, window, offset) -> window.get(offset, values, i * width, width));
+                    writer.putBytes(values);
+                }
+            }
+            if (durability != DURABILITY_NONE) { writer.force(durability == DURABILITY_SYNC); }
+        }
+    }
+
+    /**
+     * @param column a column
+     * @return the bytes each value of the column takes in its file, 0 if the values are stored as lines
+     */
+    protected int storedWidth(String column) {
+        return isNotNumberDataType(column) ? 0 : 4;
+    }
+
+    /**
+     * @return the rows removed from the files of a store that is not partitioned by {@link #compact()}, in ascending order,
+     * loaded from its directory on first use
+     */
+    protected int[] getRemovedRows() {
+        int[] removed = removedRows;
+        if (removed != null) { return removed; }
+        synchronized (pendingCompactions) {
+            if (removedRows == null) {
+                File file = new File(getName()+"/"+REMOVED_FILE);
+                removedRows = new int[0];
+                if (file.exists()) {
+                    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                        int[] rows = new int[input.readInt()];
+                        for (int i = 0; i < rows.length; i++) {
+                            rows[i] = input.readInt();
+                        }
+                        removedRows = rows;
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            return removedRows;
+        }
+    }
+
+    /**
+     * Writes the removed rows to a temporary file, which then replaces the file of the removed rows, so that a crash leaves either whole.
+     */
+    private void saveRemovedRows(int[] rows) throws IOException {
+        File file = new File(getName()+"/"+REMOVED_FILE);
+        File temporary = new File(getName()+"/"+REMOVED_FILE+".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(temporary);
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream))) {
+            output.writeInt(rows.length);
+            for (int row: rows) {
+                output.writeInt(row);
+            }
+            output.flush();
+            if (durability != DURABILITY_NONE) { outputStream.getFD().sync(); }
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param sortedRows row indexes of rows not removed from the files by {@link #compact()}, in ascending order
+     * @return the positions of the rows in the files of a store that is not partitioned. The same array if no row was removed.
+     */
+    protected int[] positionsOf(int[] sortedRows) {
+        int[] removed = getRemovedRows();
+        if (removed.length == 0) { return sortedRows; }
+        int[] positions = new int[sortedRows.length];
+        int before = 0;
+        for (int i = 0; i < sortedRows.length; i++) {
+            while (before < removed.length && removed[before] < sortedRows[i]) { before++; }
+            positions[i] = sortedRows[i] - before;
+        }
+        return positions;
+    }
+
+    /**
+     * Gives the row indexes of the positions of a sequential scan of the files of a store that is not partitioned,
+     * skipping the rows removed by {@link #compact()}.
+     */
+    protected static class RowCursor {
+        private final int[] removed;
+        private int nextRemoved = 0;
+        private int row = -1;
+
+        /**
+         * @param removed the rows removed from the files, see {@link #getRemovedRows()}
+         */
+        protected RowCursor(int[] removed) {
+            this.removed = removed;
+        }
+
+        /**
+         * @return the row index of the next position
+         */
+        protected int next() {
+            row++;
+            while (nextRemoved < removed.length && removed[nextRemoved] == row) {
+                row++;
+                nextRemoved++;
+            }
+            return row;
+        }
+    }
+
+    private void saveDeletes() {
+        try {
+            getDeletionVector().save(new File(getName()+"/"+DELETES_FILE), durability != DURABILITY_NONE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Counts the rows stored in the files, including the rows added by earlier runs, see {@link #storedRows()}.
+     * {@inheritDoc}
+     */
+    @Override
+    public int getRowCount() {
+        catalogLock.readLock().lock();
+        try {
+            return storedRows();
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of rows stored: the row index of the next row added
+     */
+    private int storedRows() {
+        if (isPartitioned()) { return nextRow; }
+        int removed = getRemovedRows().length; //rows removed by compactions keep their row index
+        for (String column: columnHeaders) { //numbers take 4 bytes in every column store
+            File file = new File(getName()+"/"+column+".store");
+            if (!isNotNumberDataType(column) && file.exists()) { return removed + (int) (file.length() / 4); }
+        }
+        try {
+            for (String column: columnHeaders) {
+                File file = new File(getName()+"/"+column+".store");
+                if (file.exists()) { return removed + lineIndexOf(file).lines; }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * @return true if the row is stored and was not compacted away, whether or not it is deleted
+     */
+    private boolean exists(int row) {
+        catalogLock.readLock().lock();
+        try {
+            if (!isPartitioned()) { return row >= 0 && row < storedRows() && Arrays.binarySearch(getRemovedRows(), row) < 0; }
+            return row >= 0 && row < storedRows() && locate(row) != null;
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the column is a calendar column derived from a time column, see {@link #deriveCalendarColumns(HashMap)}
+     */
+    private boolean isDerivedColumn(String column) {
+        String source = CalendarKernels.sourceOf(column);
+        return source != null && Objects.equals(columnDataTypes.get(source), TIME_DATATYPE);
+    }
+
+    /**
+     * @param time a value of the partition column, can be null
+     * @return the name of the partition of the value
+     */
+    protected String partitionOf(LocalDateTime time) {
+        if (time == null) { return UNKNOWN_PARTITION; }
+        if (partitioning == PARTITION_BY_YEAR) { return String.format("year=%04d", time.getYear()); }
+        return String.format("year=%04d/month=%02d", time.getYear(), time.getMonthValue());
+    }
+
+    /**
+     * @param partition the name of a partition
+     * @return the start (inclusive) and end (exclusive) of the times in the partition, null for {@link #UNKNOWN_PARTITION}
+     */
+    private LocalDateTime[] partitionBounds(String partition) {
+        if (partition.equals(UNKNOWN_PARTITION)) { return null; }
+        int year = Integer.parseInt(partition.substring(5, 9));
+        if (partitioning == PARTITION_BY_YEAR) {
+            LocalDateTime start = LocalDateTime.of(year, 1, 1, 0, 0);
+            return new LocalDateTime[] {start, start.plusYears(1)};
+        }
+        LocalDateTime start = LocalDateTime.of(year, Integer.parseInt(partition.substring(16, 18)), 1, 0, 0);
+        return new LocalDateTime[] {start, start.plusMonths(1)};
+    }
+
+    private File partitionFile(String partition, String column) {
+        return new File(getName()+"/"+partition+"/"+column+".store");
+    }
+
+    /**
+     * @param index a row index
+     * @return the extent holding the row, or null if the row does not exist (e.g. its partition was dropped)
+     */
+    private Extent locate(int index) {
+        int low = 0;
+        int high = extents.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            Extent extent = extents.get(middle);
+            if (index < extent.firstRow) { high = middle - 1; }
+            else if (index >= extent.firstRow + extent.rows) { low = middle + 1; }
+            else { return extent; }
+        }
+        return null;
+    }
+
+    /**
+     * Appends each row of the buffer to the files of its partition, and adds the rows to the catalog.
+     */
+    private void storePartitioned(HashMap<String, List<String>> buffer) {
+        catalogLock.writeLock().lock();
+        try {
+            List<String> times = buffer.get(partitionColumn);
+            LinkedHashMap<String, List<Integer>> rowsByPartition = new LinkedHashMap<>();
+            for (int i = 0; i < times.size(); i++) {
+                String partition = partitionOf((LocalDateTime) castValueAccordingToColumnType(partitionColumn, times.get(i)));
+                rowsByPartition.computeIfAbsent(partition, p -> new ArrayList<>()).add(i);
+
+                Extent last = extents.isEmpty() ? null : extents.get(extents.size() - 1);
+                int localRow = partitionSizes.getOrDefault(partition, 0);
+                if (last != null && last.partition.equals(partition) && last.firstRow + last.rows == nextRow + i) {
+                    last.rows++;
+                } else {
+                    extents.add(new Extent(partition, nextRow + i, localRow, 1));
+                }
+                partitionSizes.put(partition, localRow + 1);
+            }
+            nextRow += times.size();
+
+            try {
+                for (Map.Entry<String, List<Integer>> entry: rowsByPartition.entrySet()) {
+                    writeColumns(buffer, entry.getValue(), column -> partitionFile(entry.getKey(), column));
+                }
+                saveCatalog(); //after the data, so that the catalog never refers to rows that are not durable
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Scans all rows of the given partitions.
+     * @param scanned the number of rows scanned is added to its first element
+     * @return list of matched indexes, in ascending order
+     */
+    private SpillableIntList filterPartitions(String column, Predicate<Object> predicate, List<String> partitions, long[] scanned) {
+        SpillableIntList results = new SpillableIntList();
+        for (String partition: partitions) {
+            try (SpillableIntList rows = partitionRows(partition)) {
+                ColumnBatch batch = gatherColumnOf(column, rows);
+                for (int i = 0; i < batch.size(); i++) {
+                    Object toCheck = batch.getValue(column, i);
+                    if (toCheck != null && predicate.test(toCheck)) { results.add(batch.getIndex(i)); }
+                }
+                scanned[0] += rows.size();
+            }
+        }
+        Collections.sort(results); //partitions may interleave if data was not added in time order
+        return results;
+    }
+
+    /**
+     * Reads a single column of the given rows, with the cheapest access path per file, without recording a {@link StoreMetrics#GATHER}.
+     */
+    private ColumnBatch gatherColumnOf(String column, List<Integer> indexes) {
+        ColumnBatch batch = new ColumnBatch(liveIndexes(toSortedIndexes(indexes)));
+        batch.addColumn(column, columnDataTypes.get(column));
+        gatherColumn(batch, column);
+        return batch;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int[] liveIndexes(int[] sortedIndexes) {
+        return getDeletionVector().removeDeleted(sortedIndexes);
+    }
+
+    private void removeFromCatalog(String partition) {
+        extents.removeIf(extent -> extent.partition.equals(partition));
+        partitionSizes.remove(partition);
+        saveCatalog();
+        markModified();
+    }
+
+    /**
+     * Writes the catalog: a header line with the partition column and scheme, then one line per extent.
+     */
+    private void saveCatalog() {
+        File catalog = new File(getName()+"/"+CATALOG_FILE);
+        catalog.getParentFile().mkdirs();
+        try (FileOutputStream outputStream = new FileOutputStream(catalog);
+             PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8))) {
+            writer.println(partitionColumn + "," + partitioning + "," + nextRow);
+            for (Extent extent: extents) {
+                writer.println(extent.partition + "," + extent.firstRow + "," + extent.firstLocalRow + "," + extent.rows);
+            }
+            writer.flush();
+            if (durability != DURABILITY_NONE) { outputStream.getFD().sync(); }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void loadCatalog(File catalog, String column, int partitioning) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(catalog))) {
+            String[] header = reader.readLine().split(",");
+            if (!header[0].equals(column) || Integer.parseInt(header[1]) != partitioning) {
+                throw new IllegalStateException("Partitioning cannot be changed after data is added.");
+            }
+            this.partitioning = partitioning;
+            this.partitionColumn = column;
+            this.nextRow = Integer.parseInt(header[2]);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                Extent extent = new Extent(fields[0], Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
+                extents.add(extent);
+                partitionSizes.merge(extent.partition, extent.firstLocalRow + extent.rows, Math::max);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sets the read-ahead of sequential scans.
+     * @param blockSize the number of bytes read at once, should be a multiple of 8 so that no value lies across two blocks
+     * @param queueDepth the number of blocks read ahead of the block being scanned
+     */
+    public void setScanReadAhead(int blockSize, int queueDepth) {
+        if (blockSize <= 0 || blockSize % 8 != 0 || queueDepth <= 0) {
+            throw new IllegalArgumentException("Block size should be a positive multiple of 8, and queue depth should be positive.");
+        }
+        this.scanBlockSize = blockSize;
+        this.scanQueueDepth = queueDepth;
+    }
+
+    /**
+     * Sets the buffers used to write each column file in {@link #storeAll(HashMap)}.
+     * @param bufferSize the size of each buffer, at least 8 bytes
+     * @param buffers the number of buffers written per gather write
+     */
+    public void setWriteBuffers(int bufferSize, int buffers) {
+        if (bufferSize < Long.BYTES || buffers <= 0) {
+            throw new IllegalArgumentException("Buffer size should be at least 8, and the number of buffers should be positive.");
+        }
+        this.writeBufferSize = bufferSize;
+        this.writeBuffers = buffers;
+    }
+
+    /**
+     * Sets when written data is forced to the storage device:
+     * <ul>
+     *     <li>{@link #DURABILITY_NONE} - never, left to the operating system. Data stored just before a crash may be lost. The default.</li>
+     *     <li>{@link #DURABILITY_BATCH} - the data of every file written by a store is forced before it returns, and before the catalog is saved.</li>
+     *     <li>{@link #DURABILITY_SYNC} - as {@link #DURABILITY_BATCH}, also forcing the metadata of the files, e.g. their lengths.</li>
+     * </ul>
+     * @param durability the policy
+     */
+    public void setDurability(int durability) {
+        if (durability < DURABILITY_NONE || durability > DURABILITY_SYNC) {
+            throw new IllegalArgumentException("No such durability policy: " + durability);
+        }
+        this.durability = durability;
+    }
+
+    /**
+     * Forces the access path used to read the values of a selection of rows, instead of choosing the cheapest one by its estimated cost:
+     * <ul>
+     *     <li>{@link #ACCESS_AUTO} - the cheapest of the access paths below, for the density of the selection and the size of the file. The default.</li>
+     *     <li>{@link #ACCESS_PROBE} - one read per row (per block of {@link #LINE_INDEX_INTERVAL} lines for text columns).</li>
+     *     <li>{@link #ACCESS_CLUSTERED} - one read per run of nearby rows, of windows of {@link #BUFFER_SIZE} bytes (of adjacent blocks of lines for text columns).</li>
+     *     <li>{@link #ACCESS_SCAN} - a sequential scan of the whole file with read-ahead, keeping the rows of the selection.</li>
+     * </ul>
+     * @param accessPath the access path
+     */
+    public void setAccessPath(int accessPath) {
+        if (accessPath < ACCESS_AUTO || accessPath > ACCESS_SCAN) {
+            throw new IllegalArgumentException("No such access path: " + accessPath);
+        }
+        this.accessPath = accessPath;
+    }
+
+    /**
+     * Sets the cost of a random read used to choose the access path, in bytes that could be read sequentially in the same time.
+     * E.g. about 1MB for a hard disk.
+     * @param bytes the cost of a random read
+     */
+    public void setRandomReadCost(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("The cost of a random read cannot be negative.");
+        }
+        this.randomReadCost = bytes;
+    }
+
+    /**
+     * Chooses the cheapest access path, estimating the cost of each one as its random reads plus its bytes read.
+     * A sequential scan also pays for allocating the blocks of its read-ahead.
+     * @param probes the number of reads of {@link #ACCESS_PROBE}
+     * @param probeBytes the bytes read by each probe
+     * @param clusters the number of reads of {@link #ACCESS_CLUSTERED}
+     * @param clusterBytes the bytes read by each cluster read
+     * @param fileBytes the size of the file, read by {@link #ACCESS_SCAN} in blocks of the read-ahead
+     * @return the access path, or the one forced by {@link #setAccessPath(int)}
+     */
+    protected int chooseAccessPath(long probes, long probeBytes, long clusters, long clusterBytes, long fileBytes) {
+        if (accessPath != ACCESS_AUTO) { return accessPath; }
+        double probe = probes * (double) (randomReadCost + probeBytes);
+        double clustered = clusters * (double) (randomReadCost + clusterBytes);
+        double scan = (fileBytes / scanBlockSize + 1) * (double) randomReadCost + fileBytes + (scanQueueDepth + 1) * (double) scanBlockSize;
+        if (scan < probe && scan < clustered) { return ACCESS_SCAN; }
+        return probe <= clustered ? ACCESS_PROBE : ACCESS_CLUSTERED;
+    }
+
+    /**
+     * Opens a sequential scan of the file, with the read-ahead set by {@link #setScanReadAhead(int, int)}.
+     * @param file the file to scan
+     * @return the reader, which must be closed
+     * @throws IOException if the file could not be opened
+     */
+    protected ScanReader openScan(File file) throws IOException {
+        return new ScanReader(readChannel(file), file.getName(), scanBlockSize, scanQueueDepth);
+    }
+
+    /**
+     * Returns the channel of the file shared by all queries, opening it on first use (or if it was closed, e.g. by an interrupt).
+     * Must only be read with positional reads, e.g. {@link FileChannel#read(ByteBuffer, long)}, and must not be closed by the caller.
+     * @param file the column file
+     * @return the channel
+     * @throws IOException if the file could not be opened
+     */
+    protected FileChannel readChannel(File file) throws IOException {
+        String path = file.getPath();
+        FileChannel channel = readChannels.get(path);
+        if (channel != null && channel.isOpen()) { return channel; }
+        synchronized (readChannels) {
+            channel = readChannels.get(path);
+            if (channel == null || !channel.isOpen()) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                metrics.addFileOpened();
+                readChannels.put(path, channel);
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Closes the channels of the files in the directory, e.g. of a partition that is dropped.
+     */
+    private void closeReadChannels(File directory) {
+        synchronized (readChannels) {
+            readChannels.entrySet().removeIf(entry -> {
+                if (!new File(entry.getKey()).getParentFile().equals(directory)) { return false; }
+                try {
+                    entry.getValue().close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                return true;
+            });
+        }
+    }
+
+    /**
+     * Closes the files opened by queries. They are opened again if this column store is queried afterwards.
+     */
+    @Override
+    public void close() {
+        synchronized (readChannels) {
+            for (FileChannel channel: readChannels.values()) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            readChannels.clear();
+        }
+    }
+
+    /**
+     * Visits the values of the given indexes in a file of fixed width values, with the {@link #chooseAccessPath(long, long, long, long, long) cheapest}
+     * access path for the density of the indexes: a read per index, a read per window of {@link #BUFFER_SIZE} bytes holding any of the indexes,
+     * or a sequential scan of the whole file.
+     * @param file the file to read
+     * @param width the number of bytes taken by each value, should be a factor of {@link #BUFFER_SIZE}
+     * @param sortedIndexes the indexes to visit, in ascending order
+     * @param visitor called for each index
+     * @throws IOException
+     */
+    protected void sweepFixedWidth(File file, int width, int[] sortedIndexes, FixedWidthVisitor visitor) throws IOException {
+        if (sortedIndexes.length == 0) { return; }
+        long start = metrics.start();
+        int windows = 0;
+        long lastWindow = -1;
+        for (int index: sortedIndexes) {
+            long window = index * (long) width / BUFFER_SIZE;
+            if (window != lastWindow) {
+                windows++;
+                lastWindow = window;
+            }
+        }
+        int path = chooseAccessPath(sortedIndexes.length, width, windows, BUFFER_SIZE, file.length());
+
+        if (path == ACCESS_SCAN) {
+            scanFixedWidth(file, width, sortedIndexes, visitor);
+            metrics.recordNested(StoreMetrics.SEQUENTIAL_SCAN, start, file.length() / width, sortedIndexes.length);
+            return;
+        }
+
+        FileChannel channel = readChannel(file);
+        ByteBuffer window = ByteBuffer.allocate(path == ACCESS_PROBE ? width : BUFFER_SIZE);
+        long windowStart = -1;
+        int windowLength = 0;
+        for (int i = 0; i < sortedIndexes.length; i++) {
+            long offset = sortedIndexes[i] * (long) width;
+            if (windowStart < 0 || offset < windowStart || offset + width > windowStart + windowLength) {
+                windowStart = path == ACCESS_PROBE ? offset : offset - offset % BUFFER_SIZE; //align so that no value lies across two windows
+                window.clear();
+                while (window.hasRemaining()) {
+                    if (channel.read(window, windowStart + window.position()) == -1) { break; }
+                }
+                windowLength = window.position();
+                metrics.addSeeks(1);
+                metrics.addBytesRead(windowLength);
+            }
+
+            if (offset + width > windowStart + windowLength) {
+                System.out.printf("Did not read %d bytes when getting a value from file.\n", width);
+                return;
+            }
+            visitor.visit(i, window, (int) (offset - windowStart));
+        }
+        metrics.recordNested(path == ACCESS_PROBE ? StoreMetrics.PROBE : StoreMetrics.CLUSTERED_READ, start,
+                path == ACCESS_PROBE ? sortedIndexes.length : (long) windows * BUFFER_SIZE / width, sortedIndexes.length);
+    }
+
+    /**
+     * Visits the values of the given indexes in one sequential scan of the file, with read-ahead.
+     */
+    private void scanFixedWidth(File file, int width, int[] sortedIndexes, FixedWidthVisitor visitor) throws IOException {
+        int i = 0;
+        long blockStart = 0;
+        try (ScanReader reader = openScan(file)) {
+            ByteBuffer block;
+            while (i < sortedIndexes.length && (block = reader.next()) != null) { //blocks are a multiple of 8 bytes, so no value lies across two blocks
+                long blockEnd = blockStart + block.remaining();
+                metrics.addBytesRead(block.remaining());
+                for (long offset; i < sortedIndexes.length && (offset = sortedIndexes[i] * (long) width) + width <= blockEnd; i++) {
+                    visitor.visit(i, block, block.position() + (int) (offset - blockStart));
+                }
+                blockStart = blockEnd;
+            }
+        }
+        metrics.addSeeks(1);
+        if (i < sortedIndexes.length) {
+            System.out.printf("Did not read %d bytes when getting a value from file.\n", width);
+        }
+    }
+
+    /**
+     * Visits the lines of the given indexes in a text file, starting each read at the nearest offset of the {@link LineIndex line index} of the file.
+     * Reads the blocks of lines holding any of the indexes, merging adjacent blocks into one read, or the whole file sequentially
+     * if that is {@link #chooseAccessPath(long, long, long, long, long) cheaper}.
+     * @param file the file to read
+     * @param sortedIndexes the indexes to visit, in ascending order
+     * @param visitor called for each index
+     * @throws IOException
+     */
+    protected void sweepLines(File file, int[] sortedIndexes, LineVisitor visitor) throws IOException {
+        if (sortedIndexes.length == 0) { return; }
+        long start = metrics.start();
+        LineIndex index = lineIndexOf(file);
+        int blocks = 0;
+        int runs = 0; //of adjacent blocks
+        int lastBlock = -1;
+        for (int row: sortedIndexes) {
+            if (row >= index.lines) { break; }
+            int block = row / LINE_INDEX_INTERVAL;
+            if (block != lastBlock) {
+                blocks++;
+                if (block != lastBlock + 1) { runs++; }
+                lastBlock = block;
+            }
+        }
+        long blockBytes = index.length / index.blocks + 1;
+        int path = chooseAccessPath(blocks, blockBytes, runs, runs == 0 ? 0 : blocks * blockBytes / runs, index.length);
+        long maxReadBytes = Math.max(scanBlockSize, blockBytes);
+
+        int i = 0;
+        int nextBlock = 0;
+        long linesRead = 0;
+        FileChannel channel = readChannel(file);
+        while (i < sortedIndexes.length && sortedIndexes[i] < index.lines) {
+            //read from the block of the next index, with the following blocks if adjacent (or all, for a scan), up to a read-ahead block
+            int firstBlock = path == ACCESS_SCAN ? nextBlock : sortedIndexes[i] / LINE_INDEX_INTERVAL;
+            int lastRead = firstBlock;
+            int j = i;
+            while (true) {
+                while (j < sortedIndexes.length && sortedIndexes[j] < index.lines && sortedIndexes[j] / LINE_INDEX_INTERVAL <= lastRead) { j++; }
+                int next = lastRead + 1;
+                boolean wanted = path == ACCESS_SCAN || (path == ACCESS_CLUSTERED && j < sortedIndexes.length && sortedIndexes[j] / LINE_INDEX_INTERVAL == next);
+                if (!wanted || next >= index.blocks || index.blockEnd(next) - index.blockStart(firstBlock) > maxReadBytes) { break; }
+                lastRead = next;
+            }
+            long from = index.blockStart(firstBlock);
+            ByteBuffer bytes = ByteBuffer.allocate((int) (index.blockEnd(lastRead) - from));
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, from + bytes.position()) == -1) { break; }
+            }
+            metrics.addSeeks(1);
+            metrics.addBytesRead(bytes.position());
+
+            int line = firstBlock * LINE_INDEX_INTERVAL;
+            int lineStart = 0;
+            byte[] array = bytes.array();
+            for (int k = 0; k < bytes.position() && i < sortedIndexes.length; k++) {
+                if (array[k] != '\n') { continue; }
+                if (line == sortedIndexes[i]) {
+                    visitor.visit(i, new String(array, lineStart, k - lineStart, StandardCharsets.UTF_8));
+                    i++;
+                }
+                line++;
+                lineStart = k + 1;
+            }
+            linesRead += line - firstBlock * LINE_INDEX_INTERVAL;
+            nextBlock = lastRead + 1;
+        }
+        if (i < sortedIndexes.length) {
+            System.out.println("Index to gather is out of bounds!");
+        }
+        metrics.recordNested(path == ACCESS_SCAN ? StoreMetrics.SEQUENTIAL_SCAN : path == ACCESS_PROBE ? StoreMetrics.PROBE : StoreMetrics.CLUSTERED_READ,
+                start, linesRead, i);
+    }
+
+    /**
+     * @return the line index of the text file, extended with the lines appended to the file since it was last used
+     */
+    private LineIndex lineIndexOf(File file) throws IOException {
+        synchronized (lineIndexes) {
+            LineIndex index = lineIndexes.computeIfAbsent(file.getPath(), path -> new LineIndex());
+            if (file.length() < index.length) { //the file was replaced
+                index = new LineIndex();
+                lineIndexes.put(file.getPath(), index);
+            }
+            if (file.length() == index.length) { return index; }
+
+            index = index.copy();
+            lineIndexes.put(file.getPath(), index);
+            FileChannel channel = readChannel(file);
+            ByteBuffer buffer = ByteBuffer.allocate(scanBlockSize);
+            long position = index.length;
+            int read;
+            while ((read = channel.read(buffer, position)) > 0) {
+                byte[] array = buffer.array();
+                for (int k = 0; k < read; k++) {
+                    if (array[k] != '\n') { continue; }
+                    index.lines++;
+                    index.length = position + k + 1;
+                    if (index.lines % LINE_INDEX_INTERVAL == 0) {
+                        if (index.blocks == index.offsets.length) { index.offsets = Arrays.copyOf(index.offsets, index.blocks * 2); }
+                        index.offsets[index.blocks++] = index.length;
+                    }
+                }
+                position += read;
+                metrics.addBytesRead(read);
+                buffer.clear();
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Drops the line indexes of the files in the directory, e.g. of a partition that is dropped.
+     */
+    private void forgetLineIndexes(File directory) {
+        synchronized (lineIndexes) {
+            lineIndexes.keySet().removeIf(path -> new File(path).getParentFile().equals(directory));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void printHead(int until) {
+        if (isPartitioned()) {
+            List<Integer> head = new ArrayList<>();
+            for (int i = 0; i < nextRow && head.size() < until; i++) {
+                if (locate(i) != null) { head.add(i); }
+            }
+            ColumnBatch batch = gather(new ArrayList<>(columnHeaders), head);
+            for (String column: columnHeaders) {
+                System.out.print(column+": ");
+                for (int i = 0; i < batch.size(); i++) {
+                    System.out.print(batch.getValue(column, i));
+                    System.out.print(",");
+                }
+                System.out.println();
+            }
+            return;
+        }
+        try {
+            for (String column: columnHeaders) {
+                System.out.print(column+": ");
+                if (isNotNumberDataType(column)) {
+                    Scanner sc = new Scanner(new File(getName()+"/"+column+".store"));
+                    int temp = until;
+                    while (temp > 0) {
+                        System.out.print(sc.nextLine());
+                        System.out.print(",");
+                        temp--;
+                    }
+                } else {
+                    FileInputStream fileInputStream = new FileInputStream(getName()+"/"+column+".store");
+                    int temp = until;
+                    while (temp > 0) {
+                        System.out.print(convertBytesToNumber(fileInputStream.readNBytes(4), columnDataTypes.get(column)));
+                        System.out.print(",");
+                        temp--;
+                    }
+                }
+                System.out.println();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Converts the byte array (should be of size 4) into either a float or integer based on the datatype passed in.
+     * If the converted number is {@link Integer#MIN_VALUE} or {@link Float#isNaN()}, then return null.
+     * @param buffer the byte array
+     * @param dataType either {@link ColumnStoreAbstract#INTEGER_DATATYPE} or {@link ColumnStoreAbstract#FLOAT_DATATYPE}.
+     * @return the number or null
+     */
+    private Object convertBytesToNumber(byte[] buffer, int dataType) {
+        ByteBuffer bbf = ByteBuffer.allocate(4);
+        bbf.put(buffer.clone());
+        if (dataType == INTEGER_DATATYPE) {
+            int result = bbf.getInt(0);
+            if (result == Integer.MIN_VALUE) { return null; } //the design is such that Integer.MIN_VALUE is equivalent to null
+            return result;
+        } else if (dataType == FLOAT_DATATYPE) {
+            float result = bbf.getFloat(0);
+            if (Float.isNaN(result)) { return null; } //the design is such that Float.NaN is equivalent to null
+            return result;
+        } else {
+            System.out.println("Wrong usage of this function (convertBytesToNumber). Should pass in only FLOAT or INTEGER dataType.");
+            return null;
         }
     }
 }
@@ -4,6 +4,9 @@ import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A specific column store implementation where the data is stored in disk. This is specific to the "SingaporeWeather.csv" input file given.
@@ -49,6 +52,24 @@ public class ColumnStoreDiskEnhanced extends ColumnStoreDisk{
      */
     private static final String MAX_KEY = "max";
 
+    /**
+     * Operation names of the scans in {@link #getExtremeValues(int, String)}, see {@link StoreMetrics}.
+     */
+    private static final String GET_YEAR = "getYear";
+    private static final String GET_STATION = "getStation";
+    private static final String GET_MONTH = "getMonth";
+    private static final String SHARED_SCANNING_MAX_MIN = "sharedScanningMaxMin";
+
+    /**
+     * Scans the months of {@link #getExtremeValues(int, String)}, shared by all queries so that concurrent queries do not start 12 threads each.
+     */
+    private static final ExecutorService MONTH_SCANNERS = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "month-scanner");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     /**
      * Used when converting LocalDateTime to Epoch seconds(long).
      */
@@ -62,35 +83,27 @@ public class ColumnStoreDiskEnhanced extends ColumnStoreDisk{
     }
 
     /**
+     * Timestamps are stored as epoch seconds (0 for null) and stations as their first letter, see {@link #encodeStation(String)}.
      * {@inheritDoc}
      */
     @Override
-    public void store(FileOutputStream outputStream, String column, String value) {
-        try {
-            Object toStore = castValueAccordingToColumnType(column, value);
-            switch(column) {
-                case "Timestamp" -> {
-                    if (toStore == null) { handleStoreTimestamp(outputStream, null); }
-                    else { handleStoreTimestamp(outputStream, (LocalDateTime)toStore);}
-                }
-
-                case "Station" -> {
-                    if (toStore == null) { handleStoreStation(outputStream, "M"); }
-                    else { handleStoreStation(outputStream, (String) toStore);}
-                }
-
-                case "id" -> {
-                    if (toStore == null) { handleStoreInteger(outputStream, Integer.MIN_VALUE); }
-                    else { handleStoreInteger(outputStream, (int) toStore); }
-                }
+    protected void encode(ColumnWriter writer, String column, Object value) throws IOException {
+        switch(column) {
+            case "Timestamp" -> writer.putLong(value == null ? 0 : ((LocalDateTime) value).toEpochSecond(z));
+            case "Station" -> writer.putByte(encodeStation(value == null ? "M" : (String) value));
+            case "id" -> writer.putInt(value == null ? Integer.MIN_VALUE : (int) value);
+            case "Temperature", "Humidity" -> writer.putFloat(value == null ? Float.NaN : (float) value);
+            default -> super.encode(writer, column, value); //e.g. derived calendar columns
+        }
+    }
 
-                case "Temperature", "Humidity" -> {
-                    if (toStore == null) { handleStoreFloat(outputStream, Float.NaN); }
-                    else { handleStoreFloat(outputStream, (float)toStore); }
-                }
-            }
-        } catch(Exception e) {
-            e.printStackTrace();
+    /**
+     * Not supported: the queries of this column store read the Timestamp and Station files directly.
+     */
+    @Override
+    public void setPartitioning(String column, int partitioning) {
+        if (partitioning != PARTITION_NONE) {
+            throw new UnsupportedOperationException("The enhanced disk column store cannot be partitioned.");
         }
     }
 
@@ -103,98 +116,100 @@ public class ColumnStoreDiskEnhanced extends ColumnStoreDisk{
     }
 
     /**
-     * Custom implementation to store values from column "Station". Stores value as a single byte instead of string.
-     * @param fileOutputStream the file to write to
+     * Custom encoding of values from column "Station", as a single byte instead of string.
      * @param stationName the value to store
+     * @return the first letter: 'P' represents paya lebar, 'C' represents changi, 'M' is null
      */
-    private void handleStoreStation(FileOutputStream fileOutputStream, String stationName) {
+    private static byte encodeStation(String stationName) {
         if (stationName.isBlank()) {
             stationName = "M"; //represents null
         }
-        byte toStore = StandardCharsets.US_ASCII.encode(stationName).get(0); //then 'P' represents paya lebar, 'C' represents changi, 'M' is null
-        try {
-            fileOutputStream.write(toStore);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        return StandardCharsets.US_ASCII.encode(stationName).get(0);
     }
 
     /**
-     * Custom implementation to store values from column "Timestamp". Stores value as a long instead of string.
-     * @param fileOutputStream the file to write to
-     * @param timeStamp the value to store
+     * Gets the extreme values of Max temp, min temp, max humidity, min humidity for each month, in the year and station specified.
+     *
+     * The months are scanned in parallel on the threads shared by all queries, see {@link #MONTH_SCANNERS}.
+     * Results are cached until data is added to the column store.
+     * @param year the year to check
+     * @param station the station to check
+     * @return the results
      */
-    private void handleStoreTimestamp(FileOutputStream fileOutputStream, LocalDateTime timeStamp) {
-        long toStore = 0;
-        if (timeStamp != null) {
-            toStore = timeStamp.toEpochSecond(z);
-        }
-
-        handleStoreLong(fileOutputStream, toStore);
+    public List<Output> getExtremeValues(int year, String station) {
+        long start = metrics.start();
+        QueryCache.Key key = QueryCache.Key.of("extremeValues", List.of("Timestamp", "Station", "Temperature", "Humidity"), year, station);
+        List<Output> results = new ArrayList<>(cachedQuery(key, () -> List.copyOf(scanExtremeValues(year, station))));
+        metrics.record(StoreMetrics.EXTREME_VALUES, start, 0, results.size());
+        return results;
     }
 
     /**
-     * Gets the extreme values of Max temp, min temp, max humidity, min humidity for each month, in the year and station specified.
-     *
-     * For each month, a thread is run to find these values.
+     * Computes the results of {@link #getExtremeValues(int, String)} without the cache.
      * @param year the year to check
      * @param station the station to check
      * @return the results
      */
-    public List<Output> getExtremeValues(int year, String station) {
-        List<Integer> qualifiedIndexes = getYear(year);
-        qualifiedIndexes = getStation(station, qualifiedIndexes);
+    private List<Output> scanExtremeValues(int year, String station) {
+        SpillableIntList yearIndexes = QueryProfile.run("getYear", () -> getYear(year));
+        SpillableIntList qualifiedIndexes = QueryProfile.run("getStation", () -> getStation(station, yearIndexes));
+        yearIndexes.close();
         List<Output> results = new ArrayList<>();
 
-        List<Thread> threads = new ArrayList<>();
+        QueryProfile profile = QueryProfile.current(); // each thread profiles its month as a child of the current operator
+        List<Future<?>> months = new ArrayList<>();
         for (int month = 1; month <= 12; month++) {
             int finalMonth = month; // can only pass 'final' variables into lambda function
-            List<Integer> finalQualifiedIndexes = new ArrayList<>(qualifiedIndexes);
-            threads.add(new Thread(() -> scanValues(finalMonth, finalQualifiedIndexes, results, station)));
+            months.add(MONTH_SCANNERS.submit(QueryMemory.wrap(() -> { //selections of the month are accounted to the query
+                profile.runChild("month " + finalMonth + " (thread)", () -> scanValues(finalMonth, qualifiedIndexes, results, station));
+            })));
         }
 
-        for (Thread t: threads) {
-            t.start();
-        }
-
-        for (Thread t: threads) {
+        for (Future<?> month: months) {
             try {
-                t.join();
+                month.get();
             } catch(Exception e) {
                 e.printStackTrace();
             }
         }
-
+        qualifiedIndexes.close();
         return results;
     }
 
     /**
-     * Scans the "Timestamp" column and returns the indexes whose time matches the year input.
+     * Scans the "Timestamp" column and returns the indexes whose time matches the year input, without the rows deleted.
      * @param year the year input
      * @return the matched indexes
      */
-    private List<Integer> getYear(int year) {
-        List<Integer> results = new ArrayList<>();
+    private SpillableIntList getYear(int year) {
+        SpillableIntList results = new SpillableIntList();
+        long start = metrics.start();
+        int index = 0;
         try {
-            FileInputStream inputStream = new FileInputStream(getName()+"/Timestamp.store");
-            ByteBuffer bbf = ByteBuffer.allocate(BUFFER_SIZE);
-            int index = 0;
-            long startRange = LocalDateTime.of(year, 1, 1, 0, 0, 0).toEpochSecond(z);
-            long endRange = LocalDateTime.of(year, 12, 31, 23, 59, 59).toEpochSecond(z);
-            while (inputStream.read(bbf.array()) != -1) {
-                bbf.position(0);
-                while (bbf.hasRemaining()) {
-                    long value = bbf.getLong();
-                    if (value >= startRange && value <= endRange) {
-                        results.add(index);
+            metrics.addFileOpened();
+            long startRange = CalendarKernels.epochSecond(year, 1, 1) - z.getTotalSeconds();
+            long endRange = CalendarKernels.epochSecond(year + 1, 1, 1) - z.getTotalSeconds() - 1;
+            DeletionVector deleted = getDeletionVector();
+            RowCursor rows = new RowCursor(getRemovedRows());
+            try (ScanReader reader = openScan(new File(getName()+"/Timestamp.store"))) {
+                ByteBuffer block;
+                while ((block = reader.next()) != null) {
+                    metrics.addBytesRead(block.remaining());
+                    while (block.remaining() >= 8) { //the last block may be partially filled
+                        long value = block.getLong();
+                        int row = rows.next();
+                        if (value >= startRange && value <= endRange && !deleted.isDeleted(row)) {
+                            results.add(row);
+                        }
+                        index++;
                     }
-                    index++;
                 }
-                bbf.clear();
             }
+            metrics.addSeeks(1);
         } catch (Exception e) {
             e.printStackTrace();
         }
+        metrics.record(GET_YEAR, start, index, results.size());
         return results;
     }
 
@@ -204,23 +219,24 @@ public class ColumnStoreDiskEnhanced extends ColumnStoreDisk{
      * @param indexesToCheck the indexes list given
      * @return the matched indexes
      */
-    private List<Integer> getStation(String station, List<Integer> indexesToCheck) {
-        List<Integer> results = new ArrayList<>();
+    private SpillableIntList getStation(String station, List<Integer> indexesToCheck) {
+        SpillableIntList results = new SpillableIntList();
+        long start = metrics.start();
         try {
-            RandomAccessFile fileInput = new RandomAccessFile(getName()+"/Station.store", "r");
-            for(int index: indexesToCheck) {
-                //since station is just 1 byte, can access directly via index
-                fileInput.seek(index);
-                byte value = fileInput.readByte();
+            //since station is just 1 byte, can access directly via index, or scan the file if most indexes are checked
+            int[] indexes = toSortedIndexes(indexesToCheck);
+            sweepFixedWidth(new File(getName()+"/Station.store"), 1, positionsOf(indexes), (i, window, offset) -> {
+                byte value = window.get(offset);
                 if (Objects.equals(station, "Paya Lebar") && value == PAYA_LEBAR_STATION) {
-                    results.add(index);
+                    results.add(indexes[i]);
                 } else if (Objects.equals(station, "Changi") && value == CHANGI_STATION) {
-                    results.add(index);
+                    results.add(indexes[i]);
                 }
-            }
+            });
         } catch (Exception e) {
             e.printStackTrace();
         }
+        metrics.record(GET_STATION, start, indexesToCheck.size(), results.size());
         return results;
     }
 
@@ -230,24 +246,20 @@ public class ColumnStoreDiskEnhanced extends ColumnStoreDisk{
      * @param indexesToCheck the indexes list given
      * @return the matched indexes
      */
-    private List<Integer> getMonth(int month, List<Integer> indexesToCheck) {
-        List<Integer> results = new ArrayList<>();
+    private SpillableIntList getMonth(int month, List<Integer> indexesToCheck) {
+        SpillableIntList results = new SpillableIntList();
+        long start = metrics.start();
         try {
-            RandomAccessFile fileInput = new RandomAccessFile(getName()+"/Timestamp.store", "r");
-            ByteBuffer bbf = ByteBuffer.allocate(8);
-            for(int index: indexesToCheck) {
-                bbf.clear();
-                //since station is just 1 byte, can access directly via index
-                fileInput.seek(index*8L);
-                fileInput.read(bbf.array());
-                long value = bbf.getLong(0);
-                if (value == 0) { continue; } //null value
-                LocalDateTime timestamp = LocalDateTime.ofEpochSecond(value, 0, z);
-                if (timestamp.getMonthValue() == month) { results.add(index); }
-            }
+            int[] indexes = toSortedIndexes(indexesToCheck);
+            sweepFixedWidth(new File(getName()+"/Timestamp.store"), 8, positionsOf(indexes), (i, window, offset) -> {
+                long value = window.getLong(offset);
+                if (value == 0) { return; } //null value
+                if (CalendarKernels.month(value + z.getTotalSeconds()) == month) { results.add(indexes[i]); }
+            });
         } catch (Exception e) {
             e.printStackTrace();
         }
+        metrics.record(GET_MONTH, start, indexesToCheck.size(), results.size());
         return results;
     }
 
@@ -265,16 +277,17 @@ public class ColumnStoreDiskEnhanced extends ColumnStoreDisk{
         results.put(MIN_KEY, new ArrayList<>());
         results.put(MAX_KEY, new ArrayList<>());
 
+        long start = metrics.start();
         try {
-            RandomAccessFile fileInput = new RandomAccessFile(getName()+"/"+column+".store", "r");
-            ByteBuffer bbf = ByteBuffer.allocate(4);
-            float min = Float.MAX_VALUE;
-            float max = Float.MIN_VALUE;
-
-            for (int index: indexesToCheck) { //shared scanning
-                fileInput.seek(index*4L);
-                fileInput.read(bbf.array());
-                float value = bbf.getFloat(0);
+            int[] indexes = toSortedIndexes(indexesToCheck);
+            float[] values = new float[indexes.length];
+            sweepFixedWidth(new File(getName()+"/"+column+".store"), 4, positionsOf(indexes), (i, window, offset) -> values[i] = window.getFloat(offset));
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+
+            for (int i = 0; i < indexes.length; i++) { //shared scanning
+                int index = indexes[i];
+                float value = values[i];
                 if(Float.isNaN(value)) { continue; } // null value
 
                 if (value == min) { results.get(MIN_KEY).add(index); }
@@ -290,11 +303,11 @@ public class ColumnStoreDiskEnhanced extends ColumnStoreDisk{
                     results.get(MAX_KEY).add(index);
                     max =  value;
                 }
-                bbf.clear();
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
+        metrics.record(SHARED_SCANNING_MAX_MIN, start, indexesToCheck.size(), results.get(MIN_KEY).size() + results.get(MAX_KEY).size());
         return results;
     }
 
@@ -302,77 +315,100 @@ public class ColumnStoreDiskEnhanced extends ColumnStoreDisk{
      * Scans the indexes in the given list, gets those indexes that matches the month given, 
      * and finds the extreme values (min/max humidity/temperature) within these indexes.
      *
-     * <p>Creates a new Output object for each extreme value, using the helper function {@link #addResults(List, List, RandomAccessFile, RandomAccessFile, String, int)}</p>
+     * <p>Creates a new Output object for each extreme value, using the helper function {@link #addResults(List, List, String, String, int)}</p>
      * @param month the month given
      * @param qualifiedIndexes the indexes list given
      * @param results to append Output objects to
      * @param station the station given
      */
     private void scanValues(int month, List<Integer> qualifiedIndexes, List<Output> results, String station) {
-        List<Integer> monthIndexes = getMonth(month, qualifiedIndexes);
-        HashMap<String, List<Integer>> scanResultsForTemp = sharedScanningMaxMin("Temperature", monthIndexes);
-        HashMap<String, List<Integer>> scanResultsForHumidity = sharedScanningMaxMin("Humidity", monthIndexes);
-
-        try {
-            RandomAccessFile tempFile = new RandomAccessFile(getName()+"/Temperature.store", "r");
-            RandomAccessFile humidityFile = new RandomAccessFile(getName()+"/Humidity.store", "r");
-            RandomAccessFile timeFile = new RandomAccessFile(getName()+"/Timestamp.store", "r");
-
-            addResults(results, scanResultsForHumidity.get(MAX_KEY), humidityFile, timeFile, station, Output.MAX_HUMIDITY);
-            addResults(results, scanResultsForHumidity.get(MIN_KEY), humidityFile, timeFile, station, Output.MIN_HUMIDITY);
-            addResults(results, scanResultsForTemp.get(MAX_KEY), tempFile, timeFile, station, Output.MAX_TEMP);
-            addResults(results, scanResultsForTemp.get(MIN_KEY), tempFile, timeFile, station, Output.MIN_TEMP);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        SpillableIntList monthIndexes = QueryProfile.run("getMonth", () -> getMonth(month, qualifiedIndexes));
+        HashMap<String, List<Integer>> scanResultsForTemp = QueryProfile.run("sharedScanningMaxMin Temperature",
+                () -> sharedScanningMaxMin("Temperature", monthIndexes));
+        HashMap<String, List<Integer>> scanResultsForHumidity = QueryProfile.run("sharedScanningMaxMin Humidity",
+                () -> sharedScanningMaxMin("Humidity", monthIndexes));
+        monthIndexes.close();
+
+        QueryProfile.run("addResults", () -> {
+            addResults(results, scanResultsForHumidity.get(MAX_KEY), "Humidity", station, Output.MAX_HUMIDITY);
+            addResults(results, scanResultsForHumidity.get(MIN_KEY), "Humidity", station, Output.MIN_HUMIDITY);
+            addResults(results, scanResultsForTemp.get(MAX_KEY), "Temperature", station, Output.MAX_TEMP);
+            addResults(results, scanResultsForTemp.get(MIN_KEY), "Temperature", station, Output.MIN_TEMP);
+        });
     }
 
     /**
-     * For each index in the given list:
+     * Gathers the values and timestamps of all indexes in the given list with {@link #gather(List, List)}, then for each index:
      * <ol>
-     *     <li>Scan its value using the given fileInput</li>
-     *     <li>Get its timestamp using the given timeFile</li>
-     *     <li>Checks if the date of this timestamp has already been added into the results list. If yes, skip this index.</li>
+     *     <li>Checks if the date of its timestamp has already been added into the results list. If yes, skip this index.</li>
      *     <li>Else, create a new Output object based on value, timestamp, station given and output type given and add it to results.</li>
      * </ol>
      * @param results the list of output objects
      * @param indexes the indexes list given
-     * @param fileInput the input file for the indexes
-     * @param timeFile the timestamp file
+     * @param column the column of the values
      * @param station the station given
      * @param type the type given
      */
-    private void addResults(List<Output> results, List<Integer> indexes, RandomAccessFile fileInput, RandomAccessFile timeFile, String station, int type) {
+    private void addResults(List<Output> results, List<Integer> indexes, String column, String station, int type) {
+        List<Output> toAdd = new ArrayList<>();
+        ColumnBatch batch = gather(List.of("Timestamp", column), indexes);
+        float[] values = batch.getFloats(column);
+        long[] times = batch.getTimes("Timestamp");
+
+        // because we might get duplicate days, as each day has 48 different times.
+        // need to filter out duplicate days
+        HashSet<Integer> daysAdded = new HashSet<>();
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (times[i] == ColumnBatch.NULL_TIME) { continue; } //null value
+            if (daysAdded.add(CalendarKernels.dayOfMonth(times[i]))) {
+                toAdd.add(new Output(batch.getTimestamp("Timestamp", i), station, type, values[i]));
+            }
+        }
+
+        addToListSync(results, toAdd);
+    }
+
+    /**
+     * Timestamps take 8 bytes and stations a single byte, see {@link #encode(ColumnWriter, String, Object)}.
+     * {@inheritDoc}
+     */
+    @Override
+    protected int storedWidth(String column) {
+        return switch (column) {
+            case "Timestamp" -> 8;
+            case "Station" -> 1;
+            default -> super.storedWidth(column);
+        };
+    }
+
+    /**
+     * Timestamps are read as longs (8 bytes) and stations as a single byte, the other columns are read as in {@link ColumnStoreDisk}.
+     */
+    @Override
+    protected void gatherColumn(ColumnBatch batch, String column) {
         try {
-            List<Output> toAdd = new ArrayList<>();
-            ByteBuffer bbfValue = ByteBuffer.allocate(4);
-            ByteBuffer bbfTimestamp = ByteBuffer.allocate(8);
-
-            // because we might get duplicate days, as each day has 48 different times.
-            // need to filter out duplicate days
-            HashSet<Integer> daysAdded = new HashSet<>();
-
-            for (int index: indexes) {
-                fileInput.seek(index*4L);
-                timeFile.seek(index*8L);
-
-                fileInput.read(bbfValue.array());
-                timeFile.read(bbfTimestamp.array());
-
-                float value = bbfValue.getFloat(0);
-                long unixTimestamp = bbfTimestamp.getLong(0);
-                LocalDateTime timestamp = LocalDateTime.ofEpochSecond(unixTimestamp, 0, z);
-                if (!daysAdded.contains(timestamp.getDayOfMonth())) {
-                    toAdd.add(new Output(timestamp, station, type, value));
-                    daysAdded.add(timestamp.getDayOfMonth());
+            switch (column) {
+                case "Timestamp" -> {
+                    long[] times = batch.getTimes(column);
+                    sweepFixedWidth(new File(getName()+"/Timestamp.store"), 8, positionsOf(batch.getIndexes()), (i, window, offset) -> {
+                        long value = window.getLong(offset);
+                        if (value != NULL_TIMESTAMP) { times[i] = value + z.getTotalSeconds(); } //from epoch seconds at +8 to the local date time at UTC
+                    });
                 }
-                bbfTimestamp.clear();
-                bbfValue.clear();
-            }
 
+                case "Station" -> {
+                    String[] stations = batch.getStrings(column);
+                    sweepFixedWidth(new File(getName()+"/Station.store"), 1, positionsOf(batch.getIndexes()), (i, window, offset) -> {
+                        byte value = window.get(offset);
+                        if (value == PAYA_LEBAR_STATION) { stations[i] = "Paya Lebar"; }
+                        else if (value == CHANGI_STATION) { stations[i] = "Changi"; }
+                    });
+                }
 
-            addToListSync(results, toAdd);
-        } catch(Exception e) {
+                default -> super.gatherColumn(batch, column);
+            }
+        } catch (Exception e) {
             e.printStackTrace();
         }
     }
@@ -1,12 +1,75 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
 import java.util.function.Predicate;
+import java.util.zip.CRC32;
 
 /**
  * A column store implementation where the data is stored in main memory.
+ *
+ * <p>The columns can be checkpointed into a binary snapshot with {@link #saveSnapshot(File, File)}. A snapshot is either loaded
+ * all at once with {@link #loadSnapshot(File, File)}, or attached with {@link #attachSnapshot(File, File)}, in which case each column
+ * is only read from the snapshot the first time a query references it or {@link #project(Collection) projects} it. Columns read
+ * from an attached snapshot are softly referenced, so that they are unloaded under memory pressure and read again when needed.
+ * Adding data to the column store detaches the snapshot, reading all of its columns.</p>
+ *
+ * <p>The snapshot starts with {@link #SNAPSHOT_MAGIC}, {@link #SNAPSHOT_VERSION} and the CRC32 of the rest of the header, which holds:</p>
+ * <ul>
+ *     <li>the length and last modified time of the CSV file it was made from, so that a stale snapshot is not used,</li>
+ *     <li>the number of rows, and the name, data type, offset, length and CRC32 of each column.</li>
+ * </ul>
+ * Then each column is written as an array of primitives, in the representation of {@link ColumnBatch},
+ * except for strings, which are written as a dictionary followed by an int code per row (-1 for null).
  */
 public class ColumnStoreMM extends ColumnStoreAbstract {
+    public static final int SNAPSHOT_MAGIC = 0x435A4D4D; // "CZMM"
+    public static final int SNAPSHOT_VERSION = 2;
+
+    /**
+     * The size of the magic, version and checksum, which are not included in the checksum.
+     */
+    private static final int SNAPSHOT_HEADER_SIZE = 16;
+    private static final int SNAPSHOT_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The location of a column in a snapshot.
+     */
+    private record SnapshotColumn(int dataType, long offset, long length, long checksum) {}
+
+    /**
+     * A snapshot whose header was validated.
+     */
+    private record Snapshot(File file, int rows, Map<String, SnapshotColumn> columns) {}
+
+    /**
+     * The columns held in memory, except the columns of the attached snapshot.
+     */
     private final HashMap<String, List<Object>> data = new HashMap<>();
 
+    /**
+     * The attached snapshot, null if none.
+     */
+    private Snapshot snapshot;
+
+    /**
+     * The columns read from the attached snapshot so far.
+     */
+    private final HashMap<String, SoftReference<List<Object>>> snapshotColumns = new HashMap<>();
+    private long snapshotColumnReads = 0;
+
     public ColumnStoreMM(HashMap<String, Integer> columnDataTypes) {
         super(columnDataTypes);
         for (String columnHeader: columnHeaders) {
@@ -14,11 +77,286 @@ public class ColumnStoreMM extends ColumnStoreAbstract {
         }
     }
 
+    /**
+     * Attaches the snapshot if it was made from the current CSV file, else parses the CSV file with
+     * {@link #addCSVData(String)} and saves a new snapshot. The snapshot is only used while this column store is empty.
+     * @param filepath the CSV file
+     * @param snapshot the snapshot file, e.g. "main_memory/snapshot.bin"
+     * @throws FileNotFoundException if the CSV file does not exist
+     */
+    public void addCSVData(String filepath, File snapshot) throws FileNotFoundException {
+        boolean empty = getRowCount() == 0;
+        if (empty && attachSnapshot(snapshot, new File(filepath))) { return; }
+
+        addCSVData(filepath);
+        if (empty) {
+            try {
+                saveSnapshot(snapshot, new File(filepath));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes all columns to the snapshot file, replacing it atomically.
+     * @param file the snapshot file
+     * @param source the CSV file the data was parsed from, to detect when the snapshot is stale
+     * @throws IOException if the snapshot could not be written
+     */
+    public void saveSnapshot(File file, File source) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) { parent.mkdirs(); }
+        File temporary = new File(file.getPath() + ".tmp");
+        List<String> columns = new ArrayList<>(new TreeSet<>(columnHeaders));
+        int rows = getRowCount();
+        int headerSize = SNAPSHOT_HEADER_SIZE + 24;
+        for (String column: columns) {
+            headerSize += Integer.BYTES + column.getBytes(StandardCharsets.UTF_8).length + 1 + 3 * Long.BYTES;
+        }
+
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            SnapshotOutput output = new SnapshotOutput(channel, headerSize);
+            ByteBuffer header = ByteBuffer.allocate(headerSize).putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(0); //checksum, put last
+            header.putLong(source.length()).putLong(source.lastModified()).putInt(rows).putInt(columns.size());
+            for (String column: columns) {
+                long offset = output.position();
+                output.crc.reset();
+                writeColumn(output, column);
+                output.flush();
+                byte[] name = column.getBytes(StandardCharsets.UTF_8);
+                header.putInt(name.length).put(name).put((byte) (int) columnDataTypes.get(column));
+                header.putLong(offset).putLong(output.position() - offset).putLong(output.crc.getValue());
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), SNAPSHOT_HEADER_SIZE, headerSize - SNAPSHOT_HEADER_SIZE);
+            header.putLong(8, crc.getValue());
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Adds all the data in the snapshot file to this column store, reading the file through a memory map.
+     * @param file the snapshot file
+     * @param source the CSV file the snapshot should have been made from
+     * @return true if the snapshot was loaded. False if it does not exist, is corrupt, was made with another schema or version,
+     * or the CSV file changed since, in which case nothing is added.
+     */
+    public boolean loadSnapshot(File file, File source) {
+        long start = metrics.start();
+        Snapshot loadedSnapshot = readHeader(file, source);
+        if (loadedSnapshot == null) { return false; }
+
+        HashMap<String, List<Object>> loaded = new HashMap<>();
+        try {
+            for (String column: columnHeaders) {
+                loaded.put(column, readColumn(loadedSnapshot, column));
+            }
+        } catch (IOException | IllegalStateException e) {
+            System.out.println("Could not read snapshot, parsing the CSV file instead: " + e.getMessage());
+            return false;
+        }
+
+        detachSnapshot();
+        for (String column: columnHeaders) {
+            data.get(column).addAll(loaded.get(column));
+        }
+        markModified();
+        metrics.record(StoreMetrics.LOAD_SNAPSHOT, start, loadedSnapshot.rows(), loadedSnapshot.rows());
+        addValuesToSynopsis(loaded::get, loadedSnapshot.rows());
+        return true;
+    }
+
+    /**
+     * Uses the snapshot file as the data of this column store, without reading any column until it is referenced.
+     * The file must not be changed while it is attached.
+     * @param file the snapshot file
+     * @param source the CSV file the snapshot should have been made from
+     * @return true if the snapshot was attached. False if this column store is not empty, or the snapshot cannot be used,
+     * see {@link #loadSnapshot(File, File)}.
+     */
+    public boolean attachSnapshot(File file, File source) {
+        if (getRowCount() > 0) { return false; }
+        Snapshot attached = readHeader(file, source);
+        if (attached == null) { return false; }
+
+        synchronized (snapshotColumns) {
+            snapshot = attached;
+            snapshotColumns.clear();
+            data.clear();
+        }
+        markModified();
+        addValuesToSynopsis(this::columnValues, attached.rows());
+        return true;
+    }
+
+    /**
+     * Reads the columns from the attached snapshot, if not read yet, so that queries on them do not wait for it.
+     * {@inheritDoc}
+     */
+    @Override
+    public void project(Collection<String> columns) {
+        for (String column: columns) {
+            if (!isInvalidColumn(column)) { columnValues(column); }
+        }
+    }
+
+    /**
+     * @return the columns whose values are currently held in memory
+     */
+    public Set<String> getLoadedColumns() {
+        synchronized (snapshotColumns) {
+            Set<String> loaded = new TreeSet<>(data.keySet());
+            snapshotColumns.forEach((column, values) -> {
+                if (values.get() != null) { loaded.add(column); }
+            });
+            return loaded;
+        }
+    }
+
+    /**
+     * Unloads the columns read from the attached snapshot, which are read again when next referenced.
+     */
+    public void unloadColumns() {
+        synchronized (snapshotColumns) {
+            snapshotColumns.clear();
+        }
+    }
+
+    /**
+     * @return the number of times a column was read from an attached snapshot
+     */
+    public long getSnapshotColumnReads() {
+        synchronized (snapshotColumns) {
+            return snapshotColumnReads;
+        }
+    }
+
+    /**
+     * Counts the rows of the attached snapshot, or of the largest column.
+     * {@inheritDoc}
+     */
+    @Override
+    public int getRowCount() {
+        synchronized (snapshotColumns) {
+            if (snapshot != null) { return snapshot.rows(); }
+        }
+        int rows = 0;
+        for (List<Object> values: data.values()) {
+            rows = Math.max(rows, values.size());
+        }
+        return rows;
+    }
+
+    /**
+     * @return the values of the column, read from the attached snapshot if needed. Null if the column is not registered.
+     */
+    private List<Object> columnValues(String column) {
+        synchronized (snapshotColumns) {
+            if (snapshot == null || !snapshot.columns().containsKey(column)) { return data.get(column); }
+            SoftReference<List<Object>> reference = snapshotColumns.get(column);
+            List<Object> values = reference == null ? null : reference.get();
+            if (values == null) {
+                try {
+                    values = readColumn(snapshot, column);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                snapshotColumns.put(column, new SoftReference<>(values));
+                snapshotColumnReads++;
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Reads all columns of the attached snapshot into memory and detaches it, before data is added.
+     */
+    private void detachSnapshot() {
+        synchronized (snapshotColumns) {
+            if (snapshot == null) { return; }
+            for (String column: snapshot.columns().keySet()) {
+                data.put(column, new ArrayList<>(columnValues(column)));
+            }
+            snapshot = null;
+            snapshotColumns.clear();
+        }
+    }
+
+    /**
+     * Reads and validates the header of the snapshot.
+     * @return the snapshot, or null if it cannot be used for this column store and source
+     */
+    private Snapshot readHeader(File file, File source) {
+        if (!file.isFile()) { return null; }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.remaining() < SNAPSHOT_HEADER_SIZE || map.getInt() != SNAPSHOT_MAGIC || map.getInt() != SNAPSHOT_VERSION) {
+                System.out.println("Snapshot has an unsupported format, parsing the CSV file instead.");
+                return null;
+            }
+            long checksum = map.getLong();
+            long sourceLength = map.getLong();
+            long sourceModified = map.getLong();
+            int rows = map.getInt();
+            int columns = map.getInt();
+            LinkedHashMap<String, SnapshotColumn> directory = new LinkedHashMap<>();
+            for (int c = 0; c < columns; c++) {
+                String column = getString(map);
+                directory.put(column, new SnapshotColumn(map.get(), map.getLong(), map.getLong(), map.getLong()));
+            }
+            CRC32 crc = new CRC32();
+            crc.update(map.duplicate().limit(map.position()).position(SNAPSHOT_HEADER_SIZE));
+            if (crc.getValue() != checksum) {
+                System.out.println("Snapshot is corrupt, parsing the CSV file instead.");
+                return null;
+            }
+            if (sourceLength != source.length() || sourceModified != source.lastModified()) {
+                System.out.println("Snapshot is stale, parsing the CSV file instead.");
+                return null;
+            }
+            HashMap<String, Integer> schema = new HashMap<>();
+            directory.forEach((column, location) -> schema.put(column, location.dataType()));
+            if (!schema.equals(columnDataTypes)) {
+                System.out.println("Snapshot has different columns from this column store, parsing the CSV file instead.");
+                return null;
+            }
+            return new Snapshot(file, rows, directory);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            System.out.println("Could not read snapshot, parsing the CSV file instead: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads one column of the snapshot through a memory map of its bytes only.
+     * @throws IllegalStateException if the bytes of the column do not match its checksum
+     */
+    private static List<Object> readColumn(Snapshot snapshot, String column) throws IOException {
+        SnapshotColumn location = snapshot.columns().get(column);
+        try (FileChannel channel = FileChannel.open(snapshot.file().toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, location.offset(), location.length());
+            CRC32 crc = new CRC32();
+            crc.update(map.duplicate());
+            if (crc.getValue() != location.checksum()) {
+                throw new IllegalStateException("Column (" + column + ") of snapshot " + snapshot.file() + " is corrupt.");
+            }
+            return readColumn(map, location.dataType(), snapshot.rows());
+        }
+    }
+
     @Override
     protected void store(String column, String value) {
         if (isInvalidColumn(column)) {
             System.out.println("Column is not registered with this column store.");
         } else {
+            detachSnapshot();
             Object toAdd = castValueAccordingToColumnType(column, value);
             data.get(column).add(toAdd);
         }
@@ -35,37 +373,45 @@ public class ColumnStoreMM extends ColumnStoreAbstract {
 
     @Override
     public List<Integer> filter(String column, Predicate<Object> predicate) {
-        List<Integer> results = new ArrayList<>();
+        SpillableIntList results = new SpillableIntList();
         if (isInvalidColumn(column)) {
             System.out.println("Column is not registered with this column store.");
             return results;
         }
 
-        for (int i = 0; i < data.get(column).size(); i++) {
-            Object value = data.get(column).get(i);
+        long start = metrics.start();
+        List<Object> values = columnValues(column);
+        for (int i = 0; i < values.size(); i++) {
+            Object value = values.get(i);
             if (value == null) { continue; }
             if (predicate.test(value)) {
                 results.add(i);
             }
         }
+        metrics.record(StoreMetrics.FILTER, start, values.size(), results.size());
+        results.complete();
         return results;
     }
 
     @Override
     public List<Integer> filter(String column, Predicate<Object> predicate, List<Integer> indexesToCheck) {
-        List<Integer> results = new ArrayList<>();
+        SpillableIntList results = new SpillableIntList();
         if (isInvalidColumn(column)) {
             System.out.println("Column is not registered with this column store.");
             return results;
         }
 
+        long start = metrics.start();
+        List<Object> values = columnValues(column);
         for (int index: indexesToCheck) {
-            Object value = data.get(column).get(index);
+            Object value = values.get(index);
             if (value == null) { continue; }
             if (predicate.test(value)) {
                 results.add(index);
             }
         }
+        metrics.record(StoreMetrics.FILTER_INDEXES, start, indexesToCheck.size(), results.size());
+        results.complete();
         return results;
     }
 
@@ -74,10 +420,12 @@ public class ColumnStoreMM extends ColumnStoreAbstract {
         List<Integer> results = new ArrayList<>();
         if (!validationCheckForMinMax(column)) { return results; } //return empty list if validation check fails
 
-        float maximum = Float.MIN_VALUE;
+        long start = metrics.start();
+        List<Object> values = columnValues(column);
+        float maximum = Float.NEGATIVE_INFINITY;
         for (int index: indexesToCheck) {
-            if (data.get(column).get(index) == null) { continue; }
-            float value = (float) data.get(column).get(index);
+            if (values.get(index) == null) { continue; }
+            float value = (float) values.get(index);
             if (value == maximum) {
                 results.add(index);
             } else if (value > maximum) {
@@ -87,6 +435,7 @@ public class ColumnStoreMM extends ColumnStoreAbstract {
             }
         }
 
+        metrics.record(StoreMetrics.GET_MAX, start, indexesToCheck.size(), results.size());
         return results;
     }
 
@@ -95,10 +444,12 @@ public class ColumnStoreMM extends ColumnStoreAbstract {
         List<Integer> results = new ArrayList<>();
         if (!validationCheckForMinMax(column)) { return results; } //return empty list if validation check fails
 
-        float minimum = Float.MAX_VALUE;
+        long start = metrics.start();
+        List<Object> values = columnValues(column);
+        float minimum = Float.POSITIVE_INFINITY;
         for (int index: indexesToCheck) {
-            if (data.get(column).get(index) == null) { continue; }
-            float value = (float) data.get(column).get(index);
+            if (values.get(index) == null) { continue; }
+            float value = (float) values.get(index);
             if (value == minimum) {
                 results.add(index);
             } else if (value < minimum) {
@@ -108,6 +459,7 @@ public class ColumnStoreMM extends ColumnStoreAbstract {
             }
         }
 
+        metrics.record(StoreMetrics.GET_MIN, start, indexesToCheck.size(), results.size());
         return results;
     }
 
@@ -118,14 +470,161 @@ public class ColumnStoreMM extends ColumnStoreAbstract {
 
     @Override
     public Object getValue(String column, int index) {
-        return data.get(column).get(index);
+        long start = metrics.start();
+        Object value = columnValues(column).get(index);
+        metrics.record(StoreMetrics.GET_VALUE, start, 1, 1);
+        return value;
+    }
+
+    @Override
+    protected void gatherColumn(ColumnBatch batch, String column) {
+        List<Object> values = columnValues(column);
+        for (int i = 0; i < batch.size(); i++) {
+            batch.setValue(column, i, values.get(batch.getIndex(i)));
+        }
     }
 
     @Override
     public void printHead(int until) {
         for (String column: columnHeaders) {
             System.out.printf("%s: ", column);
-            System.out.println(data.get(column).subList(0, until));
+            System.out.println(columnValues(column).subList(0, until));
+        }
+    }
+
+    private void writeColumn(SnapshotOutput output, String column) throws IOException {
+        List<Object> values = columnValues(column);
+        switch (columnDataTypes.get(column)) {
+            case INTEGER_DATATYPE -> {
+                for (Object value: values) {
+                    output.ensure(Integer.BYTES).putInt(value == null ? ColumnBatch.NULL_INTEGER : (int) value);
+                }
+            }
+            case FLOAT_DATATYPE -> {
+                for (Object value: values) {
+                    output.ensure(Float.BYTES).putFloat(value == null ? Float.NaN : (float) value);
+                }
+            }
+            case TIME_DATATYPE -> {
+                for (Object value: values) {
+                    output.ensure(Long.BYTES).putLong(value == null ? ColumnBatch.NULL_TIME : ColumnBatch.toEpochSecond((LocalDateTime) value));
+                }
+            }
+            default -> {
+                LinkedHashMap<Object, Integer> dictionary = new LinkedHashMap<>();
+                for (Object value: values) {
+                    if (value != null) { dictionary.putIfAbsent(value, dictionary.size()); }
+                }
+                output.ensure(Integer.BYTES).putInt(dictionary.size());
+                for (Object value: dictionary.keySet()) {
+                    output.putString((String) value);
+                }
+                for (Object value: values) {
+                    output.ensure(Integer.BYTES).putInt(value == null ? -1 : dictionary.get(value));
+                }
+            }
+        }
+    }
+
+    private static List<Object> readColumn(ByteBuffer map, int dataType, int rows) {
+        List<Object> values = new ArrayList<>(rows);
+        switch (dataType) {
+            case INTEGER_DATATYPE -> {
+                int[] ints = new int[rows];
+                map.asIntBuffer().get(ints);
+                map.position(map.position() + rows * Integer.BYTES);
+                for (int value: ints) {
+                    values.add(value == ColumnBatch.NULL_INTEGER ? null : value);
+                }
+            }
+            case FLOAT_DATATYPE -> {
+                float[] floats = new float[rows];
+                map.asFloatBuffer().get(floats);
+                map.position(map.position() + rows * Float.BYTES);
+                for (float value: floats) {
+                    values.add(Float.isNaN(value) ? null : value);
+                }
+            }
+            case TIME_DATATYPE -> {
+                long[] times = new long[rows];
+                map.asLongBuffer().get(times);
+                map.position(map.position() + rows * Long.BYTES);
+                for (long value: times) {
+                    values.add(value == ColumnBatch.NULL_TIME ? null : LocalDateTime.ofEpochSecond(value, 0, ZoneOffset.UTC));
+                }
+            }
+            default -> {
+                String[] dictionary = new String[map.getInt()];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = getString(map);
+                }
+                int[] codes = new int[rows];
+                map.asIntBuffer().get(codes);
+                map.position(map.position() + rows * Integer.BYTES);
+                for (int code: codes) {
+                    values.add(code < 0 ? null : dictionary[code]);
+                }
+            }
+        }
+        return values;
+    }
+
+    private static String getString(ByteBuffer map) {
+        byte[] bytes = new byte[map.getInt()];
+        map.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the snapshot through a buffer, computing the checksum of everything written.
+     */
+    private static class SnapshotOutput {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(SNAPSHOT_BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+        private long flushed;
+
+        /**
+         * @param channel the snapshot file
+         * @param position the position in the file to start writing at
+         */
+        SnapshotOutput(FileChannel channel, long position) {
+            this.channel = channel;
+            this.flushed = position;
+        }
+
+        /**
+         * @return the position in the file of the next byte put
+         */
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        /**
+         * @param bytes the number of bytes about to be put, at most the size of the buffer
+         * @return the buffer, with room for the bytes
+         */
+        ByteBuffer ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) { flush(); }
+            return buffer;
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(Integer.BYTES).putInt(bytes.length);
+            for (int from = 0; from < bytes.length; from += SNAPSHOT_BUFFER_SIZE) {
+                int length = Math.min(SNAPSHOT_BUFFER_SIZE, bytes.length - from);
+                ensure(length).put(bytes, from, length);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                flushed += channel.write(buffer, flushed);
+            }
+            buffer.clear();
         }
     }
 }
@@ -0,0 +1,485 @@
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * A column store implementation where the data is stored in main memory, but outside the Java heap.
+ *
+ * <p>Each column is held in direct buffers (chunks) of {@link #CHUNK_BYTES} bytes, so the data is neither limited by -Xmx
+ * nor scanned by the garbage collector. The last chunk of a column starts at {@link #FIRST_CHUNK_BYTES} bytes and doubles as it fills,
+ * so that small columns do not hold a whole chunk. The amount of direct memory is limited by -XX:MaxDirectMemorySize instead.
+ * Values are stored in fixed width, similar to {@link ColumnStoreDiskEnhanced}:</p>
+ * <ul>
+ *     <li>{@link #INTEGER_DATATYPE} - 4 bytes, {@link Integer#MIN_VALUE} represents null.</li>
+ *     <li>{@link #FLOAT_DATATYPE} - 4 bytes, {@link Float#NaN} represents null.</li>
+ *     <li>{@link #TIME_DATATYPE} - 8 bytes, the epoch seconds as in {@link ColumnBatch}, {@link ColumnBatch#NULL_TIME} represents null.</li>
+ *     <li>{@link #STRING_DATATYPE} - 4 bytes, the code of the string in an on-heap dictionary of the column, {@link #NULL_CODE} represents null.</li>
+ * </ul>
+ *
+ * <p>The memory is released when the column store is {@link #close() closed}. Any use of a closed column store throws {@link IllegalStateException}.</p>
+ */
+public class ColumnStoreOffHeap extends ColumnStoreAbstract implements AutoCloseable {
+    /**
+     * Size of each chunk of a column.
+     */
+    private static final int CHUNK_BYTES = 1 << 26;
+
+    /**
+     * Size of a new chunk, which is replaced by a chunk twice as large whenever it is full, up to {@link #CHUNK_BYTES}.
+     */
+    private static final int FIRST_CHUNK_BYTES = 1 << 16;
+
+    /**
+     * The dictionary code representing null values for string columns.
+     */
+    private static final int NULL_CODE = -1;
+
+    /**
+     * Used to release a direct buffer without waiting for the garbage collector. Null if not supported by the JVM.
+     */
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception e) {
+            //direct buffers are released by the garbage collector instead, see release(ByteBuffer)
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final HashMap<String, List<ByteBuffer>> chunks = new HashMap<>();
+
+    /**
+     * Number of values stored in each column.
+     */
+    private final HashMap<String, Integer> columnSizes = new HashMap<>();
+
+    /**
+     * For each string column, the strings in order of their code.
+     */
+    private final HashMap<String, List<String>> dictionaries = new HashMap<>();
+
+    /**
+     * For each string column, the code of each string.
+     */
+    private final HashMap<String, HashMap<String, Integer>> dictionaryCodes = new HashMap<>();
+
+    /**
+     * Queries hold the read lock, while storing and closing hold the write lock. So the memory is never released during a query.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean closed = false;
+
+    public ColumnStoreOffHeap(HashMap<String, Integer> columnDataTypes) {
+        super(columnDataTypes);
+        for (String column: columnHeaders) {
+            chunks.put(column, new ArrayList<>());
+            columnSizes.put(column, 0);
+            if (columnDataTypes.get(column) == STRING_DATATYPE) {
+                dictionaries.put(column, new ArrayList<>());
+                dictionaryCodes.put(column, new HashMap<>());
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void store(String column, String value) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            if (isInvalidColumn(column)) {
+                System.out.println("Column is not registered with this column store.");
+                return;
+            }
+            append(column, castValueAccordingToColumnType(column, value));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void storeAll(HashMap<String, List<String>> buffer) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            for (String column: buffer.keySet()) {
+                if (isInvalidColumn(column)) {
+                    System.out.println("Column is not registered with this column store.");
+                    continue;
+                }
+                for (String value: buffer.get(column)) {
+                    append(column, castValueAccordingToColumnType(column, value));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> filter(String column, Predicate<Object> predicate) {
+        SpillableIntList results = new SpillableIntList();
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            if (isInvalidColumn(column)) {
+                System.out.println("Column is not registered with this column store.");
+                return results;
+            }
+
+            long start = metrics.start();
+            for (int i = 0; i < columnSizes.get(column); i++) {
+                Object value = read(column, i);
+                if (value != null && predicate.test(value)) {
+                    results.add(i);
+                }
+            }
+            metrics.record(StoreMetrics.FILTER, start, columnSizes.get(column), results.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        results.complete();
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> filter(String column, Predicate<Object> predicate, List<Integer> indexesToCheck) {
+        SpillableIntList results = new SpillableIntList();
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            if (isInvalidColumn(column)) {
+                System.out.println("Column is not registered with this column store.");
+                return results;
+            }
+
+            long start = metrics.start();
+            for (int index: indexesToCheck) {
+                Object value = read(column, index);
+                if (value != null && predicate.test(value)) {
+                    results.add(index);
+                }
+            }
+            metrics.record(StoreMetrics.FILTER_INDEXES, start, indexesToCheck.size(), results.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        results.complete();
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> getMax(String column, List<Integer> indexesToCheck) {
+        return getExtreme(column, indexesToCheck, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> getMin(String column, List<Integer> indexesToCheck) {
+        return getExtreme(column, indexesToCheck, false);
+    }
+
+    /**
+     * Shared implementation of {@link #getMax(String, List)} and {@link #getMin(String, List)}, reading the values as primitives.
+     * @param column the column to check
+     * @param indexesToCheck the given indexes
+     * @param isMax true to get the maximum, false to get the minimum
+     * @return a subset of the given list, that represents the extreme value
+     */
+    private List<Integer> getExtreme(String column, List<Integer> indexesToCheck, boolean isMax) {
+        List<Integer> results = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            if (!validationCheckForMinMax(column)) { return results; } //return empty list if validation check fails
+
+            long start = metrics.start();
+            boolean isInteger = columnDataTypes.get(column) == INTEGER_DATATYPE;
+            float extreme = isMax ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+            for (int index: indexesToCheck) {
+                float value;
+                if (isInteger) {
+                    int intValue = chunkOf(column, index).getInt(offsetOf(column, index));
+                    if (intValue == Integer.MIN_VALUE) { continue; } //null value
+                    value = intValue;
+                } else {
+                    value = chunkOf(column, index).getFloat(offsetOf(column, index));
+                    if (Float.isNaN(value)) { continue; } //null value
+                }
+
+                if (value == extreme) {
+                    results.add(index);
+                } else if (isMax ? value > extreme : value < extreme) {
+                    extreme = value;
+                    results.clear();
+                    results.add(index);
+                }
+            }
+            metrics.record(isMax ? StoreMetrics.GET_MAX : StoreMetrics.GET_MIN, start, indexesToCheck.size(), results.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return "off_heap";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getValue(String column, int index) {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            if (isInvalidColumn(column)) {
+                System.out.println("invalid column");
+                return null;
+            }
+            long start = metrics.start();
+            Object value = read(column, index);
+            metrics.record(StoreMetrics.GET_VALUE, start, 1, 1);
+            return value;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the values of the column directly from the chunks into the batch.
+     */
+    @Override
+    protected void gatherColumn(ColumnBatch batch, String column) {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            for (int i = 0; i < batch.size(); i++) {
+                int index = batch.getIndex(i);
+                ByteBuffer chunk = chunkOf(column, index);
+                int offset = offsetOf(column, index);
+                switch (columnDataTypes.get(column)) {
+                    case INTEGER_DATATYPE -> batch.getInts(column)[i] = chunk.getInt(offset);
+                    case FLOAT_DATATYPE -> batch.getFloats(column)[i] = chunk.getFloat(offset);
+                    case TIME_DATATYPE -> batch.getTimes(column)[i] = chunk.getLong(offset);
+                    default -> {
+                        int code = chunk.getInt(offset);
+                        if (code != NULL_CODE) { batch.getStrings(column)[i] = dictionaries.get(column).get(code); }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void printHead(int until) {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            for (String column: columnHeaders) {
+                System.out.printf("%s: ", column);
+                for (int i = 0; i < until; i++) {
+                    System.out.print(read(column, i));
+                    System.out.print(",");
+                }
+                System.out.println();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes of direct memory held by this column store.
+     */
+    public long getAllocatedBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (List<ByteBuffer> columnChunks: chunks.values()) {
+                for (ByteBuffer chunk: columnChunks) {
+                    bytes += chunk.capacity();
+                }
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Releases the memory held by this column store. Waits for running queries to complete. Closing an already closed column store has no effect.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (closed) { return; }
+            closed = true;
+            for (List<ByteBuffer> columnChunks: chunks.values()) {
+                for (ByteBuffer chunk: columnChunks) {
+                    release(chunk);
+                }
+                columnChunks.clear();
+            }
+            dictionaries.clear();
+            dictionaryCodes.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if this column store is closed.
+     */
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Column store (" + getName() + ") is already closed.");
+        }
+    }
+
+    /**
+     * Appends the value to the end of the column, allocating a new chunk if the last chunk is full,
+     * or replacing the last chunk by one twice as large if it is smaller than {@link #CHUNK_BYTES}.
+     * @param column the column
+     * @param value the value, already cast according to the column type. Can be null.
+     */
+    private void append(String column, Object value) {
+        int index = columnSizes.get(column);
+        List<ByteBuffer> columnChunks = chunks.get(column);
+        int last = index / rowsPerChunk(column);
+        if (last == columnChunks.size()) {
+            columnChunks.add(ByteBuffer.allocateDirect(Math.min(FIRST_CHUNK_BYTES, CHUNK_BYTES)));
+        } else if (offsetOf(column, index) == columnChunks.get(last).capacity()) {
+            ByteBuffer full = columnChunks.get(last);
+            ByteBuffer grown = ByteBuffer.allocateDirect(Math.min(2 * full.capacity(), CHUNK_BYTES));
+            grown.put(0, full, 0, full.capacity());
+            columnChunks.set(last, grown);
+            release(full);
+        }
+
+        ByteBuffer chunk = chunkOf(column, index);
+        int offset = offsetOf(column, index);
+        switch (columnDataTypes.get(column)) {
+            case INTEGER_DATATYPE -> chunk.putInt(offset, value == null ? Integer.MIN_VALUE : (int) value);
+            case FLOAT_DATATYPE -> chunk.putFloat(offset, value == null ? Float.NaN : (float) value);
+            case TIME_DATATYPE -> chunk.putLong(offset, value == null ? ColumnBatch.NULL_TIME : ColumnBatch.toEpochSecond((LocalDateTime) value));
+            default -> chunk.putInt(offset, value == null ? NULL_CODE : encode(column, (String) value));
+        }
+        columnSizes.put(column, index + 1);
+    }
+
+    /**
+     * @param column a string column
+     * @param value the string
+     * @return the code of the string in the dictionary of the column, adding it to the dictionary if needed.
+     */
+    private int encode(String column, String value) {
+        return dictionaryCodes.get(column).computeIfAbsent(value, v -> {
+            dictionaries.get(column).add(v);
+            return dictionaries.get(column).size() - 1;
+        });
+    }
+
+    /**
+     * @param column the column
+     * @param index the index
+     * @return the value at the index, as an object. Null if the value is null.
+     */
+    private Object read(String column, int index) {
+        ByteBuffer chunk = chunkOf(column, index);
+        int offset = offsetOf(column, index);
+        switch (columnDataTypes.get(column)) {
+            case INTEGER_DATATYPE -> {
+                int value = chunk.getInt(offset);
+                return value == Integer.MIN_VALUE ? null : value;
+            }
+            case FLOAT_DATATYPE -> {
+                float value = chunk.getFloat(offset);
+                return Float.isNaN(value) ? null : value;
+            }
+            case TIME_DATATYPE -> {
+                long value = chunk.getLong(offset);
+                return value == ColumnBatch.NULL_TIME ? null : LocalDateTime.ofEpochSecond(value, 0, ZoneOffset.UTC);
+            }
+            default -> {
+                int code = chunk.getInt(offset);
+                return code == NULL_CODE ? null : dictionaries.get(column).get(code);
+            }
+        }
+    }
+
+    /**
+     * @param column the column
+     * @return the number of bytes taken by each value of the column
+     */
+    private int widthOf(String column) {
+        return columnDataTypes.get(column) == TIME_DATATYPE ? 8 : 4;
+    }
+
+    private int rowsPerChunk(String column) {
+        return CHUNK_BYTES / widthOf(column);
+    }
+
+    private ByteBuffer chunkOf(String column, int index) {
+        return chunks.get(column).get(index / rowsPerChunk(column));
+    }
+
+    private int offsetOf(String column, int index) {
+        return (index % rowsPerChunk(column)) * widthOf(column);
+    }
+
+    /**
+     * Releases the memory of the direct buffer immediately if possible, else leaves it to the garbage collector.
+     * @param buffer the direct buffer, which must not be used afterwards
+     */
+    private static void release(ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) { return; }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,468 @@
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * A column store implementation with two tiers: a cold tier where all the data is stored in disk (in the format of {@link ColumnStoreDisk}),
+ * and a hot tier where some column segments are also held in main memory, as primitive arrays.
+ *
+ * <p>Each column is divided into segments of {@link #segmentSize} rows. The hot tier holds at most {@link #memoryBudget} bytes of segments:</p>
+ * <ul>
+ *     <li>Segments written by the latest ingest are kept in the hot tier, as long as there is free space.</li>
+ *     <li>A cold segment is promoted once it has been accessed {@link #PROMOTION_THRESHOLD} times.</li>
+ *     <li>When there is no free space, the hot segment with the fewest (decayed) accesses is demoted, i.e. dropped from memory.</li>
+ * </ul>
+ * Queries read hot segments from memory and gather the remaining indexes from the cold tier in one pass.
+ */
+public class ColumnStoreTiered extends ColumnStoreAbstract implements AutoCloseable {
+    public static final int DEFAULT_SEGMENT_SIZE = 16384;
+
+    /**
+     * Number of accesses of a cold segment before it is promoted to the hot tier.
+     */
+    private static final int PROMOTION_THRESHOLD = 2;
+
+    /**
+     * Number of segment accesses before all access counts are halved, so that segments which are no longer used can be demoted.
+     */
+    private static final int DECAY_INTERVAL = 4096;
+
+    /**
+     * Identifies a segment of a column.
+     */
+    private record SegmentKey(String column, int segment) {}
+
+    /**
+     * Access statistics of a segment, hot or cold.
+     */
+    private static class SegmentStats {
+        int accesses = 0;
+        long lastAccess = 0;
+    }
+
+    /**
+     * Called for each index visited by {@link #visit(String, int[], ValueVisitor)}.
+     */
+    private interface ValueVisitor {
+        /**
+         * @param index the index visited
+         * @param batch the batch holding the value of the index
+         * @param position the position of the value in the batch
+         */
+        void visit(int index, ColumnBatch batch, int position);
+    }
+
+    private final ColumnStoreDisk cold;
+    private final int segmentSize;
+    private final long memoryBudget;
+
+    /**
+     * Number of values stored in each column.
+     */
+    private final HashMap<String, Integer> columnSizes = new HashMap<>();
+    private final HashMap<SegmentKey, ColumnBatch> hotSegments = new HashMap<>();
+    private final HashMap<SegmentKey, Long> hotSegmentBytes = new HashMap<>();
+    private final HashMap<SegmentKey, SegmentStats> segmentStats = new HashMap<>();
+    private long hotBytes = 0;
+    private long accessClock = 0;
+
+    /**
+     * @param columnDataTypes see {@link ColumnStoreAbstract#columnDataTypes}
+     * @param memoryBudget the maximum number of bytes held by the hot tier
+     */
+    public ColumnStoreTiered(HashMap<String, Integer> columnDataTypes, long memoryBudget) {
+        this(columnDataTypes, memoryBudget, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param columnDataTypes see {@link ColumnStoreAbstract#columnDataTypes}
+     * @param memoryBudget the maximum number of bytes held by the hot tier
+     * @param segmentSize the number of rows per segment
+     */
+    public ColumnStoreTiered(HashMap<String, Integer> columnDataTypes, long memoryBudget, int segmentSize) {
+        super(columnDataTypes);
+        this.memoryBudget = memoryBudget;
+        this.segmentSize = segmentSize;
+        this.cold = new ColumnStoreDisk(columnDataTypes, metrics) { //reads from the cold tier are recorded in the metrics of this column store
+            @Override
+            public String getName() {
+                return ColumnStoreTiered.this.getName();
+            }
+        };
+        for (String column: columnHeaders) {
+            columnSizes.put(column, 0);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected synchronized void store(String column, String value) {
+        if (isInvalidColumn(column)) {
+            System.out.println("Column is not registered with this column store.");
+            return;
+        }
+        cold.store(column, value);
+        int size = columnSizes.get(column);
+        demote(new SegmentKey(column, size / segmentSize)); //the hot copy of the last segment is now stale
+        columnSizes.put(column, size + 1);
+    }
+
+    /**
+     * Stores all values in the cold tier, then keeps the newly written segments in the hot tier while there is free space.
+     */
+    @Override
+    protected synchronized void storeAll(HashMap<String, List<String>> buffer) {
+        cold.storeAll(buffer);
+        for (String column: buffer.keySet()) {
+            if (isInvalidColumn(column)) { continue; }
+            int oldSize = columnSizes.get(column);
+            int newSize = oldSize + buffer.get(column).size();
+            columnSizes.put(column, newSize);
+
+            int firstSegment = oldSize / segmentSize;
+            int lastSegment = (newSize - 1) / segmentSize;
+            for (int segment = firstSegment; segment <= lastSegment; segment++) {
+                demote(new SegmentKey(column, segment)); //the hot copy of the previous last segment is now stale
+            }
+            for (int segment = lastSegment; segment >= firstSegment; segment--) { //newest segments first
+                int start = segment * segmentSize;
+                if (start < oldSize) { break; } //segment also holds older values, leave it in the cold tier
+                int[] indexes = new int[Math.min(segmentSize, newSize - start)];
+                ColumnBatch batch = new ColumnBatch(indexes);
+                batch.addColumn(column, columnDataTypes.get(column));
+                for (int i = 0; i < indexes.length; i++) {
+                    indexes[i] = start + i;
+                    batch.setValue(column, i, castValueAccordingToColumnType(column, buffer.get(column).get(start - oldSize + i)));
+                }
+                if (hotBytes + estimateBytes(batch, column) > memoryBudget) { break; }
+                promote(new SegmentKey(column, segment), batch);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> filter(String column, Predicate<Object> predicate) {
+        if (isInvalidColumn(column)) {
+            System.out.println("Column is not registered with this column store.");
+            return new ArrayList<>();
+        }
+
+        int[] indexes = new int[sizeOf(column)];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = i;
+        }
+        return filterSorted(StoreMetrics.FILTER, column, predicate, indexes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> filter(String column, Predicate<Object> predicate, List<Integer> indexesToCheck) {
+        if (isInvalidColumn(column)) {
+            System.out.println("Column is not registered with this column store.");
+            return new ArrayList<>();
+        }
+        return filterSorted(StoreMetrics.FILTER_INDEXES, column, predicate, toSortedIndexes(indexesToCheck));
+    }
+
+    /**
+     * Shared implementation of both filter functions.
+     * @param operation the operation name to record in the metrics
+     * @param column the column to check
+     * @param predicate the predicate logic
+     * @param sortedIndexes the indexes to check, in ascending order
+     * @return the matched indexes, in ascending order
+     */
+    private List<Integer> filterSorted(String operation, String column, Predicate<Object> predicate, int[] sortedIndexes) {
+        long start = metrics.start();
+        SpillableIntList results = new SpillableIntList();
+        visit(column, sortedIndexes, (index, batch, position) -> {
+            Object value = batch.getValue(column, position);
+            if (value != null && predicate.test(value)) {
+                results.add(index);
+            }
+        });
+        results.sort(null);
+        metrics.record(operation, start, sortedIndexes.length, results.size());
+        results.complete();
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> getMax(String column, List<Integer> indexesToCheck) {
+        return getExtreme(column, indexesToCheck, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> getMin(String column, List<Integer> indexesToCheck) {
+        return getExtreme(column, indexesToCheck, false);
+    }
+
+    /**
+     * Shared implementation of {@link #getMax(String, List)} and {@link #getMin(String, List)}.
+     * @param column the column to check
+     * @param indexesToCheck the given indexes
+     * @param isMax true to get the maximum, false to get the minimum
+     * @return a subset of the given list, that represents the extreme value
+     */
+    private List<Integer> getExtreme(String column, List<Integer> indexesToCheck, boolean isMax) {
+        List<Integer> results = new ArrayList<>();
+        if (!validationCheckForMinMax(column)) { return results; } //return empty list if validation check fails
+
+        long start = metrics.start();
+        float[] extreme = { isMax ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY };
+        visit(column, toSortedIndexes(indexesToCheck), (index, batch, position) -> {
+            Object valueAtIndex = batch.getValue(column, position);
+            if (valueAtIndex == null) { return; }
+            float value = ((Number) valueAtIndex).floatValue();
+            if (value == extreme[0]) {
+                results.add(index);
+            } else if (isMax ? value > extreme[0] : value < extreme[0]) {
+                extreme[0] = value;
+                results.clear();
+                results.add(index);
+            }
+        });
+        results.sort(null);
+        metrics.record(isMax ? StoreMetrics.GET_MAX : StoreMetrics.GET_MIN, start, indexesToCheck.size(), results.size());
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return "tiered";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getValue(String column, int index) {
+        if (isInvalidColumn(column)) {
+            System.out.println("invalid column");
+            return null;
+        }
+
+        ColumnBatch batch = access(new SegmentKey(column, index / segmentSize));
+        if (batch == null) { return cold.getValue(column, index); } //recorded by the cold tier
+        long start = metrics.start();
+        Object value = batch.getValue(column, index % segmentSize);
+        metrics.record(StoreMetrics.GET_VALUE, start, 1, 1);
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void gatherColumn(ColumnBatch batch, String column) {
+        HashMap<Integer, Integer> positions = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            positions.put(batch.getIndex(i), i);
+        }
+        visit(column, batch.getIndexes(), (index, source, position) ->
+                batch.setValue(column, positions.get(index), source.getValue(column, position)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void printHead(int until) {
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < until; i++) {
+            indexes.add(i);
+        }
+        for (String column: columnHeaders) {
+            ColumnBatch batch = gather(List.of(column), indexes);
+            System.out.printf("%s: ", column);
+            for (int i = 0; i < batch.size(); i++) {
+                System.out.print(batch.getValue(column, i));
+                System.out.print(",");
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * @return the number of bytes currently held by the hot tier.
+     */
+    public synchronized long getHotBytes() {
+        return hotBytes;
+    }
+
+    /**
+     * @return the number of segments currently held by the hot tier.
+     */
+    public synchronized int getHotSegmentCount() {
+        return hotSegments.size();
+    }
+
+    /**
+     * Visits the values of the column at the given indexes. Indexes in hot segments are served from memory,
+     * the remaining indexes are gathered from the cold tier in one pass. Hence, indexes are not visited in order.
+     * @param column the column to visit
+     * @param sortedIndexes the indexes to visit, in ascending order
+     * @param visitor called for each index
+     */
+    private void visit(String column, int[] sortedIndexes, ValueVisitor visitor) {
+        List<Integer> coldIndexes = new ArrayList<>();
+        int i = 0;
+        while (i < sortedIndexes.length) {
+            int segment = sortedIndexes[i] / segmentSize;
+            int end = i;
+            while (end < sortedIndexes.length && sortedIndexes[end] / segmentSize == segment) {
+                end++;
+            }
+
+            ColumnBatch batch = access(new SegmentKey(column, segment));
+            for (; i < end; i++) {
+                if (batch == null) { coldIndexes.add(sortedIndexes[i]); }
+                else { visitor.visit(sortedIndexes[i], batch, sortedIndexes[i] % segmentSize); }
+            }
+        }
+
+        if (coldIndexes.isEmpty()) { return; }
+        ColumnBatch coldBatch = cold.gather(List.of(column), coldIndexes);
+        for (int position = 0; position < coldBatch.size(); position++) {
+            visitor.visit(coldBatch.getIndex(position), coldBatch, position);
+        }
+    }
+
+    /**
+     * @param column a column
+     * @return the number of values stored in the column
+     */
+    private synchronized int sizeOf(String column) {
+        return columnSizes.get(column);
+    }
+
+    /**
+     * Records an access to the segment, promoting it to the hot tier if it has been accessed often enough.
+     * The segment is read from the cold tier without holding the lock of this column store, so that other queries are not blocked meanwhile.
+     * @param key the segment accessed
+     * @return the segment if it is in the hot tier, null if it has to be read from the cold tier.
+     */
+    private ColumnBatch access(SegmentKey key) {
+        int end;
+        synchronized (this) {
+            SegmentStats stats = segmentStats.computeIfAbsent(key, k -> new SegmentStats());
+            stats.accesses++;
+            stats.lastAccess = ++accessClock;
+            if (accessClock % DECAY_INTERVAL == 0) {
+                for (SegmentStats s: segmentStats.values()) {
+                    s.accesses /= 2;
+                }
+            }
+
+            ColumnBatch batch = hotSegments.get(key);
+            if (batch != null || stats.accesses < PROMOTION_THRESHOLD) { return batch; }
+            end = Math.min((key.segment() + 1) * segmentSize, columnSizes.get(key.column()));
+        }
+
+        ColumnBatch loaded = load(key, end);
+        synchronized (this) {
+            ColumnBatch batch = hotSegments.get(key);
+            if (batch != null) { return batch; } //promoted by another query meanwhile
+            if (end < (key.segment() + 1) * segmentSize && columnSizes.get(key.column()) != end) { return null; } //values were appended to the segment meanwhile
+            return promote(key, loaded) ? loaded : null;
+        }
+    }
+
+    /**
+     * Reads the whole segment from the cold tier.
+     * @param key the segment to read
+     * @param end the number of values stored in the column, or the first index of the next segment if it is smaller
+     * @return the segment, where position i holds the value at index (segment * {@link #segmentSize} + i)
+     */
+    private ColumnBatch load(SegmentKey key, int end) {
+        int start = key.segment() * segmentSize;
+        List<Integer> indexes = new ArrayList<>(end - start);
+        for (int index = start; index < end; index++) {
+            indexes.add(index);
+        }
+        return cold.gather(List.of(key.column()), indexes);
+    }
+
+    /**
+     * Adds the segment to the hot tier, demoting the least accessed hot segments until it fits in the memory budget.
+     * @param key the segment
+     * @param batch the values of the segment
+     * @return false if the segment is larger than the memory budget.
+     */
+    private synchronized boolean promote(SegmentKey key, ColumnBatch batch) {
+        long bytes = estimateBytes(batch, key.column());
+        if (bytes > memoryBudget) { return false; }
+
+        while (hotBytes + bytes > memoryBudget) {
+            SegmentKey victim = null;
+            SegmentStats victimStats = null;
+            for (SegmentKey candidate: hotSegments.keySet()) {
+                SegmentStats stats = segmentStats.get(candidate);
+                if (victim == null || stats.accesses < victimStats.accesses
+                        || (stats.accesses == victimStats.accesses && stats.lastAccess < victimStats.lastAccess)) {
+                    victim = candidate;
+                    victimStats = stats;
+                }
+            }
+            demote(victim);
+        }
+
+        hotSegments.put(key, batch);
+        hotSegmentBytes.put(key, bytes);
+        segmentStats.computeIfAbsent(key, k -> new SegmentStats());
+        hotBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Drops the segment from the hot tier, if it is there. Its values are still in the cold tier.
+     * @param key the segment
+     */
+    private synchronized void demote(SegmentKey key) {
+        if (hotSegments.remove(key) != null) {
+            hotBytes -= hotSegmentBytes.remove(key);
+        }
+    }
+
+    /**
+     * Closes the files of the cold tier opened by queries. They are opened again if this column store is queried afterwards.
+     */
+    @Override
+    public void close() {
+        cold.close();
+    }
+
+    /**
+     * @param batch the values of a segment
+     * @param column the column of the segment
+     * @return the approximate number of bytes taken by the segment in memory
+     */
+    private long estimateBytes(ColumnBatch batch, String column) {
+        long bytes = 4L * batch.size(); //the indexes of the batch
+        switch (batch.getDataType(column)) {
+            case INTEGER_DATATYPE, FLOAT_DATATYPE -> bytes += 4L * batch.size();
+            case TIME_DATATYPE -> bytes += 8L * batch.size();
+            default -> {
+                for (String value: batch.getStrings(column)) {
+                    bytes += value == null ? 8 : 48 + 2L * value.length(); //reference, object headers and characters
+                }
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,139 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends encoded values to a column file through a ring of large direct buffers, the write counterpart of {@link ScanReader}.
+ *
+ * <p>Values are put into the current buffer. When all buffers are full, they are written with a single gather write
+ * ({@link FileChannel#write(ByteBuffer[])}), so that a batch of rows costs a few system calls instead of one per value.
+ * Nothing is forced to the storage device unless {@link #force(boolean)} is called.</p>
+ *
+ * <p>Not thread safe: each column file is written by one thread.</p>
+ */
+public class ColumnWriter implements Closeable {
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    public static final int DEFAULT_BUFFERS = 4;
+
+    private final FileChannel channel;
+    private final ByteBuffer[] buffers;
+    private int current = 0;
+    private long bytesWritten = 0;
+
+    /**
+     * Opens the file for appending, creating it and its directories if needed.
+     * @param file the column file
+     * @param bufferSize the size of each buffer, at least the size of the largest value put
+     * @param buffers the number of buffers written per gather write
+     * @throws IOException if the file could not be opened
+     */
+    public ColumnWriter(File file, int bufferSize, int buffers) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) { parent.mkdirs(); }
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.buffers = new ByteBuffer[buffers];
+        for (int i = 0; i < buffers; i++) {
+            this.buffers[i] = ByteBuffer.allocateDirect(bufferSize);
+        }
+    }
+
+    public void putByte(byte value) throws IOException {
+        ensure(1).put(value);
+    }
+
+    public void putInt(int value) throws IOException {
+        ensure(Integer.BYTES).putInt(value);
+    }
+
+    public void putFloat(float value) throws IOException {
+        ensure(Float.BYTES).putFloat(value);
+    }
+
+    public void putLong(long value) throws IOException {
+        ensure(Long.BYTES).putLong(value);
+    }
+
+    /**
+     * @param bytes the bytes to put, split over buffers if needed
+     * @throws IOException if the buffers had to be written and the write failed
+     */
+    public void putBytes(byte[] bytes) throws IOException {
+        int from = 0;
+        while (from < bytes.length) {
+            ByteBuffer buffer = ensure(1);
+            int length = Math.min(buffer.remaining(), bytes.length - from);
+            buffer.put(bytes, from, length);
+            from += length;
+        }
+    }
+
+    /**
+     * Writes all buffered values to the file with one gather write.
+     * @throws IOException if the write failed
+     */
+    public void flush() throws IOException {
+        for (int i = 0; i <= current; i++) {
+            buffers[i].flip();
+        }
+        long remaining = 0;
+        for (int i = 0; i <= current; i++) {
+            remaining += buffers[i].remaining();
+        }
+        while (remaining > 0) {
+            long written = channel.write(buffers, 0, current + 1);
+            remaining -= written;
+            bytesWritten += written;
+        }
+        for (int i = 0; i <= current; i++) {
+            buffers[i].clear();
+        }
+        current = 0;
+    }
+
+    /**
+     * Writes the buffered values, and forces all values written to the storage device.
+     * @param metaData true to also force the metadata of the file, e.g. its length
+     * @throws IOException if the write or force failed
+     */
+    public void force(boolean metaData) throws IOException {
+        flush();
+        channel.force(metaData);
+    }
+
+    /**
+     * @return the number of bytes written to the file so far, not counting the values still buffered
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Writes the buffered values and closes the file.
+     * @throws IOException if the write failed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the buffer with room for the given number of bytes, writing all buffers if the last one is full
+     */
+    private ByteBuffer ensure(int bytes) throws IOException {
+        if (buffers[current].remaining() < bytes) {
+            if (current + 1 < buffers.length) {
+                current++;
+            } else {
+                flush();
+            }
+        }
+        return buffers[current];
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An adaptive index on a numeric column, built by database cracking instead of a separate build step.
+ *
+ * <p>The index holds a copy of the non-null values of the column together with their row indexes. Each range query partitions
+ * only the pieces of the copy that contain its bounds, in place, and remembers the position of each bound (a crack).
+ * So the first query costs about a scan, and repeated queries on nearby ranges touch smaller and smaller pieces,
+ * converging on the speed of a sorted index over the ranges that are actually queried.</p>
+ *
+ * <p>Bounds are kept as "less than" cracks: after cracking on a pivot at position p, all values before p are less than the pivot
+ * and all values from p on are not. Inclusive upper bounds crack on the next larger double.</p>
+ *
+ * <p>Thread safe: queries whose bounds are already cracked only hold the read lock and run concurrently, while cracking holds the write lock.
+ * The copy is never seen by readers of the column store, so they are not affected.</p>
+ */
+public class CrackingIndex {
+    private final double[] values;
+    private final int[] rows;
+    private final long version;
+
+    /**
+     * The positions of the cracks, by pivot.
+     */
+    private final TreeMap<Double, Integer> cracks = new TreeMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long rowsReorganized = 0;
+
+    /**
+     * @param values the non-null values of the column, copied into the index
+     * @param rows the row index of each value
+     * @param version the version of the data of the column store the values were copied from
+     */
+    public CrackingIndex(double[] values, int[] rows, long version) {
+        if (values.length != rows.length) {
+            throw new IllegalArgumentException("Every value must have a row index.");
+        }
+        this.values = values.clone();
+        this.rows = rows.clone();
+        this.version = version;
+    }
+
+    /**
+     * Returns the rows whose values are in the range, cracking the index on the bounds if they were not queried before.
+     * @param low the lower bound, or {@link Double#NEGATIVE_INFINITY} for none
+     * @param lowInclusive true if values equal to the lower bound are in the range
+     * @param high the upper bound, or {@link Double#POSITIVE_INFINITY} for none
+     * @param highInclusive true if values equal to the upper bound are in the range
+     * @return the row indexes, in ascending order
+     */
+    public int[] select(double low, boolean lowInclusive, double high, boolean highInclusive) {
+        double from = lowInclusive || low == Double.NEGATIVE_INFINITY ? low : Math.nextUp(low);
+        double to = !highInclusive || high == Double.POSITIVE_INFINITY ? high : Math.nextUp(high);
+        if (!(from < to)) { return new int[0]; } //also for NaN bounds
+
+        lock.readLock().lock();
+        try {
+            Integer start = positionOf(from);
+            Integer end = positionOf(to);
+            if (start != null && end != null) {
+                return sortedRows(start, end);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        int start;
+        int end;
+        try {
+            start = crack(from);
+            end = crack(to);
+            lock.readLock().lock(); //downgrade, so that other readers can copy their rows while these are copied
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            return sortedRows(start, end);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the version of the data of the column store the index was built from
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of non-null values in the index
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * @return the number of pieces the index is partitioned into
+     */
+    public int getPieces() {
+        lock.readLock().lock();
+        try {
+            return cracks.size() + 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the total number of values scanned by cracking so far, which grows slower as the index converges
+     */
+    public long getRowsReorganized() {
+        lock.readLock().lock();
+        try {
+            return rowsReorganized;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the position of the crack on the pivot, or null if the index was not cracked on it. The ends need no crack.
+     */
+    private Integer positionOf(double pivot) {
+        if (pivot == Double.NEGATIVE_INFINITY) { return 0; }
+        if (pivot == Double.POSITIVE_INFINITY) { return values.length; }
+        return cracks.get(pivot);
+    }
+
+    /**
+     * Partitions the piece containing the pivot into the values less than the pivot, followed by the others. Must hold the write lock.
+     * @return the position of the first value not less than the pivot
+     */
+    private int crack(double pivot) {
+        Integer position = positionOf(pivot);
+        if (position != null) { return position; }
+
+        Map.Entry<Double, Integer> lower = cracks.lowerEntry(pivot);
+        Map.Entry<Double, Integer> higher = cracks.higherEntry(pivot);
+        int i = lower == null ? 0 : lower.getValue();
+        int j = (higher == null ? values.length : higher.getValue()) - 1;
+        rowsReorganized += j - i + 1;
+        while (i <= j) {
+            if (values[i] < pivot) {
+                i++;
+            } else {
+                swap(i, j);
+                j--;
+            }
+        }
+        cracks.put(pivot, i);
+        return i;
+    }
+
+    private void swap(int i, int j) {
+        double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+        int row = rows[i];
+        rows[i] = rows[j];
+        rows[j] = row;
+    }
+
+    /**
+     * @return the rows between the positions, sorted. Must hold the read lock.
+     */
+    private int[] sortedRows(int start, int end) {
+        int[] result = Arrays.copyOfRange(rows, start, Math.max(start, end));
+        Arrays.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,154 @@
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Encodes results as CSV, in the same format as {@link Output#toString()} for {@link Output} rows.
+ *
+ * <p>Dates, station names and categories are written without creating intermediate strings.
+ * Null values of a {@link ColumnBatch} are written as "M", as in the input CSV file.</p>
+ */
+public class CsvResultEncoder implements ResultEncoder {
+    /**
+     * The header of "ScanResult.csv".
+     */
+    public static final String OUTPUT_HEADER = "Date,Station,Category,Value";
+
+    private static final byte SEPARATOR = ',';
+    private static final byte NEWLINE = '\n';
+    private static final byte[] NULL_VALUE = "M".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] header;
+    private final byte[][] typeNames = new byte[4][];
+
+    /**
+     * Encoded strings, e.g. station names, so that each distinct string is only encoded once.
+     */
+    private final HashMap<String, byte[]> encodedStrings = new HashMap<>();
+
+    /**
+     * Creates an encoder for {@link Output} rows, with the header of "ScanResult.csv".
+     */
+    public CsvResultEncoder() {
+        this(List.of(OUTPUT_HEADER));
+    }
+
+    /**
+     * @param columns the column names written in the header
+     */
+    public CsvResultEncoder(List<String> columns) {
+        this.header = (String.join(",", columns) + "\n").getBytes(StandardCharsets.UTF_8);
+        for (int type = 0; type < typeNames.length; type++) {
+            typeNames[type] = Output.typeToString(type).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    public byte[] header() {
+        return header;
+    }
+
+    @Override
+    public boolean encode(Output row, ByteBuffer buffer) {
+        int start = buffer.position();
+        try {
+            putDate(buffer, row.date);
+            buffer.put(SEPARATOR);
+            buffer.put(encodedString(row.stationName));
+            buffer.put(SEPARATOR);
+            buffer.put(row.type >= 0 && row.type < typeNames.length ? typeNames[row.type] : encodedString(Output.typeToString(row.type)));
+            buffer.put(SEPARATOR);
+            putAscii(buffer, Float.toString(row.value));
+            buffer.put(NEWLINE);
+            return true;
+        } catch (BufferOverflowException e) {
+            buffer.position(start);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean encode(ColumnBatch batch, int i, ByteBuffer buffer) {
+        int start = buffer.position();
+        try {
+            boolean first = true;
+            for (String column: batch.getColumns()) {
+                if (!first) { buffer.put(SEPARATOR); }
+                first = false;
+                switch (batch.getDataType(column)) {
+                    case ColumnStoreAbstract.INTEGER_DATATYPE -> {
+                        int value = batch.getInts(column)[i];
+                        if (value == ColumnBatch.NULL_INTEGER) { buffer.put(NULL_VALUE); }
+                        else { putAscii(buffer, Integer.toString(value)); }
+                    }
+                    case ColumnStoreAbstract.FLOAT_DATATYPE -> {
+                        float value = batch.getFloats(column)[i];
+                        if (Float.isNaN(value)) { buffer.put(NULL_VALUE); }
+                        else { putAscii(buffer, Float.toString(value)); }
+                    }
+                    case ColumnStoreAbstract.TIME_DATATYPE -> {
+                        LocalDateTime value = batch.getTimestamp(column, i);
+                        if (value == null) { buffer.put(NULL_VALUE); }
+                        else {
+                            putDate(buffer, value);
+                            buffer.put((byte) ' ');
+                            putDigits(buffer, value.getHour(), 2);
+                            buffer.put((byte) ':');
+                            putDigits(buffer, value.getMinute(), 2);
+                        }
+                    }
+                    default -> {
+                        String value = batch.getStrings(column)[i];
+                        buffer.put(value == null ? NULL_VALUE : encodedString(value));
+                    }
+                }
+            }
+            buffer.put(NEWLINE);
+            return true;
+        } catch (BufferOverflowException e) {
+            buffer.position(start);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the date in the format "yyyy-MM-dd".
+     */
+    private static void putDate(ByteBuffer buffer, LocalDateTime date) {
+        putDigits(buffer, date.getYear(), 4);
+        buffer.put((byte) '-');
+        putDigits(buffer, date.getMonthValue(), 2);
+        buffer.put((byte) '-');
+        putDigits(buffer, date.getDayOfMonth(), 2);
+    }
+
+    /**
+     * Writes the non-negative value in decimal, padded with zeroes to the given number of digits.
+     */
+    private static void putDigits(ByteBuffer buffer, int value, int digits) {
+        int divisor = 1;
+        int length = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+            length++;
+        }
+        for (int i = length; i < digits; i++) {
+            buffer.put((byte) '0');
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + (value / divisor) % 10));
+        }
+    }
+
+    private static void putAscii(ByteBuffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            buffer.put((byte) value.charAt(i));
+        }
+    }
+
+    private byte[] encodedString(String value) {
+        return encodedStrings.computeIfAbsent(value, v -> v.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,157 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The deleted rows of a column store, as one bitmap per segment of {@link #SEGMENT_ROWS} row indexes.
+ *
+ * <p>Segments without deleted rows have no bitmap, so checking a row costs an array read and, only in segments with deletes, a bit test.
+ * Bitmaps are copied on write: deleting rows publishes new bitmaps for their segments, so scans read the vector without locking.
+ * Deletes are expected to be rare compared to scans.</p>
+ */
+public class DeletionVector {
+    public static final int SEGMENT_BITS = 16;
+    public static final int SEGMENT_ROWS = 1 << SEGMENT_BITS;
+
+    private volatile BitSet[] segments = new BitSet[0];
+    private volatile long count = 0;
+
+    /**
+     * @param row a row index
+     * @return true if the row was deleted
+     */
+    public boolean isDeleted(int row) {
+        BitSet[] current = segments;
+        int segment = row >>> SEGMENT_BITS;
+        return segment < current.length && current[segment] != null && current[segment].get(row & (SEGMENT_ROWS - 1));
+    }
+
+    /**
+     * @return true if no row is deleted, so that scans can skip checking rows
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return the number of rows deleted
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @param fromRow the first row, inclusive
+     * @param toRow the last row, exclusive
+     * @return the number of rows deleted in the range
+     */
+    public int count(int fromRow, int toRow) {
+        BitSet[] current = segments;
+        int result = 0;
+        for (int row = fromRow; row < toRow; ) {
+            int segment = row >>> SEGMENT_BITS;
+            int base = segment << SEGMENT_BITS;
+            int end = (int) Math.min(toRow, (long) base + SEGMENT_ROWS);
+            if (segment < current.length && current[segment] != null) {
+                result += current[segment].get(row - base, end - base).cardinality();
+            }
+            row = end;
+        }
+        return result;
+    }
+
+    /**
+     * Marks the rows as deleted.
+     * @param sortedRows row indexes, in ascending order
+     * @return the number of rows that were not already deleted
+     */
+    public synchronized int delete(int[] sortedRows) {
+        if (sortedRows.length == 0) { return 0; }
+        int lastSegment = sortedRows[sortedRows.length - 1] >>> SEGMENT_BITS;
+        BitSet[] next = Arrays.copyOf(segments, Math.max(segments.length, lastSegment + 1));
+        int changed = 0;
+        int copied = -1;
+        for (int row: sortedRows) {
+            int segment = row >>> SEGMENT_BITS;
+            if (segment != copied) { //copied once per segment, so that scans keep reading the bitmaps they started with
+                next[segment] = next[segment] == null ? new BitSet() : (BitSet) next[segment].clone();
+                copied = segment;
+            }
+            int bit = row & (SEGMENT_ROWS - 1);
+            if (!next[segment].get(bit)) {
+                next[segment].set(bit);
+                changed++;
+            }
+        }
+        count += changed;
+        segments = next;
+        return changed;
+    }
+
+    /**
+     * @param sortedRows row indexes, in ascending order
+     * @return the rows not deleted, or the same array if none is deleted
+     */
+    public int[] removeDeleted(int[] sortedRows) {
+        if (isEmpty()) { return sortedRows; }
+        int[] live = new int[sortedRows.length];
+        int size = 0;
+        for (int row: sortedRows) {
+            if (!isDeleted(row)) { live[size++] = row; }
+        }
+        return size == sortedRows.length ? sortedRows : Arrays.copyOf(live, size);
+    }
+
+    /**
+     * Writes the bitmaps of the segments with deleted rows to a temporary file next to the file, which then replaces the file.
+     * The file is never partially written: after a crash it holds either the earlier or the new deleted rows.
+     * @param file the file
+     * @param sync true to force the temporary file to the storage device before it replaces the file
+     * @throws IOException if the file could not be written
+     */
+    public synchronized void save(File file, boolean sync) throws IOException {
+        BitSet[] current = segments;
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(temporary);
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream))) {
+            for (int segment = 0; segment < current.length; segment++) {
+                if (current[segment] == null) { continue; }
+                long[] words = current[segment].toLongArray();
+                output.writeInt(segment);
+                output.writeInt(words.length);
+                for (long word: words) {
+                    output.writeLong(word);
+                }
+            }
+            output.flush();
+            if (sync) { outputStream.getFD().sync(); }
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param file a file written by {@link #save(File, boolean)}
+     * @return the deletion vector of the file, empty if the file does not exist
+     * @throws IOException if the file could not be read
+     */
+    public static DeletionVector load(File file) throws IOException {
+        DeletionVector vector = new DeletionVector();
+        if (!file.exists()) { return vector; }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (input.available() > 0) {
+                int segment = input.readInt();
+                long[] words = new long[input.readInt()];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = input.readLong();
+                }
+                if (segment >= vector.segments.length) { vector.segments = Arrays.copyOf(vector.segments, segment + 1); }
+                vector.segments[segment] = BitSet.valueOf(words);
+                vector.count += vector.segments[segment].cardinality();
+            }
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Fills in the gaps of a resampled time series: buckets without any row, and buckets whose values were all null (e.g. 'M' readings).
+ * Placed downstream of a {@link Resampler} with the same bucket width.
+ *
+ * <p>At most maxGap consecutive buckets are filled, since filling longer gaps would be a guess; the rest are emitted with a NaN value.
+ * With {@link #PREVIOUS} filling, the first maxGap buckets of a longer gap are filled. With {@link #LINEAR} filling, the buckets of a gap
+ * are held until the next value arrives and none of a longer gap is filled, so at most maxGap buckets are held per group.</p>
+ */
+public class GapFiller implements Consumer<WindowResult> {
+    /**
+     * Emits the missing buckets with a NaN value.
+     */
+    public static final int NONE = 0;
+
+    /**
+     * Fills with the last value before the gap.
+     */
+    public static final int PREVIOUS = 1;
+
+    /**
+     * Fills by linear interpolation between the values before and after the gap.
+     */
+    public static final int LINEAR = 2;
+
+    /**
+     * The state of a group.
+     */
+    private static class Series {
+        long lastTime;
+        WindowResult lastValue; //the last result with a value, null if none yet
+        int gapLength = 0;
+        final List<WindowResult> pending = new ArrayList<>(); //gap buckets held for linear interpolation
+    }
+
+    private final long widthSeconds;
+    private final int policy;
+    private final int maxGap;
+    private final Consumer<WindowResult> downstream;
+    private final HashMap<Object, Series> series = new HashMap<>();
+
+    /**
+     * @param widthSeconds the width of the buckets, as given to the {@link Resampler}
+     * @param policy one of {@link #NONE}, {@link #PREVIOUS} and {@link #LINEAR}
+     * @param maxGap the maximum number of consecutive buckets filled in
+     * @param downstream receives every bucket from the first bucket of each group, in order of time within each group
+     */
+    public GapFiller(long widthSeconds, int policy, int maxGap, Consumer<WindowResult> downstream) {
+        if (policy < NONE || policy > LINEAR) {
+            throw new IllegalArgumentException("No such fill policy: " + policy);
+        }
+        this.widthSeconds = widthSeconds;
+        this.policy = policy;
+        this.maxGap = maxGap;
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void accept(WindowResult result) {
+        Series state = series.get(result.group());
+        if (state == null) {
+            state = new Series();
+            state.lastTime = result.epochSecond() - widthSeconds;
+            series.put(result.group(), state);
+        }
+
+        for (long time = state.lastTime + widthSeconds; time < result.epochSecond(); time += widthSeconds) {
+            gap(state, new WindowResult(result.group(), time, Double.NaN, 0, false));
+        }
+        if (Double.isNaN(result.value())) {
+            gap(state, result);
+        } else {
+            if (policy == LINEAR && state.lastValue != null) {
+                for (WindowResult missing: state.pending) {
+                    double fraction = (double) (missing.epochSecond() - state.lastValue.epochSecond())
+                            / (result.epochSecond() - state.lastValue.epochSecond());
+                    double value = state.lastValue.value() + fraction * (result.value() - state.lastValue.value());
+                    downstream.accept(new WindowResult(missing.group(), missing.epochSecond(), value, missing.count(), true));
+                }
+            } else {
+                state.pending.forEach(downstream);
+            }
+            state.pending.clear();
+            state.gapLength = 0;
+            state.lastValue = result;
+            downstream.accept(result);
+        }
+        state.lastTime = result.epochSecond();
+    }
+
+    /**
+     * Emits the buckets held for interpolation without a value, since no value follows them.
+     */
+    public void finish() {
+        for (Series state: series.values()) {
+            state.pending.forEach(downstream);
+            state.pending.clear();
+        }
+        series.clear();
+    }
+
+    private void gap(Series state, WindowResult missing) {
+        state.gapLength++;
+        if (policy == NONE || state.lastValue == null || state.gapLength > maxGap) {
+            if (state.gapLength == maxGap + 1) { //too long after all, give up on the held buckets
+                state.pending.forEach(downstream);
+                state.pending.clear();
+            }
+            downstream.accept(missing);
+        } else if (policy == PREVIOUS) {
+            downstream.accept(new WindowResult(missing.group(), missing.epochSecond(), state.lastValue.value(), missing.count(), true));
+        } else {
+            state.pending.add(missing);
+        }
+    }
+}
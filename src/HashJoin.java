@@ -0,0 +1,290 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * An equi-join between two column stores, e.g. readings with a table of station metadata, or two stores by Timestamp.
+ *
+ * <p>The side with the smaller selection is the build side: its keys are put into a {@link LongHashTable},
+ * and the keys of the other side probe it. Keys are read with {@link ColumnStoreAbstract#gather(List, List)} in batches
+ * and encoded as longs: integers as is, times as epoch seconds, floats as their bits, and strings as codes of a dictionary
+ * built from the build side. Null keys never match.</p>
+ *
+ * <p>If the build side does not fit in the memory budget, or the {@link QueryMemory} of the query cannot reserve its hash table,
+ * both sides are partitioned by key into files of (key, row index) pairs (a grace hash join), and each pair of partitions is joined in memory. Only the dictionary of string keys stays in memory.</p>
+ *
+ * <p>The result is a pair of selection vectors, to be used with {@link ColumnStoreAbstract#gather(List, List)} on each side.</p>
+ */
+public class HashJoin {
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+    private static final int BATCH_ROWS = 65536;
+    private static final int MAX_PARTITIONS = 256;
+
+    /**
+     * The matching rows: row i of the join is the row leftIndexes[i] of the left store and rightIndexes[i] of the right store.
+     * Rows are in the order of the probe side when joined in memory, and grouped by partition when spilled.
+     */
+    public record Result(int[] leftIndexes, int[] rightIndexes) {
+        public int size() {
+            return leftIndexes.length;
+        }
+    }
+
+    private final ColumnStoreAbstract left;
+    private final String leftKey;
+    private final ColumnStoreAbstract right;
+    private final String rightKey;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private int lastPartitions = 0;
+
+    /**
+     * @param left the left store
+     * @param leftKey the key column of the left store
+     * @param right the right store
+     * @param rightKey the key column of the right store, of the same data type as the left key column
+     */
+    public HashJoin(ColumnStoreAbstract left, String leftKey, ColumnStoreAbstract right, String rightKey) {
+        this.left = left;
+        this.leftKey = leftKey;
+        this.right = right;
+        this.rightKey = rightKey;
+    }
+
+    /**
+     * @param memoryBudget the bytes the hash table of the build side may take before the join spills to disk
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return the number of partitions spilled to disk by the last join, 0 if it was done in memory
+     */
+    public int getLastPartitions() {
+        return lastPartitions;
+    }
+
+    /**
+     * Joins the selected rows of both stores on equal keys.
+     * @param leftSelection the rows of the left store to join, in any order
+     * @param rightSelection the rows of the right store to join, in any order
+     * @return the matching rows, empty if the key columns are invalid
+     */
+    public Result join(List<Integer> leftSelection, List<Integer> rightSelection) {
+        Integer leftType = left.getDataType(leftKey);
+        Integer rightType = right.getDataType(rightKey);
+        if (leftType == null || rightType == null) {
+            System.out.println("Join key column is not registered with the column store.");
+            return new Result(new int[0], new int[0]);
+        }
+        if (!leftType.equals(rightType)) {
+            System.out.printf("Cannot join columns of different data types (%s, %s).\n", leftKey, rightKey);
+            return new Result(new int[0], new int[0]);
+        }
+
+        boolean buildLeft = leftSelection.size() <= rightSelection.size();
+        Side build = buildLeft ? new Side(left, leftKey, leftSelection) : new Side(right, rightKey, rightSelection);
+        Side probe = buildLeft ? new Side(right, rightKey, rightSelection) : new Side(left, leftKey, leftSelection);
+        IntList buildRows = new IntList();
+        IntList probeRows = new IntList();
+        HashMap<String, Integer> dictionary = new HashMap<>();
+
+        long start = left.getMetrics().start();
+        try {
+            QueryProfile.run("hash join " + leftKey + " = " + rightKey, () -> joinSides(build, probe, dictionary, buildRows, probeRows));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new Result(new int[0], new int[0]);
+        }
+        left.getMetrics().record(StoreMetrics.JOIN, start, (long) leftSelection.size() + rightSelection.size(), buildRows.size());
+
+        return buildLeft ? new Result(buildRows.toArray(), probeRows.toArray()) : new Result(probeRows.toArray(), buildRows.toArray());
+    }
+
+    /**
+     * Joins the sides in memory if the hash table of the build side can be reserved, else partitions both sides to disk first.
+     */
+    private void joinSides(Side build, Side probe, HashMap<String, Integer> dictionary, IntList buildRows, IntList probeRows) throws IOException {
+        long tableBytes = (long) build.selection.size() * LongHashTable.BYTES_PER_ROW;
+        QueryMemory memory = QueryMemory.current();
+        if (tableBytes <= memoryBudget && memory.tryReserve(tableBytes)) {
+            lastPartitions = 0;
+            try {
+                LongHashTable table = new LongHashTable(build.selection.size());
+                build.forEachKey(dictionary, true, table::put);
+                probe.forEachKey(dictionary, false, (key, row) -> probe(table, key, row, buildRows, probeRows));
+            } finally {
+                memory.release(tableBytes);
+            }
+        } else {
+            lastPartitions = (int) Math.min(MAX_PARTITIONS, Math.max(2,
+                    2 * Long.highestOneBit((long) build.selection.size() * LongHashTable.BYTES_PER_ROW / memoryBudget + 1)));
+            spilledJoin(build, probe, dictionary, buildRows, probeRows);
+        }
+    }
+
+    /**
+     * Partitions both sides into files by key, then joins each pair of partitions in memory.
+     */
+    private void spilledJoin(Side build, Side probe, HashMap<String, Integer> dictionary, IntList buildRows, IntList probeRows) throws IOException {
+        File directory = Files.createTempDirectory("hash-join").toFile();
+        int partitions = lastPartitions;
+        File[] buildFiles = new File[partitions];
+        File[] probeFiles = new File[partitions];
+        try {
+            for (int p = 0; p < partitions; p++) {
+                buildFiles[p] = new File(directory, "build-" + p);
+                probeFiles[p] = new File(directory, "probe-" + p);
+            }
+            int[] buildCounts = partition(build, dictionary, true, buildFiles);
+            partition(probe, dictionary, false, probeFiles);
+
+            for (int p = 0; p < partitions; p++) {
+                if (buildCounts[p] == 0) { continue; }
+                LongHashTable table = new LongHashTable(buildCounts[p]);
+                readPairs(buildFiles[p], table::put);
+                readPairs(probeFiles[p], (key, row) -> probe(table, key, row, buildRows, probeRows));
+            }
+        } finally {
+            for (int p = 0; p < partitions; p++) {
+                if (buildFiles[p] != null) { buildFiles[p].delete(); }
+                if (probeFiles[p] != null) { probeFiles[p].delete(); }
+            }
+            directory.delete();
+        }
+    }
+
+    /**
+     * Writes the (key, row index) pairs of the side into one file per partition.
+     * @return the number of pairs in each partition
+     */
+    private int[] partition(Side side, HashMap<String, Integer> dictionary, boolean isBuild, File[] files) throws IOException {
+        int[] counts = new int[files.length];
+        DataOutputStream[] outputs = new DataOutputStream[files.length];
+        try {
+            for (int p = 0; p < files.length; p++) {
+                outputs[p] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[p]), 65536));
+            }
+            IOException[] error = new IOException[1];
+            side.forEachKey(dictionary, isBuild, (key, row) -> {
+                int p = partitionOf(key, files.length);
+                try {
+                    outputs[p].writeLong(key);
+                    outputs[p].writeInt(row);
+                    counts[p]++;
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+            if (error[0] != null) { throw error[0]; }
+        } finally {
+            for (DataOutputStream output: outputs) {
+                if (output != null) { output.close(); }
+            }
+        }
+        return counts;
+    }
+
+    private static void readPairs(File file, KeyConsumer consumer) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            long pairs = file.length() / 12;
+            for (long i = 0; i < pairs; i++) {
+                long key = input.readLong();
+                consumer.accept(key, input.readInt());
+            }
+        }
+    }
+
+    private static void probe(LongHashTable table, long key, int row, IntList buildRows, IntList probeRows) {
+        for (int entry = table.first(key); entry >= 0; entry = table.next(entry)) {
+            buildRows.add(table.row(entry));
+            probeRows.add(row);
+        }
+    }
+
+    private static int partitionOf(long key, int partitions) {
+        long h = key * 0x9E3779B97F4A7C15L; //different bits from the hash of LongHashTable, so partitions do not cluster its slots
+        return (int) (h >>> 40) & (partitions - 1);
+    }
+
+    @FunctionalInterface
+    private interface KeyConsumer {
+        void accept(long key, int row);
+    }
+
+    /**
+     * One side of the join: a column store, its key column and the selected rows.
+     */
+    private static class Side {
+        final ColumnStoreAbstract data;
+        final String key;
+        final List<Integer> selection;
+
+        Side(ColumnStoreAbstract data, String key, List<Integer> selection) {
+            this.data = data;
+            this.key = key;
+            this.selection = selection;
+        }
+
+        /**
+         * Gathers the keys in batches and passes each non-null encoded key with its row index.
+         * @param dictionary the codes of string keys, added to by the build side and only read by the probe side
+         */
+        void forEachKey(HashMap<String, Integer> dictionary, boolean isBuild, KeyConsumer consumer) {
+            for (int from = 0; from < selection.size(); from += BATCH_ROWS) {
+                ColumnBatch batch = data.gather(List.of(key), selection.subList(from, Math.min(from + BATCH_ROWS, selection.size())));
+                switch (batch.getDataType(key)) {
+                    case ColumnStoreAbstract.INTEGER_DATATYPE -> {
+                        int[] values = batch.getInts(key);
+                        for (int i = 0; i < batch.size(); i++) {
+                            if (values[i] != ColumnBatch.NULL_INTEGER) { consumer.accept(values[i], batch.getIndex(i)); }
+                        }
+                    }
+                    case ColumnStoreAbstract.FLOAT_DATATYPE -> {
+                        float[] values = batch.getFloats(key);
+                        for (int i = 0; i < batch.size(); i++) {
+                            if (!Float.isNaN(values[i])) { consumer.accept(Float.floatToIntBits(values[i]), batch.getIndex(i)); }
+                        }
+                    }
+                    case ColumnStoreAbstract.TIME_DATATYPE -> {
+                        long[] values = batch.getTimes(key);
+                        for (int i = 0; i < batch.size(); i++) {
+                            if (values[i] != ColumnBatch.NULL_TIME) { consumer.accept(values[i], batch.getIndex(i)); }
+                        }
+                    }
+                    default -> {
+                        String[] values = batch.getStrings(key);
+                        for (int i = 0; i < batch.size(); i++) {
+                            if (values[i] == null) { continue; }
+                            Integer code = isBuild ? dictionary.computeIfAbsent(values[i], v -> dictionary.size()) : dictionary.get(values[i]);
+                            if (code != null) { consumer.accept(code, batch.getIndex(i)); } //a probe key missing from the dictionary cannot match
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A growable list of ints, without boxing.
+     */
+    private static class IntList {
+        int[] values = new int[1024];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
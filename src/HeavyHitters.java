@@ -0,0 +1,95 @@
+import java.util.*;
+
+/**
+ * A mergeable sketch of the most frequent values of a column, using the Misra-Gries algorithm with a fixed number of counters.
+ *
+ * <p>The count kept for a value is at most {@link #getErrorBound()} below its true count, and the error bound is
+ * at most n / (counters + 1) for n values added. Hence every value occurring more than that many times is kept.</p>
+ */
+public class HeavyHitters {
+    public static final int DEFAULT_COUNTERS = 64;
+
+    private final int counters;
+    private final HashMap<Object, Long> counts = new HashMap<>();
+    private long errorBound = 0;
+    private long total = 0;
+
+    public HeavyHitters() {
+        this(DEFAULT_COUNTERS);
+    }
+
+    /**
+     * @param counters the maximum number of values counted at once
+     */
+    public HeavyHitters(int counters) {
+        if (counters <= 0) {
+            throw new IllegalArgumentException("Number of counters should be positive.");
+        }
+        this.counters = counters;
+    }
+
+    /**
+     * @param value the value to add, ignored if null
+     */
+    public void add(Object value) {
+        if (value == null) { return; }
+        total++;
+        Long count = counts.get(value);
+        if (count != null) {
+            counts.put(value, count + 1);
+        } else if (counts.size() < counters) {
+            counts.put(value, 1L);
+        } else { //decrement every counter, which cancels out this value too
+            errorBound++;
+            counts.replaceAll((v, c) -> c - 1);
+            counts.values().removeIf(c -> c == 0);
+        }
+    }
+
+    /**
+     * Adds all values of the other sketch to this sketch.
+     * @param other any sketch, the error bound of the result is the sum of both error bounds and the counts removed to fit the counters
+     */
+    public void merge(HeavyHitters other) {
+        other.counts.forEach((value, c) -> counts.merge(value, c, Long::sum));
+        total += other.total;
+        errorBound += other.errorBound;
+        if (counts.size() > counters) {
+            List<Long> sorted = new ArrayList<>(counts.values());
+            sorted.sort(Comparator.reverseOrder());
+            long cut = sorted.get(counters); //the (counters + 1)-th largest count
+            counts.replaceAll((v, c) -> c - cut);
+            counts.values().removeIf(c -> c <= 0);
+            errorBound += cut;
+        }
+    }
+
+    /**
+     * @param limit the maximum number of values to return
+     * @return the values with the largest counts, with their counts, in descending order of count.
+     * Each count is a lower bound of the true count, which is at most {@link #getErrorBound()} larger.
+     */
+    public List<Map.Entry<Object, Long>> getTop(int limit) {
+        List<Map.Entry<Object, Long>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<Object, Long>comparingByValue().reversed());
+        List<Map.Entry<Object, Long>> top = new ArrayList<>();
+        for (Map.Entry<Object, Long> entry: entries.subList(0, Math.min(limit, entries.size()))) {
+            top.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+        return top;
+    }
+
+    /**
+     * @return the maximum amount by which a count returned by {@link #getTop(int)} is below the true count
+     */
+    public long getErrorBound() {
+        return errorBound;
+    }
+
+    /**
+     * @return the number of values added
+     */
+    public long getTotal() {
+        return total;
+    }
+}
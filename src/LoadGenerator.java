@@ -0,0 +1,285 @@
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a mix of operations against a column store at a target rate, from many threads, and reports throughput and tail latency.
+ *
+ * <p>The load is open-loop: operations are started at fixed intervals whether or not earlier operations completed, and run
+ * through a {@link QueryService}. The latency of an operation is measured from the time it was scheduled to start, so time spent
+ * waiting behind slow operations is included, instead of hidden by starting fewer operations (coordinated omission).
+ * Operations rejected by the service, or that throw, count as errors.</p>
+ *
+ * <p>Operations that read the column store should run through {@link ColumnStoreAbstract#query(java.util.function.Supplier)},
+ * as the ones built by this class do, so that they do not read rows that are partially appended.</p>
+ *
+ * <p>Each operation is picked at random in proportion to its weight. Its parameters are drawn from a random generator split
+ * from a seeded one, so the same seed replays the same workload.</p>
+ *
+ * <p>Usage:</p>
+ * <pre>
+ *     LoadGenerator load = new LoadGenerator(store);
+ *     load.addOperation("getValue", 90, LoadGenerator.pointLookup("Temperature"));
+ *     load.addOperation("addCSVData", 1, LoadGenerator.append("more.csv"));
+ *     load.setRate(500);
+ *     System.out.print(load.run(10_000));
+ * </pre>
+ */
+public class LoadGenerator {
+    public static final double DEFAULT_RATE = 100;
+
+    /**
+     * An operation of the workload.
+     */
+    @FunctionalInterface
+    public interface Operation {
+        /**
+         * @param data the column store
+         * @param random the generator of the parameters of this run of the operation, owned by the calling thread
+         * @throws Exception if the operation failed, counted as an error
+         */
+        void run(ColumnStoreAbstract data, SplittableRandom random) throws Exception;
+    }
+
+    /**
+     * The outcome of the runs of an operation.
+     */
+    public static class Stats {
+        private final String name;
+        private final int weight;
+        private final Operation operation;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        private Stats(String name, int weight, Operation operation) {
+            this.name = name;
+            this.weight = weight;
+            this.operation = operation;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the latencies of the runs that completed without error, in nanoseconds
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the number of runs that threw an exception
+         */
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * @return the number of runs rejected as the queue of the service was full
+         */
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        /**
+         * @return the number of runs scheduled
+         */
+        public long getScheduled() {
+            return latency.getCount() + getErrors() + getRejected();
+        }
+    }
+
+    /**
+     * The outcome of a run of the workload.
+     * @param operations the outcome of each operation
+     * @param total the outcome of all operations together
+     * @param elapsedNanos the time from the first operation scheduled to the last one completed
+     */
+    public record Report(List<Stats> operations, Stats total, long elapsedNanos) {
+        /**
+         * @return the number of operations completed without error per second
+         */
+        public double getThroughput() {
+            return total.getLatency().getCount() / (elapsedNanos / 1e9);
+        }
+
+        /**
+         * @return the share of the scheduled operations that threw or were rejected
+         */
+        public double getErrorRate() {
+            long scheduled = total.getScheduled();
+            return scheduled == 0 ? 0 : (double) (total.getErrors() + total.getRejected()) / scheduled;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format("%.1f ops/s over %.1fs, error rate %.4f%%\n", getThroughput(), elapsedNanos / 1e9, 100 * getErrorRate()));
+            builder.append(String.format("%-20s %8s %10s %10s %10s %10s %8s %8s\n", "operation", "count", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors", "rejected"));
+            List<Stats> rows = new ArrayList<>(operations);
+            rows.add(total);
+            for (Stats stats: rows) {
+                LatencyHistogram latency = stats.getLatency();
+                builder.append(String.format("%-20s %8d %10.3f %10.3f %10.3f %10.3f %8d %8d\n", stats.getName(), latency.getCount(),
+                        latency.getPercentile(50) / 1e6, latency.getPercentile(99) / 1e6, latency.getPercentile(99.9) / 1e6,
+                        latency.getMax() / 1e6, stats.getErrors(), stats.getRejected()));
+            }
+            return builder.toString();
+        }
+    }
+
+    private final ColumnStoreAbstract data;
+    private final List<Stats> operations = new ArrayList<>();
+    private double rate = DEFAULT_RATE;
+    private int workers = 2 * Runtime.getRuntime().availableProcessors();
+    private int maxQueued = QueryService.DEFAULT_MAX_QUEUED;
+    private long seed = 42;
+
+    /**
+     * @param data the column store to load
+     */
+    public LoadGenerator(ColumnStoreAbstract data) {
+        this.data = data;
+    }
+
+    /**
+     * @param name the name of the operation in the report
+     * @param weight the relative frequency of the operation in the workload
+     * @param operation the operation
+     */
+    public void addOperation(String name, int weight, Operation operation) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("The weight of an operation must be positive.");
+        }
+        operations.add(new Stats(name, weight, operation));
+    }
+
+    /**
+     * @param rate the operations started per second
+     */
+    public void setRate(double rate) {
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("The rate must be positive.");
+        }
+        this.rate = rate;
+    }
+
+    /**
+     * @param workers the number of operations run at once
+     * @param maxQueued the number of operations that can wait for a worker, beyond which they are rejected
+     */
+    public void setConcurrency(int workers, int maxQueued) {
+        this.workers = workers;
+        this.maxQueued = maxQueued;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Runs the workload for the given time, then waits for the operations started to complete.
+     * @param millis the time during which operations are started
+     * @return the throughput, latencies and errors of the run
+     */
+    public Report run(long millis) {
+        if (operations.isEmpty()) {
+            throw new IllegalStateException("The workload has no operations.");
+        }
+        List<Stats> runStats = new ArrayList<>();
+        int totalWeight = 0;
+        for (Stats stats: operations) {
+            runStats.add(new Stats(stats.name, stats.weight, stats.operation));
+            totalWeight += stats.weight;
+        }
+        Stats total = new Stats("total", totalWeight, null);
+
+        SplittableRandom random = new SplittableRandom(seed);
+        long interval = (long) (1e9 / rate);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(millis);
+        try (QueryService service = new QueryService(workers, maxQueued)) {
+            for (long i = 0; ; i++) {
+                long scheduled = start + i * interval;
+                if (scheduled >= end) { break; }
+                long wait = scheduled - System.nanoTime();
+                if (wait > 0) { LockSupport.parkNanos(wait); }
+
+                Stats stats = pick(runStats, random.nextInt(totalWeight));
+                SplittableRandom parameters = random.split();
+                CompletableFuture<Void> future = service.submit(() -> {
+                    try {
+                        stats.operation.run(data, parameters);
+                    } catch (RuntimeException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return null;
+                });
+                future.whenComplete((result, error) -> {
+                    long latency = System.nanoTime() - scheduled;
+                    for (Stats counted: new Stats[] {stats, total}) {
+                        if (error == null) { counted.latency.record(latency); }
+                        else if (error instanceof RejectedExecutionException) { counted.rejected.increment(); }
+                        else { counted.errors.increment(); }
+                    }
+                });
+            }
+        }
+        return new Report(runStats, total, System.nanoTime() - start);
+    }
+
+    /**
+     * @return the operation whose range of weights holds the ticket
+     */
+    private static Stats pick(List<Stats> operations, int ticket) {
+        for (Stats stats: operations) {
+            ticket -= stats.weight;
+            if (ticket < 0) { return stats; }
+        }
+        return operations.get(operations.size() - 1);
+    }
+
+    /**
+     * @param column a numeric column
+     * @param low the smallest lower bound of the ranges
+     * @param high the largest upper bound of the ranges
+     * @param width the width of each range
+     * @return an operation filtering the column on a random range {@code [from, from + width)}
+     */
+    public static Operation rangeFilter(String column, float low, float high, float width) {
+        return (data, random) -> {
+            float from = (float) (low + random.nextDouble() * Math.max(0, high - low - width));
+            data.query(() -> data.filter(List.of(
+                    new QueryCompiler.Condition(column, QueryCompiler.GREATER_OR_EQUAL, from),
+                    new QueryCompiler.Condition(column, QueryCompiler.LESS, from + width)), null));
+        };
+    }
+
+    /**
+     * @param column a column
+     * @return an operation reading the value of the column at a random row
+     */
+    public static Operation pointLookup(String column) {
+        return (data, random) -> data.query(() -> {
+            int rows = data.getRowCount();
+            return rows > 0 ? data.getValue(column, random.nextInt(rows)) : null;
+        });
+    }
+
+    /**
+     * Appends hold the column store exclusively, so they wait for the queries run through
+     * {@link ColumnStoreAbstract#query(java.util.function.Supplier)} to complete, and the queries started meanwhile wait for them.
+     * @param filepath a CSV file with the columns of the column store
+     * @return an operation appending the rows of the file to the column store
+     */
+    public static Operation append(String filepath) {
+        return (data, random) -> data.addCSVData(filepath);
+    }
+}
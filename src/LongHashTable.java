@@ -0,0 +1,130 @@
+import java.util.Arrays;
+
+/**
+ * A hash table from long keys to row indexes, allowing duplicate keys, without boxing.
+ *
+ * <p>Keys are stored with open addressing (linear probing). Each slot points to the latest row added with its key,
+ * and the rows of a key are chained through an array, so a key with many rows takes a single slot.</p>
+ *
+ * <p>Usage:</p>
+ * <pre>
+ *     for (int entry = table.first(key); entry >= 0; entry = table.next(entry)) {
+ *         int row = table.row(entry);
+ *     }
+ * </pre>
+ */
+public class LongHashTable {
+    /**
+     * An upper bound of the bytes taken per row, including the slack of the slots, for memory budgeting.
+     */
+    public static final int BYTES_PER_ROW = 32;
+
+    private long[] keys;
+    private int[] heads; //first entry of the slot plus 1, 0 for an empty slot
+    private int[] rows;
+    private int[] next; //the next entry with the same key, -1 for none
+    private int size = 0;
+    private int distinctKeys = 0;
+    private int mask;
+
+    /**
+     * @param expectedRows the number of rows expected, to size the table
+     */
+    public LongHashTable(int expectedRows) {
+        int capacity = Integer.highestOneBit(Math.max(expectedRows, 8) * 2 - 1) << 1;
+        keys = new long[capacity];
+        heads = new int[capacity];
+        mask = capacity - 1;
+        rows = new int[Math.max(expectedRows, 8)];
+        next = new int[rows.length];
+    }
+
+    /**
+     * @param key the key
+     * @param row the row index
+     */
+    public void put(long key, int row) {
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+            next = Arrays.copyOf(next, size * 2);
+        }
+        int slot = slotOf(key);
+        if (heads[slot] == 0) {
+            keys[slot] = key;
+            distinctKeys++;
+            next[size] = -1;
+        } else {
+            next[size] = heads[slot] - 1;
+        }
+        rows[size] = row;
+        heads[slot] = size + 1;
+        size++;
+
+        if (distinctKeys * 2 > keys.length) {
+            rehash();
+        }
+    }
+
+    /**
+     * @param key the key
+     * @return the first entry with the key, or -1 if there is none
+     */
+    public int first(long key) {
+        return heads[slotOf(key)] - 1;
+    }
+
+    /**
+     * @param entry an entry
+     * @return the next entry with the same key, or -1 if there is none
+     */
+    public int next(int entry) {
+        return next[entry];
+    }
+
+    /**
+     * @param entry an entry
+     * @return the row index of the entry
+     */
+    public int row(int entry) {
+        return rows[entry];
+    }
+
+    /**
+     * @return the number of rows in the table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the slot holding the key, or the empty slot where it would be added
+     */
+    private int slotOf(long key) {
+        int slot = mix(key) & mask;
+        while (heads[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldHeads = heads;
+        keys = new long[oldKeys.length * 2];
+        heads = new int[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHeads[i] == 0) { continue; }
+            int slot = slotOf(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            heads[slot] = oldHeads[i];
+        }
+    }
+
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
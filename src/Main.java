@@ -1,9 +1,6 @@
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.time.Month;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 
@@ -15,21 +12,70 @@ public class Main {
         dataTypes.put("Station", ColumnStoreAbstract.STRING_DATATYPE);
         dataTypes.put("Temperature", ColumnStoreAbstract.FLOAT_DATATYPE);
         dataTypes.put("Humidity", ColumnStoreAbstract.FLOAT_DATATYPE);
+        CalendarKernels.registerDerivedColumns(dataTypes, "Timestamp"); //Timestamp.year, Timestamp.month, ... filled in at ingest
 
 
         ColumnStoreAbstract csMM = new ColumnStoreMM(dataTypes);
-        ColumnStoreAbstract csDisk = new ColumnStoreDisk(dataTypes);
+        ColumnStoreDisk csDisk = new ColumnStoreDisk(dataTypes);
+        csDisk.setPartitioning("Timestamp", ColumnStoreDisk.PARTITION_BY_YEAR);
         ColumnStoreAbstract csDiskEnhanced = new ColumnStoreDiskEnhanced(dataTypes);
-        List<ColumnStoreAbstract> columnStores = Arrays.asList(csMM, csDisk, csDiskEnhanced);
+        ColumnStoreAbstract csTiered = new ColumnStoreTiered(dataTypes, 32L * 1024 * 1024);
+        ColumnStoreOffHeap csOffHeap = new ColumnStoreOffHeap(dataTypes);
+        List<ColumnStoreAbstract> columnStores = Arrays.asList(csMM, csDisk, csDiskEnhanced, csTiered, csOffHeap);
+        boolean printMetrics = Arrays.asList(args).contains("--metrics");
+        boolean printProfiles = Arrays.asList(args).contains("--explain");
+        boolean printApproximate = Arrays.asList(args).contains("--approximate");
+        boolean printWindows = Arrays.asList(args).contains("--windows");
+        boolean printJoin = Arrays.asList(args).contains("--join");
+        boolean printCracking = Arrays.asList(args).contains("--cracking");
+        boolean printTop = Arrays.asList(args).contains("--top");
+        boolean printDeletes = Arrays.asList(args).contains("--deletes");
+        int concurrentIndex = Arrays.asList(args).indexOf("--concurrent");
+        int concurrentQueries = concurrentIndex >= 0 && concurrentIndex + 1 < args.length ? Integer.parseInt(args[concurrentIndex + 1]) : 0;
+        int memoryIndex = Arrays.asList(args).indexOf("--query-memory");
+        long queryMemory = memoryIndex >= 0 && memoryIndex + 1 < args.length ? Long.parseLong(args[memoryIndex + 1]) : QueryMemory.DEFAULT_QUERY_BUDGET;
+        int loadIndex = Arrays.asList(args).indexOf("--load");
+        int loadSeconds = loadIndex >= 0 && loadIndex + 1 < args.length ? Integer.parseInt(args[loadIndex + 1]) : 0;
+        int exportIndex = Arrays.asList(args).indexOf("--export");
+        String exportFile = exportIndex >= 0 && exportIndex + 1 < args.length ? args[exportIndex + 1] : null;
+        int shardedIndex = Arrays.asList(args).indexOf("--sharded");
+        int shards = shardedIndex >= 0 && shardedIndex + 1 < args.length ? Integer.parseInt(args[shardedIndex + 1]) : 0;
 
         System.out.println("------Time Taken------");
         for (ColumnStoreAbstract cs: columnStores) {
             try {
-                cs.addCSVData("SingaporeWeather.csv");
+                cs.getMetrics().register(cs.getName()); //inspect with any JMX client, e.g. jconsole
+                if (cs instanceof ColumnStoreMM) { //warm starts from the snapshot of the previous run, if the CSV file did not change, reading only the columns queried
+                    ((ColumnStoreMM) cs).addCSVData("SingaporeWeather.csv", new File(cs.getName(), "snapshot.bin"));
+                } else {
+                    cs.addCSVData("SingaporeWeather.csv");
+                }
                 LocalDateTime startTime = LocalDateTime.now();
-                List<Output> results1 = getExtremeValues(cs, 2009, "Paya Lebar");
-                List<Output> results2 = getExtremeValues(cs, 2019, "Paya Lebar");
-                System.out.println(cs.getName() + ": " + startTime.until(LocalDateTime.now(), ChronoUnit.MILLIS) + "ms");
+                long deniedBefore = QueryMemory.getDenied();
+                QueryProfile profile1;
+                QueryProfile profile2;
+                List<Output> results1;
+                List<Output> results2;
+                try (QueryMemory memory = QueryMemory.begin(cs.getName(), queryMemory)) { //intermediate selections beyond the budget are spilled to disk
+                    profile1 = QueryProfile.begin(cs.getName() + ": getExtremeValues(2009, Paya Lebar)");
+                    try {
+                        results1 = getExtremeValues(cs, 2009, "Paya Lebar");
+                    } finally {
+                        profile1.close();
+                    }
+                    profile2 = QueryProfile.begin(cs.getName() + ": getExtremeValues(2019, Paya Lebar)");
+                    try {
+                        results2 = getExtremeValues(cs, 2019, "Paya Lebar");
+                    } finally {
+                        profile2.close();
+                    }
+                    System.out.println(cs.getName() + ": " + startTime.until(LocalDateTime.now(), ChronoUnit.MILLIS) + "ms"
+                            + (memoryIndex >= 0 ? ", peak " + memory.getPeak() / 1024 + "KB, " + (QueryMemory.getDenied() - deniedBefore) + " spills" : ""));
+                }
+                if (printProfiles) {
+                    System.out.print(profile1.explain());
+                    System.out.print(profile2.explain());
+                }
 
                 writeOutput(cs.getName()+"/ScanResult.csv", results1);
                 writeOutput(cs.getName()+"/ScanResult.csv", results2);
@@ -37,10 +83,388 @@ public class Main {
                 e.printStackTrace();
             }
         }
+
+        if (printApproximate) {
+            System.out.println("------Approximate (95% bounds)------");
+            printApproximate(csMM, 2009, "Paya Lebar");
+            printApproximate(csMM, 2019, "Paya Lebar");
+        }
+
+        if (printWindows) {
+            System.out.println("------Windows of the first days of 2009------");
+            printWindows(csMM, 2009);
+        }
+
+        if (printJoin) {
+            System.out.println("------Join of Paya Lebar and Changi readings of 2009 by Timestamp------");
+            printJoin(csMM, csDisk, 2009);
+        }
+
+        if (printTop) {
+            System.out.println("------Hottest readings per station and most humid Changi readings of 2009------");
+            printTop(csMM, 2009);
+        }
+
+        if (exportFile != null) {
+            System.out.println("------Export of every reading to " + exportFile + "------");
+            exportRows(csMM, exportFile);
+        }
+
+        if (printCracking) {
+            System.out.println("------Exploratory Temperature ranges, scanned and cracked------");
+            printCracking(csOffHeap);
+        }
+
+        if (concurrentQueries > 0) {
+            System.out.println("------" + concurrentQueries + " concurrent getExtremeValues queries------");
+            for (ColumnStoreAbstract cs: columnStores) {
+                runConcurrent(cs, concurrentQueries);
+            }
+        }
+
+        if (shards > 0) {
+            runSharded(dataTypes, shards);
+        }
+
+        if (loadSeconds > 0) { //appends rows to the column stores, so it runs after the other queries
+            System.out.println("------Mixed load for " + loadSeconds + "s------");
+            for (ColumnStoreAbstract cs: columnStores) {
+                runLoad(cs, loadSeconds);
+            }
+        }
+
+        if (printDeletes) { //changes the data of the column store, so it runs after the other queries
+            System.out.println("------Update of a Paya Lebar reading and deletes of the Changi readings of 2010------");
+            printDeletes(csDisk, 2010);
+            printDeletes((ColumnStoreDisk) csDiskEnhanced, 2010);
+        }
+
+        if (printMetrics) {
+            for (ColumnStoreAbstract cs: columnStores) {
+                System.out.println("------Metrics of " + cs.getName() + "------");
+                System.out.print(cs.getMetrics().dump());
+            }
+        }
+        csDisk.close();
+        ((ColumnStoreDisk) csDiskEnhanced).close();
+        ((ColumnStoreTiered) csTiered).close();
+        csOffHeap.close();
+    }
+
+    /**
+     * Streams every row of the column store to a file, in batches written by a background thread, and prints the throughput.
+     * The file is replaced, and written in the binary format of {@link BinaryResultEncoder} if its name ends with ".bin", else as CSV.
+     * @param data the column store
+     * @param filepath file to write
+     */
+    private static void exportRows(ColumnStoreAbstract data, String filepath) {
+        List<String> columns = List.of("id", "Timestamp", "Station", "Temperature", "Humidity");
+        File file = new File(filepath);
+        ResultEncoder encoder = filepath.endsWith(".bin") ? new BinaryResultEncoder() : new CsvResultEncoder(columns);
+        long start = System.nanoTime();
+        int rows = 0;
+        ChannelResultSink channel;
+        try {
+            java.nio.file.Files.deleteIfExists(file.toPath()); //the sink appends
+            try (ResultSink sink = new AsyncResultSink(channel = new ChannelResultSink(file, encoder))) {
+                int rowCount = data.getRowCount();
+                for (int from = 0; from < rowCount; from += AsyncResultSink.DEFAULT_BATCH_SIZE) {
+                    List<Integer> selection = new ArrayList<>();
+                    for (int row = from; row < Math.min(rowCount, from + AsyncResultSink.DEFAULT_BATCH_SIZE); row++) {
+                        selection.add(row);
+                    }
+                    ColumnBatch batch = data.gather(columns, selection);
+                    rows += batch.size();
+                    sink.write(batch); //blocks while the writer is a full queue behind
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s: %d rows, %d bytes, %.1f rows/s\n", data.getName(), rows, channel.getBytesWritten(), rows / seconds);
+    }
+
+    /**
+     * Submits the queries of the years from 2009 to 2019 for Paya Lebar and Changi, round robin, to a query service,
+     * and prints the throughput and latencies.
+     * @param data the column store
+     * @param queries the number of queries
+     */
+    private static void runConcurrent(ColumnStoreAbstract data, int queries) {
+        String[] stations = {"Paya Lebar", "Changi"};
+        List<java.util.concurrent.CompletableFuture<List<Output>>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        try (QueryService service = new QueryService()) {
+            for (int i = 0; i < queries; i++) {
+                int year = 2009 + i % 11;
+                String station = stations[i / 11 % 2];
+                results.add(service.submit(() -> getExtremeValues(data, year, station)));
+            }
+            int rows = 0;
+            for (java.util.concurrent.CompletableFuture<List<Output>> result: results) {
+                try {
+                    rows += result.join().size();
+                } catch (java.util.concurrent.CompletionException e) {
+                    //counted as rejected or failed by the service
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s: %d rows, %.1f queries/s, p50 %.3fms, p99 %.3fms, %d rejected, %d failed\n", data.getName(), rows,
+                    service.getCompleted() / seconds, service.getLatencyMillis(50), service.getLatencyMillis(99), service.getRejected(), service.getFailed());
+        }
+    }
+
+    /**
+     * Replays a mix of reports for random years and stations, Temperature range filters, point lookups and appends of
+     * the first rows of the CSV file against the column store, and prints the throughput and latencies.
+     * @param data the column store
+     * @param seconds the time during which operations are started
+     */
+    private static void runLoad(ColumnStoreAbstract data, int seconds) {
+        File appendFile = new File("load", "append.csv");
+        try {
+            if (!appendFile.exists()) {
+                appendFile.getParentFile().mkdirs();
+                try (java.util.stream.Stream<String> lines = java.nio.file.Files.lines(new File("SingaporeWeather.csv").toPath())) {
+                    java.nio.file.Files.write(appendFile.toPath(), (Iterable<String>) lines.limit(101)::iterator);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        String[] stations = {"Paya Lebar", "Changi"};
+        LoadGenerator load = new LoadGenerator(data);
+        load.addOperation("getExtremeValues", 10, (store, random) -> store.query(() -> getExtremeValues(store, 2009 + random.nextInt(11), stations[random.nextInt(2)])));
+        load.addOperation("filter Temperature", 30, LoadGenerator.rangeFilter("Temperature", 20, 35, 0.5f));
+        load.addOperation("getValue Humidity", 55, LoadGenerator.pointLookup("Humidity"));
+        load.addOperation("addCSVData", 5, LoadGenerator.append(appendFile.getPath()));
+        load.setRate(50);
+        System.out.println(data.getName() + ":");
+        System.out.print(load.run(seconds * 1000L));
+    }
+
+    /**
+     * Runs the same queries over shards held by worker JVMs started on this machine, and writes the results to "sharded/ScanResult.csv".
+     * @param dataTypes the columns and their data types
+     * @param shards the number of workers
+     */
+    private static void runSharded(HashMap<String, Integer> dataTypes, int shards) {
+        System.out.println("------Sharded by Station over " + shards + " workers------");
+        try (ShardCoordinator coordinator = ShardCoordinator.launchLocal(shards, new File("sharded"), ShardCoordinator.SHARD_BY_STATION, dataTypes)) {
+            coordinator.ingestCSV("SingaporeWeather.csv");
+            LocalDateTime startTime = LocalDateTime.now();
+            List<Output> results1 = coordinator.getExtremeValues(2009, "Paya Lebar");
+            List<Output> results2 = coordinator.getExtremeValues(2019, "Paya Lebar");
+            System.out.println("sharded: " + startTime.until(LocalDateTime.now(), ChronoUnit.MILLIS) + "ms");
+            writeOutput("sharded/ScanResult.csv", results1);
+            writeOutput("sharded/ScanResult.csv", results2);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Prints approximate statistics of the year and station specified, answered from the synopsis of the column store without scanning it.
+     * @param data the column store
+     * @param year the year given
+     * @param station the station given
+     */
+    private static void printApproximate(ColumnStoreAbstract data, int year, String station) {
+        long start = System.nanoTime();
+        Synopsis synopsis = data.getSynopsis();
+        Map<String, java.util.function.Predicate<Object>> predicates = Map.of(
+                "Timestamp", value -> ((LocalDateTime) value).getYear() == year,
+                "Station", value -> value.equals(station));
+        System.out.printf("%d, %s: rows %s\n", year, station, synopsis.count(predicates));
+        for (String column: List.of("Temperature", "Humidity")) {
+            System.out.printf("%d, %s: avg %s %s, p50 %s, p95 %s\n", year, station, column, synopsis.average(column, predicates),
+                    synopsis.quantile(column, 0.5, predicates), synopsis.quantile(column, 0.95, predicates));
+        }
+        System.out.printf("distinct stations %s, most frequent %s\n", synopsis.distinctCount("Station"), synopsis.heavyHitters("Station", 3));
+        System.out.printf("approximate queries took %.3fms\n", (System.nanoTime() - start) / 1e6);
+
+        start = System.nanoTime();
+        LocalDateTime yearStart = LocalDateTime.of(year, 1, 1, 0, 0);
+        List<QueryCompiler.Condition> conditions = List.of(
+                new QueryCompiler.Condition("Timestamp", QueryCompiler.GREATER_OR_EQUAL, yearStart),
+                new QueryCompiler.Condition("Timestamp", QueryCompiler.LESS, yearStart.plusYears(1)),
+                new QueryCompiler.Condition("Station", QueryCompiler.EQUAL, station));
+        double rows = data.aggregate(conditions, WindowOperator.COUNT, null, null);
+        for (String column: List.of("Temperature", "Humidity")) {
+            System.out.printf("%d, %s: exact avg %s %.4f\n", year, station, column,
+                    data.aggregate(conditions, WindowOperator.SUM, column, null) / data.aggregate(conditions, WindowOperator.COUNT, column, null));
+        }
+        System.out.printf("exact rows %.0f, exact queries took %.3fms\n", rows, (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Prints the daily average Temperature (with gaps filled) and the 24-hour rolling max Temperature at the end of each day,
+     * per station, for the first days of the year specified.
+     * @param data the column store
+     * @param year the year given
+     */
+    private static void printWindows(ColumnStoreAbstract data, int year) {
+        LocalDateTime end = LocalDateTime.of(year, 1, 4, 0, 0);
+        List<Integer> selection = data.filter(List.of(
+                new QueryCompiler.Condition("Timestamp.year", QueryCompiler.EQUAL, year),
+                new QueryCompiler.Condition("Timestamp", QueryCompiler.LESS, end)), null);
+
+        List<WindowResult> daily = new ArrayList<>();
+        List<WindowResult> rolling = new ArrayList<>();
+        GapFiller gapFiller = new GapFiller(86400, GapFiller.LINEAR, 3, daily::add);
+        WindowOperator.run(data, selection, 4096,
+                new Resampler("Timestamp", "Temperature", "Station", WindowOperator.AVG, 86400, gapFiller),
+                new RollingWindow("Timestamp", "Temperature", "Station", WindowOperator.MAX, 86400, result -> {
+                    if (result.time().getHour() == 23 && result.time().getMinute() == 30) { rolling.add(result); }
+                }));
+        gapFiller.finish();
+        daily.forEach(result -> System.out.println("daily avg: " + result));
+        rolling.forEach(result -> System.out.println("24h rolling max: " + result));
+    }
+
+    /**
+     * Prints the 3 hottest readings of each station in the year, and the 5 most humid readings of Changi in the year,
+     * sorted in memory and with an external sort in a small memory budget.
+     * @param data the column store
+     * @param year the year given
+     */
+    private static void printTop(ColumnStoreAbstract data, int year) {
+        List<Integer> yearSelection = data.filter(List.of(new QueryCompiler.Condition("Timestamp.year", QueryCompiler.EQUAL, year)), null);
+        SortedMap<Object, int[]> hottest = new TopK(data, "Temperature", 3, true).topByGroup(yearSelection, "Station");
+        for (Map.Entry<Object, int[]> entry: hottest.entrySet()) {
+            for (int row: entry.getValue()) {
+                System.out.printf("%s, %s: %s\n", entry.getKey(), data.getValue("Timestamp", row), data.getValue("Temperature", row));
+            }
+        }
+
+        List<Integer> changi = data.filter(List.of(new QueryCompiler.Condition("Station", QueryCompiler.EQUAL, "Changi")), yearSelection);
+        OrderBy byHumidity = new OrderBy(data, "Humidity", true);
+        for (long budget: new long[] {QueryMemory.DEFAULT_QUERY_BUDGET, 64 * 1024}) {
+            long start = System.nanoTime();
+            List<Integer> sorted = QueryMemory.run("order by Humidity", budget, () -> byHumidity.sort(changi));
+            System.out.printf("%d rows sorted with %d runs in %.3fms\n", sorted.size(), byHumidity.getLastRuns(), (System.nanoTime() - start) / 1e6);
+            for (int row: sorted.subList(0, Math.min(5, sorted.size()))) {
+                System.out.printf("Changi, %s: %s\n", data.getValue("Timestamp", row), data.getValue("Humidity", row));
+            }
+        }
+    }
+
+    /**
+     * Updates the Temperature of the first Paya Lebar reading of the year, deletes the Changi readings of the year,
+     * and prints the readings of each station and the size of the partition before and after it is compacted in the background.
+     * A column store that is not partitioned is compacted as a whole once the readings are deleted.
+     * @param data the column store, partitioned by year or not partitioned
+     * @param year the year given
+     */
+    private static void printDeletes(ColumnStoreDisk data, int year) {
+        String partition = data.isPartitioned() ? String.format("year=%04d", year) : data.getName();
+        File temperatures = new File(data.getName() + "/" + (data.isPartitioned() ? partition + "/" : "") + "Temperature.store");
+        List<QueryCompiler.Condition> inYear = List.of(new QueryCompiler.Condition("Timestamp.year", QueryCompiler.EQUAL, year));
+        List<Integer> payaLebar = data.filter(List.of(new QueryCompiler.Condition("Station", QueryCompiler.EQUAL, "Paya Lebar")), data.filter(inYear, null));
+        List<Integer> changi = data.filter(List.of(new QueryCompiler.Condition("Station", QueryCompiler.EQUAL, "Changi")), data.filter(inYear, null));
+        System.out.printf("before: %d Paya Lebar and %d Changi readings, %d bytes of Temperature\n", payaLebar.size(), changi.size(), temperatures.length());
+        if (payaLebar.isEmpty()) { return; }
+
+        int row = payaLebar.get(0);
+        int updated = data.update(row, Map.of("Temperature", 40f));
+        System.out.printf("updated row %d to row %d: %s, then %s\n", row, updated, data.getValue("Temperature", updated), data.getValue("Temperature", row));
+
+        long start = System.nanoTime();
+        int deleted = data.delete(changi);
+        System.out.printf("deleted %d rows in %.3fms, %.1f%% of %s deleted\n", deleted, (System.nanoTime() - start) / 1e6, 100 * deadRatioOf(data, partition), partition);
+        try {
+            data.awaitCompactions();
+            if (!data.isPartitioned()) { data.compact(); }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        payaLebar = data.filter(List.of(new QueryCompiler.Condition("Station", QueryCompiler.EQUAL, "Paya Lebar")), data.filter(inYear, null));
+        changi = data.filter(List.of(new QueryCompiler.Condition("Station", QueryCompiler.EQUAL, "Changi")), data.filter(inYear, null));
+        System.out.printf("after compaction: %d Paya Lebar and %d Changi readings, %d bytes of Temperature, %.1f%% of %s deleted\n",
+                payaLebar.size(), changi.size(), temperatures.length(), 100 * deadRatioOf(data, partition), partition);
+    }
+
+    /**
+     * @return the share of deleted rows of the partition, or of the whole column store if it is not partitioned
+     */
+    private static double deadRatioOf(ColumnStoreDisk data, String partition) {
+        return data.isPartitioned() ? data.getDeadRatio(partition) : data.getDeadRatio();
+    }
+
+    /**
+     * Runs rounds of the same exploratory Temperature range queries without and with a cracking index,
+     * and prints the time per query of each round, which converges with the index as it is cracked.
+     * @param data the column store
+     */
+    private static void printCracking(ColumnStoreAbstract data) {
+        for (boolean cracking: new boolean[] {false, true}) {
+            data.setCracking("Temperature", cracking);
+            for (int round = 1; round <= 3; round++) {
+                long start = System.nanoTime();
+                int rows = 0;
+                for (int tenths = 200; tenths < 350; tenths += 5) {
+                    float low = tenths / 10f;
+                    rows += data.filter(List.of(
+                            new QueryCompiler.Condition("Temperature", QueryCompiler.GREATER_OR_EQUAL, low),
+                            new QueryCompiler.Condition("Temperature", QueryCompiler.LESS, low + 0.5f)), null).size();
+                }
+                System.out.printf("%s round %d: %d rows in %.3fms\n", cracking ? "cracked" : "scanned", round, rows, (System.nanoTime() - start) / 1e6);
+            }
+        }
+        System.out.println("pieces: " + data.getCrackingIndex("Temperature").getPieces());
+        data.setCracking("Temperature", false);
+    }
+
+    /**
+     * Joins the Paya Lebar readings of one column store with the Changi readings of another by Timestamp,
+     * in memory and spilled to disk, and prints the largest Temperature difference between the stations.
+     * @param first the column store of the Paya Lebar readings
+     * @param second the column store of the Changi readings
+     * @param year the year given
+     */
+    private static void printJoin(ColumnStoreAbstract first, ColumnStoreAbstract second, int year) {
+        List<Integer> firstSelection = first.filter(List.of(
+                new QueryCompiler.Condition("Timestamp.year", QueryCompiler.EQUAL, year),
+                new QueryCompiler.Condition("Station", QueryCompiler.EQUAL, "Paya Lebar")), null);
+        List<Integer> secondSelection = second.filter(List.of(
+                new QueryCompiler.Condition("Timestamp.year", QueryCompiler.EQUAL, year),
+                new QueryCompiler.Condition("Station", QueryCompiler.EQUAL, "Changi")), null);
+
+        HashJoin join = new HashJoin(first, "Timestamp", second, "Timestamp");
+        for (long budget: new long[] {HashJoin.DEFAULT_MEMORY_BUDGET, 64 * 1024}) {
+            join.setMemoryBudget(budget);
+            long start = System.nanoTime();
+            HashJoin.Result result = join.join(firstSelection, secondSelection);
+            System.out.printf("%d rows joined with %d partitions in %.3fms\n", result.size(), join.getLastPartitions(), (System.nanoTime() - start) / 1e6);
+        }
+
+        HashJoin.Result result = join.join(firstSelection, secondSelection);
+        ColumnBatch firstBatch = first.gather(List.of("Timestamp", "Temperature"), firstSelection);
+        ColumnBatch secondBatch = second.gather(List.of("Temperature"), secondSelection);
+        float largest = -1;
+        LocalDateTime when = null;
+        for (int i = 0; i < result.size(); i++) {
+            int firstPosition = firstBatch.positionOf(result.leftIndexes()[i]);
+            float difference = Math.abs(firstBatch.getFloats("Temperature")[firstPosition]
+                    - secondBatch.getFloats("Temperature")[secondBatch.positionOf(result.rightIndexes()[i])]);
+            if (difference > largest) { //NaN differences (missing readings) are never larger
+                largest = difference;
+                when = firstBatch.getTimestamp("Timestamp", firstPosition);
+            }
+        }
+        System.out.println("largest Temperature difference: " + largest + " at " + when);
     }
 
     /**
      * Gets the extreme values for each month in the year specified and station specified.
+     * Results are cached by the column store until data is added to it.
      * @param data the column store
      * @param year the year given
      * @param station the station given
@@ -51,17 +475,42 @@ public class Main {
             return ((ColumnStoreDiskEnhanced) data).getExtremeValues(year, station); //use custom implementation
         }
 
+        long start = data.getMetrics().start();
+        QueryCache.Key key = QueryCache.Key.of("extremeValues", List.of("Timestamp", "Timestamp.year", "Timestamp.month", "Station", "Temperature", "Humidity"), year, station);
+        List<Output> results = new ArrayList<>(data.cachedQuery(key, () -> List.copyOf(scanExtremeValues(data, year, station))));
+        data.getMetrics().record(StoreMetrics.EXTREME_VALUES, start, 0, results.size());
+        return results;
+    }
 
-        List<Integer> yearIndices = data.filter("Timestamp", datum -> ((LocalDateTime)datum).getYear() == year);
-        List<Integer> stationAndYearIndices = data.filter("Station", datum -> datum.equals(station), yearIndices);
+    /**
+     * Computes the results of {@link #getExtremeValues(ColumnStoreAbstract, int, String)} without the cache.
+     * @param data the column store
+     * @param year the year given
+     * @param station the station given
+     * @return a list of Output objects representing the extreme values.
+     */
+    private static List<Output> scanExtremeValues(ColumnStoreAbstract data, int year, String station) {
+        data.project(List.of("Timestamp", "Timestamp.year", "Timestamp.month", "Station", "Temperature", "Humidity"));
+        LocalDateTime yearStart = LocalDateTime.of(year, 1, 1, 0, 0);
+        List<Integer> yearIndices = QueryProfile.run("filter Timestamp by year", () -> {
+            if (data instanceof ColumnStoreDisk) { //prunes the partitions of other years, if partitioned
+                return ((ColumnStoreDisk) data).filterTimeRange("Timestamp", yearStart, yearStart.plusYears(1));
+            }
+            return data.filter(List.of(new QueryCompiler.Condition("Timestamp.year", QueryCompiler.EQUAL, year)), null);
+        });
+        List<Integer> stationAndYearIndices = QueryProfile.run("filter Station (compiled)",
+                () -> data.filter(List.of(new QueryCompiler.Condition("Station", QueryCompiler.EQUAL, station)), yearIndices));
         List<Output> result = new ArrayList<>();
         for (int month = 1; month <= 12; month++) {
-            int m = month; //need to use a final variable in lambda functions
-            List<Integer> currentMonthIndices = data.filter("Timestamp", datum -> ((LocalDateTime)datum).getMonth() == Month.of(m), stationAndYearIndices);
-            result.addAll(processMonth(data, currentMonthIndices, "Humidity", "max", station));
-            result.addAll(processMonth(data, currentMonthIndices, "Humidity", "min", station));
-            result.addAll(processMonth(data, currentMonthIndices, "Temperature", "max", station));
-            result.addAll(processMonth(data, currentMonthIndices, "Temperature", "min", station));
+            int finalMonth = month;
+            QueryProfile.run("month " + month, () -> {
+                List<Integer> currentMonthIndices = QueryProfile.run("filter Timestamp by month (compiled)", () -> data.filter(List.of(
+                        new QueryCompiler.Condition("Timestamp.month", QueryCompiler.EQUAL, finalMonth)), stationAndYearIndices));
+                result.addAll(processMonth(data, currentMonthIndices, "Humidity", "max", station));
+                result.addAll(processMonth(data, currentMonthIndices, "Humidity", "min", station));
+                result.addAll(processMonth(data, currentMonthIndices, "Temperature", "max", station));
+                result.addAll(processMonth(data, currentMonthIndices, "Temperature", "min", station));
+            });
         }
 
         return result;
@@ -89,14 +538,19 @@ public class Main {
             return result;
         }
 
-        List<Integer> qualifiedIndexes = Objects.equals(valueType, "max") ? data.getMax(column, currMonth) : data.getMin(column, currMonth);
-        for (int index: qualifiedIndexes) {
-            LocalDateTime timestamp = (LocalDateTime) data.getValue("Timestamp", index);
-            if (addedDays.contains(timestamp.getDayOfMonth())) {
+        List<Integer> qualifiedIndexes = QueryProfile.run(valueType + " " + column,
+                () -> Objects.equals(valueType, "max") ? data.getMax(column, currMonth) : data.getMin(column, currMonth));
+        ColumnBatch batch = QueryProfile.run("gather Timestamp, " + column,
+                () -> data.gather(List.of("Timestamp", column), qualifiedIndexes)); // one pass per column instead of getValue per index
+        long[] times = batch.getTimes("Timestamp");
+        for (int i = 0; i < batch.size(); i++) {
+            if (times[i] == ColumnBatch.NULL_TIME) { continue; } // a reading without a time has no day
+            if (!addedDays.add(CalendarKernels.dayOfMonth(times[i]))) {
                 continue; // we do not want duplicate days, we only want duplicate months
-            } else { addedDays.add(timestamp.getDayOfMonth()); }
+            }
+            LocalDateTime timestamp = batch.getTimestamp("Timestamp", i);
 
-            float humidityValue = (float) data.getValue(column, index);
+            float humidityValue = batch.getFloats(column)[i];
             int outputType = -1;
             if (Objects.equals(column, "Humidity")) {
                 if (Objects.equals(valueType, "min")) { outputType = Output.MIN_HUMIDITY; }
@@ -119,27 +573,8 @@ public class Main {
      * @throws IOException
      */
     private static void writeOutput(String filepath, List<Output> toWrite) throws IOException {
-        boolean initialized = true;
-        File outputFile = new File(filepath);
-        if (!outputFile.exists()) {
-            initialized = false;
-            outputFile.getParentFile().mkdirs();
-            outputFile.createNewFile();
-        }
-
-        if(!outputFile.setReadable(true) || !outputFile.setWritable(true)) {
-            System.out.println("Could not set permissions for this file.");
-            return;
-        }
-
-        FileOutputStream outputStream = new FileOutputStream(outputFile, true);
-        if (!initialized) {
-            outputStream.write("Date,Station,Category,Value\n".getBytes(StandardCharsets.UTF_8));
-        }
-
-        for (Output data: toWrite) {
-            outputStream.write(data.toString().getBytes(StandardCharsets.UTF_8));
-            outputStream.write('\n');
+        try (ResultSink sink = new ChannelResultSink(new File(filepath), new CsvResultEncoder())) {
+            sink.writeAll(toWrite);
         }
     }
 }
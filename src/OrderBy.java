@@ -0,0 +1,318 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Sorts the rows of a selection by the values of a column, e.g. readings by Humidity, in memory or with an external merge sort.
+ *
+ * <p>Values are gathered in batches and encoded as 32-bit sort codes that order like the values: integers as is, floats by their bits
+ * (flipped so that negative floats order first), strings by their rank among the distinct strings of the selection, and times as
+ * seconds from the earliest time of the selection, or by rank if the selection spans more seconds than an int holds.
+ * Each code is packed with its row index into a long, so that sorting the longs sorts by value, then by row.</p>
+ *
+ * <p>If the {@link QueryMemory} of the query cannot reserve all the longs, they are sorted in runs that fit in the memory reserved,
+ * each run is written to a temporary file, and the runs are merged with a heap of the head of each run.
+ * Only the dictionary of strings, or of times if they need a rank, stays in memory.</p>
+ *
+ * <p>Rows with a null value are placed last, in both orders. The result is a {@link SpillableIntList}, so it is also bounded by the memory of the query.</p>
+ */
+public class OrderBy {
+    private static final int BATCH_ROWS = 65536;
+    private static final int MIN_RUN_ROWS = 4096;
+    private static final int MERGE_BUFFER_BYTES = 65536;
+
+    /**
+     * The code of null values, outside of the range of sort codes.
+     */
+    private static final long NULL_CODE = Long.MAX_VALUE;
+
+    private final ColumnStoreAbstract data;
+    private final String column;
+    private final boolean descending;
+    private int lastRuns = 0;
+
+    /**
+     * @param data the column store
+     * @param column the column to sort by
+     * @param descending true to sort the largest values first
+     */
+    public OrderBy(ColumnStoreAbstract data, String column, boolean descending) {
+        this.data = data;
+        this.column = column;
+        this.descending = descending;
+    }
+
+    /**
+     * @return the number of sorted runs spilled to disk by the last sort, 0 if it was done in memory
+     */
+    public int getLastRuns() {
+        return lastRuns;
+    }
+
+    /**
+     * Sorts the rows of the selection by the column, and then by row index.
+     * @param selection the rows to sort, without duplicates
+     * @return the rows in order, empty if the column is invalid
+     */
+    public List<Integer> sort(List<Integer> selection) {
+        SpillableIntList results = new SpillableIntList();
+        Integer dataType = data.getDataType(column);
+        if (dataType == null) {
+            System.out.println("Column is not registered with this column store.");
+            return results;
+        }
+
+        long start = data.getMetrics().start();
+        try {
+            QueryProfile.run("order by " + column + (descending ? " desc" : ""), () -> sortRows(selection, dataType, results));
+        } catch (IOException e) {
+            e.printStackTrace();
+            results.close();
+            return new SpillableIntList();
+        }
+        data.getMetrics().record(StoreMetrics.ORDER_BY, start, selection.size(), results.size());
+        results.complete();
+        return results;
+    }
+
+    /**
+     * Sorts the rows in memory, or in runs spilled to temporary files that are merged, and adds them to the results in order.
+     */
+    private void sortRows(List<Integer> selection, int dataType, SpillableIntList results) throws IOException {
+        QueryMemory memory = QueryMemory.current();
+        long reserved = 0;
+        List<File> runs = new ArrayList<>();
+        try {
+            SortCodes codes = new SortCodes(dataType, selection);
+            reserved = codes.reservedBytes;
+            int capacity = Math.max(1, selection.size());
+            while (capacity > MIN_RUN_ROWS && !memory.tryReserve((long) capacity * Long.BYTES)) {
+                capacity /= 2;
+            }
+            if (capacity <= MIN_RUN_ROWS) { memory.reserve((long) capacity * Long.BYTES); }
+            reserved += (long) capacity * Long.BYTES;
+
+            long[] run = new long[capacity];
+            int[] size = new int[1];
+            SpillableIntList nulls = new SpillableIntList();
+            IOException[] error = new IOException[1];
+            codes.forEach((code, row) -> {
+                if (code == NULL_CODE) {
+                    nulls.add(row);
+                    return;
+                }
+                if (size[0] == run.length) {
+                    try {
+                        runs.add(writeRun(run, size[0]));
+                    } catch (IOException e) {
+                        error[0] = e;
+                        return;
+                    }
+                    size[0] = 0;
+                }
+                int value = (int) code;
+                run[size[0]++] = ((long) (descending ? ~value : value) << 32) | row;
+            });
+            if (error[0] != null) { throw error[0]; }
+
+            if (runs.isEmpty()) {
+                Arrays.sort(run, 0, size[0]);
+                for (int i = 0; i < size[0]; i++) {
+                    results.add((int) run[i]);
+                }
+            } else {
+                if (size[0] > 0) { runs.add(writeRun(run, size[0])); }
+                merge(runs, results);
+            }
+            lastRuns = runs.size();
+            for (int i = 0; i < nulls.size(); i++) {
+                results.add(nulls.getInt(i));
+            }
+            nulls.close();
+        } finally {
+            memory.release(reserved);
+            for (File file: runs) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Sorts the longs and writes them to a temporary file.
+     */
+    private static File writeRun(long[] run, int size) throws IOException {
+        Arrays.sort(run, 0, size);
+        File file = Files.createTempFile("order-by", ".run").toFile();
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), MERGE_BUFFER_BYTES))) {
+            for (int i = 0; i < size; i++) {
+                output.writeLong(run[i]);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Merges the sorted runs, keeping the head of each run in a binary min-heap.
+     */
+    private static void merge(List<File> runs, SpillableIntList results) throws IOException {
+        DataInputStream[] inputs = new DataInputStream[runs.size()];
+        long[] remaining = new long[runs.size()];
+        long[] heads = new long[runs.size()];
+        int[] heap = new int[runs.size()]; //run numbers, ordered by their heads
+        int heapSize = 0;
+        try {
+            for (int r = 0; r < runs.size(); r++) {
+                inputs[r] = new DataInputStream(new BufferedInputStream(new FileInputStream(runs.get(r)), MERGE_BUFFER_BYTES));
+                remaining[r] = runs.get(r).length() / Long.BYTES;
+                if (remaining[r]-- > 0) {
+                    heads[r] = inputs[r].readLong();
+                    heap[heapSize++] = r;
+                    siftUp(heap, heads, heapSize - 1);
+                }
+            }
+            while (heapSize > 0) {
+                int r = heap[0];
+                results.add((int) heads[r]);
+                if (remaining[r]-- > 0) {
+                    heads[r] = inputs[r].readLong();
+                } else {
+                    heap[0] = heap[--heapSize];
+                }
+                siftDown(heap, heads, heapSize);
+            }
+        } finally {
+            for (DataInputStream input: inputs) {
+                if (input != null) { input.close(); }
+            }
+        }
+    }
+
+    private static void siftUp(int[] heap, long[] heads, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heads[heap[parent]] <= heads[heap[i]]) { return; }
+            int swap = heap[parent];
+            heap[parent] = heap[i];
+            heap[i] = swap;
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, long[] heads, int size) {
+        int i = 0;
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heads[heap[child + 1]] < heads[heap[child]]) { child++; }
+            if (heads[heap[i]] <= heads[heap[child]]) { return; }
+            int swap = heap[child];
+            heap[child] = heap[i];
+            heap[i] = swap;
+            i = child;
+        }
+    }
+
+    @FunctionalInterface
+    private interface CodeConsumer {
+        /**
+         * @param code the sort code of the value, or {@link #NULL_CODE} if the value is null
+         * @param row the row index
+         */
+        void accept(long code, int row);
+    }
+
+    /**
+     * The sort codes of the values of the column over a selection, with the dictionary built by a first pass if needed.
+     */
+    private class SortCodes {
+        final int dataType;
+        final List<Integer> selection;
+        HashMap<String, Integer> stringRanks;
+        long minTime = Long.MAX_VALUE;
+        long[] timeRanks;
+
+        /**
+         * The bytes of {@link #timeRanks} reserved from the {@link QueryMemory} of the query, released once the sort completes.
+         */
+        long reservedBytes;
+
+        SortCodes(int dataType, List<Integer> selection) {
+            this.dataType = dataType;
+            this.selection = selection;
+            if (dataType == ColumnStoreAbstract.STRING_DATATYPE) {
+                TreeSet<String> distinct = new TreeSet<>();
+                forEachBatch(batch -> {
+                    for (String value: batch.getStrings(column)) {
+                        if (value != null) { distinct.add(value); }
+                    }
+                });
+                stringRanks = new HashMap<>();
+                for (String value: distinct) {
+                    stringRanks.put(value, Integer.MIN_VALUE + stringRanks.size());
+                }
+            } else if (dataType == ColumnStoreAbstract.TIME_DATATYPE) {
+                long[] bounds = {Long.MAX_VALUE, Long.MIN_VALUE};
+                forEachBatch(batch -> {
+                    for (long value: batch.getTimes(column)) {
+                        if (value == ColumnBatch.NULL_TIME) { continue; }
+                        bounds[0] = Math.min(bounds[0], value);
+                        bounds[1] = Math.max(bounds[1], value);
+                    }
+                });
+                minTime = bounds[0];
+                if (bounds[0] <= bounds[1] && bounds[1] - bounds[0] > 0xFFFFFFFFL) { //too wide for seconds from the earliest time
+                    QueryMemory memory = QueryMemory.current();
+                    memory.reserve((long) selection.size() * Long.BYTES); //the ranks are not spilled, so they leave less memory for the runs
+                    long[] times = new long[selection.size()];
+                    int[] size = new int[1];
+                    forEachBatch(batch -> {
+                        for (long value: batch.getTimes(column)) {
+                            if (value != ColumnBatch.NULL_TIME) { times[size[0]++] = value; }
+                        }
+                    });
+                    timeRanks = Arrays.stream(times, 0, size[0]).sorted().distinct().toArray();
+                    memory.release((long) (times.length - timeRanks.length) * Long.BYTES);
+                    reservedBytes = (long) timeRanks.length * Long.BYTES;
+                }
+            }
+        }
+
+        void forEach(CodeConsumer consumer) {
+            forEachBatch(batch -> {
+                for (int i = 0; i < batch.size(); i++) {
+                    consumer.accept(codeOf(batch, i), batch.getIndex(i));
+                }
+            });
+        }
+
+        private long codeOf(ColumnBatch batch, int i) {
+            switch (dataType) {
+                case ColumnStoreAbstract.INTEGER_DATATYPE -> {
+                    int value = batch.getInts(column)[i];
+                    return value == ColumnBatch.NULL_INTEGER ? NULL_CODE : value;
+                }
+                case ColumnStoreAbstract.FLOAT_DATATYPE -> {
+                    float value = batch.getFloats(column)[i];
+                    if (Float.isNaN(value)) { return NULL_CODE; }
+                    int bits = Float.floatToIntBits(value == 0 ? 0f : value); //-0 and 0 are equal
+                    return bits ^ ((bits >> 31) & Integer.MAX_VALUE);
+                }
+                case ColumnStoreAbstract.TIME_DATATYPE -> {
+                    long value = batch.getTimes(column)[i];
+                    if (value == ColumnBatch.NULL_TIME) { return NULL_CODE; }
+                    if (timeRanks != null) { return Integer.MIN_VALUE + Arrays.binarySearch(timeRanks, value); }
+                    return (int) (value - minTime + Integer.MIN_VALUE);
+                }
+                default -> {
+                    String value = batch.getStrings(column)[i];
+                    return value == null ? NULL_CODE : stringRanks.get(value);
+                }
+            }
+        }
+
+        private void forEachBatch(java.util.function.Consumer<ColumnBatch> consumer) {
+            for (int from = 0; from < selection.size(); from += BATCH_ROWS) {
+                consumer.accept(data.gather(List.of(column), selection.subList(from, Math.min(from + BATCH_ROWS, selection.size()))));
+            }
+        }
+    }
+}
@@ -10,6 +10,11 @@ public class Output {
     public static final int MIN_HUMIDITY = 2;
     public static final int MIN_TEMP = 3;
 
+    /**
+     * Formatter of the date, shared by all rows since DateTimeFormatter is immutable.
+     */
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
     LocalDateTime date;
     String stationName;
     int type;
@@ -22,20 +27,25 @@ public class Output {
         this.value = value;
     }
 
-    @Override
-    public String toString() {
-        String typeString = "";
+    /**
+     * @param type the type of an output, e.g. {@link #MAX_HUMIDITY}
+     * @return the name of the type, as written in "ScanResult.csv"
+     */
+    public static String typeToString(int type) {
         switch (type) {
-            case MAX_HUMIDITY -> typeString = "Max Humidity";
-            case MAX_TEMP -> typeString = "Max Temperature";
-            case MIN_HUMIDITY -> typeString = "Min Humidity";
-            case MIN_TEMP -> typeString = "Min Temperature";
-            default -> typeString = "unknown";
+            case MAX_HUMIDITY -> { return "Max Humidity"; }
+            case MAX_TEMP -> { return "Max Temperature"; }
+            case MIN_HUMIDITY -> { return "Min Humidity"; }
+            case MIN_TEMP -> { return "Min Temperature"; }
+            default -> { return "unknown"; }
         }
+    }
 
-        return date.format(DateTimeFormatter.ofPattern("yyyy-MM-dd")) +
+    @Override
+    public String toString() {
+        return date.format(DATE_FORMATTER) +
                 "," + stationName +
-                "," + typeString +
+                "," + typeToString(type) +
                 "," + value;
     }
 }
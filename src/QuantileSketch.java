@@ -0,0 +1,118 @@
+import java.util.*;
+
+/**
+ * A mergeable sketch of the distribution of a numeric column, answering quantiles with a bounded relative error
+ * (the logarithmic bucketing of DDSketch).
+ *
+ * <p>Each value is counted in the bucket {@code ceil(log_gamma(|value|))}, where {@code gamma = (1 + alpha) / (1 - alpha)},
+ * so the quantiles returned are within a relative error of alpha of a value at that rank.
+ * Two sketches with the same alpha are merged by adding their bucket counts, with no loss of accuracy.</p>
+ */
+public class QuantileSketch {
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+    private final double relativeAccuracy;
+    private final double logGamma;
+    private final TreeMap<Integer, Long> positive = new TreeMap<>();
+    private final TreeMap<Integer, Long> negative = new TreeMap<>();
+    private long zeroCount = 0;
+    private long count = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    /**
+     * @param relativeAccuracy the relative error of the quantiles returned, between 0 and 1 (exclusive)
+     */
+    public QuantileSketch(double relativeAccuracy) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("Relative accuracy should be between 0 and 1.");
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.logGamma = Math.log((1 + relativeAccuracy) / (1 - relativeAccuracy));
+    }
+
+    /**
+     * @param value the value to add, ignored if NaN
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) { return; }
+        if (value > 0) {
+            positive.merge(bucketOf(value), 1L, Long::sum);
+        } else if (value < 0) {
+            negative.merge(bucketOf(-value), 1L, Long::sum);
+        } else {
+            zeroCount++;
+        }
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds all values of the other sketch to this sketch.
+     * @param other a sketch with the same relative accuracy
+     */
+    public void merge(QuantileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Cannot merge sketches of different relative accuracy.");
+        }
+        other.positive.forEach((bucket, c) -> positive.merge(bucket, c, Long::sum));
+        other.negative.forEach((bucket, c) -> negative.merge(bucket, c, Long::sum));
+        zeroCount += other.zeroCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.5 for the median
+     * @return the value at the quantile, within the relative accuracy. NaN if the sketch is empty.
+     */
+    public double getQuantile(double quantile) {
+        if (count == 0) { return Double.NaN; }
+        if (quantile <= 0) { return min; }
+        if (quantile >= 1) { return max; }
+
+        long rank = (long) (quantile * (count - 1));
+        long seen = 0;
+        for (Map.Entry<Integer, Long> entry: negative.descendingMap().entrySet()) { //most negative first
+            seen += entry.getValue();
+            if (seen > rank) { return clamp(-valueOf(entry.getKey())); }
+        }
+        seen += zeroCount;
+        if (seen > rank) { return 0; }
+        for (Map.Entry<Integer, Long> entry: positive.entrySet()) {
+            seen += entry.getValue();
+            if (seen > rank) { return clamp(valueOf(entry.getKey())); }
+        }
+        return max;
+    }
+
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    private int bucketOf(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / logGamma);
+    }
+
+    /**
+     * @return the value representing a bucket, whose relative distance to any value in the bucket is at most the relative accuracy.
+     */
+    private double valueOf(int bucket) {
+        double gamma = Math.exp(logGamma);
+        return 2 * Math.exp(bucket * logGamma) / (gamma + 1);
+    }
+
+    private double clamp(double value) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
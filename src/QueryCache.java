@@ -0,0 +1,125 @@
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * A size-bounded cache of query results, evicting the least recently used result when full.
+ *
+ * <p>Each result is stored with the {@link ColumnStoreAbstract#getVersion() version} of the column store it was computed on.
+ * A result is only returned while the column store still has the same version, so results never outlive a change to the data.</p>
+ */
+public class QueryCache {
+    public static final int DEFAULT_MAX_ENTRIES = 128;
+
+    /**
+     * The normalized form of a query, used as the key of the cache.
+     * @param operation the name of the query operation
+     * @param columns the columns read by the query, sorted
+     * @param predicates the values of the predicates of the query, in the order defined by the operation
+     */
+    public record Key(String operation, List<String> columns, List<Object> predicates) {
+        /**
+         * @param operation the name of the query operation
+         * @param columns the columns read by the query, in any order
+         * @param predicates the values of the predicates of the query, in the order defined by the operation
+         * @return the normalized key
+         */
+        public static Key of(String operation, Collection<String> columns, Object... predicates) {
+            List<String> sortedColumns = new ArrayList<>(new TreeSet<>(columns));
+            return new Key(operation, List.copyOf(sortedColumns), List.of(predicates));
+        }
+    }
+
+    /**
+     * A cached result, with the version of the column store it was computed on.
+     */
+    private record Entry(long version, Object result) {}
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    private int maxEntries;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param maxEntries the maximum number of results held by the cache
+     */
+    public QueryCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the cached result of the query if it was computed on the given version, else computes and caches the result.
+     *
+     * <p>The result is shared by all callers, hence it should be immutable.</p>
+     * @param key the normalized query
+     * @param version the current version of the column store
+     * @param query computes the result of the query
+     * @param <T> the type of the result
+     * @return the result of the query
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key key, long version, Supplier<T> query) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.version() == version) {
+                hits++;
+                QueryProfile.addCacheHit();
+                return (T) entry.result();
+            }
+            misses++;
+        }
+
+        T result = query.get(); //computed outside the lock, so that other queries are not blocked
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.version() <= version) {
+                entries.put(key, new Entry(version, result));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @param maxEntries the maximum number of results held by the cache, evicting the least recently used results if needed
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        Iterator<Key> iterator = entries.keySet().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return the number of results held by the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of queries answered from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of queries that had to be computed
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
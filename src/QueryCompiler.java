@@ -0,0 +1,550 @@
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiles filter and aggregate pipelines into {@link ScanKernel scan kernels} specialized for the conditions of a query.
+ *
+ * <p>The generated loop reads the primitive arrays of a {@link ColumnBatch} directly, with the operators, data types and null checks
+ * of every condition written out, instead of calling a {@code Predicate<Object>} on a boxed value per row.
+ * The kernel is generated as Java source, compiled in memory with the system Java compiler and defined as a hidden class.
+ * The constants of the conditions are held in final fields of the hidden class, which the JIT trusts as constants.</p>
+ *
+ * <p>Compiled kernels are cached by the shape of the query: the data types, operators and aggregate, without the column names and constants.
+ * Hence the queries of each month of a year share one compiled kernel. As starting the compiler takes a second or more, a new shape is
+ * compiled in a background thread and its queries are run by an interpreted kernel with the same results until it is ready,
+ * unless {@link #setBackgroundCompilation(boolean) disabled}. When no Java compiler is available (e.g. on a JRE), or compilation fails,
+ * the interpreted kernel is always used.</p>
+ */
+public class QueryCompiler {
+    public static final int EQUAL = 0;
+    public static final int NOT_EQUAL = 1;
+    public static final int LESS = 2;
+    public static final int LESS_OR_EQUAL = 3;
+    public static final int GREATER = 4;
+    public static final int GREATER_OR_EQUAL = 5;
+    public static final int MAX_CACHED_SHAPES = 256;
+
+    private static final String[] OPERATORS = {"==", "!=", "<", "<=", ">", ">="};
+    private static final String CLASS_NAME = "GeneratedScanKernel";
+
+    /**
+     * A condition on a column, e.g. {@code Timestamp >= 2009-01-01 00:00}.
+     * @param column the column
+     * @param operator one of {@link #EQUAL}, {@link #NOT_EQUAL}, {@link #LESS}, {@link #LESS_OR_EQUAL}, {@link #GREATER} and {@link #GREATER_OR_EQUAL}
+     * @param constant the value compared to, of the type returned by {@link ColumnStoreAbstract#getValue(String, int)} for the column
+     */
+    public record Condition(String column, int operator, Object constant) {}
+
+    /**
+     * The constructors of the compiled kernels, by shape. Empty while the shape is compiled, or if it could not be compiled.
+     * Read without locking, so that queries of cached shapes do not wait for each other.
+     */
+    private static final ConcurrentHashMap<String, Optional<MethodHandle>> KERNELS = new ConcurrentHashMap<>();
+
+    /**
+     * The shapes in the order they were cached, the first of which is evicted once {@link #MAX_CACHED_SHAPES} are cached.
+     * Guarded by the lock of the class.
+     */
+    private static final ArrayDeque<String> SHAPES = new ArrayDeque<>();
+    private static final AtomicLong COMPILATIONS = new AtomicLong();
+    private static boolean backgroundCompilation = true;
+    private static ExecutorService compilerThread;
+
+    /**
+     * Builds the kernel for the conditions and aggregate, compiling it if no query of the same shape was compiled before.
+     * The kernel is interpreted while its shape is being compiled in the background.
+     * @param dataTypes the columns and their data types
+     * @param conditions the conditions, all of which must hold for a row to match
+     * @param aggregate one of {@link WindowOperator#SUM}, {@link WindowOperator#MIN}, {@link WindowOperator#MAX} and {@link WindowOperator#COUNT}
+     * @param aggregateColumn the numeric column to aggregate, or null to count the matching rows
+     * @return the kernel
+     */
+    public static ScanKernel compile(Map<String, Integer> dataTypes, List<Condition> conditions, int aggregate, String aggregateColumn) {
+        if (aggregate < WindowOperator.SUM || aggregate > WindowOperator.COUNT) {
+            throw new IllegalArgumentException("No such aggregate: " + aggregate);
+        }
+        if (aggregateColumn == null && aggregate != WindowOperator.COUNT) {
+            throw new IllegalArgumentException("Only COUNT can be computed without a column.");
+        }
+
+        List<String> columns = new ArrayList<>();
+        Object[] constants = new Object[conditions.size()];
+        int[] positions = new int[conditions.size()];
+        int[] types = new int[conditions.size()];
+        int[] operators = new int[conditions.size()];
+        for (int c = 0; c < conditions.size(); c++) {
+            Condition condition = conditions.get(c);
+            if (condition.operator() < EQUAL || condition.operator() > GREATER_OR_EQUAL) {
+                throw new IllegalArgumentException("No such operator: " + condition.operator());
+            }
+            types[c] = dataTypeOf(dataTypes, condition.column());
+            operators[c] = condition.operator();
+            if (types[c] == ColumnStoreAbstract.INTEGER_DATATYPE && condition.constant() instanceof Number) {
+                int[] exact = toIntegerCondition(operators[c], (Number) condition.constant());
+                operators[c] = exact[0];
+                constants[c] = exact[1];
+            } else {
+                constants[c] = toConstant(types[c], condition.constant());
+            }
+            positions[c] = positionOf(columns, condition.column());
+        }
+        int aggregatePosition = -1;
+        int aggregateType = -1;
+        if (aggregateColumn != null) {
+            aggregateType = dataTypeOf(dataTypes, aggregateColumn);
+            if (aggregateType != ColumnStoreAbstract.INTEGER_DATATYPE && aggregateType != ColumnStoreAbstract.FLOAT_DATATYPE) {
+                throw new IllegalArgumentException("Column (" + aggregateColumn + ") is not numeric.");
+            }
+            aggregatePosition = positionOf(columns, aggregateColumn);
+        }
+
+        StringBuilder shape = new StringBuilder();
+        for (int c = 0; c < conditions.size(); c++) {
+            shape.append(positions[c]).append(':').append(types[c]).append(':').append(operators[c]).append(';');
+        }
+        shape.append(aggregate).append(':').append(aggregatePosition).append(':').append(aggregateType);
+
+        String[] columnArray = columns.toArray(new String[0]);
+        MethodHandle constructor = constructorOf(shape.toString(), positions, types, operators, aggregate, aggregatePosition, aggregateType);
+        if (constructor != null) {
+            try {
+                return (ScanKernel) constructor.invoke(columnArray, constants, aggregate);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+        return new InterpretedKernel(columnArray, constants, positions, types, operators, aggregate, aggregatePosition, aggregateType);
+    }
+
+    /**
+     * @return the number of kernels compiled so far
+     */
+    public static long getCompilations() {
+        return COMPILATIONS.get();
+    }
+
+    /**
+     * @param background true to compile new shapes in a background thread, running their queries interpreted meanwhile,
+     *                   false to compile them before returning from {@link #compile(Map, List, int, String)}
+     */
+    public static synchronized void setBackgroundCompilation(boolean background) {
+        backgroundCompilation = background;
+    }
+
+    /**
+     * @return the number of query shapes in the cache
+     */
+    public static int getCachedShapes() {
+        return KERNELS.size();
+    }
+
+    /**
+     * @return the constructor of the kernel of the shape, compiling it if needed. Null if it is not compiled (yet).
+     */
+    private static MethodHandle constructorOf(String shape, int[] positions, int[] types, int[] operators,
+                                              int aggregate, int aggregatePosition, int aggregateType) {
+        Optional<MethodHandle> constructor = KERNELS.get(shape);
+        if (constructor == null) {
+            synchronized (QueryCompiler.class) { //only new shapes take the lock
+                constructor = KERNELS.get(shape);
+                if (constructor == null) {
+                    constructor = install(shape, generateSource(positions, types, operators, aggregate, aggregatePosition, aggregateType));
+                }
+            }
+        }
+        return constructor.orElse(null);
+    }
+
+    /**
+     * Caches the kernel of a new shape, compiled now or in the background. Must hold the lock of the class.
+     * @return the constructor of the kernel, empty if it is not compiled (yet)
+     */
+    private static Optional<MethodHandle> install(String shape, String source) {
+        SHAPES.add(shape);
+        while (SHAPES.size() > MAX_CACHED_SHAPES) {
+            KERNELS.remove(SHAPES.poll());
+        }
+        if (!backgroundCompilation) {
+            Optional<MethodHandle> constructor = Optional.ofNullable(define(source));
+            KERNELS.put(shape, constructor);
+            return constructor;
+        }
+        if (compilerThread == null) {
+            compilerThread = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "query-compiler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        KERNELS.put(shape, Optional.empty());
+        compilerThread.execute(() -> {
+            //failures are cached too, so that they are not retried on every query. Evicted shapes are not cached again.
+            KERNELS.replace(shape, Optional.ofNullable(define(source)));
+        });
+        return Optional.empty();
+    }
+
+    /**
+     * Compiles the source and defines the kernel as a hidden class.
+     * @return the constructor of the kernel, or null if it could not be compiled
+     */
+    private static MethodHandle define(String source) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(compileSource(source), true);
+            MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, String[].class, Object[].class, int.class));
+            COMPILATIONS.incrementAndGet();
+            return constructor;
+        } catch (IOException | ReflectiveOperationException | RuntimeException e) {
+            System.out.println("Could not compile the scan kernel, it is interpreted instead: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Generates the source of the kernel. The loop of {@code aggregate} repeats the conditions of {@code select},
+     * so that filtering and aggregating take a single pass without materializing the matching positions.
+     */
+    private static String generateSource(int[] positions, int[] types, int[] operators, int aggregate, int aggregatePosition, int aggregateType) {
+        StringBuilder fields = new StringBuilder();
+        StringBuilder assignments = new StringBuilder();
+        StringBuilder vectors = new StringBuilder();
+        Set<Integer> declared = new HashSet<>();
+        StringBuilder match = new StringBuilder();
+        for (int c = 0; c < positions.length; c++) {
+            fields.append(String.format("    private final %s c%d;\n", javaType(types[c]), c));
+            assignments.append(String.format("        c%d = (%s) constants[%d];\n", c, boxedType(types[c]), c));
+            if (declared.add(positions[c])) {
+                vectors.append(vectorDeclaration(positions[c], types[c]));
+            }
+            match.append(match.length() == 0 ? "" : " && ").append(conditionExpression(c, positions[c], types[c], operators[c]));
+        }
+        if (match.length() == 0) { match.append("true"); }
+
+        String aggregateVector = "";
+        String update = "accumulator++;";
+        if (aggregatePosition >= 0) {
+            if (!declared.contains(aggregatePosition)) { aggregateVector = vectorDeclaration(aggregatePosition, aggregateType); }
+            String notNull = aggregateType == ColumnStoreAbstract.FLOAT_DATATYPE ? "a == a" : "a != ColumnBatch.NULL_INTEGER";
+            String accumulate = switch (aggregate) {
+                case WindowOperator.SUM -> "accumulator += a;";
+                case WindowOperator.MIN -> "if (a < accumulator) { accumulator = a; }";
+                case WindowOperator.MAX -> "if (a > accumulator) { accumulator = a; }";
+                default -> "accumulator++;";
+            };
+            update = String.format("%s a = v%d[i]; if (%s) { %s }", javaType(aggregateType), aggregatePosition, notNull, accumulate);
+        }
+
+        return "public final class " + CLASS_NAME + " extends ScanKernel {\n" +
+                fields +
+                "    public " + CLASS_NAME + "(String[] columns, Object[] constants, int aggregate) {\n" +
+                "        super(columns, aggregate);\n" +
+                assignments +
+                "    }\n" +
+                "    @Override\n" +
+                "    public int select(ColumnBatch batch, int[] positions) {\n" +
+                vectors +
+                "        final int n = batch.size();\n" +
+                "        int count = 0;\n" +
+                "        for (int i = 0; i < n; i++) {\n" +
+                "            if (" + match + ") { positions[count++] = i; }\n" +
+                "        }\n" +
+                "        return count;\n" +
+                "    }\n" +
+                "    @Override\n" +
+                "    public double aggregate(ColumnBatch batch, double accumulator) {\n" +
+                vectors + aggregateVector +
+                "        final int n = batch.size();\n" +
+                "        for (int i = 0; i < n; i++) {\n" +
+                "            if (" + match + ") { " + update + " }\n" +
+                "        }\n" +
+                "        return accumulator;\n" +
+                "    }\n" +
+                "}\n";
+    }
+
+    private static String vectorDeclaration(int position, int type) {
+        String getter = switch (type) {
+            case ColumnStoreAbstract.INTEGER_DATATYPE -> "getInts";
+            case ColumnStoreAbstract.FLOAT_DATATYPE -> "getFloats";
+            case ColumnStoreAbstract.TIME_DATATYPE -> "getTimes";
+            default -> "getStrings";
+        };
+        return String.format("        final %s[] v%d = batch.%s(columns[%d]);\n", javaType(type), position, getter, position);
+    }
+
+    /**
+     * @return the Java expression of the condition, false for null values
+     */
+    private static String conditionExpression(int c, int position, int type, int operator) {
+        String value = "v" + position + "[i]";
+        String constant = "c" + c;
+        return switch (type) {
+            case ColumnStoreAbstract.INTEGER_DATATYPE -> String.format("(%s != ColumnBatch.NULL_INTEGER && %s %s %s)", value, value, OPERATORS[operator], constant);
+            case ColumnStoreAbstract.FLOAT_DATATYPE -> String.format("(%s == %s && %s %s %s)", value, value, value, OPERATORS[operator], constant); //NaN is null
+            case ColumnStoreAbstract.TIME_DATATYPE -> String.format("(%s != ColumnBatch.NULL_TIME && %s %s %s)", value, value, OPERATORS[operator], constant);
+            default -> switch (operator) {
+                case EQUAL -> String.format("%s.equals(%s)", constant, value);
+                case NOT_EQUAL -> String.format("(%s != null && !%s.equals(%s))", value, constant, value);
+                default -> String.format("(%s != null && %s.compareTo(%s) %s 0)", value, value, constant, OPERATORS[operator]);
+            };
+        };
+    }
+
+    private static String javaType(int type) {
+        return switch (type) {
+            case ColumnStoreAbstract.INTEGER_DATATYPE -> "int";
+            case ColumnStoreAbstract.FLOAT_DATATYPE -> "float";
+            case ColumnStoreAbstract.TIME_DATATYPE -> "long";
+            default -> "String";
+        };
+    }
+
+    private static String boxedType(int type) {
+        return switch (type) {
+            case ColumnStoreAbstract.INTEGER_DATATYPE -> "Integer";
+            case ColumnStoreAbstract.FLOAT_DATATYPE -> "Float";
+            case ColumnStoreAbstract.TIME_DATATYPE -> "Long";
+            default -> "String";
+        };
+    }
+
+    /**
+     * Compiles the source in memory with the system Java compiler, against the class path of this JVM.
+     * @return the class file
+     */
+    private static byte[] compileSource(String source) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IOException("No Java compiler is available in this runtime.");
+        }
+        ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+        JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///" + CLASS_NAME + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        StringWriter diagnostics = new StringWriter();
+        try (StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(null, null, null)) {
+            JavaFileManager fileManager = new ForwardingJavaFileManager<>(standardFileManager) {
+                @Override
+                public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+                    return new SimpleJavaFileObject(URI.create("bytes:///" + className + ".class"), kind) {
+                        @Override
+                        public OutputStream openOutputStream() {
+                            return classFile;
+                        }
+                    };
+                }
+            };
+            List<String> options = List.of("-classpath", System.getProperty("java.class.path"), "-proc:none", "-g:none");
+            if (!compiler.getTask(diagnostics, fileManager, null, options, null, List.of(sourceFile)).call()) {
+                throw new IOException(diagnostics.toString());
+            }
+        }
+        return classFile.toByteArray();
+    }
+
+    private static int dataTypeOf(Map<String, Integer> dataTypes, String column) {
+        Integer type = dataTypes.get(column);
+        if (type == null) {
+            throw new IllegalArgumentException("Column (" + column + ") is not registered with this column store.");
+        }
+        return type;
+    }
+
+    private static int positionOf(List<String> columns, String column) {
+        int position = columns.indexOf(column);
+        if (position < 0) {
+            columns.add(column);
+            position = columns.size() - 1;
+        }
+        return position;
+    }
+
+    /**
+     * @return the constant in the representation of {@link ColumnBatch}, e.g. epoch seconds for a time
+     */
+    private static Object toConstant(int type, Object constant) {
+        if (constant == null) {
+            throw new IllegalArgumentException("Conditions cannot compare to null.");
+        }
+        return switch (type) {
+            case ColumnStoreAbstract.INTEGER_DATATYPE -> ((Number) constant).intValue();
+            case ColumnStoreAbstract.FLOAT_DATATYPE -> ((Number) constant).floatValue();
+            case ColumnStoreAbstract.TIME_DATATYPE -> ColumnBatch.toEpochSecond((LocalDateTime) constant);
+            default -> (String) constant;
+        };
+    }
+
+    /**
+     * Rewrites a condition on an integer column as one with an int constant that matches the same values,
+     * e.g. {@code x > 2.5} as {@code x > 2} and {@code x >= 2.5} as {@code x >= 3}, rather than truncating the constant.
+     * @return the operator and the constant of the condition
+     */
+    private static int[] toIntegerCondition(int operator, Number constant) {
+        int[] all = {GREATER, Integer.MIN_VALUE}; //nulls are Integer.MIN_VALUE and never match
+        int[] none = {LESS, Integer.MIN_VALUE};
+        double value = constant.doubleValue();
+        if (Double.isNaN(value)) { return operator == NOT_EQUAL ? all : none; }
+        double bound = switch (operator) {
+            case GREATER, LESS_OR_EQUAL -> Math.floor(value);
+            case GREATER_OR_EQUAL, LESS -> Math.ceil(value);
+            default -> value;
+        };
+        if (bound == Math.rint(bound) && bound >= Integer.MIN_VALUE && bound <= Integer.MAX_VALUE) {
+            return new int[] {operator, (int) bound};
+        }
+        boolean below = bound < Integer.MIN_VALUE;
+        return switch (operator) {
+            case EQUAL -> none;
+            case NOT_EQUAL -> all;
+            case GREATER, GREATER_OR_EQUAL -> below ? all : none;
+            default -> below ? none : all;
+        };
+    }
+
+    /**
+     * Evaluates the conditions of a kernel row by row, when it could not be compiled. Has the same results as a compiled kernel.
+     */
+    private static class InterpretedKernel extends ScanKernel {
+        private final Object[] constants;
+        private final int[] positions;
+        private final int[] types;
+        private final int[] operators;
+        private final int aggregatePosition;
+        private final int aggregateType;
+
+        InterpretedKernel(String[] columns, Object[] constants, int[] positions, int[] types, int[] operators,
+                          int aggregate, int aggregatePosition, int aggregateType) {
+            super(columns, aggregate);
+            this.constants = constants;
+            this.positions = positions;
+            this.types = types;
+            this.operators = operators;
+            this.aggregatePosition = aggregatePosition;
+            this.aggregateType = aggregateType;
+        }
+
+        @Override
+        public int select(ColumnBatch batch, int[] positions) {
+            Object[] vectors = vectorsOf(batch);
+            int count = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                if (matches(vectors, i)) { positions[count++] = i; }
+            }
+            return count;
+        }
+
+        @Override
+        public double aggregate(ColumnBatch batch, double accumulator) {
+            Object[] vectors = vectorsOf(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                if (!matches(vectors, i)) { continue; }
+                if (aggregatePosition < 0) {
+                    accumulator++;
+                    continue;
+                }
+                double a;
+                if (aggregateType == ColumnStoreAbstract.FLOAT_DATATYPE) {
+                    float value = batch.getFloats(columns[aggregatePosition])[i];
+                    if (Float.isNaN(value)) { continue; }
+                    a = value;
+                } else {
+                    int value = batch.getInts(columns[aggregatePosition])[i];
+                    if (value == ColumnBatch.NULL_INTEGER) { continue; }
+                    a = value;
+                }
+                switch (aggregate) {
+                    case WindowOperator.SUM -> accumulator += a;
+                    case WindowOperator.MIN -> accumulator = Math.min(accumulator, a);
+                    case WindowOperator.MAX -> accumulator = Math.max(accumulator, a);
+                    default -> accumulator++;
+                }
+            }
+            return accumulator;
+        }
+
+        /**
+         * @return the array of values of the column of each condition
+         */
+        private Object[] vectorsOf(ColumnBatch batch) {
+            Object[] vectors = new Object[positions.length];
+            for (int c = 0; c < positions.length; c++) {
+                String column = columns[positions[c]];
+                vectors[c] = switch (types[c]) {
+                    case ColumnStoreAbstract.INTEGER_DATATYPE -> batch.getInts(column);
+                    case ColumnStoreAbstract.FLOAT_DATATYPE -> batch.getFloats(column);
+                    case ColumnStoreAbstract.TIME_DATATYPE -> batch.getTimes(column);
+                    default -> batch.getStrings(column);
+                };
+            }
+            return vectors;
+        }
+
+        private boolean matches(Object[] vectors, int i) {
+            for (int c = 0; c < positions.length; c++) {
+                int comparison;
+                switch (types[c]) {
+                    case ColumnStoreAbstract.INTEGER_DATATYPE -> {
+                        int value = ((int[]) vectors[c])[i];
+                        if (value == ColumnBatch.NULL_INTEGER) { return false; }
+                        comparison = Integer.compare(value, (int) constants[c]);
+                    }
+                    case ColumnStoreAbstract.FLOAT_DATATYPE -> {
+                        float value = ((float[]) vectors[c])[i];
+                        if (Float.isNaN(value) || !holds(value, (float) constants[c], operators[c])) { return false; }
+                        continue;
+                    }
+                    case ColumnStoreAbstract.TIME_DATATYPE -> {
+                        long value = ((long[]) vectors[c])[i];
+                        if (value == ColumnBatch.NULL_TIME) { return false; }
+                        comparison = Long.compare(value, (long) constants[c]);
+                    }
+                    default -> {
+                        String value = ((String[]) vectors[c])[i];
+                        if (value == null) { return false; }
+                        comparison = value.compareTo((String) constants[c]);
+                    }
+                }
+                boolean holds = switch (operators[c]) {
+                    case EQUAL -> comparison == 0;
+                    case NOT_EQUAL -> comparison != 0;
+                    case LESS -> comparison < 0;
+                    case LESS_OR_EQUAL -> comparison <= 0;
+                    case GREATER -> comparison > 0;
+                    default -> comparison >= 0;
+                };
+                if (!holds) { return false; }
+            }
+            return true;
+        }
+
+        /**
+         * @return the float comparison as the compiled kernels evaluate it, e.g. -0.0 equals 0.0 and nothing but != holds for NaN
+         */
+        private static boolean holds(float value, float constant, int operator) {
+            return switch (operator) {
+                case EQUAL -> value == constant;
+                case NOT_EQUAL -> value != constant;
+                case LESS -> value < constant;
+                case LESS_OR_EQUAL -> value <= constant;
+                case GREATER -> value > constant;
+                default -> value >= constant;
+            };
+        }
+    }
+}
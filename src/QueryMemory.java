@@ -0,0 +1,264 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Accounts for the memory taken by the intermediate results of queries, e.g. selections and hash tables,
+ * against a budget per query and a global budget shared by all queries.
+ *
+ * <p>Operators reserve memory before they grow their state, and release it when the state is dropped. A reservation is denied,
+ * rather than failed, when either budget would be exceeded: the operator then spills its state to disk (see {@link SpillableIntList}
+ * and {@link HashJoin}), so that broad queries slow down instead of running the process out of memory.</p>
+ *
+ * <p>Usage:</p>
+ * <pre>
+ *     List&lt;Integer&gt; rows = QueryMemory.run("my query", 16 * 1024 * 1024, () -&gt; ...); // column store operations, reserving from QueryMemory.current()
+ * </pre>
+ * or, to read the peak of the query, {@link #begin(String, long)} in a try-with-resources statement.
+ * Closing the query releases what its operators did not, so results that outlive the query are no longer accounted for.
+ * When no query was begun on the thread, {@link #current()} only enforces the global budget.
+ *
+ * <p>The query is current on the thread that began it. Tasks that work for the query on other threads, e.g. of a thread pool,
+ * are {@link #wrap(Callable) wrapped} so that their reservations are accounted to the query too.</p>
+ */
+public class QueryMemory implements AutoCloseable {
+    public static final long DEFAULT_QUERY_BUDGET = 64L * 1024 * 1024;
+
+    private static final ThreadLocal<QueryMemory> CURRENT = new ThreadLocal<>();
+    private static final AtomicLong GLOBAL_RESERVED = new AtomicLong();
+    private static final LongAdder DENIED = new LongAdder();
+    private static volatile long globalBudget = Runtime.getRuntime().maxMemory() / 2;
+
+    /**
+     * Reservations made outside of a query, bounded by the global budget only.
+     */
+    private static final QueryMemory UNSCOPED = new QueryMemory("unscoped", Long.MAX_VALUE);
+
+    private final String name;
+    private final long budget;
+    private long reserved = 0;
+    private long peak = 0;
+    private boolean closed = false;
+
+    /**
+     * The query that was current on the thread before this query was begun.
+     */
+    private QueryMemory previous;
+
+    private QueryMemory(String name, long budget) {
+        this.name = name;
+        this.budget = budget;
+    }
+
+    /**
+     * Starts accounting for the memory of a query run on the current thread.
+     * @param name the name of the query
+     * @param budget the bytes the intermediate results of the query may take
+     * @return the memory of the query, which must be closed when the query completes
+     */
+    public static QueryMemory begin(String name, long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("The memory budget of a query must be positive.");
+        }
+        QueryMemory memory = new QueryMemory(name, budget);
+        memory.previous = CURRENT.get();
+        CURRENT.set(memory);
+        return memory;
+    }
+
+    /**
+     * Runs a query on the current thread within its own budget, and closes its memory when it completes, even if it throws.
+     * @param name the name of the query
+     * @param budget the bytes the intermediate results of the query may take
+     * @param query the query
+     * @param <T> the type of the result of the query
+     * @return the result of the query
+     */
+    public static <T> T run(String name, long budget, Supplier<T> query) {
+        QueryMemory memory = begin(name, budget);
+        try {
+            return query.get();
+        } finally {
+            memory.close();
+        }
+    }
+
+    /**
+     * @return the memory of the query run on this thread, or one bounded by the global budget only if no query was begun.
+     */
+    public static QueryMemory current() {
+        QueryMemory memory = CURRENT.get();
+        return memory == null ? UNSCOPED : memory;
+    }
+
+    /**
+     * @param task a task working for the query current on this thread, run on another thread
+     * @return the task, run with the same query current
+     */
+    public static Runnable wrap(Runnable task) {
+        QueryMemory memory = CURRENT.get();
+        if (memory == null) { return task; }
+        return () -> {
+            QueryMemory previous = memory.makeCurrent();
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * @param task a task working for the query current on this thread, run on another thread
+     * @param <T> the type of the result of the task
+     * @return the task, run with the same query current
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        QueryMemory memory = CURRENT.get();
+        if (memory == null) { return task; }
+        return () -> {
+            QueryMemory previous = memory.makeCurrent();
+            try {
+                return task.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * @return the query that was current on this thread
+     */
+    private QueryMemory makeCurrent() {
+        QueryMemory previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    private static void restore(QueryMemory previous) {
+        if (previous == null) { CURRENT.remove(); }
+        else { CURRENT.set(previous); }
+    }
+
+    /**
+     * @return false for the memory of {@link #current()} when no query was begun, which is only bounded by the global budget
+     */
+    public boolean isScoped() {
+        return this != UNSCOPED;
+    }
+
+    /**
+     * @param budget the bytes the intermediate results of all queries may take together
+     */
+    public static void setGlobalBudget(long budget) {
+        globalBudget = budget;
+    }
+
+    /**
+     * @return the bytes the intermediate results of all queries may take together
+     */
+    public static long getGlobalBudget() {
+        return globalBudget;
+    }
+
+    /**
+     * @return the bytes reserved by all queries
+     */
+    public static long getGlobalReserved() {
+        return GLOBAL_RESERVED.get();
+    }
+
+    /**
+     * @return the number of reservations denied so far, i.e. the number of times an operator had to spill
+     */
+    public static long getDenied() {
+        return DENIED.sum();
+    }
+
+    /**
+     * Reserves memory if neither the budget of this query nor the global budget would be exceeded.
+     * Reservations of a closed query are granted without being accounted for.
+     * @param bytes the bytes to reserve
+     * @return true if the memory was reserved, false if the operator must make do without it, e.g. by spilling
+     */
+    public synchronized boolean tryReserve(long bytes) {
+        if (closed) { return true; }
+        if (reserved + bytes > budget) {
+            DENIED.increment();
+            return false;
+        }
+        long global;
+        do {
+            global = GLOBAL_RESERVED.get();
+            if (global + bytes > globalBudget) {
+                DENIED.increment();
+                return false;
+            }
+        } while (!GLOBAL_RESERVED.compareAndSet(global, global + bytes));
+        reserved += bytes;
+        peak = Math.max(peak, reserved);
+        return true;
+    }
+
+    /**
+     * Reserves memory even if a budget would be exceeded, for the small fixed buffers an operator needs to spill.
+     * @param bytes the bytes to reserve
+     */
+    public synchronized void reserve(long bytes) {
+        if (closed) { return; }
+        GLOBAL_RESERVED.addAndGet(bytes);
+        reserved += bytes;
+        peak = Math.max(peak, reserved);
+    }
+
+    /**
+     * @param bytes the bytes to release, previously reserved from this query
+     */
+    public synchronized void release(long bytes) {
+        if (closed) { return; }
+        bytes = Math.min(bytes, reserved);
+        reserved -= bytes;
+        GLOBAL_RESERVED.addAndGet(-bytes);
+    }
+
+    /**
+     * @return the bytes reserved by this query
+     */
+    public synchronized long getReserved() {
+        return reserved;
+    }
+
+    /**
+     * @return the most bytes reserved by this query at once
+     */
+    public synchronized long getPeak() {
+        return peak;
+    }
+
+    /**
+     * @return the bytes the intermediate results of this query may take
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Releases the memory still reserved by this query, and restores the query that was current on the thread before it.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed || this == UNSCOPED) { return; }
+        GLOBAL_RESERVED.addAndGet(-reserved);
+        reserved = 0;
+        closed = true;
+        if (CURRENT.get() == this) {
+            if (previous == null) { CURRENT.remove(); }
+            else { CURRENT.set(previous); }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A node in the operator tree of a profiled query, similar to the output of EXPLAIN ANALYZE.
+ *
+ * <p>Each node records its wall time, the CPU time of the thread that ran it, the rows scanned (in) and matched (out) by the
+ * column store operations it ran, the bytes read and the query cache hits. Rows, bytes and cache hits are reported
+ * by {@link StoreMetrics} and {@link QueryCache} to the current node of the thread, so column stores do not need to know about profiling.</p>
+ *
+ * <p>Usage:</p>
+ * <pre>
+ *     QueryProfile profile = QueryProfile.begin("my query");
+ *     try {
+ *         List&lt;Integer&gt; rows = QueryProfile.run("filter Timestamp", () -&gt; ...); // column store operations
+ *     } finally {
+ *         profile.close();
+ *     }
+ *     System.out.print(profile.explain());
+ * </pre>
+ * When no query is being profiled on the thread, {@link #run(String, Operator)} records nothing,
+ * so operators can be marked unconditionally.
+ *
+ * <p>To profile work done by another thread, capture {@link #current()} and call {@link #runChild(String, VoidOperator)} on it from that thread.
+ * The CPU time of a node does not include the CPU time of children run by other threads.</p>
+ */
+public class QueryProfile implements AutoCloseable {
+    private static final ThreadLocal<QueryProfile> CURRENT = new ThreadLocal<>();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Returned when no query is being profiled. Records nothing.
+     */
+    private static final QueryProfile DISABLED = new QueryProfile("disabled");
+
+    private final String name;
+    private final List<QueryProfile> children = Collections.synchronizedList(new ArrayList<>());
+    private final LongAdder rowsIn = new LongAdder();
+    private final LongAdder rowsOut = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private volatile long wallNanos = 0;
+    private volatile long cpuNanos = 0;
+    private long startWall;
+    private long startCpu;
+
+    /**
+     * The node that was current on the thread before this node was entered.
+     */
+    private QueryProfile previous;
+
+    private QueryProfile(String name) {
+        this.name = name;
+    }
+
+    /**
+     * The work of an operator, run by {@link #run(String, Operator)}.
+     * @param <T> the type of the result
+     * @param <E> the type of the exception thrown, RuntimeException if none
+     */
+    @FunctionalInterface
+    public interface Operator<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    /**
+     * The work of an operator without a result, run by {@link #run(String, VoidOperator)}.
+     * @param <E> the type of the exception thrown, RuntimeException if none
+     */
+    @FunctionalInterface
+    public interface VoidOperator<E extends Exception> {
+        void run() throws E;
+    }
+
+    /**
+     * Starts profiling a query on the current thread.
+     * @param name the name of the query
+     * @return the root of the operator tree, which must be closed when the query completes
+     */
+    public static QueryProfile begin(String name) {
+        QueryProfile root = new QueryProfile(name);
+        root.start();
+        return root;
+    }
+
+    /**
+     * Starts an operator, as a child of the current node of this thread.
+     * @param name the name of the operator
+     * @return the node of the operator, which must be closed when the operator completes
+     */
+    public static QueryProfile enter(String name) {
+        return current().enterChild(name);
+    }
+
+    /**
+     * Runs an operator as a child of the current node of this thread.
+     * @param name the name of the operator
+     * @param operator the work of the operator
+     * @return the result of the operator
+     * @throws E if the operator throws, once its node is completed
+     */
+    public static <T, E extends Exception> T run(String name, Operator<T, E> operator) throws E {
+        return current().runChild(name, operator);
+    }
+
+    /**
+     * Runs an operator without a result as a child of the current node of this thread.
+     * @param name the name of the operator
+     * @param operator the work of the operator
+     * @throws E if the operator throws, once its node is completed
+     */
+    public static <E extends Exception> void run(String name, VoidOperator<E> operator) throws E {
+        current().runChild(name, operator);
+    }
+
+    /**
+     * @return the current node of this thread, or a node that records nothing if no query is being profiled.
+     */
+    public static QueryProfile current() {
+        QueryProfile current = CURRENT.get();
+        return current == null ? DISABLED : current;
+    }
+
+    /**
+     * Starts an operator as a child of this node, on the current thread.
+     * @param name the name of the operator
+     * @return the node of the operator, which must be closed when the operator completes
+     */
+    public QueryProfile enterChild(String name) {
+        if (this == DISABLED) { return DISABLED; }
+        QueryProfile child = new QueryProfile(name);
+        children.add(child);
+        child.start();
+        return child;
+    }
+
+    /**
+     * Runs an operator as a child of this node, on the current thread.
+     * @param name the name of the operator
+     * @param operator the work of the operator
+     * @return the result of the operator
+     * @throws E if the operator throws, once its node is completed
+     */
+    public <T, E extends Exception> T runChild(String name, Operator<T, E> operator) throws E {
+        QueryProfile child = enterChild(name);
+        try {
+            return operator.run();
+        } finally {
+            child.close();
+        }
+    }
+
+    /**
+     * Runs an operator without a result as a child of this node, on the current thread, e.g. a task of a thread pool.
+     * @param name the name of the operator
+     * @param operator the work of the operator
+     * @throws E if the operator throws, once its node is completed
+     */
+    public <E extends Exception> void runChild(String name, VoidOperator<E> operator) throws E {
+        QueryProfile child = enterChild(name);
+        try {
+            operator.run();
+        } finally {
+            child.close();
+        }
+    }
+
+    /**
+     * Adds to the rows of the current node of this thread, if any. Called by {@link StoreMetrics#record(String, long, long, long)}.
+     * @param scanned the number of rows scanned
+     * @param matched the number of rows matched
+     */
+    public static void addRows(long scanned, long matched) {
+        QueryProfile current = CURRENT.get();
+        if (current != null) {
+            current.rowsIn.add(scanned);
+            current.rowsOut.add(matched);
+        }
+    }
+
+    /**
+     * Adds to the bytes read of the current node of this thread, if any. Called by {@link StoreMetrics#addBytesRead(long)}.
+     * @param bytes the number of bytes read
+     */
+    public static void addBytesRead(long bytes) {
+        QueryProfile current = CURRENT.get();
+        if (current != null) { current.bytesRead.add(bytes); }
+    }
+
+    /**
+     * Adds a cache hit to the current node of this thread, if any. Called by {@link QueryCache}.
+     */
+    public static void addCacheHit() {
+        QueryProfile current = CURRENT.get();
+        if (current != null) { current.cacheHits.increment(); }
+    }
+
+    /**
+     * Completes this node, and makes the previous node the current node of this thread again.
+     */
+    @Override
+    public void close() {
+        if (this == DISABLED) { return; }
+        wallNanos = System.nanoTime() - startWall;
+        cpuNanos = cpuTime() - startCpu;
+        if (previous == null) { CURRENT.remove(); }
+        else { CURRENT.set(previous); }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<QueryProfile> getChildren() {
+        synchronized (children) {
+            return new ArrayList<>(children);
+        }
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    /**
+     * @return the rows scanned by this node and its children
+     */
+    public long getRowsIn() {
+        return rowsIn.sum() + getChildren().stream().mapToLong(QueryProfile::getRowsIn).sum();
+    }
+
+    /**
+     * @return the rows matched by this node and its children
+     */
+    public long getRowsOut() {
+        return rowsOut.sum() + getChildren().stream().mapToLong(QueryProfile::getRowsOut).sum();
+    }
+
+    /**
+     * @return the bytes read by this node and its children
+     */
+    public long getBytesRead() {
+        return bytesRead.sum() + getChildren().stream().mapToLong(QueryProfile::getBytesRead).sum();
+    }
+
+    /**
+     * @return the query cache hits of this node and its children
+     */
+    public long getCacheHits() {
+        return cacheHits.sum() + getChildren().stream().mapToLong(QueryProfile::getCacheHits).sum();
+    }
+
+    /**
+     * @return the operator tree rooted at this node, as text. Each line shows an operator with the totals of its subtree, except CPU time.
+     */
+    public String explain() {
+        StringBuilder sb = new StringBuilder();
+        explain(sb, 0);
+        return sb.toString();
+    }
+
+    private void explain(StringBuilder sb, int depth) {
+        sb.append("  ".repeat(depth)).append(depth == 0 ? "" : "-> ").append(name);
+        sb.append(String.format("  (wall=%.3fms cpu=%.3fms rows=%d->%d bytes=%d cacheHits=%d)\n",
+                wallNanos / 1e6, cpuNanos / 1e6, getRowsIn(), getRowsOut(), getBytesRead(), getCacheHits()));
+        for (QueryProfile child: getChildren()) {
+            child.explain(sb, depth + 1);
+        }
+    }
+
+    private void start() {
+        previous = CURRENT.get();
+        CURRENT.set(this);
+        startWall = System.nanoTime();
+        startCpu = cpuTime();
+    }
+
+    /**
+     * @return the CPU time of the current thread in nanoseconds, or 0 if not supported by the JVM.
+     */
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+}
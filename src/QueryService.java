@@ -0,0 +1,156 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Serves many concurrent queries over shared column stores from one JVM.
+ *
+ * <p>Queries are admitted into a bounded queue and run by a fixed pool of worker threads. When the queue is full, a query is
+ * rejected at once, with its future failed by a {@link RejectedExecutionException}, instead of piling up and running out of memory.
+ * Thousands of queries can be in flight while only the workers run, and the column stores read their files through channels
+ * shared by all queries (see {@link ColumnStoreDisk}), so neither threads nor open files grow with the number of queries.</p>
+ *
+ * <p>Each query runs with its own {@link QueryMemory}, so a broad query spills its intermediate results instead of
+ * taking the memory of the others.</p>
+ *
+ * <p>Queries are never interrupted: cancelling a future does not stop its query, as an interrupt during a read would close
+ * the file channel shared with the other queries.</p>
+ *
+ * <p>Usage:</p>
+ * <pre>
+ *     try (QueryService service = new QueryService(8, 4096)) {
+ *         CompletableFuture&lt;List&lt;Output&gt;&gt; result = service.submit(() -&gt; store.getExtremeValues(2009, "Changi"));
+ *     }
+ * </pre>
+ */
+public class QueryService implements AutoCloseable {
+    public static final int DEFAULT_MAX_QUEUED = 4096;
+
+    private final ThreadPoolExecutor workers;
+    private volatile long queryMemoryBudget = QueryMemory.DEFAULT_QUERY_BUDGET;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * A service with two workers per processor and {@link #DEFAULT_MAX_QUEUED} queued queries.
+     */
+    public QueryService() {
+        this(2 * Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_QUEUED);
+    }
+
+    /**
+     * @param workers the number of queries run at once
+     * @param maxQueued the number of queries that can wait for a worker, beyond which queries are rejected
+     */
+    public QueryService(int workers, int maxQueued) {
+        if (workers <= 0 || maxQueued < 0) {
+            throw new IllegalArgumentException("The number of workers must be positive, and the queue cannot be negative.");
+        }
+        BlockingQueue<Runnable> queue = maxQueued == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(maxQueued);
+        this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, queue, new ThreadFactory() {
+            private int created = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "query-worker-" + created++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * @param budget the bytes the intermediate results of each query may take before they are spilled to disk, see {@link QueryMemory}
+     */
+    public void setQueryMemoryBudget(long budget) {
+        this.queryMemoryBudget = budget;
+    }
+
+    /**
+     * Admits the query, or rejects it if the queue is full or the service is closed.
+     * @param query the query, run by a worker thread
+     * @param <T> the type of the result
+     * @return the result of the query. Failed with a {@link RejectedExecutionException} if the query was rejected,
+     * or with the exception thrown by the query.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> query) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long admitted = System.nanoTime();
+        try {
+            workers.execute(() -> {
+                try {
+                    result.complete(QueryMemory.run("query", queryMemoryBudget, query));
+                    completed.increment();
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                    failed.increment();
+                }
+                latency.record(System.nanoTime() - admitted);
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of queries waiting for a worker
+     */
+    public int getQueued() {
+        return workers.getQueue().size();
+    }
+
+    /**
+     * @return the number of queries being run
+     */
+    public int getActive() {
+        return workers.getActiveCount();
+    }
+
+    /**
+     * @return the number of queries completed successfully
+     */
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    /**
+     * @return the number of queries that threw an exception
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return the number of queries rejected as the queue was full
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @param percentile e.g. 99 for the 99th percentile
+     * @return the latency of completed queries, from admission to completion, in milliseconds
+     */
+    public double getLatencyMillis(double percentile) {
+        return latency.getPercentile(percentile) / 1e6;
+    }
+
+    /**
+     * Stops admitting queries, and waits for the admitted queries to complete.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("Waiting for " + (getQueued() + getActive()) + " queries to complete...");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Resamples a time series into fixed, non-overlapping buckets (tumbling windows), e.g. hourly or daily averages per station.
+ *
+ * <p>A bucket is emitted as soon as a later row of the same group arrives, so only the open bucket of each group is held.
+ * A bucket whose rows are all null (e.g. only 'M' readings) is emitted with a NaN value and a count of 0.
+ * Buckets without any row are not emitted; use a {@link GapFiller} downstream to fill them in.</p>
+ */
+public class Resampler extends WindowOperator {
+    /**
+     * The open bucket of a group.
+     */
+    private static class Bucket {
+        long start;
+        long count = 0;
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        Bucket(long start) {
+            this.start = start;
+        }
+    }
+
+    private final long widthSeconds;
+    private final HashMap<Object, Bucket> openBuckets = new HashMap<>();
+    private long lateRows = 0;
+
+    /**
+     * Buckets start at midnight and at every multiple of the width after it.
+     * @param timeColumn the time column
+     * @param valueColumn the numeric column to aggregate
+     * @param groupColumn the column to group by, e.g. the station, or null to aggregate all rows together
+     * @param aggregate see {@link WindowOperator#WindowOperator(String, String, String, int, Consumer)}
+     * @param widthSeconds the width of each bucket in seconds, e.g. 3600 for hourly buckets
+     * @param downstream receives one result per non-empty bucket, in order of time within each group
+     */
+    public Resampler(String timeColumn, String valueColumn, String groupColumn, int aggregate, long widthSeconds,
+                     Consumer<WindowResult> downstream) {
+        super(timeColumn, valueColumn, groupColumn, aggregate, downstream);
+        if (widthSeconds <= 0) {
+            throw new IllegalArgumentException("Width of buckets should be positive.");
+        }
+        this.widthSeconds = widthSeconds;
+    }
+
+    @Override
+    public void accept(ColumnBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            long time = timeAt(batch, i);
+            if (time == ColumnBatch.NULL_TIME) { continue; }
+            long start = Math.floorDiv(time, widthSeconds) * widthSeconds;
+            Object group = groupAt(batch, i);
+
+            Bucket bucket = openBuckets.get(group);
+            if (bucket == null) {
+                bucket = new Bucket(start);
+                openBuckets.put(group, bucket);
+            } else if (start > bucket.start) {
+                emit(group, bucket);
+                bucket = new Bucket(start);
+                openBuckets.put(group, bucket);
+            } else if (start < bucket.start) { //out of order, its bucket was already emitted
+                lateRows++;
+                continue;
+            }
+
+            double value = valueAt(batch, i);
+            if (Double.isNaN(value)) { continue; }
+            bucket.count++;
+            bucket.sum += value;
+            bucket.min = Math.min(bucket.min, value);
+            bucket.max = Math.max(bucket.max, value);
+        }
+    }
+
+    @Override
+    public void finish() {
+        List<Map.Entry<Object, Bucket>> remaining = new ArrayList<>(openBuckets.entrySet());
+        remaining.sort(Comparator.comparingLong(entry -> entry.getValue().start));
+        for (Map.Entry<Object, Bucket> entry: remaining) {
+            emit(entry.getKey(), entry.getValue());
+        }
+        openBuckets.clear();
+    }
+
+    /**
+     * @return the number of rows skipped because they arrived after their bucket was emitted
+     */
+    public long getLateRows() {
+        return lateRows;
+    }
+
+    public long getWidthSeconds() {
+        return widthSeconds;
+    }
+
+    private void emit(Object group, Bucket bucket) {
+        double value;
+        if (aggregate == COUNT) {
+            value = bucket.count;
+        } else if (bucket.count == 0) {
+            value = Double.NaN;
+        } else {
+            switch (aggregate) {
+                case AVG -> value = bucket.sum / bucket.count;
+                case SUM -> value = bucket.sum;
+                case MIN -> value = bucket.min;
+                default -> value = bucket.max;
+            }
+        }
+        downstream.accept(new WindowResult(group, bucket.start, value, bucket.count, false));
+    }
+}
@@ -0,0 +1,51 @@
+import java.util.*;
+
+/**
+ * A uniform random sample of a fixed number of rows, kept while the rows are added one by one (reservoir sampling, Algorithm R).
+ * Every row added so far has the same probability of being in the sample.
+ */
+public class ReservoirSample {
+    private final int capacity;
+    private final List<Object[]> rows;
+    private final Random random;
+    private long seen = 0;
+
+    /**
+     * @param capacity the maximum number of rows in the sample
+     * @param seed the seed of the random choices, so that samples are reproducible
+     */
+    public ReservoirSample(int capacity, long seed) {
+        this.capacity = capacity;
+        this.rows = new ArrayList<>(Math.min(capacity, 1024));
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param row the values of a row. The array is kept, so it must not be modified afterwards.
+     */
+    public void add(Object[] row) {
+        seen++;
+        if (rows.size() < capacity) {
+            rows.add(row);
+        } else {
+            long slot = (long) (random.nextDouble() * seen);
+            if (slot < capacity) {
+                rows.set((int) slot, row);
+            }
+        }
+    }
+
+    /**
+     * @return the sampled rows, in no particular order
+     */
+    public List<Object[]> getRows() {
+        return Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * @return the number of rows added, i.e. the size of the population the sample represents
+     */
+    public long getSeen() {
+        return seen;
+    }
+}
@@ -0,0 +1,29 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes results into bytes for a {@link ChannelResultSink}.
+ *
+ * <p>The encode functions either encode the whole row into the buffer and return true,
+ * or leave the buffer unchanged and return false if there is not enough space remaining.</p>
+ */
+public interface ResultEncoder {
+    /**
+     * @return the bytes written once at the start of a new file. Can be empty.
+     */
+    byte[] header();
+
+    /**
+     * @param row the row to encode
+     * @param buffer the buffer to encode into
+     * @return false if there is not enough space remaining in the buffer
+     */
+    boolean encode(Output row, ByteBuffer buffer);
+
+    /**
+     * @param batch the batch holding the row
+     * @param i the position of the row in the batch
+     * @param buffer the buffer to encode into
+     * @return false if there is not enough space remaining in the buffer
+     */
+    boolean encode(ColumnBatch batch, int i, ByteBuffer buffer);
+}
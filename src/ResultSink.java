@@ -0,0 +1,44 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A destination for query results, either {@link Output} rows or rows of a {@link ColumnBatch}.
+ * Implementations may buffer results, so the sink must be closed to make sure all results are written.
+ */
+public interface ResultSink extends AutoCloseable {
+    /**
+     * @param row the row to write
+     * @throws IOException if the row could not be written
+     */
+    void write(Output row) throws IOException;
+
+    /**
+     * @param rows the rows to write, in order
+     * @throws IOException if the rows could not be written
+     */
+    default void writeAll(List<Output> rows) throws IOException {
+        for (Output row: rows) {
+            write(row);
+        }
+    }
+
+    /**
+     * Writes all rows of the batch, in order.
+     * @param batch the batch to write
+     * @throws IOException if the batch could not be written
+     */
+    void write(ColumnBatch batch) throws IOException;
+
+    /**
+     * Writes all buffered results.
+     * @throws IOException if the results could not be written
+     */
+    void flush() throws IOException;
+
+    /**
+     * Writes all buffered results and releases the resources held by this sink.
+     * @throws IOException if the results could not be written
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,94 @@
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Aggregates a time series over a sliding window that ends at each row, e.g. the 24-hour rolling maximum of Temperature per station.
+ *
+ * <p>One result is emitted per input row, aggregating the non-null values of the same group with a time in
+ * {@code (time - window, time]}. Only the values inside the window are held, in a queue for sums and counts
+ * and in a monotonic queue for minimums and maximums, so each row is processed in amortized constant time.</p>
+ */
+public class RollingWindow extends WindowOperator {
+    /**
+     * The values inside the window of a group.
+     */
+    private static class State {
+        final ArrayDeque<double[]> values = new ArrayDeque<>(); //time, value; in order of time
+        final ArrayDeque<double[]> extremes = new ArrayDeque<>(); //time, value; candidates for the min or max, in order of time
+        double sum = 0;
+    }
+
+    private final long windowSeconds;
+    private final HashMap<Object, State> states = new HashMap<>();
+
+    /**
+     * @param timeColumn the time column
+     * @param valueColumn the numeric column to aggregate
+     * @param groupColumn the column to group by, e.g. the station, or null to aggregate all rows together
+     * @param aggregate see {@link WindowOperator#WindowOperator(String, String, String, int, Consumer)}
+     * @param windowSeconds the length of the window in seconds, e.g. 86400 for 24 hours
+     * @param downstream receives one result per input row with a time
+     */
+    public RollingWindow(String timeColumn, String valueColumn, String groupColumn, int aggregate, long windowSeconds,
+                         Consumer<WindowResult> downstream) {
+        super(timeColumn, valueColumn, groupColumn, aggregate, downstream);
+        if (windowSeconds <= 0) {
+            throw new IllegalArgumentException("Length of window should be positive.");
+        }
+        this.windowSeconds = windowSeconds;
+    }
+
+    @Override
+    public void accept(ColumnBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            long time = timeAt(batch, i);
+            if (time == ColumnBatch.NULL_TIME) { continue; }
+            Object group = groupAt(batch, i);
+            State state = states.computeIfAbsent(group, g -> new State());
+
+            long windowStart = time - windowSeconds;
+            while (!state.values.isEmpty() && state.values.peekFirst()[0] <= windowStart) {
+                state.sum -= state.values.pollFirst()[1];
+            }
+            while (!state.extremes.isEmpty() && state.extremes.peekFirst()[0] <= windowStart) {
+                state.extremes.pollFirst();
+            }
+
+            double value = valueAt(batch, i);
+            if (!Double.isNaN(value)) {
+                double[] entry = new double[] {time, value};
+                state.values.addLast(entry);
+                state.sum += value;
+                while (!state.extremes.isEmpty() && dominates(value, state.extremes.peekLast()[1])) {
+                    state.extremes.pollLast(); //can never be the extreme again, since the new value stays in the window longer
+                }
+                state.extremes.addLast(entry);
+            }
+            downstream.accept(new WindowResult(group, time, aggregate(state), state.values.size(), false));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Results are emitted per row, so nothing is held back.
+     */
+    @Override
+    public void finish() {
+        states.clear();
+    }
+
+    private boolean dominates(double value, double other) {
+        return aggregate == MIN ? value <= other : value >= other;
+    }
+
+    private double aggregate(State state) {
+        int count = state.values.size();
+        if (aggregate == COUNT) { return count; }
+        if (count == 0) { return Double.NaN; }
+        switch (aggregate) {
+            case AVG -> { return state.sum / count; }
+            case SUM -> { return state.sum; }
+            default -> { return state.extremes.peekFirst()[1]; }
+        }
+    }
+}
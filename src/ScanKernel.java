@@ -0,0 +1,60 @@
+/**
+ * A filter and aggregate pipeline over the primitive columns of a {@link ColumnBatch}, as built by {@link QueryCompiler}.
+ *
+ * <p>Rows with a null value in any column of a condition never match, as in {@link ColumnStoreAbstract#filter(String, java.util.function.Predicate)},
+ * and null values of the aggregated column are not aggregated.</p>
+ */
+public abstract class ScanKernel {
+    /**
+     * The columns read by this kernel: the columns of the conditions, then the aggregated column if any.
+     */
+    protected final String[] columns;
+
+    /**
+     * One of {@link WindowOperator#SUM}, {@link WindowOperator#MIN}, {@link WindowOperator#MAX} and {@link WindowOperator#COUNT}.
+     */
+    protected final int aggregate;
+
+    /**
+     * @param columns the columns read by this kernel
+     * @param aggregate the aggregate computed by {@link #aggregate(ColumnBatch, double)}
+     */
+    protected ScanKernel(String[] columns, int aggregate) {
+        this.columns = columns;
+        this.aggregate = aggregate;
+    }
+
+    /**
+     * Finds the rows of the batch matching all conditions.
+     * @param batch a batch holding all {@link #getColumns() columns} of this kernel
+     * @param positions receives the positions in the batch of the matching rows, in ascending order. Must hold {@code batch.size()} values.
+     * @return the number of matching rows
+     */
+    public abstract int select(ColumnBatch batch, int[] positions);
+
+    /**
+     * Aggregates the matching rows of the batch in the same pass as the conditions are evaluated.
+     * @param batch a batch holding all {@link #getColumns() columns} of this kernel
+     * @param accumulator the aggregate of the previous batches, or {@link #identity()} for the first batch
+     * @return the aggregate including this batch
+     */
+    public abstract double aggregate(ColumnBatch batch, double accumulator);
+
+    /**
+     * @return the columns read by this kernel
+     */
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    /**
+     * @return the aggregate of no rows: 0 for SUM and COUNT, infinity for MIN and negative infinity for MAX
+     */
+    public double identity() {
+        return switch (aggregate) {
+            case WindowOperator.MIN -> Double.POSITIVE_INFINITY;
+            case WindowOperator.MAX -> Double.NEGATIVE_INFINITY;
+            default -> 0;
+        };
+    }
+}
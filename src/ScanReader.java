@@ -0,0 +1,172 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Reads a file sequentially in large blocks, with a dedicated I/O thread that reads ahead of the consumer,
+ * so that reading the next blocks overlaps with decoding the current block.
+ *
+ * <p>The file can also be read through a channel shared with other readers, as blocks are read with positional reads,
+ * which keep no file position. The I/O thread is never interrupted, as that would close the channel for all of them.</p>
+ *
+ * <p>Up to queueDepth blocks are read ahead. Every block except the last one is full,
+ * hence values of a fixed width never lie across two blocks as long as the block size is a multiple of the width.</p>
+ *
+ * <p>Usage:</p>
+ * <pre>
+ *     try (ScanReader reader = new ScanReader(file, blockSize, queueDepth)) {
+ *         ByteBuffer block;
+ *         while ((block = reader.next()) != null) {
+ *             while (block.remaining() >= 4) { ... block.getInt() ... }
+ *         }
+ *     }
+ * </pre>
+ */
+public class ScanReader implements AutoCloseable {
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    public static final int DEFAULT_QUEUE_DEPTH = 4;
+
+    /**
+     * Marks the end of the file in {@link #filled}.
+     */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final FileChannel channel;
+    private final boolean ownsChannel;
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> filled = new LinkedBlockingQueue<>();
+    private final Thread reader;
+    private volatile IOException error;
+    private ByteBuffer current;
+    private boolean finished = false;
+    private volatile boolean stopped = false;
+
+    /**
+     * Opens the file and starts reading ahead.
+     * @param file the file to read
+     * @param blockSize the number of bytes in each block
+     * @param queueDepth the number of blocks that can be read ahead of the block being decoded
+     * @throws IOException if the file could not be opened
+     */
+    public ScanReader(File file, int blockSize, int queueDepth) throws IOException {
+        this(FileChannel.open(file.toPath(), StandardOpenOption.READ), true, file.getName(), blockSize, queueDepth);
+    }
+
+    /**
+     * Starts reading ahead from a channel that stays open when this reader is closed, e.g. shared by concurrent queries.
+     * @param channel the channel of the file to read
+     * @param name the name of the file, for the name of the I/O thread
+     * @param blockSize the number of bytes in each block
+     * @param queueDepth the number of blocks that can be read ahead of the block being decoded
+     */
+    public ScanReader(FileChannel channel, String name, int blockSize, int queueDepth) {
+        this(channel, false, name, blockSize, queueDepth);
+    }
+
+    private ScanReader(FileChannel channel, boolean ownsChannel, String name, int blockSize, int queueDepth) {
+        if (blockSize <= 0 || queueDepth <= 0) {
+            throw new IllegalArgumentException("Block size and queue depth must be positive.");
+        }
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.free = new ArrayBlockingQueue<>(queueDepth + 1);
+        for (int i = 0; i <= queueDepth; i++) { //one more block than the queue depth, for the block being decoded
+            free.add(ByteBuffer.allocateDirect(blockSize));
+        }
+        this.reader = new Thread(this::readAll, "scan-read-ahead-" + name);
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    /**
+     * Returns the next block of the file, positioned at its start and limited to the bytes read.
+     * The previous block is reused for reading ahead, so it must not be used after this call.
+     * @return the next block, or null at the end of the file
+     * @throws IOException if the file could not be read
+     */
+    public ByteBuffer next() throws IOException {
+        if (current != null) {
+            free.offer(current);
+            current = null;
+        }
+        if (finished) { return null; }
+
+        ByteBuffer block;
+        try {
+            block = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the next block.", e);
+        }
+        if (block == END) {
+            finished = true;
+            if (error != null) { throw error; }
+            return null;
+        }
+        current = block;
+        return block;
+    }
+
+    /**
+     * Stops reading ahead, and closes the file unless the channel was given.
+     */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        stopped = true;
+        if (current != null) {
+            free.offer(current);
+            current = null;
+        }
+        boolean interrupted = false;
+        while (reader.isAlive()) { //hand the blocks read ahead back, so that the I/O thread is not blocked waiting for a free block
+            ByteBuffer block;
+            while ((block = filled.poll()) != null) {
+                if (block != END) { free.offer(block); }
+            }
+            try {
+                reader.join(10);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) { Thread.currentThread().interrupt(); }
+        if (ownsChannel) { channel.close(); }
+    }
+
+    /**
+     * Run by the I/O thread: fills free blocks in file order until the end of the file.
+     */
+    private void readAll() {
+        long position = 0;
+        try {
+            while (!stopped) {
+                ByteBuffer block = free.take();
+                if (stopped) { break; }
+                block.clear();
+                while (block.hasRemaining()) { //fill the block completely unless the file ends
+                    if (channel.read(block, position + block.position()) == -1) { break; }
+                }
+                if (block.position() == 0) { break; }
+
+                position += block.position();
+                boolean last = block.hasRemaining();
+                block.flip();
+                filled.add(block);
+                if (last) { break; }
+            }
+        } catch (InterruptedException | ClosedByInterruptException e) {
+            //interrupted by the application, e.g. when shutting down
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            filled.add(END);
+        }
+    }
+}
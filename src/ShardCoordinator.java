@@ -0,0 +1,395 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Scatters ingest and queries over {@link ShardWorker} processes, each holding one shard, and gathers and merges their results.
+ *
+ * <p>Rows are routed at ingest either by a hash of the Station ({@link #SHARD_BY_STATION}), so that all rows of a station live
+ * in one shard, or by ranges of years ({@link #SHARD_BY_TIME}). Filters and per-month partial aggregates run on the workers in
+ * parallel, and only the partial results are sent back to be merged.</p>
+ *
+ * <p>{@link #launchLocal(int, File, int)} starts the workers as JVMs on this machine, so that sharding can be tested without a cluster.</p>
+ */
+public class ShardCoordinator implements AutoCloseable {
+    public static final int SHARD_BY_STATION = 0;
+    public static final int SHARD_BY_TIME = 1;
+
+    /**
+     * The number of rows sent to a worker per {@link ShardProtocol#INGEST} request.
+     */
+    private static final int INGEST_BATCH_ROWS = 65536;
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(ColumnStoreAbstract.DTFORMATSTRING);
+
+    /**
+     * The connection to a worker. Requests on a connection are sent one at a time.
+     */
+    private static class Connection {
+        final Socket socket;
+        final DataInputStream input;
+        final DataOutputStream output;
+
+        Connection(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
+            output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 65536));
+        }
+    }
+
+    /**
+     * A request to a worker, returning the result read from the response.
+     */
+    @FunctionalInterface
+    private interface Request<T> {
+        T send(DataOutputStream output, DataInputStream input) throws IOException;
+    }
+
+    private final List<Connection> connections = new ArrayList<>();
+    private final List<Process> processes = new ArrayList<>();
+    private final HashMap<String, Integer> columnDataTypes;
+    private final int sharding;
+    private final ExecutorService executor;
+
+    /**
+     * The first year of the range of each shard, for {@link #SHARD_BY_TIME}, fixed by the first ingest.
+     */
+    private int[] firstYears;
+
+    /**
+     * Connects to running workers and opens their shards.
+     * @param ports the localhost ports of the workers
+     * @param columnDataTypes the columns and their data types, must include Timestamp and Station
+     * @param sharding {@link #SHARD_BY_STATION} or {@link #SHARD_BY_TIME}
+     * @throws IOException if a worker could not be reached
+     */
+    public ShardCoordinator(List<Integer> ports, HashMap<String, Integer> columnDataTypes, int sharding) throws IOException {
+        this.columnDataTypes = columnDataTypes;
+        this.sharding = sharding;
+        this.executor = Executors.newFixedThreadPool(ports.size(), runnable -> {
+            Thread thread = new Thread(runnable, "shard-coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (int port: ports) {
+                connections.add(new Connection(port));
+            }
+            scatter(shard -> true, (output, input) -> {
+                output.writeByte(ShardProtocol.OPEN);
+                output.writeInt(ShardProtocol.MAGIC);
+                output.writeInt(ShardProtocol.VERSION);
+                output.writeInt(columnDataTypes.size());
+                for (Map.Entry<String, Integer> entry: columnDataTypes.entrySet()) {
+                    output.writeUTF(entry.getKey());
+                    output.writeByte(entry.getValue());
+                }
+                output.flush();
+                ShardProtocol.readStatus(input);
+                return null;
+            });
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts worker JVMs on this machine, with the class path of this JVM, and connects to them.
+     * The workers exit when the coordinator is closed, or when this JVM exits.
+     * @param shards the number of workers
+     * @param directory the parent directory of the shards, e.g. "sharded" for "sharded/shard-0"
+     * @param sharding {@link #SHARD_BY_STATION} or {@link #SHARD_BY_TIME}
+     * @param columnDataTypes the columns and their data types
+     * @return the coordinator
+     * @throws IOException if a worker could not be started
+     */
+    public static ShardCoordinator launchLocal(int shards, File directory, int sharding, HashMap<String, Integer> columnDataTypes) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> processes = new ArrayList<>();
+        List<Integer> ports = new ArrayList<>();
+        try {
+            for (int i = 0; i < shards; i++) {
+                Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "ShardWorker",
+                        new File(directory, "shard-" + i).getPath())
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+                processes.add(process);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                String line = reader.readLine();
+                if (line == null || !line.startsWith("READY ")) {
+                    throw new IOException("Worker " + i + " did not start: " + line);
+                }
+                ports.add(Integer.parseInt(line.substring(6).trim()));
+            }
+            ShardCoordinator coordinator = new ShardCoordinator(ports, columnDataTypes, sharding);
+            coordinator.processes.addAll(processes);
+            return coordinator;
+        } catch (IOException e) {
+            processes.forEach(Process::destroy);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return connections.size();
+    }
+
+    /**
+     * Parses the CSV file and routes each row to its shard, sending the rows in batches.
+     * @param filepath the CSV file, with a header line
+     * @throws IOException if the file could not be read or a worker failed
+     */
+    public void ingestCSV(String filepath) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(filepath))) {
+            String headerLine = reader.readLine();
+            if (headerLine == null) {
+                System.out.println("could not csv decode file: no column headers");
+                return;
+            }
+            List<String> header = List.of(headerLine.split(","));
+            int timestampColumn = header.indexOf("Timestamp");
+            int stationColumn = header.indexOf("Station");
+            List<List<String[]>> pending = new ArrayList<>();
+            for (int i = 0; i < connections.size(); i++) {
+                pending.add(new ArrayList<>());
+            }
+
+            List<String[]> rows = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                rows.add(line.split(","));
+            }
+            if (sharding == SHARD_BY_TIME && firstYears == null) {
+                firstYears = yearRanges(rows, timestampColumn);
+            }
+
+            for (String[] row: rows) {
+                int shard = sharding == SHARD_BY_STATION ? shardOfStation(valueAt(row, stationColumn)) : shardOfTime(valueAt(row, timestampColumn));
+                pending.get(shard).add(row);
+                if (pending.get(shard).size() >= INGEST_BATCH_ROWS) {
+                    sendRows(shard, header, pending.get(shard));
+                    pending.get(shard).clear();
+                }
+            }
+            for (int shard = 0; shard < connections.size(); shard++) {
+                if (!pending.get(shard).isEmpty()) { sendRows(shard, header, pending.get(shard)); }
+            }
+        }
+    }
+
+    /**
+     * Gets the extreme values of Humidity and Temperature for each month in the year and station specified,
+     * in the same form as Main's query: per month, the days of the maximum and minimum of each column.
+     * @param year the year given
+     * @param station the station given
+     * @return the rows of "ScanResult.csv"
+     * @throws IOException if a worker failed
+     */
+    public List<Output> getExtremeValues(int year, String station) throws IOException {
+        ShardProtocol.Filter filter = new ShardProtocol.Filter(LocalDateTime.of(year, 1, 1, 0, 0), LocalDateTime.of(year + 1, 1, 1, 0, 0), station);
+        Map<Integer, ShardProtocol.MonthExtremes> humidity = monthlyExtremes(filter, "Humidity");
+        Map<Integer, ShardProtocol.MonthExtremes> temperature = monthlyExtremes(filter, "Temperature");
+
+        List<Output> results = new ArrayList<>();
+        for (int month = 1; month <= 12; month++) {
+            int key = year * 12 + month - 1;
+            ShardProtocol.MonthExtremes h = humidity.get(key);
+            ShardProtocol.MonthExtremes t = temperature.get(key);
+            if (h != null) {
+                addDays(results, h.maxTimes, station, Output.MAX_HUMIDITY, h.max);
+                addDays(results, h.minTimes, station, Output.MIN_HUMIDITY, h.min);
+            }
+            if (t != null) {
+                addDays(results, t.maxTimes, station, Output.MAX_TEMP, t.max);
+                addDays(results, t.minTimes, station, Output.MIN_TEMP, t.min);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Computes the per-month minimum and maximum of a column on every shard, and merges them.
+     * @param filter the rows to aggregate
+     * @param column a numeric column
+     * @return the merged aggregates, keyed by year * 12 + month - 1
+     * @throws IOException if a worker failed
+     */
+    public Map<Integer, ShardProtocol.MonthExtremes> monthlyExtremes(ShardProtocol.Filter filter, String column) throws IOException {
+        List<Map<Integer, ShardProtocol.MonthExtremes>> partials = scatter(shard -> true, (output, input) -> {
+            output.writeByte(ShardProtocol.MONTHLY_EXTREMES);
+            filter.write(output);
+            output.writeUTF(column);
+            output.flush();
+            ShardProtocol.readStatus(input);
+            return ShardProtocol.readExtremes(input);
+        });
+        TreeMap<Integer, ShardProtocol.MonthExtremes> merged = new TreeMap<>();
+        for (Map<Integer, ShardProtocol.MonthExtremes> partial: partials) {
+            partial.forEach((month, extremes) -> merged.computeIfAbsent(month, m -> new ShardProtocol.MonthExtremes()).merge(extremes));
+        }
+        return merged;
+    }
+
+    /**
+     * @param filter the rows to count
+     * @return the number of matching rows over all shards
+     * @throws IOException if a worker failed
+     */
+    public long count(ShardProtocol.Filter filter) throws IOException {
+        long count = 0;
+        for (long partial: scatter(shard -> true, (output, input) -> {
+            output.writeByte(ShardProtocol.COUNT);
+            filter.write(output);
+            output.flush();
+            ShardProtocol.readStatus(input);
+            return input.readLong();
+        })) {
+            count += partial;
+        }
+        return count;
+    }
+
+    /**
+     * Shuts down the workers launched by this coordinator, and closes all connections.
+     */
+    @Override
+    public void close() {
+        if (!processes.isEmpty()) {
+            try {
+                scatter(shard -> true, (output, input) -> {
+                    output.writeByte(ShardProtocol.SHUTDOWN);
+                    output.flush();
+                    ShardProtocol.readStatus(input);
+                    return null;
+                });
+            } catch (IOException ignored) {} //the processes are destroyed below anyway
+        }
+        for (Connection connection: connections) {
+            try {
+                connection.socket.close();
+            } catch (IOException ignored) {}
+        }
+        for (Process process: processes) {
+            try {
+                if (!process.waitFor(5, TimeUnit.SECONDS)) { process.destroy(); }
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Sends the request to the selected shards in parallel, and waits for all results.
+     * @return the results, in order of shard
+     */
+    private <T> List<T> scatter(java.util.function.IntPredicate shards, Request<T> request) throws IOException {
+        List<Future<T>> futures = new ArrayList<>();
+        for (int shard = 0; shard < connections.size(); shard++) {
+            if (!shards.test(shard)) { continue; }
+            Connection connection = connections.get(shard);
+            futures.add(executor.submit(() -> {
+                synchronized (connection) {
+                    return request.send(connection.output, connection.input);
+                }
+            }));
+        }
+        List<T> results = new ArrayList<>();
+        for (Future<T> future: futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a worker.", e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private void sendRows(int shard, List<String> header, List<String[]> rows) throws IOException {
+        scatter(s -> s == shard, (output, input) -> {
+            output.writeByte(ShardProtocol.INGEST);
+            output.writeInt(header.size());
+            output.writeInt(rows.size());
+            for (int c = 0; c < header.size(); c++) {
+                output.writeUTF(header.get(c));
+                for (String[] row: rows) {
+                    ShardProtocol.writeString(output, c < row.length ? row[c] : "M"); //missing columns are null, as in addCSVData
+                }
+            }
+            output.flush();
+            ShardProtocol.readStatus(input);
+            return null;
+        });
+    }
+
+    private int shardOfStation(String station) {
+        return station == null ? 0 : Math.floorMod(station.hashCode(), connections.size());
+    }
+
+    private int shardOfTime(String timestamp) {
+        int year;
+        try {
+            year = LocalDateTime.parse(timestamp, FORMATTER).getYear();
+        } catch (RuntimeException e) { //null or 'M'
+            return 0;
+        }
+        int shard = 0;
+        while (shard + 1 < firstYears.length && year >= firstYears[shard + 1]) {
+            shard++;
+        }
+        return shard;
+    }
+
+    /**
+     * Splits the years of the rows into one contiguous range per shard, of about equal numbers of years.
+     * @return the first year of each range
+     */
+    private int[] yearRanges(List<String[]> rows, int timestampColumn) {
+        int minYear = Integer.MAX_VALUE;
+        int maxYear = Integer.MIN_VALUE;
+        for (String[] row: rows) {
+            try {
+                int year = LocalDateTime.parse(valueAt(row, timestampColumn), FORMATTER).getYear();
+                minYear = Math.min(minYear, year);
+                maxYear = Math.max(maxYear, year);
+            } catch (RuntimeException ignored) {}
+        }
+        int[] firstYears = new int[connections.size()];
+        int years = minYear > maxYear ? 1 : maxYear - minYear + 1;
+        for (int shard = 0; shard < firstYears.length; shard++) {
+            firstYears[shard] = (minYear > maxYear ? 0 : minYear) + (int) ((long) years * shard / firstYears.length);
+        }
+        return firstYears;
+    }
+
+    private static String valueAt(String[] row, int column) {
+        return column >= 0 && column < row.length ? row[column] : null;
+    }
+
+    /**
+     * Adds one row per distinct day, in order of time, as Main's query does.
+     */
+    private static void addDays(List<Output> results, List<Long> times, String station, int type, float value) {
+        Set<Integer> addedDays = new HashSet<>();
+        for (long time: times) {
+            LocalDateTime timestamp = LocalDateTime.ofEpochSecond(time, 0, ZoneOffset.UTC);
+            if (addedDays.add(timestamp.getDayOfMonth())) {
+                results.add(new Output(timestamp, station, type, value));
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * The binary protocol between a {@link ShardCoordinator} and its {@link ShardWorker}s, over a localhost socket.
+ *
+ * <p>Each request is an opcode byte followed by its arguments, and each response is a status byte followed by the result
+ * ({@link #STATUS_OK}) or an error message ({@link #STATUS_ERROR}). Strings are written with {@link DataOutputStream#writeUTF(String)},
+ * times as epoch seconds at UTC (as in {@link ColumnBatch}) and null strings as {@link #NULL_STRING}.</p>
+ * <ul>
+ *     <li>{@link #OPEN}: int magic, int version, int columns, then per column a name and a byte data type. Creates the store of the shard.</li>
+ *     <li>{@link #INGEST}: int columns, int rows, then per column its name and values. Appends the rows to the store.</li>
+ *     <li>{@link #MONTHLY_EXTREMES}: a {@link Filter} and a column name.
+ *     Returns the per-month minimum and maximum of the column with the times they occur, see {@link #writeExtremes(DataOutputStream, Map)}.</li>
+ *     <li>{@link #COUNT}: a {@link Filter}. Returns the number of matching rows as a long.</li>
+ *     <li>{@link #SHUTDOWN}: no arguments. The worker responds, then exits.</li>
+ * </ul>
+ */
+public class ShardProtocol {
+    public static final int MAGIC = 0x435A5348; // "CZSH"
+    public static final int VERSION = 1;
+
+    public static final byte OPEN = 1;
+    public static final byte INGEST = 2;
+    public static final byte MONTHLY_EXTREMES = 3;
+    public static final byte COUNT = 4;
+    public static final byte SHUTDOWN = 5;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+
+    private static final String NULL_STRING = "\u0000";
+
+    /**
+     * A filter pushed down to the workers: a time range, and optionally a station.
+     * @param from the start of the time range, inclusive
+     * @param to the end of the time range, exclusive
+     * @param station the station to match, or null for all stations
+     */
+    public record Filter(LocalDateTime from, LocalDateTime to, String station) {
+        void write(DataOutputStream output) throws IOException {
+            output.writeLong(ColumnBatch.toEpochSecond(from));
+            output.writeLong(ColumnBatch.toEpochSecond(to));
+            writeString(output, station);
+        }
+
+        static Filter read(DataInputStream input) throws IOException {
+            LocalDateTime from = LocalDateTime.ofEpochSecond(input.readLong(), 0, ZoneOffset.UTC);
+            LocalDateTime to = LocalDateTime.ofEpochSecond(input.readLong(), 0, ZoneOffset.UTC);
+            return new Filter(from, to, readString(input));
+        }
+    }
+
+    /**
+     * The partial aggregate of a month in a shard: the minimum and maximum value, and the times at which they occur.
+     */
+    public static class MonthExtremes {
+        public float max = Float.NEGATIVE_INFINITY;
+        public final List<Long> maxTimes = new ArrayList<>();
+        public float min = Float.POSITIVE_INFINITY;
+        public final List<Long> minTimes = new ArrayList<>();
+
+        /**
+         * Adds a value, keeping the times of ties in order of addition.
+         */
+        public void add(float value, long time) {
+            if (value > max) {
+                max = value;
+                maxTimes.clear();
+            }
+            if (value == max) { maxTimes.add(time); }
+            if (value < min) {
+                min = value;
+                minTimes.clear();
+            }
+            if (value == min) { minTimes.add(time); }
+        }
+
+        /**
+         * Merges the partial aggregate of another shard into this one, keeping the times of ties in ascending order.
+         */
+        public void merge(MonthExtremes other) {
+            if (other.max > max) {
+                max = other.max;
+                maxTimes.clear();
+            }
+            if (other.max == max) {
+                maxTimes.addAll(other.maxTimes);
+                Collections.sort(maxTimes);
+            }
+            if (other.min < min) {
+                min = other.min;
+                minTimes.clear();
+            }
+            if (other.min == min) {
+                minTimes.addAll(other.minTimes);
+                Collections.sort(minTimes);
+            }
+        }
+    }
+
+    /**
+     * @param extremes the partial aggregates, keyed by year * 12 + month - 1
+     */
+    public static void writeExtremes(DataOutputStream output, Map<Integer, MonthExtremes> extremes) throws IOException {
+        output.writeInt(extremes.size());
+        for (Map.Entry<Integer, MonthExtremes> entry: extremes.entrySet()) {
+            MonthExtremes month = entry.getValue();
+            output.writeInt(entry.getKey());
+            output.writeFloat(month.max);
+            writeTimes(output, month.maxTimes);
+            output.writeFloat(month.min);
+            writeTimes(output, month.minTimes);
+        }
+    }
+
+    public static Map<Integer, MonthExtremes> readExtremes(DataInputStream input) throws IOException {
+        TreeMap<Integer, MonthExtremes> extremes = new TreeMap<>();
+        int months = input.readInt();
+        for (int i = 0; i < months; i++) {
+            MonthExtremes month = new MonthExtremes();
+            extremes.put(input.readInt(), month);
+            month.max = input.readFloat();
+            readTimes(input, month.maxTimes);
+            month.min = input.readFloat();
+            readTimes(input, month.minTimes);
+        }
+        return extremes;
+    }
+
+    public static void writeString(DataOutputStream output, String value) throws IOException {
+        output.writeUTF(value == null ? NULL_STRING : value);
+    }
+
+    public static String readString(DataInputStream input) throws IOException {
+        String value = input.readUTF();
+        return value.equals(NULL_STRING) ? null : value;
+    }
+
+    /**
+     * Reads the status of a response, throwing the error of the worker if the request failed.
+     */
+    public static void readStatus(DataInputStream input) throws IOException {
+        if (input.readByte() != STATUS_OK) {
+            throw new IOException("Worker failed: " + input.readUTF());
+        }
+    }
+
+    private static void writeTimes(DataOutputStream output, List<Long> times) throws IOException {
+        output.writeInt(times.size());
+        for (long time: times) {
+            output.writeLong(time);
+        }
+    }
+
+    private static void readTimes(DataInputStream input, List<Long> times) throws IOException {
+        int size = input.readInt();
+        for (int i = 0; i < size; i++) {
+            times.add(input.readLong());
+        }
+    }
+}
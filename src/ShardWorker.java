@@ -0,0 +1,176 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * A worker process holding one shard of the data in a {@link ColumnStoreDisk}, serving requests of a {@link ShardCoordinator}
+ * over the {@link ShardProtocol}.
+ *
+ * <p>Usage: {@code java ShardWorker <directory>}. The worker listens on a free localhost port and prints
+ * {@code READY <port>} on the standard output once it accepts connections. It exits on {@link ShardProtocol#SHUTDOWN},
+ * or when its standard input is closed, i.e. when the process that launched it exits.</p>
+ */
+public class ShardWorker {
+    private final String directory;
+    private ColumnStoreDisk store;
+
+    /**
+     * @param directory the directory of the shard's column store
+     */
+    public ShardWorker(String directory) {
+        this.directory = directory;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Usage: java ShardWorker <directory>");
+            return;
+        }
+        ShardWorker worker = new ShardWorker(args[0]);
+        Thread watchdog = new Thread(() -> {
+            try {
+                while (System.in.read() != -1) {} //the launcher holds the other end of stdin
+            } catch (IOException ignored) {}
+            System.exit(0);
+        }, "shard-worker-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            System.out.println("READY " + server.getLocalPort());
+            System.out.flush();
+            while (true) {
+                Socket socket = server.accept();
+                Thread handler = new Thread(() -> worker.serve(socket), "shard-worker-connection");
+                handler.setDaemon(true);
+                handler.start();
+            }
+        }
+    }
+
+    /**
+     * Serves the requests of a connection until it is closed.
+     */
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            while (true) {
+                int opcode = input.read();
+                if (opcode == -1) { return; }
+                try {
+                    handle((byte) opcode, input, output);
+                } catch (RuntimeException e) {
+                    output.writeByte(ShardProtocol.STATUS_ERROR);
+                    output.writeUTF(String.valueOf(e));
+                }
+                output.flush();
+                if (opcode == ShardProtocol.SHUTDOWN) {
+                    System.exit(0);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Handles a request. Reads all its arguments before failing, so that the connection stays usable.
+     */
+    private synchronized void handle(byte opcode, DataInputStream input, DataOutputStream output) throws IOException {
+        switch (opcode) {
+            case ShardProtocol.OPEN -> {
+                int magic = input.readInt();
+                int version = input.readInt();
+                HashMap<String, Integer> dataTypes = new HashMap<>();
+                int columns = input.readInt();
+                for (int i = 0; i < columns; i++) {
+                    dataTypes.put(input.readUTF(), (int) input.readByte());
+                }
+                if (magic != ShardProtocol.MAGIC || version != ShardProtocol.VERSION) {
+                    throw new IllegalStateException("Unsupported protocol version " + version);
+                }
+                store = new ColumnStoreDisk(dataTypes) {
+                    @Override
+                    public String getName() {
+                        return directory;
+                    }
+                };
+                store.setPartitioning("Timestamp", ColumnStoreDisk.PARTITION_BY_YEAR);
+                output.writeByte(ShardProtocol.STATUS_OK);
+            }
+            case ShardProtocol.INGEST -> {
+                HashMap<String, List<String>> buffer = new HashMap<>();
+                int columns = input.readInt();
+                int rows = input.readInt();
+                for (int c = 0; c < columns; c++) {
+                    String column = input.readUTF();
+                    List<String> values = new ArrayList<>(rows);
+                    for (int i = 0; i < rows; i++) {
+                        values.add(ShardProtocol.readString(input));
+                    }
+                    buffer.put(column, values);
+                }
+                checkOpen();
+                store.deriveCalendarColumns(buffer);
+                store.storeAll(buffer);
+                store.markModified();
+                output.writeByte(ShardProtocol.STATUS_OK);
+            }
+            case ShardProtocol.MONTHLY_EXTREMES -> {
+                ShardProtocol.Filter filter = ShardProtocol.Filter.read(input);
+                String column = input.readUTF();
+                checkOpen();
+                Map<Integer, ShardProtocol.MonthExtremes> extremes = monthlyExtremes(filter, column);
+                output.writeByte(ShardProtocol.STATUS_OK);
+                ShardProtocol.writeExtremes(output, extremes);
+            }
+            case ShardProtocol.COUNT -> {
+                ShardProtocol.Filter filter = ShardProtocol.Filter.read(input);
+                checkOpen();
+                long count = select(filter).size();
+                output.writeByte(ShardProtocol.STATUS_OK);
+                output.writeLong(count);
+            }
+            case ShardProtocol.SHUTDOWN -> output.writeByte(ShardProtocol.STATUS_OK);
+            default -> throw new IllegalArgumentException("Unknown opcode " + opcode);
+        }
+    }
+
+    /**
+     * @return the rows matching the filter, pruning the partitions outside its time range
+     */
+    private List<Integer> select(ShardProtocol.Filter filter) {
+        List<Integer> rows = store.filterTimeRange("Timestamp", filter.from(), filter.to());
+        if (filter.station() != null) {
+            rows = store.filter("Station", value -> value.equals(filter.station()), rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Computes the partial aggregate of each month in one pass over the matching rows.
+     */
+    private Map<Integer, ShardProtocol.MonthExtremes> monthlyExtremes(ShardProtocol.Filter filter, String column) {
+        ColumnBatch batch = store.gather(List.of("Timestamp", column), select(filter));
+        TreeMap<Integer, ShardProtocol.MonthExtremes> extremes = new TreeMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            LocalDateTime time = batch.getTimestamp("Timestamp", i);
+            Object value = batch.getValue(column, i);
+            if (time == null || value == null) { continue; }
+            int month = time.getYear() * 12 + time.getMonthValue() - 1;
+            extremes.computeIfAbsent(month, m -> new ShardProtocol.MonthExtremes())
+                    .add(((Number) value).floatValue(), batch.getTimes("Timestamp")[i]);
+        }
+        return extremes;
+    }
+
+    private void checkOpen() {
+        if (store == null) {
+            throw new IllegalStateException("The shard is not open.");
+        }
+    }
+}
@@ -0,0 +1,566 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A list of row indexes for intermediate selections, held as primitive ints and spilled to a temporary file
+ * when the {@link QueryMemory} of the query it was created by denies it more memory.
+ *
+ * <p>Ints are appended to an in-memory array, whose growth is reserved from the query. Once a reservation is denied, the array
+ * is written to the file and replaced with a fixed buffer of {@link #PAGE_INTS} ints, which is appended to the file whenever it is full.
+ * Iterators read spilled ints through a page of their own, so scanning the list in order reads the file sequentially,
+ * also when many threads scan it at once. Random reads of spilled ints go through a page shared by the list.</p>
+ *
+ * <p>Inserting and removing ints in the middle of the list moves the ints after them, in the file if they were spilled.</p>
+ *
+ * <p>Appending is not thread safe. Once filled, the list can be read by many threads.
+ * The memory reserved and the file are released by {@link #close()}, or else when the list is garbage collected.
+ * An operator that returns the list as its result calls {@link #complete()}, so that a result of an operator run outside of a query
+ * is not accounted for once the operator returns.</p>
+ */
+public class SpillableIntList extends AbstractList<Integer> implements RandomAccess, AutoCloseable {
+    public static final int PAGE_INTS = 16384;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /**
+     * The resources of a list, released by the {@link #CLEANER} once the list is unreachable.
+     */
+    private static class Resources implements Runnable {
+        private final QueryMemory memory;
+        private long reserved = 0;
+        private File file;
+        private FileChannel channel;
+
+        Resources(QueryMemory memory) {
+            this.memory = memory;
+        }
+
+        /**
+         * Releases the memory reserved and deletes the file. Can be run more than once.
+         */
+        @Override
+        public synchronized void run() {
+            memory.release(reserved);
+            reserved = 0;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                file.delete();
+                channel = null;
+                file = null;
+            }
+        }
+    }
+
+    private final Resources resources;
+
+    /**
+     * The ints after the spilled ones.
+     */
+    private int[] values = new int[0];
+    private int buffered = 0;
+    private int spilled = 0;
+    private boolean sorted = true;
+    private int last = Integer.MIN_VALUE;
+
+    /**
+     * Used to write and read the file, and the cached page of spilled ints read last.
+     */
+    private ByteBuffer io;
+    private int[] page;
+    private int pageStart = -PAGE_INTS; //no page cached
+
+    public SpillableIntList() {
+        this.resources = new Resources(QueryMemory.current());
+        CLEANER.register(this, resources);
+    }
+
+    /**
+     * @param value the int to append
+     */
+    public void add(int value) {
+        if (buffered == values.length) { grow(); }
+        if (value < last) { sorted = false; }
+        last = value;
+        values[buffered++] = value;
+        modCount++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean add(Integer value) {
+        add(value.intValue());
+        return true;
+    }
+
+    /**
+     * @param index the position in the list
+     * @return the int at the position, without boxing
+     */
+    public int getInt(int index) {
+        Objects.checkIndex(index, size());
+        if (index >= spilled) { return values[index - spilled]; }
+        synchronized (this) {
+            if (index < pageStart || index >= pageStart + PAGE_INTS) {
+                readPage(index - index % PAGE_INTS);
+            }
+            return page[index - pageStart];
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer get(int index) {
+        return getInt(index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Integer set(int index, Integer value) {
+        int previous = getInt(index);
+        if (index >= spilled) {
+            values[index - spilled] = value;
+        } else {
+            try {
+                ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES).putInt(0, value);
+                resources.channel.write(bytes, (long) index * Integer.BYTES);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write the spilled selection.", e);
+            }
+            if (index >= pageStart && index < pageStart + PAGE_INTS) { page[index - pageStart] = value; }
+        }
+        sorted = false;
+        return previous;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void add(int index, Integer value) {
+        if (index == size()) {
+            add(value.intValue());
+            return;
+        }
+        Objects.checkIndex(index, size());
+        if (buffered == values.length) { grow(); } //may spill the buffered ints
+        if (index >= spilled) {
+            int position = index - spilled;
+            System.arraycopy(values, position, values, position + 1, buffered - position);
+            values[position] = value;
+            buffered++;
+        } else {
+            try {
+                move(index, spilled, 1);
+                write(resources.channel, index, new int[] {value}, 1, io);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write the spilled selection.", e);
+            }
+            spilled++;
+            pageStart = -PAGE_INTS;
+        }
+        sorted = false;
+        modCount++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Integer remove(int index) {
+        int previous = getInt(index);
+        if (index >= spilled) {
+            int position = index - spilled;
+            System.arraycopy(values, position + 1, values, position, buffered - position - 1);
+            buffered--;
+        } else {
+            try {
+                move(index + 1, spilled, -1);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write the spilled selection.", e);
+            }
+            spilled--;
+            pageStart = -PAGE_INTS;
+        }
+        modCount++;
+        return previous; //a sorted list stays sorted
+    }
+
+    /**
+     * Empties the list, releasing the memory reserved and deleting the file.
+     */
+    @Override
+    public void clear() {
+        close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Integer> iterator() {
+        return new Cursor();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return spilled + buffered;
+    }
+
+    /**
+     * Sorts the list in ascending order without loading it into memory if it was spilled, merging sorted runs of the file.
+     * Selections appended in order are not sorted again.
+     * @param comparator null for the natural order. Other orders load the list into memory.
+     */
+    @Override
+    public void sort(Comparator<? super Integer> comparator) {
+        if (comparator != null) {
+            super.sort(comparator);
+            return;
+        }
+        if (sorted) { return; }
+        if (spilled == 0) {
+            Arrays.sort(values, 0, buffered);
+        } else {
+            try {
+                externalSort();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not sort the spilled selection.", e);
+            }
+        }
+        sorted = true;
+        last = size() > 0 ? getInt(size() - 1) : Integer.MIN_VALUE;
+        modCount++;
+    }
+
+    /**
+     * Marks the list as filled by the operator that returns it. If the list was not created within a query, the memory reserved
+     * for it is released, as a query releases the memory of its results when it is closed. Within a query, it stays reserved until then.
+     * The list can still be read and changed.
+     */
+    public void complete() {
+        if (!resources.memory.isScoped()) { resources.memory.release(takeReserved()); }
+    }
+
+    /**
+     * Releases the memory reserved and deletes the file, leaving the list empty.
+     */
+    @Override
+    public synchronized void close() {
+        resources.run();
+        values = new int[0];
+        buffered = 0;
+        spilled = 0;
+        sorted = true;
+        last = Integer.MIN_VALUE;
+        io = null;
+        page = null;
+        pageStart = -PAGE_INTS;
+        modCount++;
+    }
+
+    /**
+     * @return the memory reserved so far, which is no longer accounted for by the list
+     */
+    private long takeReserved() {
+        synchronized (resources) {
+            long reserved = resources.reserved;
+            resources.reserved = 0;
+            return reserved;
+        }
+    }
+
+    /**
+     * @return true if part of the list was written to disk
+     */
+    public boolean isSpilled() {
+        return resources.channel != null;
+    }
+
+    /**
+     * Grows the in-memory array if the query can reserve the memory, otherwise spills the ints appended so far.
+     */
+    private void grow() {
+        if (resources.channel == null) {
+            int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(INITIAL_CAPACITY, 2L * values.length));
+            long bytes = (long) (capacity - values.length) * Integer.BYTES;
+            if (resources.memory.tryReserve(bytes)) {
+                resources.reserved += bytes;
+                values = Arrays.copyOf(values, capacity);
+                return;
+            }
+            try {
+                File file = Files.createTempFile("selection", ".spill").toFile();
+                resources.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                resources.file = file;
+            } catch (IOException e) {
+                e.printStackTrace(); //keep the ints in memory regardless of the budget
+                resources.memory.reserve(bytes);
+                resources.reserved += bytes;
+                values = Arrays.copyOf(values, capacity);
+                return;
+            }
+            io = ByteBuffer.allocate(PAGE_INTS * Integer.BYTES);
+            resources.memory.reserve(io.capacity());
+            resources.reserved += io.capacity();
+        }
+        flush();
+        if (values.length != PAGE_INTS) { //from now on, only a page of ints is appended in memory
+            long bytes = (long) (PAGE_INTS - values.length) * Integer.BYTES;
+            if (bytes > 0) { resources.memory.reserve(bytes); }
+            else { resources.memory.release(-bytes); }
+            resources.reserved += bytes;
+            values = new int[PAGE_INTS];
+        }
+    }
+
+    /**
+     * Appends the buffered ints to the file.
+     */
+    private void flush() {
+        try {
+            for (int from = 0; from < buffered; from += PAGE_INTS) {
+                int length = Math.min(PAGE_INTS, buffered - from);
+                io.clear();
+                io.asIntBuffer().put(values, from, length);
+                io.limit(length * Integer.BYTES);
+                long position = (long) (spilled + from) * Integer.BYTES;
+                while (io.hasRemaining()) {
+                    position += resources.channel.write(io, position);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not spill the selection.", e);
+        }
+        spilled += buffered;
+        buffered = 0;
+    }
+
+    /**
+     * Moves the spilled ints in [from, to) by the distance, overwriting the ints they are moved onto.
+     */
+    private void move(int from, int to, int distance) throws IOException {
+        int[] chunk = new int[PAGE_INTS / 4];
+        if (distance > 0) { //moved from the end, so that no int is overwritten before it is moved
+            for (int end = to; end > from; ) {
+                int length = Math.min(chunk.length, end - from);
+                read(resources.channel, end - length, chunk, 0, length, io);
+                write(resources.channel, end - length + distance, chunk, length, io);
+                end -= length;
+            }
+        } else {
+            for (int start = from; start < to; ) {
+                int length = Math.min(chunk.length, to - start);
+                read(resources.channel, start, chunk, 0, length, io);
+                write(resources.channel, start + distance, chunk, length, io);
+                start += length;
+            }
+        }
+    }
+
+    /**
+     * Caches the page of spilled ints starting at the given position. Must hold the lock of the list.
+     */
+    private void readPage(int start) {
+        if (page == null) {
+            page = new int[PAGE_INTS];
+            resources.memory.reserve((long) PAGE_INTS * Integer.BYTES);
+            resources.reserved += (long) PAGE_INTS * Integer.BYTES;
+        }
+        int length = Math.min(PAGE_INTS, spilled - start);
+        try {
+            read(resources.channel, start, page, 0, length, io);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the spilled selection.", e);
+        }
+        pageStart = start;
+    }
+
+    /**
+     * Iterates the list in order, reading spilled ints a page at a time into a page of the iterator, which is reserved until the last int is read.
+     */
+    private class Cursor implements Iterator<Integer> {
+        private int next = 0;
+        private int last = -1;
+        private int expectedModCount = modCount;
+        private int[] cursorPage;
+        private ByteBuffer cursorIo;
+        private int cursorPageStart = -PAGE_INTS;
+
+        @Override
+        public boolean hasNext() {
+            if (next < size()) { return true; }
+            releasePage();
+            return false;
+        }
+
+        @Override
+        public Integer next() {
+            if (modCount != expectedModCount) { throw new ConcurrentModificationException(); }
+            if (next >= size()) { throw new NoSuchElementException(); }
+            int index = next++;
+            last = index;
+            if (index >= spilled) { return values[index - spilled]; }
+            if (index < cursorPageStart || index >= cursorPageStart + PAGE_INTS) {
+                if (cursorPage == null) {
+                    resources.memory.reserve(2L * PAGE_INTS * Integer.BYTES);
+                    cursorPage = new int[PAGE_INTS];
+                    cursorIo = ByteBuffer.allocate(PAGE_INTS * Integer.BYTES);
+                }
+                cursorPageStart = index - index % PAGE_INTS;
+                try { //positional reads, so the cursors of many threads read the file at once
+                    read(resources.channel, cursorPageStart, cursorPage, 0, Math.min(PAGE_INTS, spilled - cursorPageStart), cursorIo);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not read the spilled selection.", e);
+                }
+            }
+            return cursorPage[index - cursorPageStart];
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) { throw new IllegalStateException(); }
+            if (modCount != expectedModCount) { throw new ConcurrentModificationException(); }
+            SpillableIntList.this.remove(last);
+            next = last;
+            last = -1;
+            cursorPageStart = -PAGE_INTS;
+            expectedModCount = modCount;
+        }
+
+        private void releasePage() {
+            if (cursorPage == null) { return; }
+            resources.memory.release(2L * PAGE_INTS * Integer.BYTES);
+            cursorPage = null;
+            cursorIo = null;
+        }
+    }
+
+    /**
+     * Sorts runs of the file in memory, then merges pairs of runs into a second file until a single run is left.
+     */
+    private void externalSort() throws IOException {
+        flush();
+        pageStart = -PAGE_INTS;
+        int[] run = values;
+        for (int from = 0; from < spilled; from += run.length) {
+            int length = Math.min(run.length, spilled - from);
+            read(resources.channel, from, run, 0, length, io);
+            Arrays.sort(run, 0, length);
+            write(resources.channel, from, run, length, io);
+        }
+
+        File file = Files.createTempFile("selection", ".spill").toFile();
+        FileChannel other = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int[] left = new int[PAGE_INTS / 4];
+        int[] right = new int[PAGE_INTS / 4];
+        try {
+            for (long width = run.length; width < spilled; width *= 2) {
+                for (long from = 0; from < spilled; from += 2 * width) {
+                    int middle = (int) Math.min(spilled, from + width);
+                    int end = (int) Math.min(spilled, from + 2 * width);
+                    merge(resources.channel, (int) from, middle, end, other, left, right, run);
+                }
+                FileChannel channel = resources.channel; //the merged runs become the list
+                resources.channel = other;
+                other = channel;
+                File swapped = resources.file;
+                resources.file = file;
+                file = swapped;
+            }
+        } finally {
+            other.close();
+            file.delete();
+        }
+        Arrays.fill(values, 0);
+    }
+
+    /**
+     * Merges the sorted runs [from, middle) and [middle, end) of the source into the same positions of the target.
+     */
+    private void merge(FileChannel source, int from, int middle, int end, FileChannel target, int[] left, int[] right, int[] output) throws IOException {
+        int leftNext = from, leftPosition = 0, leftLength = 0;
+        int rightNext = middle, rightPosition = 0, rightLength = 0;
+        int outputLength = 0;
+        int written = from;
+        ByteBuffer bytes = ByteBuffer.allocate(left.length * Integer.BYTES);
+        while (true) {
+            if (leftPosition == leftLength && leftNext < middle) {
+                leftLength = Math.min(left.length, middle - leftNext);
+                read(source, leftNext, left, 0, leftLength, bytes);
+                leftNext += leftLength;
+                leftPosition = 0;
+            }
+            if (rightPosition == rightLength && rightNext < end) {
+                rightLength = Math.min(right.length, end - rightNext);
+                read(source, rightNext, right, 0, rightLength, bytes);
+                rightNext += rightLength;
+                rightPosition = 0;
+            }
+            boolean hasLeft = leftPosition < leftLength;
+            boolean hasRight = rightPosition < rightLength;
+            if (!hasLeft && !hasRight) { break; }
+            if (hasLeft && (!hasRight || left[leftPosition] <= right[rightPosition])) {
+                output[outputLength++] = left[leftPosition++];
+            } else {
+                output[outputLength++] = right[rightPosition++];
+            }
+            if (outputLength == output.length) {
+                write(target, written, output, outputLength, io);
+                written += outputLength;
+                outputLength = 0;
+            }
+        }
+        write(target, written, output, outputLength, io);
+    }
+
+    private static void read(FileChannel channel, int from, int[] ints, int offset, int length, ByteBuffer bytes) throws IOException {
+        while (length > 0) {
+            int chunk = Math.min(length, bytes.capacity() / Integer.BYTES);
+            bytes.clear().limit(chunk * Integer.BYTES);
+            long position = (long) from * Integer.BYTES;
+            while (bytes.hasRemaining()) {
+                int read = channel.read(bytes, position + bytes.position());
+                if (read < 0) { throw new IOException("The spilled selection is truncated."); }
+            }
+            bytes.flip();
+            bytes.asIntBuffer().get(ints, offset, chunk);
+            from += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private static void write(FileChannel channel, int from, int[] ints, int length, ByteBuffer bytes) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int chunk = Math.min(length - offset, bytes.capacity() / Integer.BYTES);
+            bytes.clear();
+            bytes.asIntBuffer().put(ints, offset, chunk);
+            bytes.limit(chunk * Integer.BYTES);
+            long position = (long) (from + offset) * Integer.BYTES;
+            while (bytes.hasRemaining()) {
+                channel.write(bytes, position + bytes.position());
+            }
+            offset += chunk;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Operation-level metrics of a column store: a {@link LatencyHistogram latency histogram}, rows scanned and rows matched per operation,
+ * together with the bytes read, seeks and files opened by the column store.
+ *
+ * <p>Recording only takes a {@link System#nanoTime()} call and a few uncontended counter increments per operation,
+ * hence metrics are enabled by default. The metrics can be read through JMX after {@link #register(String)},
+ * or printed periodically with {@link #startPeriodicDump(PrintStream, long)}.
+ * Rows and bytes read are also reported to the {@link QueryProfile} of the current thread, whether metrics are enabled or not.</p>
+ *
+ * <p>Usage in an operation:</p>
+ * <pre>
+ *     long start = metrics.start();
+ *     ...
+ *     metrics.record(StoreMetrics.FILTER, start, rowsScanned, rowsMatched);
+ * </pre>
+ */
+public class StoreMetrics implements StoreMetricsMBean {
+    public static final String STORE_ALL = "storeAll";
+    public static final String FILTER = "filter";
+    public static final String FILTER_INDEXES = "filterIndexes";
+    public static final String GET_MAX = "getMax";
+    public static final String GET_MIN = "getMin";
+    public static final String GET_VALUE = "getValue";
+    public static final String GATHER = "gather";
+    public static final String EXTREME_VALUES = "getExtremeValues";
+    public static final String JOIN = "join";
+    public static final String AGGREGATE = "aggregate";
+    public static final String ORDER_BY = "orderBy";
+    public static final String TOP_K = "topK";
+    public static final String DELETE = "delete";
+    public static final String UPDATE = "update";
+    public static final String COMPACT = "compact";
+    public static final String LOAD_SNAPSHOT = "loadSnapshot";
+    public static final String PROBE = "probe";
+    public static final String CLUSTERED_READ = "clusteredRead";
+    public static final String SEQUENTIAL_SCAN = "sequentialScan";
+
+    /**
+     * The metrics of a single operation.
+     */
+    private static class OperationMetrics {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder rowsScanned = new LongAdder();
+        final LongAdder rowsMatched = new LongAdder();
+    }
+
+    private final ConcurrentHashMap<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder seeks = new LongAdder();
+    private final LongAdder filesOpened = new LongAdder();
+    private volatile boolean enabled = true;
+    private ScheduledExecutorService dumpExecutor;
+
+    /**
+     * @return the start time of an operation, to be passed to {@link #record(String, long, long, long)}. 0 if metrics are disabled.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records an operation that has completed.
+     * @param operation the operation name
+     * @param start the value returned by {@link #start()} when the operation started
+     * @param rowsScanned the number of rows the operation read
+     * @param rowsMatched the number of rows the operation returned
+     */
+    public void record(String operation, long start, long rowsScanned, long rowsMatched) {
+        QueryProfile.addRows(rowsScanned, rowsMatched);
+        recordNested(operation, start, rowsScanned, rowsMatched);
+    }
+
+    /**
+     * Records an operation that has completed as part of another operation, e.g. the access path of a read,
+     * without reporting its rows to the {@link QueryProfile}, as the enclosing operation reports them.
+     * @param operation the operation name
+     * @param start the value returned by {@link #start()} when the operation started
+     * @param rowsScanned the number of rows the operation read
+     * @param rowsMatched the number of rows the operation returned
+     */
+    public void recordNested(String operation, long start, long rowsScanned, long rowsMatched) {
+        if (!enabled || start == 0) { return; }
+        long elapsed = System.nanoTime() - start;
+        OperationMetrics metrics = operations.get(operation);
+        if (metrics == null) {
+            metrics = operations.computeIfAbsent(operation, o -> new OperationMetrics());
+        }
+        metrics.latency.record(elapsed);
+        metrics.rowsScanned.add(rowsScanned);
+        metrics.rowsMatched.add(rowsMatched);
+    }
+
+    /**
+     * @param bytes number of bytes read from disk
+     */
+    public void addBytesRead(long bytes) {
+        QueryProfile.addBytesRead(bytes);
+        if (enabled) { bytesRead.add(bytes); }
+    }
+
+    /**
+     * @param count number of seeks (i.e. reads that are not continuing from the previous read)
+     */
+    public void addSeeks(long count) {
+        if (enabled) { seeks.add(count); }
+    }
+
+    /**
+     * Records that a file was opened.
+     */
+    public void addFileOpened() {
+        if (enabled) { filesOpened.increment(); }
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, replacing any metrics registered with the same name.
+     * @param name the name of the column store
+     */
+    public void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("CZ4123:type=StoreMetrics,name=" + name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Prints {@link #dump()} to the given stream periodically, in a background thread, until {@link #stopPeriodicDump()} is called.
+     * @param out the stream to print to
+     * @param periodSeconds the number of seconds between prints
+     */
+    public synchronized void startPeriodicDump(PrintStream out, long periodSeconds) {
+        stopPeriodicDump();
+        dumpExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "store-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumpExecutor.scheduleAtFixedRate(() -> out.print(dump()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops printing started by {@link #startPeriodicDump(PrintStream, long)}, if any.
+     */
+    public synchronized void stopPeriodicDump() {
+        if (dumpExecutor != null) {
+            dumpExecutor.shutdownNow();
+            dumpExecutor = null;
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getSeeks() {
+        return seeks.sum();
+    }
+
+    @Override
+    public long getFilesOpened() {
+        return filesOpened.sum();
+    }
+
+    @Override
+    public String[] getOperations() {
+        return new TreeSet<>(operations.keySet()).toArray(new String[0]);
+    }
+
+    @Override
+    public long getCount(String operation) {
+        OperationMetrics metrics = operations.get(operation);
+        return metrics == null ? 0 : metrics.latency.getCount();
+    }
+
+    @Override
+    public double getLatencyMillis(String operation, double percentile) {
+        OperationMetrics metrics = operations.get(operation);
+        return metrics == null ? 0 : metrics.latency.getPercentile(percentile) / 1e6;
+    }
+
+    @Override
+    public long getRowsScanned(String operation) {
+        OperationMetrics metrics = operations.get(operation);
+        return metrics == null ? 0 : metrics.rowsScanned.sum();
+    }
+
+    @Override
+    public long getRowsMatched(String operation) {
+        OperationMetrics metrics = operations.get(operation);
+        return metrics == null ? 0 : metrics.rowsMatched.sum();
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-18s %8s %10s %10s %10s %10s %12s %12s\n",
+                "operation", "count", "mean(ms)", "p50(ms)", "p99(ms)", "max(ms)", "scanned", "matched"));
+        for (String operation: getOperations()) {
+            OperationMetrics metrics = operations.get(operation);
+            LatencyHistogram latency = metrics.latency;
+            sb.append(String.format("%-18s %8d %10.3f %10.3f %10.3f %10.3f %12d %12d\n", operation, latency.getCount(),
+                    latency.getMean() / 1e6, latency.getPercentile(50) / 1e6, latency.getPercentile(99) / 1e6, latency.getMax() / 1e6,
+                    metrics.rowsScanned.sum(), metrics.rowsMatched.sum()));
+        }
+        sb.append(String.format("bytes read: %d, seeks: %d, files opened: %d\n", getBytesRead(), getSeeks(), getFilesOpened()));
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        operations.clear();
+        bytesRead.reset();
+        seeks.reset();
+        filesOpened.reset();
+    }
+}
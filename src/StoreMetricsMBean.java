@@ -0,0 +1,54 @@
+/**
+ * The management interface of {@link StoreMetrics}, exposed through JMX.
+ */
+public interface StoreMetricsMBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getBytesRead();
+
+    long getSeeks();
+
+    long getFilesOpened();
+
+    /**
+     * @return the names of the operations recorded so far
+     */
+    String[] getOperations();
+
+    /**
+     * @param operation the operation name
+     * @return the number of times the operation was recorded
+     */
+    long getCount(String operation);
+
+    /**
+     * @param operation the operation name
+     * @param percentile between 0 and 100
+     * @return the latency of the operation at the given percentile, in milliseconds
+     */
+    double getLatencyMillis(String operation, double percentile);
+
+    /**
+     * @param operation the operation name
+     * @return the number of rows scanned by the operation
+     */
+    long getRowsScanned(String operation);
+
+    /**
+     * @param operation the operation name
+     * @return the number of rows matched by the operation
+     */
+    long getRowsMatched(String operation);
+
+    /**
+     * @return all metrics, as text
+     */
+    String dump();
+
+    /**
+     * Resets all metrics to 0.
+     */
+    void reset();
+}
@@ -0,0 +1,447 @@
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Sketches of the data of a column store, built at ingest, to answer queries approximately without reading the column store.
+ *
+ * <p>The rows are divided into segments of {@link #DEFAULT_SEGMENT_SIZE} rows in order of ingest. Each segment keeps:</p>
+ * <ul>
+ *     <li>a {@link ReservoirSample} of its rows, with the values of all columns,</li>
+ *     <li>the exact count, sum, minimum and maximum of each numeric column,</li>
+ *     <li>a {@link QuantileSketch} of each numeric column,</li>
+ *     <li>a {@link HyperLogLog} of each column and a {@link HeavyHitters} sketch of each string or integer column.</li>
+ * </ul>
+ *
+ * <p>Queries without predicates are answered from the exact statistics and the merged sketches of all segments.
+ * Queries with predicates are answered from the samples, with each segment as a stratum weighted by its number of rows.
+ * Every {@link Estimate} comes with bounds at 95% confidence (or the guaranteed bounds of the sketch).</p>
+ *
+ * <p>Rows deleted from the column store are {@link #remove(long, Map) removed} from the counts, the exact statistics and the samples.
+ * The quantile, distinct count and heavy hitter sketches cannot forget values, so they still include removed rows,
+ * and the minimum and maximum of a column are bounds over the rows not removed.</p>
+ *
+ * <p>Predicates are given per column, as in {@link ColumnStoreAbstract#filter(String, Predicate)}: a row matches if the values
+ * of all the given columns are not null and match their predicates.</p>
+ */
+public class Synopsis {
+    public static final int DEFAULT_SEGMENT_SIZE = 65536;
+    public static final int DEFAULT_SAMPLE_SIZE = 2048;
+
+    /**
+     * The z-score of the confidence level of the bounds computed from samples (95%).
+     */
+    private static final double Z = 1.96;
+
+    /**
+     * An approximate answer.
+     * @param value the estimated value
+     * @param lower the lower bound of the exact value
+     * @param upper the upper bound of the exact value
+     * @param rowsRead the number of sampled rows read to compute the estimate, 0 if it was computed from sketches only
+     */
+    public record Estimate(double value, double lower, double upper, long rowsRead) {
+        @Override
+        public String toString() {
+            return String.format("%.3f [%.3f, %.3f]", value, lower, upper);
+        }
+    }
+
+    /**
+     * A frequent value, with bounds of its exact count.
+     */
+    public record HeavyHitter(Object value, long lower, long upper) {}
+
+    /**
+     * The exact statistics of a numeric column in a segment.
+     */
+    private static class ColumnStats {
+        long count = 0;
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+    }
+
+    private class Segment {
+        final ReservoirSample sample;
+        final HashMap<String, ColumnStats> stats = new HashMap<>();
+        final HashMap<String, QuantileSketch> quantiles = new HashMap<>();
+        final HashMap<String, HyperLogLog> distinct = new HashMap<>();
+        final HashMap<String, HeavyHitters> heavyHitters = new HashMap<>();
+        final BitSet removedRows = new BitSet();
+        int rows = 0;
+        int removed = 0;
+
+        Segment(long seed) {
+            sample = new ReservoirSample(sampleSize, seed);
+            for (String column: columns) {
+                int dataType = columnDataTypes.get(column);
+                distinct.put(column, new HyperLogLog());
+                if (isNumber(dataType)) {
+                    stats.put(column, new ColumnStats());
+                    quantiles.put(column, new QuantileSketch());
+                }
+                if (dataType == ColumnStoreAbstract.STRING_DATATYPE || dataType == ColumnStoreAbstract.INTEGER_DATATYPE) {
+                    heavyHitters.put(column, new HeavyHitters());
+                }
+            }
+        }
+
+        void add(Object[] row) {
+            for (int c = 0; c < columns.size(); c++) {
+                String column = columns.get(c);
+                Object value = row[c];
+                if (value == null) { continue; }
+                distinct.get(column).add(value);
+                HeavyHitters hitters = heavyHitters.get(column);
+                if (hitters != null) { hitters.add(value); }
+                ColumnStats columnStats = stats.get(column);
+                if (columnStats != null) {
+                    double number = ((Number) value).doubleValue();
+                    columnStats.count++;
+                    columnStats.sum += number;
+                    columnStats.min = Math.min(columnStats.min, number);
+                    columnStats.max = Math.max(columnStats.max, number);
+                    quantiles.get(column).add(number);
+                }
+            }
+            row[columns.size()] = rows; //sampled rows end with their position in the segment, so that removed rows can be left out
+            sample.add(row);
+            rows++;
+        }
+
+        void remove(int position, Object[] row) {
+            if (removedRows.get(position)) { return; }
+            removedRows.set(position);
+            removed++;
+            for (int c = 0; c < columns.size(); c++) {
+                ColumnStats columnStats = stats.get(columns.get(c));
+                if (columnStats == null || row[c] == null) { continue; }
+                columnStats.count--;
+                columnStats.sum -= ((Number) row[c]).doubleValue();
+            }
+        }
+
+        /**
+         * @return the number of rows added and not removed
+         */
+        int liveRows() {
+            return rows - removed;
+        }
+
+        /**
+         * @return the sampled rows that were not removed, which are a uniform sample of the rows not removed
+         */
+        List<Object[]> liveSample() {
+            if (removed == 0) { return sample.getRows(); }
+            List<Object[]> live = new ArrayList<>();
+            for (Object[] row: sample.getRows()) {
+                if (!removedRows.get((Integer) row[columns.size()])) { live.add(row); }
+            }
+            return live;
+        }
+    }
+
+    private final HashMap<String, Integer> columnDataTypes;
+    private final List<String> columns;
+    private final int segmentSize;
+    private final int sampleSize;
+    private final List<Segment> segments = new ArrayList<>();
+
+    /**
+     * @param columnDataTypes the columns and their data types, as in {@link ColumnStoreAbstract#columnDataTypes}
+     */
+    public Synopsis(HashMap<String, Integer> columnDataTypes) {
+        this(columnDataTypes, DEFAULT_SEGMENT_SIZE, DEFAULT_SAMPLE_SIZE);
+    }
+
+    /**
+     * @param columnDataTypes the columns and their data types, as in {@link ColumnStoreAbstract#columnDataTypes}
+     * @param segmentSize the number of rows in each segment
+     * @param sampleSize the number of rows sampled in each segment
+     */
+    public Synopsis(HashMap<String, Integer> columnDataTypes, int segmentSize, int sampleSize) {
+        this.columnDataTypes = columnDataTypes;
+        this.columns = List.copyOf(new TreeSet<>(columnDataTypes.keySet()));
+        this.segmentSize = segmentSize;
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * Adds a row, in order of ingest.
+     * @param row the values of the row by column, null for missing values
+     */
+    public synchronized void add(Map<String, Object> row) {
+        if (segments.isEmpty() || segments.get(segments.size() - 1).rows >= segmentSize) {
+            segments.add(new Segment(segments.size()));
+        }
+        segments.get(segments.size() - 1).add(valuesOf(row));
+    }
+
+    /**
+     * Removes a row deleted from the column store. Rows that were not added or were already removed are ignored.
+     * @param row the position of the row in order of ingest, i.e. its row index in the column store
+     * @param values the values of the row by column, as added. Only the values of numeric columns are used.
+     */
+    public synchronized void remove(long row, Map<String, Object> values) {
+        long segment = row / segmentSize;
+        int position = (int) (row % segmentSize);
+        if (row < 0 || segment >= segments.size() || position >= segments.get((int) segment).rows) { return; }
+        segments.get((int) segment).remove(position, valuesOf(values));
+    }
+
+    /**
+     * @return the values of the row in the order of {@link #columns}, with room for the position of the row in its segment
+     */
+    private Object[] valuesOf(Map<String, Object> row) {
+        Object[] values = new Object[columns.size() + 1];
+        for (int c = 0; c < columns.size(); c++) {
+            values[c] = row.get(columns.get(c));
+        }
+        return values;
+    }
+
+    /**
+     * @return the number of rows added and not removed
+     */
+    public synchronized long getRowCount() {
+        long rows = 0;
+        for (Segment segment: segments) {
+            rows += segment.liveRows();
+        }
+        return rows;
+    }
+
+    /**
+     * @param predicates the predicate of each filtered column, can be empty
+     * @return the number of matching rows
+     */
+    public synchronized Estimate count(Map<String, Predicate<Object>> predicates) {
+        if (predicates.isEmpty()) {
+            double rows = getRowCount();
+            return new Estimate(rows, rows, rows, 0);
+        }
+        return stratified(null, predicates, false);
+    }
+
+    /**
+     * @param column a numeric column
+     * @param predicates the predicate of each filtered column, can be empty
+     * @return the sum of the non-null values of the column in the matching rows
+     */
+    public synchronized Estimate sum(String column, Map<String, Predicate<Object>> predicates) {
+        if (!checkNumber(column)) { return null; }
+        if (predicates.isEmpty()) {
+            double sum = 0;
+            for (Segment segment: segments) {
+                sum += segment.stats.get(column).sum;
+            }
+            return new Estimate(sum, sum, sum, 0);
+        }
+        return stratified(column, predicates, false);
+    }
+
+    /**
+     * @param column a numeric column
+     * @param predicates the predicate of each filtered column, can be empty
+     * @return the average of the non-null values of the column in the matching rows, NaN if there are none
+     */
+    public synchronized Estimate average(String column, Map<String, Predicate<Object>> predicates) {
+        if (!checkNumber(column)) { return null; }
+        if (predicates.isEmpty()) {
+            double sum = 0;
+            long count = 0;
+            for (Segment segment: segments) {
+                sum += segment.stats.get(column).sum;
+                count += segment.stats.get(column).count;
+            }
+            double average = count == 0 ? Double.NaN : sum / count;
+            return new Estimate(average, average, average, 0);
+        }
+        return stratified(column, predicates, true);
+    }
+
+    /**
+     * @param column a numeric column
+     * @param quantile between 0 and 1, e.g. 0.95 for the 95th percentile
+     * @param predicates the predicate of each filtered column, can be empty
+     * @return the value of the column at the quantile, among the non-null values in the matching rows. NaN if there are none
+     */
+    public synchronized Estimate quantile(String column, double quantile, Map<String, Predicate<Object>> predicates) {
+        if (!checkNumber(column)) { return null; }
+        if (predicates.isEmpty()) {
+            QuantileSketch merged = new QuantileSketch();
+            for (Segment segment: segments) {
+                merged.merge(segment.quantiles.get(column));
+            }
+            double value = merged.getQuantile(quantile);
+            double error = Math.abs(value) * merged.getRelativeAccuracy();
+            return new Estimate(value, value - error, value + error, 0);
+        }
+
+        //weighted quantile of the matching sampled values, with bounds from the uncertainty of the rank
+        int c = columns.indexOf(column);
+        List<double[]> weighted = new ArrayList<>(); //value, weight
+        long rowsRead = 0;
+        for (Segment segment: segments) {
+            List<Object[]> rows = segment.liveSample();
+            rowsRead += rows.size();
+            if (rows.isEmpty()) { continue; }
+            double weight = (double) segment.liveRows() / rows.size();
+            for (Object[] row: rows) {
+                if (row[c] != null && matches(row, predicates)) {
+                    weighted.add(new double[] {((Number) row[c]).doubleValue(), weight});
+                }
+            }
+        }
+        if (weighted.isEmpty()) {
+            return new Estimate(Double.NaN, Double.NaN, Double.NaN, rowsRead);
+        }
+        weighted.sort(Comparator.comparingDouble(v -> v[0]));
+        double rankError = Z * Math.sqrt(quantile * (1 - quantile) / weighted.size());
+        return new Estimate(weightedQuantile(weighted, quantile), weightedQuantile(weighted, quantile - rankError),
+                weightedQuantile(weighted, quantile + rankError), rowsRead);
+    }
+
+    /**
+     * @param column any column
+     * @return the number of distinct non-null values of the column
+     */
+    public synchronized Estimate distinctCount(String column) {
+        if (!columns.contains(column)) {
+            System.out.println("Column is not registered with this column store.");
+            return null;
+        }
+        HyperLogLog merged = new HyperLogLog();
+        for (Segment segment: segments) {
+            merged.merge(segment.distinct.get(column));
+        }
+        double estimate = merged.estimate();
+        double error = Z * merged.getStandardError() * estimate;
+        return new Estimate(estimate, Math.max(0, estimate - error), estimate + error, 0);
+    }
+
+    /**
+     * @param column a string or integer column
+     * @param limit the maximum number of values to return
+     * @return the most frequent values of the column, in descending order of count
+     */
+    public synchronized List<HeavyHitter> heavyHitters(String column, int limit) {
+        List<HeavyHitter> results = new ArrayList<>();
+        if (!columns.contains(column) || (columnDataTypes.get(column) != ColumnStoreAbstract.STRING_DATATYPE
+                && columnDataTypes.get(column) != ColumnStoreAbstract.INTEGER_DATATYPE)) {
+            System.out.println("Heavy hitters are only kept for string and integer columns.");
+            return results;
+        }
+        HeavyHitters merged = new HeavyHitters();
+        for (Segment segment: segments) {
+            merged.merge(segment.heavyHitters.get(column));
+        }
+        for (Map.Entry<Object, Long> entry: merged.getTop(limit)) {
+            results.add(new HeavyHitter(entry.getKey(), entry.getValue(), entry.getValue() + merged.getErrorBound()));
+        }
+        return results;
+    }
+
+    /**
+     * Estimates the count (column == null), the sum or the average of a column over the matching rows, from the samples of all segments.
+     * Each segment is a stratum: its estimate is scaled by its number of rows, and its variance shrinks to 0 when the whole segment is sampled.
+     */
+    private Estimate stratified(String column, Map<String, Predicate<Object>> predicates, boolean average) {
+        int c = column == null ? -1 : columns.indexOf(column);
+        double count = 0;
+        double sum = 0;
+        long rowsRead = 0;
+        for (Segment segment: segments) { //first pass: point estimates
+            List<Object[]> rows = segment.liveSample();
+            rowsRead += rows.size();
+            if (rows.isEmpty()) { continue; }
+            double weight = (double) segment.liveRows() / rows.size();
+            for (Object[] row: rows) {
+                if ((c < 0 || row[c] != null) && matches(row, predicates)) {
+                    count += weight;
+                    sum += c < 0 ? 0 : weight * ((Number) row[c]).doubleValue();
+                }
+            }
+        }
+        double ratio = count == 0 ? Double.NaN : sum / count;
+
+        double variance = 0;
+        for (Segment segment: segments) { //second pass: variance of the estimate of each stratum
+            List<Object[]> rows = segment.liveSample();
+            int n = rows.size();
+            if (n < 2) { continue; }
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                Object[] row = rows.get(i);
+                boolean match = (c < 0 || row[c] != null) && matches(row, predicates);
+                if (!match) { continue; }
+                double y = c < 0 ? 1 : ((Number) row[c]).doubleValue();
+                values[i] = average ? y - ratio : y; //linearization of the ratio estimator for averages
+            }
+            double finitePopulation = 1 - (double) n / segment.liveRows();
+            variance += (double) segment.liveRows() * segment.liveRows() * finitePopulation * sampleVariance(values) / n;
+        }
+
+        double value = c < 0 ? count : average ? ratio : sum;
+        double error = Z * Math.sqrt(variance);
+        if (average) {
+            error = count == 0 ? Double.NaN : error / count;
+        }
+        double lower = value - error;
+        if (c < 0) { lower = Math.max(0, lower); } //a count is never negative
+        return new Estimate(value, lower, value + error, rowsRead);
+    }
+
+    private boolean matches(Object[] row, Map<String, Predicate<Object>> predicates) {
+        for (Map.Entry<String, Predicate<Object>> entry: predicates.entrySet()) {
+            int c = columns.indexOf(entry.getKey());
+            if (c < 0 || row[c] == null || !entry.getValue().test(row[c])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static double sampleVariance(double[] values) {
+        double mean = 0;
+        for (double value: values) {
+            mean += value;
+        }
+        mean /= values.length;
+        double squares = 0;
+        for (double value: values) {
+            squares += (value - mean) * (value - mean);
+        }
+        return squares / (values.length - 1);
+    }
+
+    /**
+     * @param sorted pairs of value and weight, sorted by value
+     * @param quantile clamped to between 0 and 1
+     */
+    private static double weightedQuantile(List<double[]> sorted, double quantile) {
+        double total = 0;
+        for (double[] pair: sorted) {
+            total += pair[1];
+        }
+        double target = Math.max(0, Math.min(1, quantile)) * total;
+        double seen = 0;
+        for (double[] pair: sorted) {
+            seen += pair[1];
+            if (seen >= target) { return pair[0]; }
+        }
+        return sorted.get(sorted.size() - 1)[0];
+    }
+
+    private boolean checkNumber(String column) {
+        if (!columns.contains(column) || !isNumber(columnDataTypes.get(column))) {
+            System.out.println("Cannot estimate an aggregate of a column whose data are not numbers.");
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isNumber(int dataType) {
+        return dataType == ColumnStoreAbstract.INTEGER_DATATYPE || dataType == ColumnStoreAbstract.FLOAT_DATATYPE;
+    }
+}
@@ -0,0 +1,205 @@
+import java.util.*;
+
+/**
+ * Selects the rows with the k largest or smallest values of a column, overall or per group, e.g. the 10 hottest readings per station.
+ *
+ * <p>Values are gathered in batches, and each group keeps a bounded heap of primitive (value, row index) pairs whose root is the worst
+ * pair kept, so a row is only added if it beats the root. Memory is k pairs per group, whatever the size of the selection,
+ * unlike {@link ColumnStoreAbstract#getMax(String, List)} which returns every row tied for the extreme value.</p>
+ *
+ * <p>Ties are broken by row index, smallest first. Rows with a null value, or a null group, are skipped.
+ * Only {@link ColumnStoreAbstract#INTEGER_DATATYPE integer}, {@link ColumnStoreAbstract#FLOAT_DATATYPE float} and
+ * {@link ColumnStoreAbstract#TIME_DATATYPE time} columns can be ranked. To rank by a string column, see {@link OrderBy}.</p>
+ */
+public class TopK {
+    private static final int BATCH_ROWS = 65536;
+
+    private final ColumnStoreAbstract data;
+    private final String column;
+    private final int k;
+    private final boolean largest;
+
+    /**
+     * @param data the column store
+     * @param column the column to rank by
+     * @param k the number of rows kept, overall or per group
+     * @param largest true to keep the largest values, false to keep the smallest
+     */
+    public TopK(ColumnStoreAbstract data, String column, int k, boolean largest) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive.");
+        }
+        this.data = data;
+        this.column = column;
+        this.k = k;
+        this.largest = largest;
+    }
+
+    /**
+     * @param selection the rows to rank, in any order
+     * @return the at most k best rows, best first. Empty if the column cannot be ranked.
+     */
+    public int[] top(List<Integer> selection) {
+        Map<Object, int[]> groups = select(selection, null);
+        return groups.isEmpty() ? new int[0] : groups.values().iterator().next();
+    }
+
+    /**
+     * @param selection the rows to rank, in any order
+     * @param groupColumn the column whose values form the groups
+     * @return the at most k best rows of each group, best first, by group value in ascending order. Empty if a column is invalid.
+     */
+    public SortedMap<Object, int[]> topByGroup(List<Integer> selection, String groupColumn) {
+        if (data.getDataType(groupColumn) == null) {
+            System.out.println("Group column is not registered with this column store.");
+            return new TreeMap<>();
+        }
+        return select(selection, groupColumn);
+    }
+
+    /**
+     * @param groupColumn the group column, or null to rank all rows in one group
+     */
+    private SortedMap<Object, int[]> select(List<Integer> selection, String groupColumn) {
+        TreeMap<Object, int[]> results = new TreeMap<>();
+        Integer dataType = data.getDataType(column);
+        if (dataType == null || dataType == ColumnStoreAbstract.STRING_DATATYPE) {
+            System.out.printf("Column (%s) is not a registered numeric or time column.\n", column);
+            return results;
+        }
+
+        long start = data.getMetrics().start();
+        String name = "top " + k + " " + column + (groupColumn == null ? "" : " by " + groupColumn);
+        QueryProfile.run(name, () -> rank(selection, groupColumn, dataType, results));
+        data.getMetrics().record(StoreMetrics.TOP_K, start, selection.size(), results.values().stream().mapToLong(rows -> rows.length).sum());
+        return results;
+    }
+
+    /**
+     * Adds the at most k best rows of each group of the selection to the results.
+     */
+    private void rank(List<Integer> selection, String groupColumn, int dataType, TreeMap<Object, int[]> results) {
+        QueryMemory memory = QueryMemory.current();
+        HashMap<Object, Heap> heaps = new HashMap<>();
+        List<String> columns = groupColumn == null ? List.of(column) : List.of(column, groupColumn);
+        try {
+            for (int from = 0; from < selection.size(); from += BATCH_ROWS) {
+                ColumnBatch batch = data.gather(columns, selection.subList(from, Math.min(from + BATCH_ROWS, selection.size())));
+                for (int i = 0; i < batch.size(); i++) {
+                    Object group = groupColumn == null ? Boolean.TRUE : batch.getValue(groupColumn, i);
+                    if (group == null) { continue; }
+                    long key;
+                    switch (dataType) {
+                        case ColumnStoreAbstract.INTEGER_DATATYPE -> {
+                            int value = batch.getInts(column)[i];
+                            if (value == ColumnBatch.NULL_INTEGER) { continue; }
+                            key = value;
+                        }
+                        case ColumnStoreAbstract.FLOAT_DATATYPE -> {
+                            float value = batch.getFloats(column)[i];
+                            if (Float.isNaN(value)) { continue; }
+                            int bits = Float.floatToIntBits(value == 0 ? 0f : value); //-0 and 0 are equal
+                            key = bits ^ ((bits >> 31) & Integer.MAX_VALUE); //orders like the floats
+                        }
+                        default -> {
+                            key = batch.getTimes(column)[i];
+                            if (key == ColumnBatch.NULL_TIME) { continue; }
+                        }
+                    }
+                    Heap heap = heaps.get(group);
+                    if (heap == null) {
+                        memory.reserve(Heap.bytes(k)); //bounded by k per group, so never spilled
+                        heap = new Heap(k, largest);
+                        heaps.put(group, heap);
+                    }
+                    heap.offer(key, batch.getIndex(i));
+                }
+            }
+            for (Map.Entry<Object, Heap> entry: heaps.entrySet()) {
+                results.put(groupColumn == null ? "" : entry.getKey(), entry.getValue().drain());
+            }
+        } finally {
+            memory.release(heaps.size() * Heap.bytes(k));
+        }
+    }
+
+    /**
+     * A binary heap of at most k (key, row) pairs, whose root is the worst pair kept.
+     */
+    private static class Heap {
+        final long[] keys;
+        final int[] rows;
+        final boolean largest;
+        int size = 0;
+
+        Heap(int k, boolean largest) {
+            this.keys = new long[k];
+            this.rows = new int[k];
+            this.largest = largest;
+        }
+
+        static long bytes(int k) {
+            return (long) k * (Long.BYTES + Integer.BYTES);
+        }
+
+        void offer(long key, int row) {
+            if (size < keys.length) {
+                keys[size] = key;
+                rows[size] = row;
+                siftUp(size++);
+            } else if (isBetter(key, row, keys[0], rows[0])) {
+                keys[0] = key;
+                rows[0] = row;
+                siftDown(0);
+            }
+        }
+
+        /**
+         * @return the rows kept, best first. Empties the heap.
+         */
+        int[] drain() {
+            int[] result = new int[size];
+            while (size > 0) {
+                result[size - 1] = rows[0];
+                size--;
+                keys[0] = keys[size];
+                rows[0] = rows[size];
+                siftDown(0);
+            }
+            return result;
+        }
+
+        private boolean isBetter(long key, int row, long otherKey, int otherRow) {
+            if (key != otherKey) { return largest ? key > otherKey : key < otherKey; }
+            return row < otherRow;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!isBetter(keys[parent], rows[parent], keys[i], rows[i])) { return; }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && isBetter(keys[child], rows[child], keys[child + 1], rows[child + 1])) { child++; }
+                if (!isBetter(keys[i], rows[i], keys[child], rows[child])) { return; }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int i, int j) {
+            long key = keys[i];
+            keys[i] = keys[j];
+            keys[j] = key;
+            int row = rows[i];
+            rows[i] = rows[j];
+            rows[j] = row;
+        }
+    }
+}
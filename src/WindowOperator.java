@@ -0,0 +1,105 @@
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A streaming operator over a time series, fed one {@link ColumnBatch} at a time in a single pass.
+ *
+ * <p>The rows of each group must arrive in ascending order of time, which holds for batches gathered in index order
+ * from data ingested in time order. Rows with a null time are skipped, and null values are not aggregated.
+ * The state of an operator is bounded per group and does not grow with the number of rows seen.</p>
+ *
+ * <p>Results are passed to the downstream consumer as soon as they are complete, e.g. a {@link GapFiller} or a list.</p>
+ */
+public abstract class WindowOperator {
+    public static final int AVG = 0;
+    public static final int SUM = 1;
+    public static final int MIN = 2;
+    public static final int MAX = 3;
+    public static final int COUNT = 4;
+
+    protected final String timeColumn;
+    protected final String valueColumn;
+    protected final String groupColumn;
+    protected final int aggregate;
+    protected final Consumer<WindowResult> downstream;
+
+    /**
+     * @param timeColumn the time column
+     * @param valueColumn the numeric column to aggregate
+     * @param groupColumn the column to group by, e.g. the station, or null to aggregate all rows together
+     * @param aggregate one of {@link #AVG}, {@link #SUM}, {@link #MIN}, {@link #MAX} and {@link #COUNT}
+     * @param downstream receives the results
+     */
+    protected WindowOperator(String timeColumn, String valueColumn, String groupColumn, int aggregate, Consumer<WindowResult> downstream) {
+        if (aggregate < AVG || aggregate > COUNT) {
+            throw new IllegalArgumentException("No such aggregate: " + aggregate);
+        }
+        this.timeColumn = timeColumn;
+        this.valueColumn = valueColumn;
+        this.groupColumn = groupColumn;
+        this.aggregate = aggregate;
+        this.downstream = downstream;
+    }
+
+    /**
+     * Processes all rows of the batch, in order. The batch must hold the time, value and group columns.
+     * @param batch the next batch of rows
+     */
+    public abstract void accept(ColumnBatch batch);
+
+    /**
+     * Emits the results still held by this operator. Called once after the last batch.
+     */
+    public abstract void finish();
+
+    /**
+     * Gathers the selection from the column store in batches of at most batchRows rows and feeds them to the operators,
+     * so that memory stays bounded however large the selection is. Calls {@link #finish()} on each operator at the end.
+     * @param data the column store
+     * @param selection the indexes of the rows, in ascending order
+     * @param batchRows the number of rows gathered at once
+     * @param operators the operators to feed, which may read different columns
+     */
+    public static void run(ColumnStoreAbstract data, List<Integer> selection, int batchRows, WindowOperator... operators) {
+        LinkedHashSet<String> columns = new LinkedHashSet<>();
+        for (WindowOperator operator: operators) {
+            columns.add(operator.timeColumn);
+            columns.add(operator.valueColumn);
+            if (operator.groupColumn != null) { columns.add(operator.groupColumn); }
+        }
+        for (int from = 0; from < selection.size(); from += batchRows) {
+            ColumnBatch batch = data.gather(new ArrayList<>(columns), selection.subList(from, Math.min(from + batchRows, selection.size())));
+            for (WindowOperator operator: operators) {
+                operator.accept(batch);
+            }
+        }
+        for (WindowOperator operator: operators) {
+            operator.finish();
+        }
+    }
+
+    /**
+     * @return the time of row i, or {@link ColumnBatch#NULL_TIME}
+     */
+    protected long timeAt(ColumnBatch batch, int i) {
+        return batch.getTimes(timeColumn)[i];
+    }
+
+    /**
+     * @return the value of row i as a double, NaN if null
+     */
+    protected double valueAt(ColumnBatch batch, int i) {
+        if (batch.getDataType(valueColumn) == ColumnStoreAbstract.INTEGER_DATATYPE) {
+            int value = batch.getInts(valueColumn)[i];
+            return value == ColumnBatch.NULL_INTEGER ? Double.NaN : value;
+        }
+        return batch.getFloats(valueColumn)[i];
+    }
+
+    /**
+     * @return the group of row i, null if the operator is not grouped
+     */
+    protected Object groupAt(ColumnBatch batch, int i) {
+        return groupColumn == null ? null : batch.getValue(groupColumn, i);
+    }
+}
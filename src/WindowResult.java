@@ -0,0 +1,25 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * A row produced by a time-series window operator.
+ * @param group the value of the group column (e.g. the station), or null if the operator is not grouped
+ * @param epochSecond the time of the row, in epoch seconds at UTC (i.e. the local date time as is, as in {@link ColumnBatch}).
+ *                    The start of the bucket for {@link Resampler}, the time of the input row for {@link RollingWindow}.
+ * @param value the aggregated value, NaN if there were no values
+ * @param count the number of non-null input values aggregated
+ * @param filled true if the value was filled in by a {@link GapFiller} instead of aggregated
+ */
+public record WindowResult(Object group, long epochSecond, double value, long count, boolean filled) {
+    /**
+     * @return the time of the row as a local date time
+     */
+    public LocalDateTime time() {
+        return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+    }
+
+    @Override
+    public String toString() {
+        return (group == null ? "" : group + ",") + time() + "," + value + (filled ? " (filled)" : "");
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * Runs every check in this folder, see {@link Checks}.
+ */
+public class AllTests {
+    public static void main(String[] args) throws Exception {
+        CalendarKernelsTest.main(args);
+        CompiledFilterTest.main(args);
+        CrackingTest.main(args);
+        LoadGeneratorTest.main(args);
+        MaxMinTest.main(args);
+        OrderByTest.main(args);
+        QueryMemoryTest.main(args);
+        ResultSinkTest.main(args);
+        SnapshotTest.main(args);
+        DeleteTest.main(args);
+    }
+}
@@ -0,0 +1,25 @@
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+/**
+ * Checks {@link CalendarKernels#parseEpochSecond} against java.time for every day from 1896 to 2104, which spans the
+ * leap years of the turns of the century, and that days past the end of their month are rejected.
+ */
+public class CalendarKernelsTest {
+    public static void main(String[] args) {
+        for (LocalDate date = LocalDate.of(1896, 1, 1); date.getYear() <= 2104; date = date.plusDays(1)) {
+            String text = String.format("%04d-%02d-%02d 13:45", date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+            long expected = date.atTime(13, 45).toEpochSecond(ZoneOffset.UTC);
+            Checks.checkEquals(expected, CalendarKernels.parseEpochSecond(text), text);
+            if (date.getDayOfMonth() == date.lengthOfMonth()) {
+                String next = String.format("%04d-%02d-%02d 13:45", date.getYear(), date.getMonthValue(), date.getDayOfMonth() + 1);
+                Checks.checkEquals(ColumnBatch.NULL_TIME, CalendarKernels.parseEpochSecond(next), next);
+            }
+        }
+        for (String text: new String[] {"2010-00-10 00:00", "2010-13-10 00:00", "2010-01-00 00:00", "2010-01-10 24:00",
+                "2010-01-10 00:60", "2010-1-10 00:00", "2010-01-10T00:00", "2010-0a-10 00:00"}) {
+            Checks.checkEquals(ColumnBatch.NULL_TIME, CalendarKernels.parseEpochSecond(text), text);
+        }
+        System.out.println("CalendarKernelsTest passed");
+    }
+}
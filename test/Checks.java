@@ -0,0 +1,145 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Helpers shared by the checks in this folder.
+ *
+ * <p>Each check is a class with a main method, which throws {@link AssertionError} on the first failed check,
+ * and {@link AllTests} runs them all. Column stores keep their files in directories named after them in the working directory,
+ * so the checks are run from an empty directory, e.g.</p>
+ * <pre>
+ * javac -d out src/*.java test/*.java
+ * mkdir run &amp;&amp; cd run &amp;&amp; java -cp ../out AllTests
+ * </pre>
+ */
+final class Checks {
+    static final String WEATHER_CSV = "weather.csv";
+
+    /**
+     * The first reading of the generated weather data. Each reading is 6 hours after the previous one.
+     */
+    static final LocalDateTime FIRST_READING = LocalDateTime.of(2008, 12, 25, 0, 0);
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private Checks() {}
+
+    static void check(boolean condition, String message) {
+        if (!condition) { throw new AssertionError(message); }
+    }
+
+    static void checkEquals(Object expected, Object actual, String message) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError(message + ": expected " + abbreviate(expected) + " but was " + abbreviate(actual));
+        }
+    }
+
+    private static String abbreviate(Object value) {
+        String text = String.valueOf(value);
+        return text.length() <= 200 ? text : text.substring(0, 200) + "...";
+    }
+
+    static void checkClose(double expected, double actual, String message) {
+        if (Math.abs(expected - actual) > 1e-6 * Math.max(1, Math.abs(expected))) {
+            throw new AssertionError(message + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    /**
+     * @return the columns of the weather data, with the calendar columns derived from "Timestamp", as registered by {@link Main}
+     */
+    static HashMap<String, Integer> weatherTypes() {
+        HashMap<String, Integer> dataTypes = new HashMap<>();
+        dataTypes.put("id", ColumnStoreAbstract.INTEGER_DATATYPE);
+        dataTypes.put("Timestamp", ColumnStoreAbstract.TIME_DATATYPE);
+        dataTypes.put("Station", ColumnStoreAbstract.STRING_DATATYPE);
+        dataTypes.put("Temperature", ColumnStoreAbstract.FLOAT_DATATYPE);
+        dataTypes.put("Humidity", ColumnStoreAbstract.FLOAT_DATATYPE);
+        CalendarKernels.registerDerivedColumns(dataTypes, "Timestamp");
+        return dataTypes;
+    }
+
+    /**
+     * Writes generated weather data in the format of SingaporeWeather.csv. The values of each row are given by
+     * {@link #time(int)}, {@link #station(int)}, {@link #temperature(int)} and {@link #humidity(int)}.
+     * @param rows the number of rows
+     * @return the file, {@link #WEATHER_CSV} in the working directory
+     * @throws IOException if the file could not be written
+     */
+    static String writeWeather(int rows) throws IOException {
+        return writeWeather(rows, 0);
+    }
+
+    /**
+     * Writes generated weather data as {@link #writeWeather(int)} does, with every temperature shifted, see {@link #temperature(int, float)}.
+     * @param rows the number of rows
+     * @param shift added to every temperature
+     * @return the file, {@link #WEATHER_CSV} in the working directory
+     * @throws IOException if the file could not be written
+     */
+    static String writeWeather(int rows, float shift) throws IOException {
+        try (PrintWriter writer = new PrintWriter(WEATHER_CSV)) {
+            writer.println("id,Timestamp,Station,Temperature,Humidity");
+            for (int row = 0; row < rows; row++) {
+                writer.printf("%d,%s,%s,%s,%s\n", row, time(row).format(FORMATTER), station(row),
+                        text(temperature(row, shift)), text(humidity(row)));
+            }
+        }
+        return WEATHER_CSV;
+    }
+
+    private static String text(Float value) {
+        return value == null ? "M" : String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    static LocalDateTime time(int row) {
+        return FIRST_READING.plusHours(6L * row);
+    }
+
+    static String station(int row) {
+        return row % 2 == 0 ? "Changi" : "Paya Lebar";
+    }
+
+    /**
+     * @return the temperature of the row, from -5.0 to 44.9, or null for every 97th row
+     */
+    static Float temperature(int row) {
+        if (row % 97 == 0) { return null; }
+        return Float.parseFloat(String.format(Locale.ROOT, "%.1f", (row * 37 % 500) / 10.0 - 5));
+    }
+
+    /**
+     * @return the temperature of the row plus the shift, e.g. -50 for data with only negative temperatures. Null for every 97th row.
+     */
+    static Float temperature(int row, float shift) {
+        Float temperature = temperature(row);
+        return temperature == null ? null : Float.parseFloat(String.format(Locale.ROOT, "%.1f", temperature + shift));
+    }
+
+    /**
+     * @return the humidity of the row, from 30.0 to 99.9, or null for every 89th row
+     */
+    static Float humidity(int row) {
+        if (row % 89 == 0) { return null; }
+        return Float.parseFloat(String.format(Locale.ROOT, "%.1f", (row * 53 % 700) / 10.0 + 30));
+    }
+
+    /**
+     * Deletes the directory of a column store and everything in it, e.g. before and after a check that writes to it.
+     * @param directory the directory, which may not exist
+     */
+    static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file: files) {
+                if (file.isDirectory()) { deleteDirectory(file); }
+                else { file.delete(); }
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.File;
+import java.util.*;
+
+/**
+ * Checks {@link ColumnStoreAbstract#filter(List, List)} and {@link ColumnStoreAbstract#aggregate(List, int, String, List)}
+ * against the generated data, in each column store and again after a disk store is opened over the files of an earlier one.
+ */
+public class CompiledFilterTest {
+    private static final int ROWS = 6000;
+
+    public static void main(String[] args) throws Exception {
+        Checks.writeWeather(ROWS);
+        HashMap<String, Integer> dataTypes = Checks.weatherTypes();
+
+        ColumnStoreMM mm = new ColumnStoreMM(dataTypes);
+        mm.addCSVData(Checks.WEATHER_CSV);
+        checkQueries(mm);
+
+        for (int partitioning: new int[] {ColumnStoreDisk.PARTITION_NONE, ColumnStoreDisk.PARTITION_BY_YEAR, ColumnStoreDisk.PARTITION_BY_MONTH}) {
+            Checks.deleteDirectory(new File("disk"));
+            ColumnStoreDisk disk = new ColumnStoreDisk(dataTypes);
+            disk.setPartitioning("Timestamp", partitioning);
+            disk.addCSVData(Checks.WEATHER_CSV);
+            checkQueries(disk);
+            disk.close();
+
+            ColumnStoreDisk reopened = new ColumnStoreDisk(dataTypes);
+            reopened.setPartitioning("Timestamp", partitioning);
+            checkQueries(reopened);
+            reopened.close();
+        }
+        Checks.deleteDirectory(new File("disk"));
+
+        Checks.deleteDirectory(new File("enhanced_disk"));
+        ColumnStoreDiskEnhanced enhanced = new ColumnStoreDiskEnhanced(dataTypes);
+        enhanced.addCSVData(Checks.WEATHER_CSV);
+        checkQueries(enhanced);
+        enhanced.close();
+        ColumnStoreDiskEnhanced reopened = new ColumnStoreDiskEnhanced(dataTypes);
+        checkQueries(reopened);
+        reopened.close();
+        Checks.deleteDirectory(new File("enhanced_disk"));
+        System.out.println("CompiledFilterTest passed");
+    }
+
+    private static void checkQueries(ColumnStoreAbstract data) {
+        String store = data.getName();
+        Checks.checkEquals(ROWS, data.getRowCount(), store + " row count");
+
+        List<Integer> expected = new ArrayList<>();
+        int warm = 0;
+        double sum2010 = 0;
+        int humid = 0;
+        for (int row = 0; row < ROWS; row++) {
+            Float temperature = Checks.temperature(row);
+            Float humidity = Checks.humidity(row);
+            if (temperature != null && temperature > 20) {
+                warm++;
+                if (Checks.station(row).equals("Changi")) { expected.add(row); }
+            }
+            if (temperature != null && Checks.time(row).getYear() == 2010) { sum2010 += temperature; }
+            if (humidity != null && humidity >= 50) { humid++; }
+        }
+
+        List<Integer> compiled = data.filter(List.of(
+                new QueryCompiler.Condition("Temperature", QueryCompiler.GREATER, 20),
+                new QueryCompiler.Condition("Station", QueryCompiler.EQUAL, "Changi")), null);
+        Checks.checkEquals(expected, new ArrayList<>(compiled), store + " compiled filter");
+        Checks.checkEquals(warm, data.filter("Temperature", value -> (Float) value > 20).size(), store + " filter");
+        Checks.checkEquals(expected, new ArrayList<>(data.filter(List.of(new QueryCompiler.Condition("Station", QueryCompiler.EQUAL, "Changi")),
+                data.filter(List.of(new QueryCompiler.Condition("Temperature", QueryCompiler.GREATER, 20)), null))), store + " compiled filter of indexes");
+
+        Checks.checkClose(sum2010, data.aggregate(List.of(new QueryCompiler.Condition("Timestamp.year", QueryCompiler.EQUAL, 2010)),
+                WindowOperator.SUM, "Temperature", null), store + " sum of 2010");
+        Checks.checkClose(humid, data.aggregate(List.of(new QueryCompiler.Condition("Humidity", QueryCompiler.GREATER_OR_EQUAL, 50f)),
+                WindowOperator.COUNT, null, null), store + " count of humid readings");
+    }
+}
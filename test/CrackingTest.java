@@ -0,0 +1,89 @@
+import java.io.File;
+import java.util.*;
+
+/**
+ * Checks that queries answered by a {@link CrackingIndex} match the same queries scanned without it, including on a disk store
+ * opened over the files of an earlier one, after rows are added, and after rows are deleted.
+ */
+public class CrackingTest {
+    private static final int ROWS = 6000;
+
+    public static void main(String[] args) throws Exception {
+        Checks.writeWeather(ROWS);
+        HashMap<String, Integer> dataTypes = Checks.weatherTypes();
+
+        ColumnStoreMM mm = new ColumnStoreMM(dataTypes);
+        mm.addCSVData(Checks.WEATHER_CSV);
+        checkCracked(mm);
+
+        Checks.deleteDirectory(new File("disk"));
+        ColumnStoreDisk disk = new ColumnStoreDisk(dataTypes);
+        disk.setPartitioning("Timestamp", ColumnStoreDisk.PARTITION_BY_YEAR);
+        disk.addCSVData(Checks.WEATHER_CSV);
+        disk.close();
+
+        ColumnStoreDisk reopened = new ColumnStoreDisk(dataTypes);
+        reopened.setPartitioning("Timestamp", ColumnStoreDisk.PARTITION_BY_YEAR);
+        checkCracked(reopened);
+
+        reopened.addCSVData(Checks.WEATHER_CSV); //the index is rebuilt over the rows of both runs
+        Checks.checkEquals(2 * ROWS, reopened.getRowCount(), "rows after adding");
+        List<Integer> cracked = reopened.filter(List.of(new QueryCompiler.Condition("Temperature", QueryCompiler.GREATER_OR_EQUAL, 30f)), null);
+        Checks.checkEquals(2 * expected(30, 100, Set.of()).size(), cracked.size(), "cracked rows after adding");
+
+        Set<Integer> deleted = new HashSet<>();
+        for (int row = 0; row < ROWS; row += 3) {
+            deleted.add(row);
+        }
+        reopened.setCracking("Temperature", false);
+        reopened.delete(new ArrayList<>(deleted));
+        reopened.close();
+        ColumnStoreDisk afterDeletes = new ColumnStoreDisk(dataTypes);
+        afterDeletes.setPartitioning("Timestamp", ColumnStoreDisk.PARTITION_BY_YEAR);
+        List<Integer> firstRun = new ArrayList<>();
+        for (int row: afterDeletes.filter(List.of(new QueryCompiler.Condition("Temperature", QueryCompiler.GREATER_OR_EQUAL, 30f)), null)) {
+            if (row < ROWS) { firstRun.add(row); }
+        }
+        Checks.checkEquals(expected(30, 100, deleted), firstRun, "scanned rows after deletes");
+        afterDeletes.setCracking("Temperature", true);
+        firstRun.clear();
+        for (int row: afterDeletes.filter(List.of(new QueryCompiler.Condition("Temperature", QueryCompiler.GREATER_OR_EQUAL, 30f)), null)) {
+            if (row < ROWS) { firstRun.add(row); }
+        }
+        Checks.checkEquals(expected(30, 100, deleted), firstRun, "cracked rows after deletes");
+        afterDeletes.close();
+        Checks.deleteDirectory(new File("disk"));
+        System.out.println("CrackingTest passed");
+    }
+
+    /**
+     * Runs range queries on Temperature without and then with cracking, and compares both to the generated data. Leaves cracking enabled.
+     */
+    private static void checkCracked(ColumnStoreAbstract data) {
+        String store = data.getName();
+        float[][] ranges = {{10, 20}, {-5, 0}, {25.5f, 25.5f}, {30, 100}, {-100, -4}};
+        for (boolean cracking: new boolean[] {false, true}) {
+            data.setCracking("Temperature", cracking);
+            for (float[] range: ranges) {
+                List<QueryCompiler.Condition> conditions = List.of(
+                        new QueryCompiler.Condition("Temperature", QueryCompiler.GREATER_OR_EQUAL, range[0]),
+                        new QueryCompiler.Condition("Temperature", QueryCompiler.LESS_OR_EQUAL, range[1]));
+                List<Integer> expected = expected(range[0], range[1], Set.of());
+                String query = store + (cracking ? " cracked " : " scanned ") + Arrays.toString(range);
+                Checks.checkEquals(expected, new ArrayList<>(data.filter(conditions, null)), query);
+                Checks.checkClose(expected.size(), data.aggregate(conditions, WindowOperator.COUNT, null, null), query + " count");
+            }
+        }
+        Checks.checkEquals(expected(-100, 100, Set.of()).size(), data.getCrackingIndex("Temperature").size(), store + " rows in the index");
+        Checks.check(data.getCrackingIndex("Temperature").getPieces() > 1, store + " index was not cracked");
+    }
+
+    private static List<Integer> expected(float low, float high, Set<Integer> deleted) {
+        List<Integer> rows = new ArrayList<>();
+        for (int row = 0; row < ROWS; row++) {
+            Float temperature = Checks.temperature(row);
+            if (temperature != null && temperature >= low && temperature <= high && !deleted.contains(row)) { rows.add(row); }
+        }
+        return rows;
+    }
+}
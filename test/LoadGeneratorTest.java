@@ -0,0 +1,31 @@
+import java.io.File;
+import java.util.*;
+
+/**
+ * Checks that the point lookups of {@link LoadGenerator} read the rows of a disk store opened over the files of an earlier one.
+ */
+public class LoadGeneratorTest {
+    private static final int ROWS = 2000;
+    private static final int LOOKUPS = 200;
+
+    public static void main(String[] args) throws Exception {
+        Checks.writeWeather(ROWS);
+        HashMap<String, Integer> dataTypes = Checks.weatherTypes();
+        Checks.deleteDirectory(new File("disk"));
+        ColumnStoreDisk disk = new ColumnStoreDisk(dataTypes);
+        disk.addCSVData(Checks.WEATHER_CSV);
+        disk.close();
+
+        ColumnStoreDisk reopened = new ColumnStoreDisk(dataTypes);
+        LoadGenerator.Operation lookup = LoadGenerator.pointLookup("Temperature");
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookup.run(reopened, random);
+        }
+        StoreMetrics metrics = reopened.getMetrics();
+        Checks.checkEquals((long) LOOKUPS, metrics.getCount(StoreMetrics.GET_VALUE), "point lookups of stored rows");
+        reopened.close();
+        Checks.deleteDirectory(new File("disk"));
+        System.out.println("LoadGeneratorTest passed");
+    }
+}
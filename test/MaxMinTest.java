@@ -0,0 +1,100 @@
+import java.io.File;
+import java.util.*;
+
+/**
+ * Checks getMax and getMin of every column store, and the monthly extremes of {@link ColumnStoreDiskEnhanced}, on temperatures
+ * that are all negative, over selections sparse enough to be probed and dense enough to be scanned.
+ */
+public class MaxMinTest {
+    private static final int ROWS = 6000;
+    private static final float SHIFT = -50;
+
+    public static void main(String[] args) throws Exception {
+        Checks.writeWeather(ROWS, SHIFT);
+        HashMap<String, Integer> dataTypes = Checks.weatherTypes();
+        for (String directory: new String[] {"disk", "enhanced_disk", "tiered"}) {
+            Checks.deleteDirectory(new File(directory));
+        }
+
+        ColumnStoreDisk partitioned = new ColumnStoreDisk(dataTypes);
+        partitioned.setPartitioning("Timestamp", ColumnStoreDisk.PARTITION_BY_YEAR);
+        ColumnStoreOffHeap offHeap = new ColumnStoreOffHeap(dataTypes);
+        ColumnStoreDiskEnhanced enhanced = new ColumnStoreDiskEnhanced(dataTypes);
+        List<ColumnStoreAbstract> columnStores = List.of(new ColumnStoreMM(dataTypes), partitioned, enhanced,
+                new ColumnStoreTiered(dataTypes, 1 << 20, 1024), offHeap);
+        for (ColumnStoreAbstract data: columnStores) {
+            data.addCSVData(Checks.WEATHER_CSV);
+            checkExtremes(data);
+        }
+        checkMonthlyExtremes(enhanced, 2010, "Changi");
+
+        partitioned.close();
+        enhanced.close();
+        offHeap.close();
+        for (String directory: new String[] {"disk", "enhanced_disk", "tiered"}) {
+            Checks.deleteDirectory(new File(directory));
+        }
+        System.out.println("MaxMinTest passed");
+    }
+
+    private static void checkExtremes(ColumnStoreAbstract data) {
+        List<Integer> dense = new ArrayList<>();
+        List<Integer> sparse = new ArrayList<>();
+        for (int row = 0; row < ROWS; row++) {
+            if (Checks.time(row).getYear() == 2010) { dense.add(row); }
+            if (row % 211 == 5) { sparse.add(row); }
+        }
+        for (List<Integer> selection: List.of(dense, sparse)) {
+            String query = data.getName() + " over " + selection.size() + " rows";
+            Checks.checkEquals(extremes(selection, true), sorted(data.getMax("Temperature", selection)), query + " max");
+            Checks.checkEquals(extremes(selection, false), sorted(data.getMin("Temperature", selection)), query + " min");
+        }
+    }
+
+    /**
+     * Compares the monthly maximum and minimum temperatures of a station to the generated data.
+     */
+    private static void checkMonthlyExtremes(ColumnStoreDiskEnhanced data, int year, String station) {
+        for (int month = 1; month <= 12; month++) {
+            List<Integer> rows = new ArrayList<>();
+            for (int row = 0; row < ROWS; row++) {
+                if (Checks.time(row).getYear() == year && Checks.time(row).getMonthValue() == month && Checks.station(row).equals(station)) { rows.add(row); }
+            }
+            Set<Float> maxima = new HashSet<>();
+            Set<Float> minima = new HashSet<>();
+            for (Output output: data.getExtremeValues(year, station)) {
+                if (output.date.getMonthValue() != month) { continue; }
+                if (output.type == Output.MAX_TEMP) { maxima.add(output.value); }
+                if (output.type == Output.MIN_TEMP) { minima.add(output.value); }
+            }
+            Checks.checkEquals(Set.of(Checks.temperature(extremes(rows, true).get(0), SHIFT)), maxima, "maximum temperature of month " + month);
+            Checks.checkEquals(Set.of(Checks.temperature(extremes(rows, false).get(0), SHIFT)), minima, "minimum temperature of month " + month);
+        }
+    }
+
+    /**
+     * @return the rows of the selection with the largest or smallest temperature, in ascending order
+     */
+    private static List<Integer> extremes(List<Integer> selection, boolean max) {
+        List<Integer> rows = new ArrayList<>();
+        float extreme = max ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+        for (int row: selection) {
+            Float temperature = Checks.temperature(row, SHIFT);
+            if (temperature == null) { continue; }
+            if (temperature == extreme) { rows.add(row); }
+            else if (max ? temperature > extreme : temperature < extreme) {
+                extreme = temperature;
+                rows.clear();
+                rows.add(row);
+            }
+        }
+        Checks.check(!rows.isEmpty() && extreme < 0, "the generated temperatures are not all negative");
+        return rows;
+    }
+
+    private static List<Integer> sorted(List<Integer> rows) {
+        List<Integer> copy = new ArrayList<>(rows);
+        Collections.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,80 @@
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * Checks {@link TopK} and {@link OrderBy} against the generated data sorted by {@link Collections#sort}, on temperatures of both signs,
+ * strings and times, and with a query memory too small for the sort, so that it is merged from runs spilled to disk.
+ */
+public class OrderByTest {
+    private static final int ROWS = 6000;
+    private static final long SMALL_BUDGET = 4096;
+
+    public static void main(String[] args) throws Exception {
+        Checks.writeWeather(ROWS);
+        ColumnStoreMM data = new ColumnStoreMM(Checks.weatherTypes());
+        data.addCSVData(Checks.WEATHER_CSV);
+        List<Integer> all = new ArrayList<>();
+        for (int row = ROWS - 1; row >= 0; row--) { //in reverse, so that ties are not already in row order
+            all.add(row);
+        }
+
+        for (boolean largest: new boolean[] {true, false}) {
+            List<Integer> expected = sorted(Checks::temperature, largest);
+            Checks.checkEquals(expected.subList(0, 7), toList(new TopK(data, "Temperature", 7, largest).top(all)), "top 7 Temperature " + largest);
+            SortedMap<Object, int[]> byStation = new TopK(data, "Temperature", 3, largest).topByGroup(all, "Station");
+            Checks.checkEquals(List.of("Changi", "Paya Lebar"), new ArrayList<>(byStation.keySet()), "groups of the top 3 Temperature");
+            for (Map.Entry<Object, int[]> entry: byStation.entrySet()) {
+                List<Integer> station = new ArrayList<>();
+                for (int row: expected) {
+                    if (Checks.station(row).equals(entry.getKey()) && station.size() < 3) { station.add(row); }
+                }
+                Checks.checkEquals(station, toList(entry.getValue()), "top 3 Temperature " + largest + " of " + entry.getKey());
+            }
+        }
+        Checks.checkEquals(List.of(ROWS - 1, ROWS - 2), toList(new TopK(data, "Timestamp", 2, true).top(all)), "latest 2 readings");
+        Checks.checkEquals(0, new TopK(data, "Station", 2, true).top(all).length, "top of a string column");
+
+        checkOrderBy(data, all, "Humidity", Checks::humidity, true);
+        checkOrderBy(data, all, "Temperature", Checks::temperature, false);
+        checkOrderBy(data, all, "Station", Checks::station, false);
+        checkOrderBy(data, all, "Timestamp", Checks::time, true);
+        System.out.println("OrderByTest passed");
+    }
+
+    /**
+     * Sorts the selection in memory, then with a budget that only fits part of it, and compares both with the expected order.
+     */
+    private static <T extends Comparable<T>> void checkOrderBy(ColumnStoreAbstract data, List<Integer> selection, String column,
+                                                             IntFunction<T> value, boolean descending) {
+        List<Integer> expected = sorted(value, descending);
+        OrderBy orderBy = new OrderBy(data, column, descending);
+        Checks.checkEquals(expected, new ArrayList<>(orderBy.sort(selection)), "order by " + column);
+        Checks.checkEquals(0, orderBy.getLastRuns(), "runs of the order by " + column + " in memory");
+        List<Integer> spilled = QueryMemory.run("order by", SMALL_BUDGET, () -> new ArrayList<>(orderBy.sort(selection)));
+        Checks.check(orderBy.getLastRuns() > 1, "order by " + column + " was not spilled");
+        Checks.checkEquals(expected, spilled, "spilled order by " + column);
+    }
+
+    /**
+     * @return the rows of the generated data by value, largest first if descending, then by row index. Rows without a value are last.
+     */
+    private static <T extends Comparable<T>> List<Integer> sorted(IntFunction<T> value, boolean descending) {
+        List<Integer> rows = new ArrayList<>();
+        List<Integer> nulls = new ArrayList<>();
+        for (int row = 0; row < ROWS; row++) {
+            (value.apply(row) == null ? nulls : rows).add(row);
+        }
+        Comparator<Integer> byValue = Comparator.comparing(value::apply);
+        rows.sort((descending ? byValue.reversed() : byValue).thenComparing(Comparator.naturalOrder()));
+        rows.addAll(nulls);
+        return rows;
+    }
+
+    private static List<Integer> toList(int[] rows) {
+        List<Integer> list = new ArrayList<>();
+        for (int row: rows) {
+            list.add(row);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.*;
+
+/**
+ * Checks that the operators that spill when their {@link QueryMemory} denies them memory, {@link SpillableIntList} and {@link HashJoin},
+ * return the same results as in memory, and that a query releases its memory even if it throws.
+ */
+public class QueryMemoryTest {
+    private static final int ROWS = 6000;
+    private static final long SMALL_BUDGET = 4096;
+
+    public static void main(String[] args) throws Exception {
+        checkSpillableIntList();
+
+        Checks.writeWeather(ROWS);
+        ColumnStoreMM data = new ColumnStoreMM(Checks.weatherTypes());
+        data.addCSVData(Checks.WEATHER_CSV);
+        List<QueryCompiler.Condition> conditions = List.of(new QueryCompiler.Condition("Temperature", QueryCompiler.GREATER, 0f));
+        List<Integer> inMemory = new ArrayList<>(data.filter(conditions, null));
+        List<Integer> spilled = QueryMemory.run("filter", SMALL_BUDGET, () -> {
+            List<Integer> rows = data.filter(conditions, null);
+            Checks.check(rows instanceof SpillableIntList && ((SpillableIntList) rows).isSpilled(), "filter did not spill");
+            return new ArrayList<>(rows);
+        });
+        Checks.checkEquals(inMemory, spilled, "spilled filter");
+
+        checkJoin(data);
+        checkRelease();
+        System.out.println("QueryMemoryTest passed");
+    }
+
+    /**
+     * Fills a list past the budget of its query, then reads and changes it in the middle, where the ints were spilled.
+     */
+    private static void checkSpillableIntList() {
+        int size = 3 * SpillableIntList.PAGE_INTS + 123;
+        List<Integer> expected = new ArrayList<>();
+        QueryMemory.run("spillable list", SMALL_BUDGET, () -> {
+            SpillableIntList list = new SpillableIntList();
+            for (int i = 0; i < size; i++) {
+                list.add(i * 7 % size);
+                expected.add(i * 7 % size);
+            }
+            Checks.check(list.isSpilled(), "list was not spilled");
+            long pages = 2L * SpillableIntList.PAGE_INTS * Integer.BYTES; //appended and written through once spilled
+            Checks.check(QueryMemory.current().getPeak() <= SMALL_BUDGET + pages, "peak " + QueryMemory.current().getPeak() + " over the budget and two pages");
+            Checks.checkEquals(expected, new ArrayList<>(list), "spilled ints read in order");
+            for (int index: new int[] {size - 1, 0, SpillableIntList.PAGE_INTS, size / 2}) {
+                Checks.checkEquals(expected.get(index), list.get(index), "spilled int " + index);
+            }
+
+            int middle = SpillableIntList.PAGE_INTS + 5;
+            list.set(middle, -1);
+            expected.set(middle, -1);
+            list.add(middle, -2);
+            expected.add(middle, -2);
+            Checks.checkEquals(expected.remove(10), list.remove(10), "removed int");
+            Checks.checkEquals(expected, new ArrayList<>(list), "spilled ints after changes");
+
+            list.sort(null);
+            Collections.sort(expected);
+            Checks.checkEquals(expected, new ArrayList<>(list), "sorted spilled ints");
+            list.close();
+            Checks.checkEquals(0, list.size(), "closed list");
+            return null;
+        });
+        Checks.check(!QueryMemory.current().isScoped(), "query still current after it completed");
+    }
+
+    /**
+     * Joins the readings of both stations on equal humidity, in memory and in partitions spilled to disk.
+     */
+    private static void checkJoin(ColumnStoreAbstract data) {
+        List<Integer> changi = new ArrayList<>(data.filter(List.of(new QueryCompiler.Condition("Station", QueryCompiler.EQUAL, "Changi")), null));
+        List<Integer> payaLebar = new ArrayList<>(data.filter(List.of(new QueryCompiler.Condition("Station", QueryCompiler.EQUAL, "Paya Lebar")), null));
+        Set<Long> expected = new HashSet<>();
+        for (int left: changi) {
+            for (int right: payaLebar) {
+                if (Checks.humidity(left) != null && Checks.humidity(left).equals(Checks.humidity(right))) {
+                    expected.add(pair(left, right));
+                }
+            }
+        }
+
+        HashJoin join = new HashJoin(data, "Humidity", data, "Humidity");
+        Checks.checkEquals(expected, pairs(join.join(changi, payaLebar)), "join in memory");
+        Checks.checkEquals(0, join.getLastPartitions(), "partitions of the join in memory");
+        HashJoin.Result spilled = QueryMemory.run("join", SMALL_BUDGET, () -> join.join(changi, payaLebar));
+        Checks.check(join.getLastPartitions() > 0, "join was not spilled");
+        Checks.checkEquals(expected, pairs(spilled), "spilled join");
+    }
+
+    private static Set<Long> pairs(HashJoin.Result result) {
+        Set<Long> pairs = new HashSet<>();
+        for (int i = 0; i < result.size(); i++) {
+            pairs.add(pair(result.leftIndexes()[i], result.rightIndexes()[i]));
+        }
+        Checks.checkEquals(result.size(), pairs.size(), "duplicate pairs");
+        return pairs;
+    }
+
+    private static long pair(int left, int right) {
+        return ((long) left << 32) | right;
+    }
+
+    /**
+     * Reserves memory in a query that throws, and checks that closing the query released it.
+     */
+    private static void checkRelease() {
+        long before = QueryMemory.getGlobalReserved();
+        try {
+            QueryMemory.run("failing", SMALL_BUDGET, () -> {
+                QueryMemory.current().reserve(1000);
+                throw new IllegalStateException("query failed");
+            });
+            throw new AssertionError("the exception of the query was not thrown");
+        } catch (IllegalStateException e) {
+            Checks.checkEquals("query failed", e.getMessage(), "exception of the query");
+        }
+        Checks.checkEquals(before, QueryMemory.getGlobalReserved(), "memory reserved after a failed query");
+        Checks.check(!QueryMemory.current().isScoped(), "failed query still current");
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Checks that rows streamed through an {@link AsyncResultSink} into a {@link ChannelResultSink} are written in order and in full,
+ * with queues and buffers small enough that writes block and buffers are flushed mid-row, with both encoders.
+ */
+public class ResultSinkTest {
+    private static final int ROWS = 3000;
+    private static final List<String> COLUMNS = List.of("id", "Timestamp", "Station", "Temperature", "Humidity");
+
+    public static void main(String[] args) throws Exception {
+        Checks.writeWeather(ROWS);
+        ColumnStoreMM data = new ColumnStoreMM(Checks.weatherTypes());
+        data.addCSVData(Checks.WEATHER_CSV);
+
+        File csv = new File("export.csv");
+        write(data, csv, new CsvResultEncoder(COLUMNS));
+        Checks.checkEquals(Files.readAllLines(new File(Checks.WEATHER_CSV).toPath()), Files.readAllLines(csv.toPath()), "exported CSV");
+
+        File binary = new File("export.bin");
+        write(data, binary, new BinaryResultEncoder());
+        checkBinary(binary);
+
+        File output = new File("output.csv");
+        List<Output> rows = new ArrayList<>();
+        List<String> lines = new ArrayList<>(List.of(CsvResultEncoder.OUTPUT_HEADER));
+        for (int row = 0; row < ROWS; row++) {
+            Output out = new Output(Checks.time(row), Checks.station(row), row % 4, row / 10f - 50);
+            rows.add(out);
+            lines.add(out.toString());
+        }
+        Files.deleteIfExists(output.toPath());
+        try (ResultSink sink = new AsyncResultSink(new ChannelResultSink(output, new CsvResultEncoder(), 256), 7, 2)) {
+            sink.writeAll(rows.subList(0, ROWS / 2));
+            sink.flush();
+            sink.writeAll(rows.subList(ROWS / 2, ROWS));
+        }
+        Checks.checkEquals(lines, Files.readAllLines(output.toPath()), "Output rows");
+
+        for (File file: new File[] {csv, binary, output}) {
+            file.delete();
+        }
+        System.out.println("ResultSinkTest passed");
+    }
+
+    /**
+     * Writes every row of the column store in batches of different sizes, replacing the file.
+     */
+    private static void write(ColumnStoreAbstract data, File file, ResultEncoder encoder) throws Exception {
+        Files.deleteIfExists(file.toPath());
+        try (ResultSink sink = new AsyncResultSink(new ChannelResultSink(file, encoder, 256), 16, 1)) {
+            for (int from = 0, size = 1; from < ROWS; from += size, size = size * 2 % 509) {
+                List<Integer> selection = new ArrayList<>();
+                for (int row = from; row < Math.min(ROWS, from + size); row++) {
+                    selection.add(row);
+                }
+                sink.write(data.gather(COLUMNS, selection));
+            }
+        }
+    }
+
+    /**
+     * Decodes the records of a file written by {@link BinaryResultEncoder} and compares them with the generated data.
+     */
+    private static void checkBinary(File file) throws Exception {
+        Map<Short, String> strings = new HashMap<>();
+        int row = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            Checks.checkEquals(BinaryResultEncoder.MAGIC, in.readInt(), "magic");
+            Checks.checkEquals(BinaryResultEncoder.VERSION, in.readShort(), "version");
+            while (true) {
+                byte tag;
+                try {
+                    tag = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (tag == BinaryResultEncoder.TAG_STRING) {
+                    short code = in.readShort();
+                    byte[] bytes = new byte[in.readShort()];
+                    in.readFully(bytes);
+                    strings.put(code, new String(bytes, java.nio.charset.StandardCharsets.UTF_8));
+                    continue;
+                }
+                Checks.checkEquals(BinaryResultEncoder.TAG_BATCH_ROW, tag, "tag of row " + row);
+                Checks.checkEquals(row, in.readInt(), "id of row " + row);
+                LocalDateTime time = LocalDateTime.ofEpochSecond(in.readLong(), 0, java.time.ZoneOffset.UTC);
+                Checks.checkEquals(Checks.time(row), time, "time of row " + row);
+                Checks.checkEquals(Checks.station(row), strings.get(in.readShort()), "station of row " + row);
+                Checks.checkEquals(Checks.temperature(row), nullable(in.readFloat()), "temperature of row " + row);
+                Checks.checkEquals(Checks.humidity(row), nullable(in.readFloat()), "humidity of row " + row);
+                row++;
+            }
+        }
+        Checks.checkEquals(ROWS, row, "rows decoded");
+    }
+
+    private static Float nullable(float value) {
+        return Float.isNaN(value) ? null : value;
+    }
+}
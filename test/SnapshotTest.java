@@ -0,0 +1,121 @@
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Checks that a {@link ColumnStoreMM} loaded from a snapshot, or attached to it and reading its columns lazily, holds the same values
+ * as the column store it was saved from, and that snapshots which are corrupt or older than their CSV file are not loaded.
+ */
+public class SnapshotTest {
+    private static final int ROWS = 3000;
+    private static final File SNAPSHOT = new File("snapshot.bin");
+
+    public static void main(String[] args) throws Exception {
+        Checks.writeWeather(ROWS);
+        HashMap<String, Integer> dataTypes = Checks.weatherTypes();
+        File source = new File(Checks.WEATHER_CSV);
+        ColumnStoreMM parsed = new ColumnStoreMM(dataTypes);
+        parsed.addCSVData(Checks.WEATHER_CSV);
+        parsed.saveSnapshot(SNAPSHOT, source);
+
+        ColumnStoreMM loaded = new ColumnStoreMM(dataTypes);
+        Checks.check(loaded.loadSnapshot(SNAPSHOT, source), "snapshot was not loaded");
+        checkSameRows(parsed, loaded, "loaded snapshot");
+        checkAttached(parsed, dataTypes, source);
+        checkWarmStart(parsed, dataTypes);
+
+        File corrupt = new File("corrupt.bin");
+        for (long offset: new long[] {20, SNAPSHOT.length() - 1}) { //in the header, in the last column
+            Files.copy(SNAPSHOT.toPath(), corrupt.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try (RandomAccessFile file = new RandomAccessFile(corrupt, "rw")) {
+                file.seek(offset);
+                int value = file.read();
+                file.seek(offset);
+                file.write(value ^ 0xFF);
+            }
+            ColumnStoreMM fromCorrupt = new ColumnStoreMM(dataTypes);
+            Checks.check(!fromCorrupt.loadSnapshot(corrupt, source), "snapshot corrupt at " + offset + " was loaded");
+            Checks.checkEquals(0, fromCorrupt.getRowCount(), "rows of a snapshot corrupt at " + offset);
+        }
+        corrupt.delete();
+
+        long modified = source.lastModified();
+        Checks.check(source.setLastModified(modified + 2000), "could not change the CSV file");
+        Checks.check(!new ColumnStoreMM(dataTypes).loadSnapshot(SNAPSHOT, source), "stale snapshot was loaded");
+        source.setLastModified(modified);
+
+        SNAPSHOT.delete();
+        System.out.println("SnapshotTest passed");
+    }
+
+    /**
+     * Attaches the snapshot, and checks that only the columns referenced by queries or projected are read from it.
+     */
+    private static void checkAttached(ColumnStoreMM parsed, HashMap<String, Integer> dataTypes, File source) {
+        ColumnStoreMM attached = new ColumnStoreMM(dataTypes);
+        Checks.check(attached.attachSnapshot(SNAPSHOT, source), "snapshot was not attached");
+        Checks.checkEquals(ROWS, attached.getRowCount(), "rows of the attached snapshot");
+        Checks.checkEquals(Set.of(), attached.getLoadedColumns(), "columns read when attached");
+
+        Checks.checkEquals(parsed.getValue("Temperature", 5), attached.getValue("Temperature", 5), "value read lazily");
+        attached.project(List.of("Station", "Timestamp.month"));
+        Checks.checkEquals(Set.of("Station", "Temperature", "Timestamp.month"), attached.getLoadedColumns(), "columns read lazily");
+        long reads = attached.getSnapshotColumnReads();
+        attached.getValue("Temperature", 6);
+        Checks.checkEquals(reads, attached.getSnapshotColumnReads(), "reads of a column already read");
+
+        attached.unloadColumns();
+        Checks.checkEquals(Set.of(), attached.getLoadedColumns(), "columns after unloading");
+        checkSameRows(parsed, attached, "attached snapshot");
+        Checks.check(attached.getSnapshotColumnReads() > reads, "unloaded columns were not read again");
+    }
+
+    /**
+     * Starts twice from the CSV file and a snapshot, the first time without the snapshot, then adds rows to the attached snapshot.
+     */
+    private static void checkWarmStart(ColumnStoreMM parsed, HashMap<String, Integer> dataTypes) throws Exception {
+        File snapshot = new File("warm", "snapshot.bin");
+        Checks.deleteDirectory(snapshot.getParentFile());
+        ColumnStoreMM cold = new ColumnStoreMM(dataTypes);
+        cold.addCSVData(Checks.WEATHER_CSV, snapshot);
+        Checks.check(snapshot.isFile(), "snapshot was not saved by a cold start");
+        checkSameRows(parsed, cold, "cold start");
+
+        ColumnStoreMM warm = new ColumnStoreMM(dataTypes);
+        warm.addCSVData(Checks.WEATHER_CSV, snapshot);
+        Checks.checkEquals(Set.of(), warm.getLoadedColumns(), "columns read by a warm start");
+        checkSameRows(parsed, warm, "warm start");
+
+        warm.addCSVData(Checks.WEATHER_CSV); //reads the rest of the snapshot before appending
+        Checks.checkEquals(2 * ROWS, warm.getRowCount(), "rows added to a warm start");
+        for (int row: new int[] {0, 1, 96, 97, ROWS - 1}) {
+            for (String column: List.of("Timestamp", "Station", "Temperature", "Humidity", "Timestamp.year")) {
+                Checks.checkEquals(parsed.getValue(column, row), warm.getValue(column, row), "warm start " + column + " of row " + row);
+                Checks.checkEquals(parsed.getValue(column, row), warm.getValue(column, ROWS + row), "added " + column + " of row " + row);
+            }
+        }
+        Checks.deleteDirectory(snapshot.getParentFile());
+    }
+
+    /**
+     * Compares the values of every column of every row.
+     */
+    private static void checkSameRows(ColumnStoreAbstract expected, ColumnStoreAbstract actual, String store) {
+        Checks.checkEquals(expected.getRowCount(), actual.getRowCount(), store + " rows");
+        List<String> columns = new ArrayList<>(new TreeSet<>(Checks.weatherTypes().keySet()));
+        List<Integer> all = new ArrayList<>();
+        for (int row = 0; row < expected.getRowCount(); row++) {
+            all.add(row);
+        }
+        ColumnBatch expectedBatch = expected.gather(columns, all);
+        ColumnBatch actualBatch = actual.gather(columns, all);
+        Checks.checkEquals(expectedBatch.size(), actualBatch.size(), store + " rows gathered");
+        for (String column: columns) {
+            for (int i = 0; i < expectedBatch.size(); i++) {
+                Checks.checkEquals(expectedBatch.getValue(column, i), actualBatch.getValue(column, i), store + " " + column + " of row " + i);
+            }
+        }
+    }
+}